@@ -50,6 +50,31 @@ public class ExpressionBasedSpatialInputKernel extends SignalTransformationKerne
 	boolean evaluateExpressionAsReceptiveField = true;
 	float[][] convolutionValues = null;
 	
+	/**
+	 * Kernel values compiled into the flat tables used for each incoming signal: x-major with a row
+	 * length of height, once as they are and once negated for signals of value -1. A new instance is
+	 * built whenever the values change, so that signalAt always sees tables and size that match.
+	 */
+	static class CompiledKernel {
+		final int width, height;
+		final float[] weights, negatedWeights;
+		
+		CompiledKernel(float[][] values) {
+			width = values.length;
+			height = (width > 0)?values[0].length:0;
+			weights = new float[width*height];
+			negatedWeights = new float[width*height];
+			for (int x = 0, i = 0; x < width; x++) {
+				for (int y = 0; y < height; y++, i++) {
+					weights[i] = values[x][y];
+					negatedWeights[i] = -values[x][y];
+				}
+			}
+		}
+	}
+	
+	volatile CompiledKernel compiledKernel = null;
+	
 	
 	/**
 	 * @return The values of the currently applied convolution kernel.
@@ -160,6 +185,7 @@ public class ExpressionBasedSpatialInputKernel extends SignalTransformationKerne
 	}
 	
 	protected void convolutionValuesChanged() {
+		compiledKernel = new CompiledKernel(convolutionValues);
 		updateConvolutionViewer();
 	}
 	
@@ -260,27 +286,26 @@ public class ExpressionBasedSpatialInputKernel extends SignalTransformationKerne
 
 	@Override
 	public void signalAt(int tx, int ty, int time, double value) {
-		if (isEnabled()) {
+		final CompiledKernel kernel = compiledKernel;
+		if (isEnabled() && kernel != null && value != 0.0) {
 			tx = tx - centerX + offsetX;
 			ty = ty - centerY + offsetY;
-			int minx = Math.max(0, -tx), maxx = Math.min(width, getOutputWidth()-tx);
-			int miny = Math.max(0, -ty), maxy = Math.min(height, getOutputHeight()-ty);
+			int minx = Math.max(0, -tx), maxx = Math.min(kernel.width, getOutputWidth()-tx);
+			int miny = Math.max(0, -ty), maxy = Math.min(kernel.height, getOutputHeight()-ty);
 			tx += minx; ty += miny;
 			final FiringModelMap map = getOutputMap();
-			if (value == 1.0) {
-				for (int x = minx; x < maxx; x++, tx++) 
-					for (int y = miny, ity = ty; y < maxy; y++, ity++) 
-						map.get(tx,ity).receiveSpike(convolutionValues[x][y], time);
-			}
-			else if (value == -1.0) {
+			final int stride = kernel.height;
+			if (value == 1.0 || value == -1.0) {
+				final float[] weights = (value == 1.0)?kernel.weights:kernel.negatedWeights;
 				for (int x = minx; x < maxx; x++, tx++) 
-					for (int y = miny, ity = ty; y < maxy; y++, ity++) 
-						map.get(tx,ity).receiveSpike(-convolutionValues[x][y], time);
+					for (int y = miny, ity = ty, i = (x*stride)+miny; y < maxy; y++, ity++, i++) 
+						map.get(tx,ity).receiveSpike(weights[i], time);
 			}
-			else if (value != 0.0) {
+			else {
+				final float[] weights = kernel.weights;
 				for (int x = minx; x < maxx; x++, tx++) 
-					for (int y = miny, ity = ty; y < maxy; y++, ity++) 
-						map.get(tx,ity).receiveSpike(value * convolutionValues[x][y], time);
+					for (int y = miny, ity = ty, i = (x*stride)+miny; y < maxy; y++, ity++, i++) 
+						map.get(tx,ity).receiveSpike(value * weights[i], time);
 			}
 		}
 	}
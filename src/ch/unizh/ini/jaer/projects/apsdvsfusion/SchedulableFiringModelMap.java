@@ -12,7 +12,7 @@ import java.util.prefs.Preferences;
 public abstract class SchedulableFiringModelMap extends FiringModelMap {
 
 	
-	DynamicHeap<PostponedFireEvent> heap = new DynamicHeap<PostponedFireEvent>();
+	final ScheduleHeap heap = new ScheduleHeap();
 	
 	/**
 	 * 
@@ -26,7 +26,7 @@ public abstract class SchedulableFiringModelMap extends FiringModelMap {
 	
 	public void clearHeap() {
 		if (heap != null) {
-			synchronized (heap) {
+			synchronized (SpatioTemporalFusion.getFilteringLock(this)) {
 				heap.clear();
 			}
 			
@@ -35,10 +35,9 @@ public abstract class SchedulableFiringModelMap extends FiringModelMap {
 	
 	public void processScheduledEvents(int uptoTime) {
 		if (enabled) {
-			while (!heap.isEmpty() && heap.peek().getContent().getFireTime() <= uptoTime) {
-				PostponedFireEvent event = heap.poll().getContent();
-				// TODO: 
-				event.getFiringModel().executeScheduledEvent(event.getFireTime());
+			while (!heap.isEmpty() && heap.peekTime() <= uptoTime) {
+				int fireTime = heap.peekTime();
+				heap.poll().executeScheduledEvent(fireTime);
 			}
 		} 
 	}
@@ -49,8 +48,11 @@ public abstract class SchedulableFiringModelMap extends FiringModelMap {
 		clearHeap();
 	}
 
-	public DynamicHeap<PostponedFireEvent>.Entry createEntry(PostponedFireEvent event) {
-		return heap.createEntry(event);
+	/**
+	 * @return The heap in which the units of this map schedule their events.
+	 */
+	public ScheduleHeap getHeap() {
+		return heap;
 	}
 	/* (non-Javadoc)
 	 * @see ch.unizh.ini.jaer.projects.apsdvsfusion.FiringModelMap#get(int, int)
@@ -428,12 +428,13 @@ public class SchedulableWrapperMap extends SchedulableFiringModelMap /*
 
 	@Override
 	public void reset() {
-		super.reset();
-		clearHeap();
-		if (map != null) {
-			map.reset();
+		synchronized (SpatioTemporalFusion.getFilteringLock(this)) {
+			super.reset();
+			clearHeap();
+			if (map != null) {
+				map.reset();
+			}
 		}
-
 	}
 
 	@Override
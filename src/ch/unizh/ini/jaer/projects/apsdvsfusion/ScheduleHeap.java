@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package ch.unizh.ini.jaer.projects.apsdvsfusion;
+
+import java.util.Arrays;
+
+/**
+ * Indexed min-heap of the scheduled fire times of {@link SchedulableFiringModel}s. Replaces the
+ * {@link DynamicHeap} of {@link PostponedFireEvent} entries: the heap is a pair of parallel arrays
+ * holding the models and their primitive fire times, and each model stores its own position in
+ * the heap. Scheduling, rescheduling and unscheduling a model are therefore O(log n) without any
+ * entry objects, comparators or searches.
+ * <p>
+ * The heap is not synchronized. Every access must hold the filtering lock of
+ * {@link SpatioTemporalFusion}: filterPacket schedules and fires units under it, and resets and
+ * {@link SchedulableFiringModelMap#clearHeap()} from other threads take it as well.
+ *
+ */
+public class ScheduleHeap {
+	private SchedulableFiringModel[] models = new SchedulableFiringModel[64];
+	private int[] times = new int[64];
+	private int size = 0;
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Schedules a model to fire at the given time. If the model is already scheduled, its fire time is changed.
+	 * @param model The model.
+	 * @param time The time in us.
+	 */
+	public void schedule(SchedulableFiringModel model, int time) {
+		int position = model.heapPosition;
+		if (position < 0) {
+			if (size == models.length) {
+				models = Arrays.copyOf(models, size * 2);
+				times = Arrays.copyOf(times, size * 2);
+			}
+			moveUp(model, time, size++);
+		}
+		else if (time - times[position] < 0) {
+			moveUp(model, time, position);
+		}
+		else {
+			moveDown(model, time, position);
+		}
+	}
+
+	/**
+	 * Removes a model from the heap, if it is scheduled.
+	 * @param model The model.
+	 */
+	public void remove(SchedulableFiringModel model) {
+		int position = model.heapPosition;
+		if (position >= 0) {
+			removeAt(position);
+		}
+	}
+
+	/**
+	 * @return The earliest scheduled fire time. The heap must not be empty.
+	 */
+	public int peekTime() {
+		return times[0];
+	}
+
+	/**
+	 * @return The model with the earliest fire time, or null if the heap is empty.
+	 */
+	public SchedulableFiringModel peek() {
+		return (size > 0) ? models[0] : null;
+	}
+
+	/**
+	 * Removes the model with the earliest fire time.
+	 * @return The model, or null if the heap is empty.
+	 */
+	public SchedulableFiringModel poll() {
+		return (size > 0) ? removeAt(0) : null;
+	}
+
+	/**
+	 * @param model The model.
+	 * @return The time at which the model is scheduled to fire. Only valid if the model is scheduled.
+	 */
+	public int getTime(SchedulableFiringModel model) {
+		return times[model.heapPosition];
+	}
+
+	/**
+	 * Unschedules all models.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			models[i].heapPosition = -1;
+			models[i] = null;
+		}
+		size = 0;
+	}
+
+	private SchedulableFiringModel removeAt(int position) {
+		SchedulableFiringModel ret = models[position];
+		ret.heapPosition = -1;
+		size--;
+		SchedulableFiringModel last = models[size];
+		int lastTime = times[size];
+		models[size] = null;
+		if (position < size) {
+			if (lastTime - times[position] < 0) {
+				moveUp(last, lastTime, position);
+			}
+			else {
+				moveDown(last, lastTime, position);
+			}
+		}
+		return ret;
+	}
+
+	/** Places model at position, or above it if its time is earlier than that of its parents. */
+	private void moveUp(SchedulableFiringModel model, int time, int position) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (time - times[parent] >= 0) {
+				break;
+			}
+			models[position] = models[parent];
+			times[position] = times[parent];
+			models[position].heapPosition = position;
+			position = parent;
+		}
+		models[position] = model;
+		times[position] = time;
+		model.heapPosition = position;
+	}
+
+	/** Places model at position, or below it if its time is later than that of its children. */
+	private void moveDown(SchedulableFiringModel model, int time, int position) {
+		int half = size >>> 1;
+		while (position < half) {
+			int child = (2 * position) + 1;
+			int right = child + 1;
+			if ((right < size) && (times[right] - times[child] < 0)) {
+				child = right;
+			}
+			if (times[child] - time >= 0) {
+				break;
+			}
+			models[position] = models[child];
+			times[position] = times[child];
+			models[position].heapPosition = position;
+			position = child;
+		}
+		models[position] = model;
+		times[position] = time;
+		model.heapPosition = position;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(times[i]).append("@").append(i);
+		}
+		return sb.append("]").toString();
+	}
+}
@@ -24,6 +24,7 @@ public class SpaceableExpressionBasedSpatialIK extends
 	int scaledCenterY = 0;
 
 	float[][] scaledConvolutionValues = null;
+	volatile CompiledKernel scaledKernel = null;
 
 	//	int inputWidth = 1, inputHeight = 1, outputHeight = 1, outputWidth = 1;
 
@@ -79,6 +80,7 @@ public class SpaceableExpressionBasedSpatialIK extends
 //		float[][][][] newSCV = new float[][][xSize][ySize];
 
 		this.scaledConvolutionValues = newScaledConvolutionValues;
+		this.scaledKernel = new CompiledKernel(newScaledConvolutionValues);
 
 	}
 
@@ -374,9 +376,9 @@ public class SpaceableExpressionBasedSpatialIK extends
 			if ((tx >= 0) && (ty >= 0) && (tx < assumedInputWidth) && (ty < assumedInputHeight)) {
 				ProjectionBounds bounds = precomputedProjectionBounds[tx][ty];
 				// copy link to make sure the convolutionValues don't change in the meantime...
-				float[][] convolutionValues = scaledConvolutionValues;
-				int kernelWidth = (convolutionValues != null)?convolutionValues.length:0;
-				int kernelHeight = (kernelWidth > 0)?convolutionValues[0].length:0;
+				final CompiledKernel kernel = scaledKernel;
+				int kernelWidth = (kernel != null)?kernel.width:0;
+				int kernelHeight = (kernel != null)?kernel.height:0;
 				int outputWidth = getOutputWidth();
 				int outputHeight = getOutputHeight();
 				if ((outputWidth == assumedOutputWidth) && (outputHeight == assumedOutputHeight) && (kernelWidth == assumedKernelWidth) && (kernelHeight == assumedKernelHeight)) {
@@ -392,25 +394,21 @@ public class SpaceableExpressionBasedSpatialIK extends
 
 
 				// now: increase x and y until o* or k* hit the boundaries
-				if (!bounds.nothingToDo) {
+				if (!bounds.nothingToDo && (value != 0.0)) {
 					final FiringModelMap map = getOutputMap();
 //					synchronized (map) {
-						if (value == 1.0) {
+						if ((value == 1.0) || (value == -1.0)) {
+							final float[] weights = (value == 1.0)?kernel.weights:kernel.negatedWeights;
 							for (; (ox < outputWidth) && (kx < kernelWidth); ox++, kx+= spacingX) {
 								for (int ky = bounds.ky, oy = bounds.oy; (oy < outputHeight) && (ky < kernelHeight); oy++, ky+= spacingY) {
-									map.signalAt(ox, oy, convolutionValues[kx][ky], time);
+									map.signalAt(ox, oy, weights[(kx*kernelHeight)+ky], time);
 								}
 							}
-						} else if (value == -1.0) {
+						} else {
+							final float[] weights = kernel.weights;
 							for (; (ox < outputWidth) && (kx < kernelWidth); ox++, kx+= spacingX) {
 								for (int ky = bounds.ky, oy = bounds.oy; (oy < outputHeight) && (ky < kernelHeight); oy++, ky+= spacingY) {
-									map.signalAt(ox, oy, -convolutionValues[kx][ky], time);
-								}
-							}
-						} else if (value != 0.0) {
-							for (; (ox < outputWidth) && (kx < kernelWidth); ox++, kx+= spacingX) {
-								for (int ky = bounds.ky, oy = bounds.oy; (oy < outputHeight) && (ky < kernelHeight); oy++, ky+= spacingY) {
-									map.signalAt(ox, oy, value * convolutionValues[kx][ky], time);
+									map.signalAt(ox, oy, value * weights[(kx*kernelHeight)+ky], time);
 								}
 							}
 						}
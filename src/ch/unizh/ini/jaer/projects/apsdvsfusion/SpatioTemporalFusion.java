@@ -1366,8 +1366,11 @@ public class SpatioTemporalFusion extends EventFilter2D { //implements ActionLis
 //			}
 //		}
 		synchronized (firingModelMaps) {
-			for (FiringModelMap map : firingModelMaps) {
-				map.reset();
+			// the resets unschedule units from the heaps of the maps, which filterPacket uses under the filtering lock
+			synchronized (filteringLock) {
+				for (FiringModelMap map : firingModelMaps) {
+					map.reset();
+				}
 			}
 		}
 		spikeSoundSignalHandler.reset();
@@ -152,10 +152,7 @@ public class BinaryFeatureDetector extends EventFilter2D implements FrameAnnotat
 		try{
 			gl.glBegin(GL.GL_POINTS);
 			{
-				for(int i = 0; i < binaryMethod.keypointlist.size(); i++){
-					gl.glVertex2i(binaryMethod.keypointlist.get(i).x, binaryMethod.keypointlist.get(i).y);
-
-				}
+				binaryMethod.drawKeypoints(gl);
 			}
 		} finally{
 			gl.glEnd();
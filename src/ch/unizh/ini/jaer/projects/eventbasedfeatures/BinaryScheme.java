@@ -7,7 +7,10 @@ package ch.unizh.ini.jaer.projects.eventbasedfeatures;
 import java.awt.Point;
 import java.util.ArrayList;
 
+import com.jogamp.opengl.GL2;
+
 import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.eventprocessing.FilterChain;
 
 /** Super class containing all required methods for implementing binary feature detection schemes
@@ -70,6 +73,23 @@ public class BinaryScheme {
         
     }
     
+    /** Called by the PixelBuffer once for every packet, before its events update the maps. Schemes that work
+     * directly on the events rather than on the maps override this.
+     */
+    public void processPacket( EventPacket<?> in ){
+        
+    }
+    
+    /** Draws the keypoints as vertices. Called by the BinaryFeatureDetector between glBegin(GL_POINTS) and glEnd.
+     */
+    synchronized public void drawKeypoints( GL2 gl ){
+        
+        if( keypointlist == null ) return;
+        for( Point p : keypointlist ){
+            gl.glVertex2i(p.x, p.y);
+        }
+    }
+    
     
     synchronized public void resetFilter() { 
         bindetect.kernel.resetFilter();
@@ -0,0 +1,220 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ch.unizh.ini.jaer.projects.eventbasedfeatures;
+
+import java.util.Arrays;
+
+/** Event driven FAST corner detector working on surfaces of active events (SAE), i.e. the timestamp of the
+ * latest event at each pixel, kept separately for each polarity.
+ *
+ * Implementation:
+ * Each event writes its timestamp to the SAE of its polarity and then tests the pixels on two Bresenham circles
+ * around it (radius 3 with 16 pixels and radius 4 with 20 pixels). The event is a corner if on both circles the
+ * newest pixels form one contiguous arc, of 3 to 6 pixels on the inner and 4 to 8 pixels on the outer circle (or
+ * the complementary lengths, for obtuse corners). The circles are stored as precomputed offsets into the flat
+ * surface arrays, and the arc test grows a bit mask of the newest circle pixels and checks that it has exactly one
+ * run of set bits, so no objects are allocated per event.
+ *
+ * Optionally the corners are refined by the Harris score of the binary image of the pixels around the event that
+ * were active within a time window.
+ */
+public class EventCornerDetector {
+
+    /** Bresenham circle of radius 3, in order around the circle */
+    static final int[][] CIRCLE3 = {
+        {0, 3}, {1, 3}, {2, 2}, {3, 1}, {3, 0}, {3, -1}, {2, -2}, {1, -3},
+        {0, -3}, {-1, -3}, {-2, -2}, {-3, -1}, {-3, 0}, {-3, 1}, {-2, 2}, {-1, 3}
+    };
+
+    /** Bresenham circle of radius 4, in order around the circle */
+    static final int[][] CIRCLE4 = {
+        {0, 4}, {1, 4}, {2, 3}, {3, 2}, {4, 1}, {4, 0}, {4, -1}, {3, -2}, {2, -3}, {1, -4},
+        {0, -4}, {-1, -4}, {-2, -3}, {-3, -2}, {-4, -1}, {-4, 0}, {-4, 1}, {-3, 2}, {-2, 3}, {-1, 4}
+    };
+
+    /** Events closer than this to the border are never corners */
+    public static final int BORDER = 4;
+
+    static final int INNER_MIN_ARC = 3, INNER_MAX_ARC = 6;
+    static final int OUTER_MIN_ARC = 4, OUTER_MAX_ARC = 8;
+
+    /** Radius of the patch used for the Harris score; gradients are taken inside it */
+    static final int HARRIS_RADIUS = 4;
+    static final float HARRIS_K = 0.04f;
+
+    private int sizex, sizey;
+    private int[][] surfaces;    // per polarity, index x + y*sizex
+    private final int[] innerOffsets = new int[CIRCLE3.length];
+    private final int[] outerOffsets = new int[CIRCLE4.length];
+    private final int[] harrisOffsets = new int[(2*HARRIS_RADIUS+1)*(2*HARRIS_RADIUS+1)];
+
+    // scratch space
+    private final int[] times = new int[CIRCLE4.length];
+    private final int[] order = new int[CIRCLE4.length];
+    private final float[] patch = new float[harrisOffsets.length];
+
+    private boolean harrisEnabled = false;
+    private float harrisThreshold = 8f;
+    private int harrisWindowUs = 20000;
+
+    public EventCornerDetector(int sizex, int sizey){
+        setSize(sizex, sizey);
+    }
+
+    /** Allocates the surfaces for a new sensor size and clears them */
+    public final void setSize(int sizex, int sizey){
+
+        this.sizex = sizex;
+        this.sizey = sizey;
+        surfaces = new int[2][sizex*sizey];
+
+        for( int i = 0; i < CIRCLE3.length; i++ ){
+            innerOffsets[i] = CIRCLE3[i][0] + (CIRCLE3[i][1] * sizex);
+        }
+        for( int i = 0; i < CIRCLE4.length; i++ ){
+            outerOffsets[i] = CIRCLE4[i][0] + (CIRCLE4[i][1] * sizex);
+        }
+        for( int dy = -HARRIS_RADIUS, k = 0; dy <= HARRIS_RADIUS; dy++ ){
+            for( int dx = -HARRIS_RADIUS; dx <= HARRIS_RADIUS; dx++, k++ ){
+                harrisOffsets[k] = dx + (dy * sizex);
+            }
+        }
+    }
+
+    public boolean hasSize(int sizex, int sizey){
+        return (this.sizex == sizex) && (this.sizey == sizey);
+    }
+
+    /** Clears the surfaces */
+    public void reset(){
+        for( int[] s : surfaces ){
+            Arrays.fill(s, 0);
+        }
+    }
+
+    /** Adds an event to the surface of its polarity and tests whether it is a corner.
+     *
+     * @param x pixel x address
+     * @param y pixel y address
+     * @param timestamp event timestamp in us
+     * @param polarity 0 for OFF, 1 for ON events
+     * @return true if the event is a corner
+     */
+    public boolean isCorner( int x, int y, int timestamp, int polarity ){
+
+        if( (x < 0) || (y < 0) || (x >= sizex) || (y >= sizey) ){
+            return false;
+        }
+
+        final int[] surface = surfaces[polarity & 1];
+        final int center = x + (y * sizex);
+        surface[center] = timestamp;
+
+        if( (x < BORDER) || (y < BORDER) || (x >= sizex - BORDER) || (y >= sizey - BORDER) ){
+            return false;
+        }
+
+        if( !arcTest(surface, center, innerOffsets, INNER_MIN_ARC, INNER_MAX_ARC) ){
+            return false;
+        }
+        if( !arcTest(surface, center, outerOffsets, OUTER_MIN_ARC, OUTER_MAX_ARC) ){
+            return false;
+        }
+
+        return !harrisEnabled || (harrisScore(surface, center, timestamp) > harrisThreshold);
+    }
+
+    /** Tests whether the newest pixels on a circle form one contiguous arc of minArc to maxArc pixels, or of
+     * n-maxArc to n-minArc pixels, i.e. whether all pixels of such an arc are newer than all others.
+     */
+    private boolean arcTest( int[] surface, int center, int[] offsets, int minArc, int maxArc ){
+
+        final int n = offsets.length;
+
+        // sort the circle pixels by timestamp, newest first
+        for( int i = 0; i < n; i++ ){
+            int t = surface[center + offsets[i]];
+            int j = i;
+            while( (j > 0) && ((t - times[j-1]) > 0) ){
+                times[j] = times[j-1];
+                order[j] = order[j-1];
+                j--;
+            }
+            times[j] = t;
+            order[j] = i;
+        }
+
+        // grow the set of newest pixels and check if it is a single arc; a set only counts if all its
+        // pixels are strictly newer than the rest
+        final int full = (1 << n) - 1;
+        int mask = 0;
+        for( int k = 1; k <= n - minArc; k++ ){
+            mask |= 1 << order[k-1];
+            if( (((k >= minArc) && (k <= maxArc)) || (k >= n - maxArc)) && ((times[k-1] - times[k]) > 0) ){
+                if( isArc(mask, n, full) ){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @return true if the set bits of mask form one run on a circle of n bits */
+    static boolean isArc( int mask, int n, int full ){
+        // bit i of rotated is bit i-1 of mask, so mask & ~rotated marks the starts of runs
+        int rotated = ((mask << 1) | (mask >>> (n - 1))) & full;
+        return Integer.bitCount(mask & ~rotated) == 1;
+    }
+
+    /** Harris corner score of the binary image of the pixels around center that were active within
+     * harrisWindowUs before timestamp, with Sobel gradients normalized to unit range.
+     */
+    private float harrisScore( int[] surface, int center, int timestamp ){
+
+        final int limit = timestamp - harrisWindowUs;
+        for( int k = 0; k < harrisOffsets.length; k++ ){
+            patch[k] = ((surface[center + harrisOffsets[k]] - limit) >= 0) ? 1f : 0f;
+        }
+
+        final int w = (2 * HARRIS_RADIUS) + 1;
+        float sxx = 0, syy = 0, sxy = 0;
+        for( int py = 1; py < w - 1; py++ ){
+            for( int px = 1; px < w - 1; px++ ){
+                int k = px + (py * w);
+                float gx = ((patch[k-w+1] + (2 * patch[k+1]) + patch[k+w+1]) - (patch[k-w-1] + (2 * patch[k-1]) + patch[k+w-1])) * 0.25f;
+                float gy = ((patch[k+w-1] + (2 * patch[k+w]) + patch[k+w+1]) - (patch[k-w-1] + (2 * patch[k-w]) + patch[k-w+1])) * 0.25f;
+                sxx += gx * gx;
+                syy += gy * gy;
+                sxy += gx * gy;
+            }
+        }
+        float trace = sxx + syy;
+        return ((sxx * syy) - (sxy * sxy)) - (HARRIS_K * trace * trace);
+    }
+
+    public boolean isHarrisEnabled() {
+        return harrisEnabled;
+    }
+
+    public void setHarrisEnabled(boolean harrisEnabled) {
+        this.harrisEnabled = harrisEnabled;
+    }
+
+    public float getHarrisThreshold() {
+        return harrisThreshold;
+    }
+
+    public void setHarrisThreshold(float harrisThreshold) {
+        this.harrisThreshold = harrisThreshold;
+    }
+
+    public int getHarrisWindowUs() {
+        return harrisWindowUs;
+    }
+
+    public void setHarrisWindowUs(int harrisWindowUs) {
+        this.harrisWindowUs = harrisWindowUs;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ch.unizh.ini.jaer.projects.eventbasedfeatures;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAutoDrawable;
+import java.util.Arrays;
+
+import net.sf.jaer.Description;
+import net.sf.jaer.DevelopmentStatus;
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.event.PolarityEvent;
+import net.sf.jaer.eventprocessing.EventFilter2D;
+import net.sf.jaer.graphics.FrameAnnotater;
+
+/** Labels corner events with the event driven FAST test of {@link EventCornerDetector}, optionally refined by
+ * the Harris score. Unless passAllEvents is set, events that are not corners are filtered out, so that
+ * following filters (e.g. visual odometry) only see corners. The corners of the last packet are annotated.
+ */
+@Description("Event driven FAST corner detector on surfaces of active events; passes only corner events")
+@DevelopmentStatus(DevelopmentStatus.Status.Experimental)
+public class EventCornerFilter extends EventFilter2D implements FrameAnnotater {
+
+    private boolean passAllEvents = getBoolean("passAllEvents", false);
+    private boolean harrisEnabled = getBoolean("harrisEnabled", false);
+    private float harrisThreshold = getFloat("harrisThreshold", 8f);
+    private int harrisWindowUs = getInt("harrisWindowUs", 20000);
+    private boolean showCorners = getBoolean("showCorners", true);
+
+    private EventCornerDetector detector;
+
+    private int[] cornerXs = new int[256], cornerYs = new int[256];
+    private int numCorners = 0;
+
+    public EventCornerFilter(AEChip chip) {
+        super(chip);
+        setPropertyTooltip("passAllEvents", "Pass all events instead of only the corner events; corners are still annotated");
+        setPropertyTooltip("harrisEnabled", "Only accept FAST corners whose Harris score exceeds harrisThreshold");
+        setPropertyTooltip("harrisThreshold", "Minimum Harris score of the binary image of recently active pixels around a corner");
+        setPropertyTooltip("harrisWindowUs", "Pixels with an event of the same polarity in this time window in us form the binary image for the Harris score");
+        setPropertyTooltip("showCorners", "Draws the corners of the last packet");
+    }
+
+    @Override
+    synchronized public EventPacket<?> filterPacket(EventPacket<?> in) {
+        checkDetector();
+        numCorners = 0;
+
+        for (Object eIn : in) {
+            if (eIn == null) {
+                break;
+            }
+            BasicEvent e = (BasicEvent) eIn;
+            if (e.isSpecial() || e.isFilteredOut()) {
+                continue;
+            }
+            int polarity = ((e instanceof PolarityEvent) && (((PolarityEvent) e).getPolarity() == PolarityEvent.Polarity.Off)) ? 0 : 1;
+            if (detector.isCorner(e.x, e.y, e.timestamp, polarity)) {
+                addCorner(e.x, e.y);
+            } else if (!passAllEvents) {
+                e.setFilteredOut(true);
+            }
+        }
+        return in;
+    }
+
+    private void addCorner(int x, int y) {
+        if (numCorners == cornerXs.length) {
+            cornerXs = Arrays.copyOf(cornerXs, numCorners * 2);
+            cornerYs = Arrays.copyOf(cornerYs, numCorners * 2);
+        }
+        cornerXs[numCorners] = x;
+        cornerYs[numCorners] = y;
+        numCorners++;
+    }
+
+    private void checkDetector() {
+        if (detector == null) {
+            detector = new EventCornerDetector(chip.getSizeX(), chip.getSizeY());
+        } else if (!detector.hasSize(chip.getSizeX(), chip.getSizeY())) {
+            detector.setSize(chip.getSizeX(), chip.getSizeY());
+        }
+        detector.setHarrisEnabled(harrisEnabled);
+        detector.setHarrisThreshold(harrisThreshold);
+        detector.setHarrisWindowUs(harrisWindowUs);
+    }
+
+    @Override
+    synchronized public void resetFilter() {
+        if (detector != null) {
+            detector.reset();
+        }
+        numCorners = 0;
+    }
+
+    @Override
+    public void initFilter() {
+        resetFilter();
+    }
+
+    @Override
+    public void annotate(GLAutoDrawable drawable) {
+        if (!showCorners) {
+            return;
+        }
+        GL2 gl = drawable.getGL().getGL2();
+        gl.glColor3f(0, 1, 0);
+        gl.glPointSize(4f);
+        gl.glBegin(GL.GL_POINTS);
+        final int n = Math.min(numCorners, Math.min(cornerXs.length, cornerYs.length));
+        for (int i = 0; i < n; i++) {
+            gl.glVertex2i(cornerXs[i], cornerYs[i]);
+        }
+        gl.glEnd();
+    }
+
+    public boolean isPassAllEvents() {
+        return passAllEvents;
+    }
+
+    public void setPassAllEvents(boolean passAllEvents) {
+        this.passAllEvents = passAllEvents;
+        putBoolean("passAllEvents", passAllEvents);
+    }
+
+    public boolean isHarrisEnabled() {
+        return harrisEnabled;
+    }
+
+    public void setHarrisEnabled(boolean harrisEnabled) {
+        this.harrisEnabled = harrisEnabled;
+        putBoolean("harrisEnabled", harrisEnabled);
+    }
+
+    public float getHarrisThreshold() {
+        return harrisThreshold;
+    }
+
+    public void setHarrisThreshold(float harrisThreshold) {
+        this.harrisThreshold = harrisThreshold;
+        putFloat("harrisThreshold", harrisThreshold);
+    }
+
+    public int getHarrisWindowUs() {
+        return harrisWindowUs;
+    }
+
+    public void setHarrisWindowUs(int harrisWindowUs) {
+        this.harrisWindowUs = harrisWindowUs;
+        putInt("harrisWindowUs", harrisWindowUs);
+    }
+
+    public boolean isShowCorners() {
+        return showCorners;
+    }
+
+    public void setShowCorners(boolean showCorners) {
+        this.showCorners = showCorners;
+        putBoolean("showCorners", showCorners);
+    }
+}
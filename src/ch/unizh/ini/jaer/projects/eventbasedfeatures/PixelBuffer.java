@@ -196,6 +196,9 @@ public class PixelBuffer extends EventFilter2D {
             bindetect.binaryMethod.checkMaps();
         }
         
+        if(hasBinaryFeatureDetector && bindetect.binaryMethod!=null)
+            bindetect.binaryMethod.processPacket(in);
+        
         for ( Object ein:in ){    
             PolarityEvent e = (PolarityEvent)ein;
             int type = e.getType();
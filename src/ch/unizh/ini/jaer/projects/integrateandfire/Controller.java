@@ -173,7 +173,7 @@ public class Controller extends Plotter /*javax.swing.JFrame*/  {
         float thresh=Float.parseFloat(this.editThresh.getText());
 
         for (int i=minU; i<=maxU; i++) {
-			NN.N[i].thresh=thresh;
+			NN.setThreshold(i,thresh);
 		}
 
     }//GEN-LAST:event_butThreshActionPerformed
@@ -183,7 +183,7 @@ public class Controller extends Plotter /*javax.swing.JFrame*/  {
         float TC=Float.parseFloat(this.editTC.getText());
 
         for (int i=minU; i<=maxU; i++) {
-			NN.N[i].tau=TC;
+			NN.setTau(i,TC);
 		}
 
     }//GEN-LAST:event_butTCActionPerformed
@@ -255,8 +255,8 @@ public class Controller extends Plotter /*javax.swing.JFrame*/  {
     @Override
     public void init() {
 
-        setrange(0,NN.N.length-1);
-        this.labTotal.setText("("+NN.N.length+" units in total)");
+        setrange(0,NN.nUnits()-1);
+        this.labTotal.setText("("+NN.nUnits()+" units in total)");
 
         this.setVisible(true);
     }
@@ -267,8 +267,8 @@ public class Controller extends Plotter /*javax.swing.JFrame*/  {
         if (min < 0) {
 			min=0;
 		}
-        if (max >= NN.N.length) {
-			max=NN.N.length-1;
+        if (max >= NN.nUnits()) {
+			max=NN.nUnits()-1;
 		}
 
         minU=min;
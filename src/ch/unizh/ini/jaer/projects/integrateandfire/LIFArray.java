@@ -47,6 +47,10 @@ public class LIFArray extends NetworkArray implements LIFcontroller{
     {   lif[index].propagate(source, depth, timestamp, outItr); 
     }
     
+    public void feed(int index, int[] sources, int[] timestamps, int count)
+    {   lif[index].feed(sources, timestamps, count);
+    }
+    
     public void stimulate(int index, int dest, float weight, int timestamp, OutputEventIterator outItr)
     {   // Directly stimulate a neuron with a given weight
         lif[index].stimulate(dest,weight,timestamp, outItr);
@@ -29,7 +29,9 @@ public class LIFNet extends Network implements LIFcontroller {
     
     public int[][] c;          // Arrey of connection c[i][j] is the addresss of neuron i's j'th connection.
     public float[][] w;        // Array of weigths in network.  w[i][j] is the connection strength of connection c[i][j]
-    ENeuron[] N;                 // Array of neurons.  N[i] is the ith neuron.
+    LIFPopulation P;             // State of the neurons.  Unit i is the ith neuron of the population.
+    String[] names;              // Names of the neurons
+    char[] tags;                 // "tag" to label individual neurons
     public int maxdepth = 100;    // Maximum depth of propagation - prevents infinite loops in unstable recurrent nets.
     public byte id;
 
@@ -53,90 +55,121 @@ public class LIFNet extends Network implements LIFcontroller {
     
     // Propagate 
     public void propagate(int source, int depth, int timestamp, OutputEventIterator outItr) {
-        // Propagate an event through the network.
-        // TRICK: if depth=-1, "source" refers not the the source but the destination.
-
-        boolean fire;
-        if (depth > maxdepth) {
-            System.out.println("This spike has triggered too many (>" + maxdepth + ") propagations.  See maxdepth");
-            return;
-        }
-        int i;
-        if (c == null) {
+        // Propagate an event through the network.  Neurons of this network
+        // are not output neurons, so outItr receives no events.
+        if (P == null) {
             return; // Handle case when we didn't create output connections
         }
-        for (i = 0; i < w[source].length; i++) { // Iterate through connections
-            fire = N[c[source][i]].spike(w[source][i], timestamp, outItr);
-            if (fire) {
-                propagate(c[source][i], depth + 1, timestamp, outItr);
-            }
+        P.maxdepth = maxdepth;
+        P.propagate(source, depth, timestamp);
+    }
+
+    /** Propagate a batch of input events, e.g. all the events of a packet, 
+     * through the network without going through the neurons one by one.
+     */
+    public void feed(int[] sources, int[] timestamps, int count) {
+        if (P == null) {
+            return;
         }
+        P.maxdepth = maxdepth;
+        P.feed(sources, timestamps, count);
     }
 
     @Override
     public String networkStatus(){
-        return "Network with "+N.length+" Neurons";
+        return "Network with "+P.size()+" Neurons";
     }
     
     public void stimulate(int dest, float weight, int timestamp, OutputEventIterator outItr) {   // Directly stimulate a neuron with a given weight
 
-        boolean fire = N[dest].spike(weight, timestamp, outItr);
-        if (fire) {
-            propagate(dest, 1, timestamp, outItr);
-        }
+        P.maxdepth = maxdepth;
+        P.stimulate(dest, weight, timestamp);
     }
 
     @Override
     public void setThresholds(float thresh) {
-        for (Neuron n : N) {
-            n.thresh = thresh;
-        }
+        P.setThresholds(thresh);
     }
 
     @Override
     public void setTaus(float tc) {
-        for (Neuron n : N) {
-            n.tau = tc;
-        }
+        P.setTaus(tc);
     }
 
     @Override
     public void setSats(float tc) {
-        for (Neuron n : N) {
-            n.sat = tc;
-        }
+        P.setSats(tc);
     }
 
     @Override
     public void setDoubleThresh(boolean v) {
-        for (Neuron n : N) {
-            n.doublethresh = v;
-        }
+        P.setDoubleThresh(v);
     }
 
     @Override
     public void reset() {
-        for (Neuron n : N) {
-            n.reset();
-        }
+        P.reset();
     }
 
     // Propagate an event through the network
     public void propagate(int source, int depth, int timestamp) {
         propagate(source, depth, timestamp, null);
-        /*boolean fire;
-        if (depth>maxdepth){
-        System.out.println("This spike has triggered too many (>"+maxdepth+") propagations.  See maxdepth");
-        return;
+    }
+
+    // ===== Single Neuron Access =====
+    
+    public float getVmem(int index, int timestamp) {
+        return P.getVmem(index, timestamp);
+    }
+
+    public float getThreshold(int index) {
+        return P.getThreshold(index);
+    }
+
+    public void setThreshold(int index, float thresh) {
+        P.setThreshold(index, thresh);
+    }
+
+    public void setTau(int index, float tc) {
+        P.setTau(index, tc);
+    }
+
+    public char getTag(int index) {
+        return tags[index];
+    }
+
+    public void setTag(int index, char tag) {
+        tags[index] = tag;
+    }
+
+    /** View of one neuron of the population, for plotters and probes */
+    class PopulationUnit implements Unit {
+
+        final int index;
+
+        PopulationUnit(int index) {
+            this.index = index;
         }
-        int i;
-        for (i=0;i<w[source].length;i++){ // Iterate through connections
-        fire=N[c[source][i]].spike(w[source][i],timestamp);
-        if (fire){
-        propagate(c[source][i],depth+1,timestamp);
+
+        @Override
+        public float getVsig(int timestamp) {
+            return P.getVmem(index, timestamp);
         }
-        }*/
 
+        @Override
+        public float getAsig() {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
+        @Override
+        public String getName() {
+            return names[index];
+        }
+
+        @Override
+        public String getInfo() {
+            return "Thresh: " + P.getThreshold(index);
+        }
     }
 
     @Override
@@ -190,7 +223,9 @@ public class LIFNet extends Network implements LIFcontroller {
         // Initialize arrays
         w = new float[netLen][];
         c = new int[netLen][];
-        N = new ENeuron[netLen];
+        names = new String[netLen];
+        tags = new char[netLen];
+        Unit[] units = new Unit[netLen];
 
         System.out.println("Reading Network...");
 
@@ -225,8 +260,9 @@ public class LIFNet extends Network implements LIFcontroller {
             String lab;
 
 
-            N[i] = new ENeuron();      // Initialize Neuron
-            U=N;
+            names[i] = "";             // Initialize Neuron
+            tags[i] = 'x';
+            units[i] = new PopulationUnit(i);
             
             while (true) {
                 sc.nextLine();
@@ -250,7 +286,7 @@ public class LIFNet extends Network implements LIFcontroller {
                         c[i][j] = sc.nextInt();
                     }
                 } else if (lab.equals("N:")) {
-                    N[i].name = sc.next();
+                    names[i] = sc.next();
                 } else if (lab.equals("B:")) {   // Fill me with Code!
                 } else if (lab.equals("Unit")) {
                     break;
@@ -262,6 +298,9 @@ public class LIFNet extends Network implements LIFcontroller {
             }
 
         }
+        P = new LIFPopulation(netLen);
+        P.setConnections(c, w);
+        U = units;
         System.out.println("Done");
 
     }
@@ -67,6 +67,9 @@ public class LIFNetFilt extends SuperLIFFilter implements FrameAnnotater {
 
     File genFile; // File that we read in to generate networks
 
+    int[] sources=new int[1024];    // Input addresses of a packet
+    int[] timestamps=new int[1024]; // Input timestamps of a packet
+
     //==========================================================================
     // Filter Methods
 
@@ -111,11 +114,20 @@ public class LIFNetFilt extends SuperLIFFilter implements FrameAnnotater {
         }
         else
         {
+            // Collect the input addresses and feed them to the network in one batch
+            int n=0;
             for(Object e:out)
             { // iterate over the input packet**
                 BasicEvent E=(BasicEvent)e; // cast the object to basic event to get timestamp, x and y**
-                Net.propagate(0,((dim*E.x)+dim)-1-E.y,1,E.timestamp);
+                if (n==sources.length)
+                {   sources=Arrays.copyOf(sources,n*2);
+                    timestamps=Arrays.copyOf(timestamps,n*2);
+                }
+                sources[n]=((dim*E.x)+dim)-1-E.y;
+                timestamps[n]=E.timestamp;
+                n++;
             }
+            Net.feed(0,sources,timestamps,n);
 
         }
 
@@ -239,7 +251,7 @@ public class LIFNetFilt extends SuperLIFFilter implements FrameAnnotater {
         int i;
         for (LIFNet nn:(Net.lif)) {
 			for (i=1; i<11; i++) {
-				nn.N[nn.N.length-i].thresh=100000;
+				nn.setThreshold(nn.nUnits()-i,100000);
 			}
 		}
 
@@ -295,7 +307,7 @@ public class LIFNetFilt extends SuperLIFFilter implements FrameAnnotater {
     {   // Tags the neurons with output labels.
         for (LIFNet net:Net.lif) {
 			for (int i=0; i<10; i++) {
-				net.N[(net.N.length-10)+i].tag=(char)('0'+i);
+				net.setTag((net.nUnits()-10)+i,(char)('0'+i));
 			}
 		}
     }
@@ -315,11 +327,11 @@ public class LIFNetFilt extends SuperLIFFilter implements FrameAnnotater {
     public char getWinnerTag(LIFNet netnet)
     {   float vmax=-100000, vout;
         int i,imax=0;
-        for (i=netnet.N.length-10; i<netnet.N.length; i++)
-        {   vout=netnet.N[i].get_vmem(getLastTimestamp());
+        for (i=netnet.nUnits()-10; i<netnet.nUnits(); i++)
+        {   vout=netnet.getVmem(i,getLastTimestamp());
             if (vout>vmax) {vmax=vout; imax=i;}
         }
-        return netnet.N[imax].tag;
+        return netnet.getTag(imax);
     }
 
 
@@ -0,0 +1,258 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ch.unizh.ini.jaer.projects.integrateandfire;
+
+import java.util.Arrays;
+
+/**
+ * A population of leaky integrate-and-fire neurons, stored as parallel arrays
+ * (membrane potential, last update time, last spike time, threshold, time
+ * constants) instead of one {@link Neuron} object per unit.
+ *
+ * The dynamics are those of {@link Neuron}: the membrane potential decays
+ * exponentially with time constant tau, and the leak is applied lazily, only
+ * when a neuron receives input or is read.  Inputs are scaled by the recovery
+ * factor 1-exp(-dt/sat), where dt is the time since the neuron last fired.
+ *
+ * Connections are kept as sparse fan-out tables: the connections of unit i are
+ * entries fanStart[i] to fanStart[i+1]-1 of fanTarget and fanWeight.  Spikes
+ * are propagated depth first with an explicit stack rather than by recursion,
+ * and {@link #feed} runs all the inputs of a packet through the population in
+ * one call.
+ */
+public class LIFPopulation {
+
+    private final float[] vmem;     // Membrane potential at last update
+    private final int[] tlast;      // Timestamp (us) of last vmem update
+    private final int[] slast;      // Timestamp (us) of last spike: For refractory effects
+    private final float[] thresh;   // Threshold (arb units)
+    private final float[] tau;      // Time constant (seconds)
+    private final float[] sat;      // Time constant of firing saturation (seconds)
+    private final float[] leakRate; // -1/tau, per microsecond
+    private final float[] satRate;  // -1/sat, per microsecond
+
+    boolean doublethresh=false;     // Spike also on negative threshold?
+    public int maxdepth=100;        // Maximum depth of propagation - prevents infinite loops in unstable recurrent nets.
+
+    // Fan-out tables
+    private int[] fanStart;
+    private int[] fanTarget;
+    private float[] fanWeight;
+
+    // Propagation stack: unit whose fan-out is being processed, and its next connection
+    private int[] stackUnit=new int[16];
+    private int[] stackPos=new int[16];
+
+    public LIFPopulation(int n)
+    {   vmem=new float[n];
+        tlast=new int[n];
+        slast=new int[n];
+        thresh=new float[n];
+        tau=new float[n];
+        sat=new float[n];
+        leakRate=new float[n];
+        satRate=new float[n];
+
+        setThresholds(1);
+        setTaus(0.2f);
+        setSats(0.05f);
+        fanStart=new int[n+1];
+        fanTarget=new int[0];
+        fanWeight=new float[0];
+        reset();
+    }
+
+    public int size()
+    {   return vmem.length;
+    }
+
+    // ===== Network Activity =====
+
+    /** Input a weighted spike to unit i.  The leak since the last update is
+     * applied first.
+     * @return true if the unit fires, in which case its potential is reset */
+    public boolean input(int i, float w, int timestamp)
+    {
+        int dt=timestamp-tlast[i];
+        float v;
+        if (dt<0)  // Timestamps went backwards, e.g. on rewind: forget the old state
+            v=0;
+        else if (dt==0)
+            v=vmem[i];
+        else
+            v=(float)(vmem[i]*Math.exp(dt*leakRate[i]));
+        tlast[i]=timestamp;
+
+        if (sat[i]!=0)
+            v+=w*(float)(1-Math.exp((timestamp-slast[i])*satRate[i]));
+        else
+            v+=w;
+
+        if (v>thresh[i] || (doublethresh && v<-thresh[i]))
+        {   vmem[i]=0;
+            slast[i]=timestamp;
+            return true;
+        }
+        vmem[i]=v;
+        return false;
+    }
+
+    /** Directly stimulate unit dest with a given weight, and propagate the
+     * spike if it fires.
+     * @return the number of units that fired */
+    public int stimulate(int dest, float weight, int timestamp)
+    {   if (input(dest,weight,timestamp))
+            return 1+propagate(dest,1,timestamp);
+        return 0;
+    }
+
+    /** Propagate a spike of unit source through its fan-out, and on through all
+     * the units that fire in turn, in the same order as a depth first recursion.
+     * @param depth propagation depth of source; units deeper than maxdepth do not propagate
+     * @return the number of units that fired */
+    public int propagate(int source, int depth, int timestamp)
+    {
+        if (depth>maxdepth)
+        {   warnDepth();
+            return 0;
+        }
+
+        int fired=0;
+        int sp=1;
+        stackUnit[0]=source;
+        stackPos[0]=fanStart[source];
+        while (sp>0)
+        {   int u=stackUnit[sp-1];
+            int p=stackPos[sp-1];
+            if (p==fanStart[u+1])
+            {   sp--;
+                continue;
+            }
+            stackPos[sp-1]=p+1;
+
+            int target=fanTarget[p];
+            if (input(target,fanWeight[p],timestamp))
+            {   fired++;
+                if (depth+sp>maxdepth)
+                {   warnDepth();
+                    continue;
+                }
+                if (sp==stackUnit.length)
+                {   stackUnit=Arrays.copyOf(stackUnit,sp*2);
+                    stackPos=Arrays.copyOf(stackPos,sp*2);
+                }
+                stackUnit[sp]=target;
+                stackPos[sp]=fanStart[target];
+                sp++;
+            }
+        }
+        return fired;
+    }
+
+    /** Propagate a batch of input spikes, e.g. all the events of a packet.
+     * @param sources source unit of each input
+     * @param timestamps timestamp of each input
+     * @param count number of inputs
+     * @return the number of units that fired */
+    public int feed(int[] sources, int[] timestamps, int count)
+    {   int fired=0;
+        for (int k=0; k<count; k++)
+            fired+=propagate(sources[k],1,timestamps[k]);
+        return fired;
+    }
+
+    private void warnDepth()
+    {   System.out.println("This spike has triggered too many (>"+maxdepth+") propagations.  See maxdepth");
+    }
+
+    /** Reset all potentials and spike times */
+    public void reset()
+    {   Arrays.fill(vmem,0);
+        Arrays.fill(tlast,-10000);
+        Arrays.fill(slast,-10000);
+    }
+
+    // ===== Observation =====
+
+    /** Gets the membrane potential of unit i at a given time, without changing anything */
+    public float getVmem(int i, int timestamp)
+    {   int dt=timestamp-tlast[i];
+        if (dt<0) return 0;
+        return (float)(vmem[i]*Math.exp(dt*leakRate[i]));
+    }
+
+    public int[] getConnections(int i)
+    {   return Arrays.copyOfRange(fanTarget,fanStart[i],fanStart[i+1]);
+    }
+
+    public float[] getWeights(int i)
+    {   return Arrays.copyOfRange(fanWeight,fanStart[i],fanStart[i+1]);
+    }
+
+    // ===== Parameters =====
+
+    /** Build the fan-out tables.
+     * @param c c[i][j] is the address of unit i's j'th connection; rows may be null
+     * @param w w[i][j] is the weight of connection c[i][j] */
+    public void setConnections(int[][] c, float[][] w)
+    {   int n=size();
+        int[] start=new int[n+1];
+        for (int i=0; i<n; i++)
+            start[i+1]=start[i]+((c==null || c[i]==null || w[i]==null)?0:Math.min(c[i].length,w[i].length));
+
+        int[] target=new int[start[n]];
+        float[] weight=new float[start[n]];
+        for (int i=0; i<n; i++)
+        {   int len=start[i+1]-start[i];
+            if (len>0)
+            {   System.arraycopy(c[i],0,target,start[i],len);
+                System.arraycopy(w[i],0,weight,start[i],len);
+            }
+        }
+        fanStart=start;
+        fanTarget=target;
+        fanWeight=weight;
+    }
+
+    public float getThreshold(int i)
+    {   return thresh[i];
+    }
+
+    public void setThreshold(int i, float v)
+    {   thresh[i]=v;
+    }
+
+    public void setThresholds(float v)
+    {   Arrays.fill(thresh,v);
+    }
+
+    public float getTau(int i)
+    {   return tau[i];
+    }
+
+    public void setTau(int i, float tc)
+    {   tau[i]=tc;
+        leakRate[i]=-1e-6f/tc;
+    }
+
+    public void setTaus(float tc)
+    {   for (int i=0; i<tau.length; i++)
+            setTau(i,tc);
+    }
+
+    public void setSat(int i, float tc)
+    {   sat[i]=tc;
+        satRate[i]=-1e-6f/tc;
+    }
+
+    public void setSats(float tc)
+    {   for (int i=0; i<sat.length; i++)
+            setSat(i,tc);
+    }
+
+    public void setDoubleThresh(boolean v)
+    {   doublethresh=v;
+    }
+}
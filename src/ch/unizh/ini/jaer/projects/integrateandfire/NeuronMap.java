@@ -5,6 +5,7 @@
 package ch.unizh.ini.jaer.projects.integrateandfire;
 
 import net.sf.jaer.event.OutputEventIterator;
+import net.sf.jaer.event.TypedEvent;
 
 /**
  *
@@ -12,7 +13,8 @@ import net.sf.jaer.event.OutputEventIterator;
  */
 public class NeuronMap implements LIFcontroller {
     
-    ENeuron[][] N;
+    LIFPopulation P;     // Neurons of the map.  The neuron at x,y is unit y*dimx+x
+    boolean out=false;   // Are the neurons output neurons?
     private float[][]   Wi;  // Input weight kernel
     private float[][]   Wa;  // Auto-weight kernel
     byte type;
@@ -42,7 +44,7 @@ public class NeuronMap implements LIFcontroller {
             {   short x=(short) (cx+j-midx);
                 if (y<0 || y>=dimy || x<0 ||x>=dimx) continue;
                 
-                boolean fire=N[y][x].spike(Wi[i][j],timestamp,outItr);
+                boolean fire=spike(x,y,Wi[i][j],timestamp,outItr);
                 if (fire && Wa.length>0){ // Second clause is for optimization: avoiding unnecessary method call.
                     propagate(x,y,1,timestamp,outItr);
                 }
@@ -61,7 +63,7 @@ public class NeuronMap implements LIFcontroller {
             {   short x=(short) (cx+j-midx);
                 if (y<0 || y>=dimy || x<0 ||x>=dimx) continue;
                 
-                boolean fire=N[y][x].spike(Wi[i][j]*val,timestamp,outItr);
+                boolean fire=spike(x,y,Wi[i][j]*val,timestamp,outItr);
                 if (fire && Wa.length>0){ // Second clause is for optimization: avoiding unnecessary method call.
                     propagate(x,y,1,timestamp,outItr);
                 }
@@ -88,7 +90,7 @@ public class NeuronMap implements LIFcontroller {
                 short x=(short) (j-midx);
                 if (y<0 || y>=dimy || x<0 ||x>=dimx) continue;
                 
-                boolean fire=N[y][x].spike(Wa[i][j]*autoStrength,timestamp,outItr); // TODO: make this more efficient by pre-multiplying
+                boolean fire=spike(x,y,Wa[i][j]*autoStrength,timestamp,outItr); // TODO: make this more efficient by pre-multiplying
                 if (fire){
                     propagate(x,y,depth+1,timestamp,outItr);
                 }
@@ -105,12 +107,25 @@ public class NeuronMap implements LIFcontroller {
     public void stimulate(short cx, short cy, float weight, OutputEventIterator outItr, int timestamp) throws Exception
     {   // Directly stimulate a neuron with a given weight
         
-        boolean fire=N[cy][cx].spike(weight,timestamp,outItr);
+        boolean fire=spike(cx,cy,weight,timestamp,outItr);
         if (fire){
             propagate(cx,cy,1,timestamp,outItr);
         }
     }
     
+    // Input a weighted spike to the neuron at x,y.  Returns true if it fired.
+    private boolean spike(short x, short y, float w, int timestamp, OutputEventIterator<?> outItr)
+    {   boolean didit=P.input(y*dimx+x,w,timestamp);
+        if (out && didit){
+            TypedEvent e=(TypedEvent)outItr.nextOutput();             
+            e.x=x;
+            e.y=y;
+            e.type=type;
+            e.timestamp=timestamp;
+        }
+        return didit;
+    }
+    
     @Override
     public String networkStatus(){
         return "Neuron Map of size "+dimx+"x"+dimy;
@@ -199,45 +214,33 @@ public class NeuronMap implements LIFcontroller {
     // Global Network Settings Change Methods
     
     public void setAllOutputStates(boolean state)
-    {   for (ENeuron[] nr:N)
-            for (ENeuron n:nr)
-                n.out=state;    
+    {   out=state;    
     }
     
     @Override
     public void setDoubleThresh(boolean dubStep)
-    {   for (Neuron[] nr:N)
-            for (Neuron n:nr)
-                n.doublethresh=dubStep;  
+    {   P.setDoubleThresh(dubStep);  
     }
     
     @Override
     public void setThresholds(float thresh)
-    {   for (Neuron[] nr:N)
-            for (Neuron n:nr)
-                n.thresh=thresh;    
+    {   P.setThresholds(thresh);    
     }
     
     @Override
     public void setTaus(float tc)
-    {   for (Neuron[] nr:N)
-            for (Neuron n:nr)
-                n.tau=tc;      
+    {   P.setTaus(tc);      
     }
     
     
     @Override
     public void setSats(float tc)
-    {   for (Neuron[] nr:N)
-            for (Neuron n:nr)
-                n.sat=tc;      
+    {   P.setSats(tc);      
     }
     
     @Override
     public void reset()
-    {   for (Neuron[] nr:N)
-            for (Neuron n:nr)
-                n.reset();    
+    {   P.reset();    
     }
     
     public void build(short idimx,short idimy)
@@ -245,25 +248,7 @@ public class NeuronMap implements LIFcontroller {
         dimx=idimx;
         dimy=idimy;
         
-        N=new ENeuron[dimy][dimx];
-        
-        //short sWy=(short) Math.floor(W.length);
-        //short sWx=(short) Math.floor(W[0].length);
-        //W=new float[sWy][sWx];       
-        
-        //short wdim=(short) (Math.floor(W.length)*Math.floor(W[0].length));
-        
-        for (short i=0;i<dimy;i++)
-        {
-            for (short j=0; j<dimx; j++)
-            {   coord co=ind2xy(i);
-                N[i][j]=new ENeuron();
-                N[i][j].y=i;
-                N[i][j].x=j;
-                N[i][j].type=type;
-            }
-            
-        }
+        P=new LIFPopulation(dimx*dimy);
         
         // Default filter settings
         setInputFilter(builtFilt.buffer);
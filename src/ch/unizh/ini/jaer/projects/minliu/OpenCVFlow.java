@@ -287,8 +287,8 @@ public class OpenCVFlow extends AbstractMotionFlow
         }
         
         if (evt.getPropertyName().equals(PatchMatchFlow.EVENT_NEW_SLICES)) {
-            byte[][][] tMinus2dSlice = (byte[][][]) evt.getOldValue();
-            byte[][][] tMinusdSlice = (byte[][][]) evt.getNewValue();
+            TimeSlice tMinus2dSlice = (TimeSlice) evt.getOldValue();
+            TimeSlice tMinusdSlice = (TimeSlice) evt.getNewValue();
             Mat newFrame = new Mat(chip.getSizeY(), chip.getSizeX(), CvType.CV_8U);
             Mat oldFrame = new Mat(chip.getSizeY(), chip.getSizeX(), CvType.CV_8U);
             
@@ -308,8 +308,8 @@ public class OpenCVFlow extends AbstractMotionFlow
                     new1DArray = new byte[chip.getSizeY() * chip.getSizeX()];
             for (int i = 0; i < chip.getSizeY(); i++) {
                 for (int j = 0; j < chip.getSizeX(); j++) {
-                    old1DArray[chip.getSizeX()*i + j] = (byte)(tMinus2dSlice[0][j][i] * 20);  // Multiple the intensity so the feature can be extracted
-                    new1DArray[chip.getSizeX()*i + j] = (byte)(tMinusdSlice[0][j][i] * 20);         
+                    old1DArray[chip.getSizeX()*i + j] = (byte)(tMinus2dSlice.get(0, j, i) * 20);  // Multiple the intensity so the feature can be extracted
+                    new1DArray[chip.getSizeX()*i + j] = (byte)(tMinusdSlice.get(0, j, i) * 20);         
                 }
             }
 
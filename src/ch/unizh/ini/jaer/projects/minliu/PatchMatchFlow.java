@@ -15,6 +15,7 @@ import java.beans.PropertyChangeEvent;
 import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 
 import javax.swing.BoxLayout;
@@ -48,6 +49,7 @@ import net.sf.jaer.graphics.ImageDisplay;
 import net.sf.jaer.graphics.ImageDisplay.Legend;
 import net.sf.jaer.util.DrawGL;
 import net.sf.jaer.util.EngineeringFormat;
+import net.sf.jaer.util.ParallelLoop;
 import net.sf.jaer.util.TobiLogger;
 import net.sf.jaer.util.filter.LowpassFilter;
 
@@ -84,14 +86,14 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
 //    private int sx, sy;
     private int currentSliceIdx = 0; // the slice we are currently filling with events
     /**
-     * time slice 2d histograms of (maybe signed) event counts slices = new
-     * byte[numSlices][numScales][subSizeX][subSizeY] [slice][scale][x][y]
+     * time slice 2d histograms of (maybe signed) event counts at each scale,
+     * slices = new TimeSlice[numSlices]
      */
-    private byte[][][][] slices = null;
+    private TimeSlice[] slices = null;
     private float[] sliceSummedSADValues = null; // tracks the total summed SAD differences between reference and past slices, to adjust the slice duration
     private int[] sliceSummedSADCounts = null; // tracks the total summed SAD differences between reference and past slices, to adjust the slice duration
     private int[] sliceStartTimeUs; // holds the time interval between reference slice and this slice
-    private byte[][][] currentSlice;
+    private TimeSlice currentSlice;
     private SADResult lastGoodSadResult = new SADResult(0, 0, 0, 0); // used for consistency check
     private int blockDimension = getInt("blockDimension", 23);
 //    private float cost = getFloat("cost", 0.001f);
@@ -133,6 +135,14 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
     private int MIN_SLICE_DURATION_US = 100;
     private int MAX_SLICE_DURATION_US = 300000;
 
+    private boolean parallelMatching = getBoolean("parallelMatching", false);
+    private static final int MATCH_BATCH_SIZE = 512; // max events whose matches are computed together in parallelMatching mode
+    private final PolarityEvent[] pendingEvents = new PolarityEvent[MATCH_BATCH_SIZE];
+    private final SADResult[] pendingResults = new SADResult[MATCH_BATCH_SIZE];
+    private int numPending = 0;
+    private final MatchWorkspace matchWorkspace = new MatchWorkspace(); // used when matching on the filter thread
+    private final ConcurrentLinkedQueue<MatchWorkspace> matchWorkspaces = new ConcurrentLinkedQueue<MatchWorkspace>(); // pool for the parallel matching threads
+
     private boolean enableImuTimesliceLogging=false;
     private TobiLogger imuTimesliceLogger=null;
     
@@ -175,7 +185,8 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
 
     /**
      * A PropertyChangeEvent with this value is fired when the slices has been
-     * rotated. The oldValue is t-2d slice. The newValue is the t-d slice.
+     * rotated. The oldValue is t-2d slice. The newValue is the t-d slice. Both
+     * are {@link TimeSlice}s.
      */
     public static final String EVENT_NEW_SLICES = "eventNewSlices";
 
@@ -232,6 +243,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         setPropertyTooltip(patchTT, "scalesToCompute", "Scales to compute, e.g. 1,2; blank for all scales. 0 is full resolution, 1 is subsampled 2x2, etc");
         setPropertyTooltip(patchTT, "defaults", "Sets reasonable defaults");
         setPropertyTooltip(patchTT, "enableImuTimesliceLogging", "Logs IMU and rate gyro");
+        setPropertyTooltip(patchTT, "parallelMatching", "<html>Computes the block matches of batches of up to " + MATCH_BATCH_SIZE + " events in parallel on all cores. <p>The matches and output events are the same as without it, except that with the ConstantIntegratedFlow slice method the slice rotation sees the global motion of earlier events in the batch later. <p>Not used with measureAccuracy or outputSearchErrorInfo");
 
         setPropertyTooltip(dispTT, "showSliceBitMap", "enables displaying the slices' bitmap");
         setPropertyTooltip(dispTT, "ppsScale", "scale of pixels per second to draw local motion vectors; global vectors are scaled up by an additional factor of " + GLOBAL_MOTION_DRAWING_SCALE);
@@ -267,7 +279,6 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
 //        resultAngleHistogramCount = 0;
 //        resultAngleHistogramMax = Integer.MIN_VALUE;
         Arrays.fill(scaleResultCounts, 0);
-        int minDistScale = 0;
         // following awkward block needed to deal with DVS/DAVIS and IMU/APS events
         // block STARTS
         Iterator i = null;
@@ -281,6 +292,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
             Object o = i.next();
             if (o == null) {
                 log.warning("null event passed in, returning input packet");
+                numPending = 0;
                 return in;
             }
             if ((o instanceof ApsDvsEvent) && ((ApsDvsEvent) o).isApsData()) {
@@ -319,30 +331,16 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
                     if (!accumulateEvent(ein)) { // maybe skip events here
                         break;
                     }
-                    SADResult sliceResult;
-                    minDistScale = 0;
-                    for (int scale : scalesToComputeArray) {
-                        if (scale >= numScales) {
-                            log.warning("scale " + scale + " is out of range of " + numScales + "; fix scalesToCompute for example by clearing it");
-                            break;
-                        }
-                        sliceResult = minSADDistance(ein.x, ein.y, slices[sliceIndex(1)], slices[sliceIndex(2)], scale); // from ref slice to past slice k+1, using scale 0,1,....
-//                        sliceSummedSADValues[sliceIndex(scale + 2)] += sliceResult.sadValue; // accumulate SAD for this past slice
-//                        sliceSummedSADCounts[sliceIndex(scale + 2)]++; // accumulate SAD count for this past slice
-                        // sliceSummedSADValues should end up filling 2 values for 4 slices 
-                        if ((result == null) || (sliceResult.sadValue < result.sadValue)) {
-                            result = sliceResult; // result holds the overall min sad result
-                            minDistScale = scale;
+                    if (isMatchingBatched()) {
+                        // computed with other events of this slice in flushPendingMatches
+                        pendingEvents[numPending++] = ein;
+                        if (numPending == MATCH_BATCH_SIZE) {
+                            flushPendingMatches();
                         }
-
-                    }
-                    scaleResultCounts[minDistScale]++;
-                    float dt = (sliceDeltaTimeUs(2) * 1e-6f);
-                    if (result != null) {
-                        result.vx = result.dx / dt; // hack, convert to pix/second
-                        result.vy = result.dy / dt; // TODO clean up, make time for each slice, since could be different when const num events
+                        break;
                     }
-
+                    result = matchOverScales(ein.x, ein.y, matchWorkspace);
+                    scaleResultCounts[result == null ? 0 : result.scale]++;
                     break;
 //                case JaccardDistance:
 //                    maybeRotateSlices();
@@ -355,41 +353,12 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
 //                    result.dy = result.dy / dtj;
 //                    break;
             }
-            if (result == null || result.sadValue == Float.MAX_VALUE) {
-                continue; // maybe some property change caused this
-            }
-            // reject values that are unreasonable
-            if (isNotSufficientlyAccurate(result)) {
-                continue;
-            }
-            vx = result.vx;
-            vy = result.vy;
-            v = (float) Math.sqrt((vx * vx) + (vy * vy));
-            if (showSliceBitMap) {
-                // TODO danger, drawing outside AWT thread
-                drawMatching(ein.x >> result.scale, ein.y >> result.scale, (int) result.dx >> result.scale, (int) result.dy >> result.scale, slices[sliceIndex(1)][result.scale], slices[sliceIndex(2)][result.scale], result.scale);
-            }
-
-//            if (filterOutInconsistentEvent(result)) {
-//                continue;
-//            }
-            if (resultHistogram != null) {
-                resultHistogram[result.xidx][result.yidx]++;
-                resultHistogramCount++;
-            }
-//            if (result.dx != 0 || result.dy != 0) {
-//                final int bin = (int) Math.round(ANGLE_HISTOGRAM_COUNT * (Math.atan2(result.dy, result.dx) + Math.PI) / (2 * Math.PI));
-//                int v = ++resultAngleHistogram[bin];
-//                resultAngleHistogramCount++;
-//                if (v > resultAngleHistogramMax) {
-//                    resultAngleHistogramMax = v;
-//                }
-//            }
-            processGoodEvent();
-            lastGoodSadResult.set(result);
+            processMatchResult(ein, result);
 
         }
 
+        flushPendingMatches();
+
         if (rewindFlg) {
             rewindFlg = false;
             sliceLastTs = Integer.MAX_VALUE;
@@ -401,6 +370,132 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         return isDisplayRawInput() ? in : dirPacket;
     }
 
+    /**
+     * Finds the best match over all scales to compute for the event at x,y
+     * between the reference slice and the past slice.
+     *
+     * @param x the full resolution event address
+     * @param y
+     * @param ws the scratch space for the search
+     * @return the best match with the velocity in pixels per second, or null
+     * if no scale is computed
+     */
+    private SADResult matchOverScales(int x, int y, MatchWorkspace ws) {
+        SADResult result = null;
+        for (int scale : scalesToComputeArray) {
+            if (scale >= numScales) {
+                log.warning("scale " + scale + " is out of range of " + numScales + "; fix scalesToCompute for example by clearing it");
+                break;
+            }
+            SADResult sliceResult = minSADDistance(x, y, slices[sliceIndex(1)], slices[sliceIndex(2)], scale, ws); // from ref slice to past slice k+1, using scale 0,1,....
+//            sliceSummedSADValues[sliceIndex(scale + 2)] += sliceResult.sadValue; // accumulate SAD for this past slice
+//            sliceSummedSADCounts[sliceIndex(scale + 2)]++; // accumulate SAD count for this past slice
+            // sliceSummedSADValues should end up filling 2 values for 4 slices 
+            if ((result == null) || (sliceResult.sadValue < result.sadValue)) {
+                result = sliceResult; // result holds the overall min sad result
+            }
+        }
+        float dt = (sliceDeltaTimeUs(2) * 1e-6f);
+        if (result != null) {
+            result.vx = result.dx / dt; // hack, convert to pix/second
+            result.vy = result.dy / dt; // TODO clean up, make time for each slice, since could be different when const num events
+        }
+        return result;
+    }
+
+    /**
+     * Checks the match result of the current event and outputs the motion
+     * event if it is good. The event fields x, y, ts etc must be those of ein.
+     *
+     * @param ein the input event
+     * @param result its best match, or null if none was computed
+     */
+    private void processMatchResult(PolarityEvent ein, SADResult result) {
+        if (result == null || result.sadValue == Float.MAX_VALUE) {
+            return; // maybe some property change caused this
+        }
+        // reject values that are unreasonable
+        if (isNotSufficientlyAccurate(result)) {
+            return;
+        }
+        vx = result.vx;
+        vy = result.vy;
+        v = (float) Math.sqrt((vx * vx) + (vy * vy));
+        if (showSliceBitMap) {
+            // TODO danger, drawing outside AWT thread
+            drawMatching(ein.x >> result.scale, ein.y >> result.scale, (int) result.dx >> result.scale, (int) result.dy >> result.scale, slices[sliceIndex(1)], slices[sliceIndex(2)], result.scale);
+        }
+
+//        if (filterOutInconsistentEvent(result)) {
+//            continue;
+//        }
+        if (resultHistogram != null) {
+            resultHistogram[result.xidx][result.yidx]++;
+            resultHistogramCount++;
+        }
+//        if (result.dx != 0 || result.dy != 0) {
+//            final int bin = (int) Math.round(ANGLE_HISTOGRAM_COUNT * (Math.atan2(result.dy, result.dx) + Math.PI) / (2 * Math.PI));
+//            int v = ++resultAngleHistogram[bin];
+//            resultAngleHistogramCount++;
+//            if (v > resultAngleHistogramMax) {
+//                resultAngleHistogramMax = v;
+//            }
+//        }
+        processGoodEvent();
+        lastGoodSadResult.set(result);
+    }
+
+    /**
+     * @return true if matches are computed in parallel batches rather than
+     * event by event. Accuracy measurement needs the IMU flow of each event at
+     * the time it is processed and search error info accumulates shared
+     * statistics, so both are done event by event.
+     */
+    private boolean isMatchingBatched() {
+        return parallelMatching && !outputSearchErrorInfo && !measureAccuracy && !discardOutliersForStatisticalMeasurementEnabled;
+    }
+
+    /**
+     * Computes the matches of the pending events in parallel, then processes
+     * the results in event order on the calling thread. Must be called before
+     * the slices are rotated, since the pending events are matched between the
+     * current reference and past slices.
+     */
+    private void flushPendingMatches() {
+        final int n = numPending;
+        if (n == 0) {
+            return;
+        }
+        numPending = 0;
+        // the matching threads must not call synchronized methods of this filter, since the filter thread holds its lock while it waits for them
+        ParallelLoop.run(0, n, Math.max(16, n / (4 * ParallelLoop.getParallelism())), new ParallelLoop.Body() {
+            @Override
+            public void run(int from, int to) {
+                MatchWorkspace ws = matchWorkspaces.poll();
+                if (ws == null) {
+                    ws = new MatchWorkspace();
+                }
+                for (int k = from; k < to; k++) {
+                    pendingResults[k] = matchOverScales(pendingEvents[k].x, pendingEvents[k].y, ws);
+                }
+                matchWorkspaces.add(ws);
+            }
+        });
+        final PolarityEvent current = e;
+        for (int k = 0; k < n; k++) {
+            PolarityEvent ein = pendingEvents[k];
+            SADResult result = pendingResults[k];
+            pendingEvents[k] = null;
+            pendingResults[k] = null;
+            extractEventInfo(ein);
+            scaleResultCounts[result == null ? 0 : result.scale]++;
+            processMatchResult(ein, result);
+        }
+        if (current != null) {
+            extractEventInfo(current); // restore the fields of the event that is being processed
+        }
+    }
+
     public void doDefaults() {
         setSearchMethod(SearchMethod.DiamondSearch);
         setBlockDimension(21);
@@ -718,9 +813,10 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         if (slices == null) {
             return;  // on reset maybe chip is not set yet
         }
-        for (byte[][][] b : slices) {
-            clearSlice(b);
+        for (TimeSlice b : slices) {
+            b.clear();
         }
+        numPending = 0;
 
         currentSliceIdx = 0;  // start by filling slice 0
         currentSlice = slices[currentSliceIdx];
@@ -822,6 +918,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         * Then if NUM_SLICES=3, after rotateSlices(),
         currentSliceIdx=NUM_SLICES-1=2, and sliceIndex(0)=2, sliceIndex(1)=0, sliceIndex(2)=1.
          */
+        flushPendingMatches(); // pending events are matched between the slices before rotation
         sliceSummedSADValues[currentSliceIdx] = 0; // clear out current collecting slice which becomes the oldest slice after rotation
         sliceSummedSADCounts[currentSliceIdx] = 0; // clear out current collecting slice which becomes the oldest slice after rotation
         currentSliceIdx--;
@@ -830,7 +927,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         }
         currentSlice = slices[currentSliceIdx];
         //sliceStartTimeUs[currentSliceIdx] = ts; // current event timestamp; set on first event to slice
-        clearSlice(currentSlice);
+        currentSlice.clear();
         clearAreaCounts();
         eventCounter = 0;
         sliceDeltaT = ts - sliceLastTs;
@@ -878,22 +975,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         if (eventCounter++ == 0) {
             sliceStartTimeUs[currentSliceIdx] = e.timestamp; // current event timestamp
         }
-        for (int s = 0; s < numScales; s++) {
-            final int xx = e.x >> s;
-            final int yy = e.y >> s;
-//            if (xx >= currentSlice[s].length || yy > currentSlice[s][xx].length) {
-//                log.warning("event out of range");
-//                return false;
-//            }
-            int cv = currentSlice[s][xx][yy];
-            cv += rectifyPolarties ? 1 : (e.polarity == PolarityEvent.Polarity.On ? 1 : -1);
-            if (cv > sliceMaxValue) {
-                cv = sliceMaxValue;
-            } else if (cv < -sliceMaxValue) {
-                cv = -sliceMaxValue;
-            }
-            currentSlice[s][xx][yy] = (byte) cv;
-        }
+        currentSlice.accumulate(e.x, e.y, rectifyPolarties ? 1 : (e.polarity == PolarityEvent.Polarity.On ? 1 : -1), sliceMaxValue);
         if (sliceMethod == SliceMethod.AreaEventNumber) {
             if (areaCounts == null) {
                 clearAreaCounts();
@@ -936,8 +1018,6 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
 //            Arrays.fill(a, 0);
 //        }
 //    }
-    private float sumArray[][] = null;
-
     /**
      * Computes hamming eight around point x,y using blockDimension and
      * searchDistance
@@ -946,30 +1026,22 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
      * @param y
      * @param prevSlice the slice over which we search for best match
      * @param curSlice the slice from which we get the reference block
+     * @param ws the scratch space for the search
      * @return SADResult that provides the shift and SAD value
      */
 //    private SADResult minHammingDistance(int x, int y, BitSet prevSlice, BitSet curSlice) {
-    private SADResult minSADDistance(int x, int y, byte[][][] curSlice, byte[][][] prevSlice, int subSampleBy) {
+    private SADResult minSADDistance(int x, int y, TimeSlice curSlice, TimeSlice prevSlice, int subSampleBy, MatchWorkspace ws) {
         SADResult result = new SADResult();
         float minSum = Float.MAX_VALUE, sum;
 
         float FSDx = 0, FSDy = 0, DSDx = 0, DSDy = 0;  // This is for testing the DS search accuracy.
         final int searchRange = (2 * searchDistance) + 1; // The maximum search distance in this subSampleBy slice
-        if ((sumArray == null) || (sumArray.length != searchRange)) {
-            sumArray = new float[searchRange][searchRange];
-        } else {
-            for (float[] row : sumArray) {
-                Arrays.fill(row, Float.MAX_VALUE);
-            }
-        }
+        final float[][] sumArray = ws.getSumArray(searchRange);
 
-        if (outputSearchErrorInfo) {
-            searchMethod = SearchMethod.FullSearch;
-        } else {
-            searchMethod = getSearchMethod();
-        }
+        // not assigned to searchMethod, this may run on several threads
+        final SearchMethod method = outputSearchErrorInfo ? SearchMethod.FullSearch : searchMethod;
 
-        switch (searchMethod) {
+        switch (method) {
             case DiamondSearch:
                 // SD = small diamond, LD=large diamond SP=search process
                 /* The center of the LDSP or SDSP could change in the iteration process,
@@ -993,10 +1065,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
                 /* If one block has been already calculated, the computedFlg will be set so we don't to do
                        the calculation again.
                  */
-                boolean computedFlg[][] = new boolean[searchRange][searchRange];
-                for (boolean[] row : computedFlg) {
-                    Arrays.fill(row, false);
-                }
+                boolean computedFlg[][] = ws.getComputedFlags(searchRange);
 
                 if (searchDistance == 1) { // LDSP search can only be applied for search distance >= 2.
                     SDSPFlg = true;
@@ -1019,7 +1088,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
 
                         /* We just calculate the blocks that haven't been calculated before */
                         if (computedFlg[xidx][yidx] == false) {
-                            sumArray[xidx][yidx] = sadDistance(x, y, dx, dy, curSlice, prevSlice, subSampleBy);
+                            sumArray[xidx][yidx] = sadDistance(x, y, dx, dy, curSlice, prevSlice, subSampleBy, minSum, ws.stats);
                             computedFlg[xidx][yidx] = true;
                             if (outputSearchErrorInfo) {
                                 DSAverageNum++;
@@ -1064,7 +1133,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
 
                     /* We just calculate the blocks that haven't been calculated before */
                     if (computedFlg[xidx][yidx] == false) {
-                        sumArray[xidx][yidx] = sadDistance(x, y, dx, dy, curSlice, prevSlice, subSampleBy);
+                        sumArray[xidx][yidx] = sadDistance(x, y, dx, dy, curSlice, prevSlice, subSampleBy, minSum, ws.stats);
                         computedFlg[xidx][yidx] = true;
                         if (outputSearchErrorInfo) {
                             DSAverageNum++;
@@ -1097,7 +1166,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
             case FullSearch:
                 for (dx = -searchDistance; dx <= searchDistance; dx++) {
                     for (dy = -searchDistance; dy <= searchDistance; dy++) {
-                        sum = sadDistance(x, y, dx, dy, curSlice, prevSlice, subSampleBy);
+                        sum = sadDistance(x, y, dx, dy, curSlice, prevSlice, subSampleBy, minSum, ws.stats);
                         sumArray[dx + searchDistance][dy + searchDistance] = sum;
                         if (sum < minSum) {
                             minSum = sum;
@@ -1174,14 +1243,19 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
      * @param prevSlice
      * @param curSlice
      * @param subsampleBy the scale to search over
+     * @param bound the best distance found so far; the block sum is abandoned
+     * as soon as the distance is sure to be larger than this
+     * @param stats scratch for the block statistics
      * @return Distance value, max 1 when all pixels differ, min 0 when all the
-     * same
+     * same. Float.MAX_VALUE if the match is rejected or larger than bound.
      */
     private float sadDistance(final int xfull, final int yfull,
             final int dx, final int dy,
-            final byte[][][] curSlice,
-            final byte[][][] prevSlice,
-            final int subsampleBy) {
+            final TimeSlice curSlice,
+            final TimeSlice prevSlice,
+            final int subsampleBy,
+            final float bound,
+            final int[] stats) {
         final int x = xfull >> subsampleBy;
         final int y = yfull >> subsampleBy;
         final int r = ((blockDimension) / 2);
@@ -1196,68 +1270,25 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
             return Float.MAX_VALUE; // return very large distance for this match so it is not selected
         }
 
-        int validPixNumCurSlice = 0, validPixNumPrevSlice = 0; // The valid pixel number in the current block
-        int nonZeroMatchCount = 0;
-//        int saturatedPixNumCurSlice = 0, saturatedPixNumPrevSlice = 0; // The valid pixel number in the current block
-        int sumDist = 0;
-//        try {
-        for (int xx = x - r; xx <= (x + r); xx++) {
-            for (int yy = y - r; yy <= (y + r); yy++) {
-//                if (xx < 0 || yy < 0 || xx >= w || yy >= h
-//                        || xx + dx < 0 || yy + dy < 0 || xx + dx >= w || yy + dy >= h) {
-////                    log.warning("out of bounds slice access; something wrong"); // TODO fix this check above
-//                    continue;
-//                }
-                int currSliceVal = curSlice[subsampleBy][xx][yy]; // binary value on (xx, yy) for current slice
-                int prevSliceVal = prevSlice[subsampleBy][xx + dx][yy + dy]; // binary value on (xx, yy) for previous slice at offset dx,dy in (possibly subsampled) slice
-                int dist = (currSliceVal - prevSliceVal);
-                if (dist < 0) {
-                    dist = (-dist);
-                }
-                sumDist += dist;
-//                if (currSlicePol != prevSlicePol) {
-//                    hd += 1;
-//                }
-
-//                if (currSliceVal == sliceMaxValue || currSliceVal == -sliceMaxValue) {
-//                    saturatedPixNumCurSlice++; // pixels that are not saturated
-//                }
-//                if (prevSliceVal == sliceMaxValue || prevSliceVal == -sliceMaxValue) {
-//                    saturatedPixNumPrevSlice++;
-//                }
-                if (currSliceVal != 0) {
-                    validPixNumCurSlice++; // pixels that are not saturated
-                }
-                if (prevSliceVal != 0) {
-                    validPixNumPrevSlice++;
-                }
-                if (currSliceVal != 0 && prevSliceVal != 0) {
-                    nonZeroMatchCount++; // pixels that are not saturated
-                }
-            }
+        final int blockDim = (2 * r) + 1;
+        final int blockArea = (blockDim) * (blockDim); // TODO check math here for fraction correct with subsampling
+        final float sadNormalizer = 1f / (blockArea * (rectifyPolarties ? 2 : 1) * sliceMaxValue);
+        if (!curSlice.blockDistance(prevSlice, subsampleBy, x, y, dx, dy, r, maxBlockSum(bound, sadNormalizer, subsampleBy), stats)) {
+            return Float.MAX_VALUE; // cannot beat the best match so far
         }
-//        } catch (ArrayIndexOutOfBoundsException ex) {
-//            log.warning(ex.toString());
-//
-//        }
-        // debug
-//        if(dx==-1 && dy==-1) return 0; else return Float.MAX_VALUE;
+        int sumDist = stats[TimeSlice.SUM];
+        final int validPixNumCurSlice = stats[TimeSlice.NONZERO_THIS], validPixNumPrevSlice = stats[TimeSlice.NONZERO_OTHER]; // The valid pixel number in the current block
+        final int nonZeroMatchCount = stats[TimeSlice.NONZERO_BOTH];
 
         // normalize by dimesion of subsampling, with idea that subsampling increases SAD 
         //by sqrt(area) because of Gaussian distribution of SAD values 
         sumDist = sumDist >> (subsampleBy << 0);
-        final int blockDim = (2 * r) + 1;
 
-        final int blockArea = (blockDim) * (blockDim); // TODO check math here for fraction correct with subsampling
         // TODD: NEXT WORK IS TO DO THE RESEARCH ON WEIGHTED HAMMING DISTANCE
         // Calculate the metric confidence value
         final int minValidPixNum = (int) (this.validPixOccupancy * blockArea);
-        final int maxSaturatedPixNum = (int) ((1 - this.validPixOccupancy) * blockArea);
-        final float sadNormalizer = 1f / (blockArea * (rectifyPolarties ? 2 : 1) * sliceMaxValue);
         // if current or previous block has insufficient pixels with values or if all the pixels are filled up, then reject match
-        if ( //                (validPixNumCurSlice < minValidPixNum) || (validPixNumPrevSlice < minValidPixNum) ||
-                nonZeroMatchCount < minValidPixNum //                || (saturatedPixNumCurSlice >= maxSaturatedPixNum) || (saturatedPixNumPrevSlice >= maxSaturatedPixNum)
-                ) {  // If valid pixel number of any slice is 0, then we set the distance to very big value so we can exclude it.
+        if (nonZeroMatchCount < minValidPixNum) {  // If valid pixel number of any slice is 0, then we set the distance to very big value so we can exclude it.
             return Float.MAX_VALUE;
         } else {
             /*
@@ -1270,6 +1301,76 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         }
     }
 
+    /**
+     * Converts a bound on the distance computed by sadDistance to a bound on
+     * the raw block sum. The dispersion term of the distance is never
+     * negative, so a block whose raw sum exceeds the returned value has a
+     * larger distance than bound, with the same float rounding as in
+     * sadDistance.
+     *
+     * @param bound the distance bound
+     * @param sadNormalizer the normalization of the distance
+     * @param subsampleBy the scale, by which the raw sum is shifted
+     * @return the largest raw sum that can still give a distance of at most
+     * bound, or Integer.MAX_VALUE for no limit
+     */
+    private int maxBlockSum(float bound, float sadNormalizer, int subsampleBy) {
+        if ((bound == Float.MAX_VALUE) || !(weightDistance > 0)) {
+            return Integer.MAX_VALUE;
+        }
+        final int maxShifted = Integer.MAX_VALUE >> (subsampleBy + 1);
+        final float p = bound / (sadNormalizer * weightDistance);
+        if (!(p < maxShifted)) {
+            return Integer.MAX_VALUE;
+        }
+        int s = (int) p; // the largest shifted sum with sadNormalizer*(s*weightDistance) <= bound, up to rounding
+        while ((s >= 0) && ((sadNormalizer * (s * weightDistance)) > bound)) {
+            s--;
+        }
+        while ((s < maxShifted) && ((sadNormalizer * ((s + 1) * weightDistance)) <= bound)) {
+            s++;
+        }
+        return ((s + 1) << subsampleBy) - 1; // the raw sums that shift down to at most s
+    }
+
+    /**
+     * Scratch arrays for one block search, one per thread.
+     */
+    private static final class MatchWorkspace {
+
+        private float[][] sumArray = null;
+        private boolean[][] computedFlags = null;
+        final int[] stats = new int[4];
+
+        /**
+         * @return the array of distances for each search offset, filled with
+         * Float.MAX_VALUE
+         */
+        float[][] getSumArray(int searchRange) {
+            if ((sumArray == null) || (sumArray.length != searchRange)) {
+                sumArray = new float[searchRange][searchRange];
+            }
+            for (float[] row : sumArray) {
+                Arrays.fill(row, Float.MAX_VALUE);
+            }
+            return sumArray;
+        }
+
+        /**
+         * @return the flags for the search offsets already computed by
+         * diamond search, all false
+         */
+        boolean[][] getComputedFlags(int searchRange) {
+            if ((computedFlags == null) || (computedFlags.length != searchRange)) {
+                computedFlags = new boolean[searchRange][searchRange];
+            }
+            for (boolean[] row : computedFlags) {
+                Arrays.fill(row, false);
+            }
+            return computedFlags;
+        }
+    }
+
     /**
      * Computes hamming weight around point x,y using blockDimension and
      * searchDistance
@@ -1859,18 +1960,13 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         }
 //        numSlices = getInt("numSlices", 3); // since resetFilter is called in super before numSlices is even initialized
         if (slices == null || slices.length != numSlices
-                || slices[0] == null || slices[0].length != numScales) {
+                || slices[0] == null || !slices[0].hasSize(subSizeX, subSizeY, numScales)) {
             if (numScales > 0 && numSlices > 0) { // deal with filter reconstruction where these fields are not set
-                slices = new byte[numSlices][numScales][][];
+                slices = new TimeSlice[numSlices];
                 for (int n = 0; n < numSlices; n++) {
-                    for (int s = 0; s < numScales; s++) {
-                        int nx = (subSizeX >> s) + 1, ny = (subSizeY >> s) + 1;
-                        if (slices[n][s] == null || slices[n][s].length != nx
-                                || slices[n][s][0] == null || slices[n][s][0].length != ny) {
-                            slices[n][s] = new byte[nx][ny];
-                        }
-                    }
+                    slices[n] = new TimeSlice(subSizeX, subSizeY, numScales);
                 }
+                numPending = 0;
                 currentSliceIdx = 0;  // start by filling slice 0
                 currentSlice = slices[currentSliceIdx];
 
@@ -2074,24 +2170,11 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         super.propertyChange(evt); // resets filter on rewind, etc
     }
 
-    /**
-     * clears all scales for a particular time slice
-     *
-     * @param slice [scale][x][y]
-     */
-    private void clearSlice(byte[][][] slice) {
-        for (byte[][] scale : slice) { // for each scale
-            for (byte[] row : scale) { // for each col
-                Arrays.fill(row, (byte) 0); // fill col
-            }
-        }
-    }
-
     private int dim = blockDimension + (2 * searchDistance);
 
     protected static final String G_SEARCH_AREA_R_REF_BLOCK_AREA_B_BEST_MATCH = "G: search area\nR: ref block area\nB: best match";
 
-    synchronized private void drawMatching(int x, int y, int dx, int dy, byte[][] refBlock, byte[][] searchBlock, int subSampleBy) {
+    synchronized private void drawMatching(int x, int y, int dx, int dy, TimeSlice refSlice, TimeSlice searchSlice, int subSampleBy) {
         int dimNew = blockDimension + (2 * (searchDistance));
         if (sliceBitMapFrame == null) {
             String windowName = "Slice bitmaps";
@@ -2124,8 +2207,8 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
 
         float scale = 1f / getSliceMaxValue();
         try {
-            if ((x >= radius) && ((x + radius) < subSizeX)
-                    && (y >= radius) && ((y + radius) < subSizeY)) {
+            if ((x >= radius) && ((x + radius) < refSlice.getWidth(subSampleBy))
+                    && (y >= radius) && ((y + radius) < refSlice.getHeight(subSampleBy))) {
 
                 if (dimNew != sliceBitmapImageDisplay.getSizeX()) {
                     dim = dimNew;
@@ -2142,7 +2225,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
                 for (int i = searchDistance; i < (blockDimension + searchDistance); i++) {
                     for (int j = searchDistance; j < (blockDimension + searchDistance); j++) {
                         float[] f = sliceBitmapImageDisplay.getPixmapRGB(i, j);
-                        f[0] = scale * Math.abs(refBlock[((x - (blockDimension / 2)) + i) - searchDistance][((y - (blockDimension / 2)) + j) - searchDistance]);
+                        f[0] = scale * Math.abs(refSlice.get(subSampleBy, ((x - (blockDimension / 2)) + i) - searchDistance, ((y - (blockDimension / 2)) + j) - searchDistance));
                         sliceBitmapImageDisplay.setPixmapRGB(i, j, f);
                     }
                 }
@@ -2151,7 +2234,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
                 for (int i = 0; i < ((2 * radius) + 1); i++) {
                     for (int j = 0; j < ((2 * radius) + 1); j++) {
                         float[] f = sliceBitmapImageDisplay.getPixmapRGB(i, j);
-                        f[1] = scale * Math.abs(searchBlock[(x - radius) + i][(y - radius) + j]);
+                        f[1] = scale * Math.abs(searchSlice.get(subSampleBy, (x - radius) + i, (y - radius) + j));
                         sliceBitmapImageDisplay.setPixmapRGB(i, j, f);
                     }
                 }
@@ -2160,7 +2243,7 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
                 for (int i = searchDistance + dx; i < (blockDimension + searchDistance + dx); i++) {
                     for (int j = searchDistance + dy; j < (blockDimension + searchDistance + dy); j++) {
                         float[] f = sliceBitmapImageDisplay.getPixmapRGB(i, j);
-                        f[2] = scale * Math.abs(searchBlock[((x - (blockDimension / 2)) + i) - searchDistance][((y - (blockDimension / 2)) + j) - searchDistance]);
+                        f[2] = scale * Math.abs(searchSlice.get(subSampleBy, ((x - (blockDimension / 2)) + i) - searchDistance, ((y - (blockDimension / 2)) + j) - searchDistance));
                         sliceBitmapImageDisplay.setPixmapRGB(i, j, f);
                     }
                 }
@@ -2216,6 +2299,23 @@ public class PatchMatchFlow extends AbstractMotionFlow implements Observer, Fram
         getSupport().firePropertyChange("sliceMaxValue", old, this.sliceMaxValue);
     }
 
+    /**
+     * @return the parallelMatching
+     */
+    public boolean isParallelMatching() {
+        return parallelMatching;
+    }
+
+    /**
+     * @param parallelMatching the parallelMatching to set
+     */
+    synchronized public void setParallelMatching(boolean parallelMatching) {
+        boolean old = this.parallelMatching;
+        this.parallelMatching = parallelMatching;
+        putBoolean("parallelMatching", parallelMatching);
+        getSupport().firePropertyChange("parallelMatching", old, this.parallelMatching);
+    }
+
     /**
      * @return the rectifyPolarties
      */
@@ -0,0 +1,173 @@
+package ch.unizh.ini.jaer.projects.minliu;
+
+import java.util.Arrays;
+
+/**
+ * One time slice of {@link PatchMatchFlow}: the (maybe signed) event counts
+ * accumulated at each pixel, at several scales. At scale s the pixel address
+ * is shifted right by s, so scale 1 is 2x2 subsampled, scale 2 is 4x4, etc.
+ * <p>
+ * Each scale is one flat byte array with x major, so that a block row at fixed
+ * x is contiguous in y. Rows are padded to a multiple of
+ * {@link #ROW_ALIGNMENT} bytes. Block distances are summed row by row with
+ * branch free inner loops over the primitive arrays, which the JIT can unroll
+ * and vectorize, and stop as soon as the partial sum exceeds a bound, e.g. the
+ * one implied by the best match found so far.
+ */
+public class TimeSlice {
+
+    /** Rows of each plane start at multiples of this many bytes */
+    public static final int ROW_ALIGNMENT = 8;
+    /**
+     * Indices into the statistics array filled by
+     * {@link #blockDistance(TimeSlice, int, int, int, int, int, int, int, int[])}
+     */
+    public static final int SUM = 0, NONZERO_THIS = 1, NONZERO_OTHER = 2, NONZERO_BOTH = 3;
+
+    private final byte[][] planes;
+    private final int[] widths, heights, strides;
+    private final int sizeX, sizeY;
+
+    /**
+     * Allocates a cleared slice.
+     *
+     * @param sizeX the full resolution width
+     * @param sizeY the full resolution height
+     * @param numScales the number of scales
+     */
+    public TimeSlice(int sizeX, int sizeY, int numScales) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        planes = new byte[numScales][];
+        widths = new int[numScales];
+        heights = new int[numScales];
+        strides = new int[numScales];
+        for (int s = 0; s < numScales; s++) {
+            widths[s] = (sizeX >> s) + 1;
+            heights[s] = (sizeY >> s) + 1;
+            strides[s] = ((heights[s] + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT) * ROW_ALIGNMENT;
+            planes[s] = new byte[widths[s] * strides[s]];
+        }
+    }
+
+    /** Zeros all scales. */
+    public void clear() {
+        for (byte[] p : planes) {
+            Arrays.fill(p, (byte) 0);
+        }
+    }
+
+    /**
+     * Adds an event to the pixel at all scales.
+     *
+     * @param x full resolution x address
+     * @param y full resolution y address
+     * @param delta the value to add, e.g. +1 or -1 for the event polarity
+     * @param maxValue the values are clipped to the range -maxValue..maxValue
+     */
+    public void accumulate(int x, int y, int delta, int maxValue) {
+        for (int s = 0; s < planes.length; s++) {
+            final byte[] p = planes[s];
+            final int i = ((x >> s) * strides[s]) + (y >> s);
+            int v = p[i] + delta;
+            if (v > maxValue) {
+                v = maxValue;
+            } else if (v < -maxValue) {
+                v = -maxValue;
+            }
+            p[i] = (byte) v;
+        }
+    }
+
+    /**
+     * @param scale the scale
+     * @param x the x address at this scale
+     * @param y the y address at this scale
+     * @return the pixel value
+     */
+    public int get(int scale, int x, int y) {
+        return planes[scale][(x * strides[scale]) + y];
+    }
+
+    /**
+     * Computes the sum of absolute differences between the square block of
+     * radius r centered on x,y in this slice and the block centered on
+     * x+dx,y+dy in the other slice, both at the same scale, and counts the
+     * nonzero pixels of the blocks. The caller makes sure that both blocks lie
+     * inside the slices.
+     *
+     * @param other the slice to compare with, of the same size
+     * @param scale the scale
+     * @param x the block center at this scale
+     * @param y
+     * @param dx the offset of the block in the other slice
+     * @param dy
+     * @param r the block radius, the block is 2r+1 pixels wide
+     * @param maxSum the summation stops after the first block row that makes
+     * the sum larger than this; Integer.MAX_VALUE to always compute the full
+     * sum
+     * @param stats filled with the sum and the nonzero pixel counts at the
+     * indices {@link #SUM}, {@link #NONZERO_THIS}, {@link #NONZERO_OTHER} and
+     * {@link #NONZERO_BOTH}
+     * @return false if the sum exceeded maxSum, in which case stats are
+     * incomplete
+     */
+    public boolean blockDistance(TimeSlice other, int scale, int x, int y, int dx, int dy, int r, int maxSum, int[] stats) {
+        final byte[] a = planes[scale], b = other.planes[scale];
+        final int stride = strides[scale];
+        final int n = (2 * r) + 1;
+        int ia = ((x - r) * stride) + (y - r);
+        int ib = (((x + dx) - r) * stride) + ((y + dy) - r);
+        int sum = 0, nzA = 0, nzB = 0, nzAB = 0;
+        for (int row = 0; row < n; row++, ia += stride, ib += stride) {
+            for (int k = 0; k < n; k++) {
+                final int va = a[ia + k], vb = b[ib + k];
+                sum += Math.abs(va - vb);
+                // (v | -v) has its sign bit set exactly when v != 0
+                final int fa = va | -va, fb = vb | -vb;
+                nzA += fa >>> 31;
+                nzB += fb >>> 31;
+                nzAB += (fa & fb) >>> 31;
+            }
+            if (sum > maxSum) {
+                return false;
+            }
+        }
+        stats[SUM] = sum;
+        stats[NONZERO_THIS] = nzA;
+        stats[NONZERO_OTHER] = nzB;
+        stats[NONZERO_BOTH] = nzAB;
+        return true;
+    }
+
+    /**
+     * @param sizeX the full resolution width
+     * @param sizeY the full resolution height
+     * @param numScales the number of scales
+     * @return true if this slice was allocated with these dimensions
+     */
+    public boolean hasSize(int sizeX, int sizeY, int numScales) {
+        return (this.sizeX == sizeX) && (this.sizeY == sizeY) && (planes.length == numScales);
+    }
+
+    /** @return the number of scales */
+    public int getNumScales() {
+        return planes.length;
+    }
+
+    /**
+     * @param scale the scale
+     * @return the number of x addresses at this scale
+     */
+    public int getWidth(int scale) {
+        return widths[scale];
+    }
+
+    /**
+     * @param scale the scale
+     * @return the number of y addresses at this scale
+     */
+    public int getHeight(int scale) {
+        return heights[scale];
+    }
+}
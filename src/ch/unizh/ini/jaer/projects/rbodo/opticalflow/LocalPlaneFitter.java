@@ -0,0 +1,335 @@
+package ch.unizh.ini.jaer.projects.rbodo.opticalflow;
+
+/**
+ * Least squares fit of a plane a*x+b*y+c*t+d=0 to a set of points (x,y,t), as
+ * used by {@link LocalPlanesFlow}. The plane parameters (a,b,c,d) are the
+ * unit eigenvector of the smallest eigenvalue of A'A, where each row of A is
+ * a point (x,y,t,1).
+ * <p>
+ * Instead of building A and computing A'A with general matrix code for every
+ * event, the 10 distinct entries of the symmetric 4x4 matrix A'A are
+ * accumulated directly as the points are added. Removing or replacing a single
+ * point only subtracts its contribution, so the iterative outlier rejection
+ * of the local planes method costs O(1) per rejected point. The eigenvector
+ * is found by inverse iteration with a Cholesky factorization of the fixed
+ * 4x4 matrix, started from the previous fit, which usually converges in two or
+ * three steps because the smallest eigenvalue of a good plane fit is far below
+ * the others. If it does not converge, cyclic Jacobi rotations are used. Points
+ * are kept in primitive arrays that are reused, so a fit allocates nothing.
+ */
+public class LocalPlaneFitter {
+
+    /** Stop Jacobi iteration after this many sweeps over the 6 off-diagonal pairs */
+    private static final int MAX_SWEEPS = 20;
+    /** Inverse iteration steps before falling back to Jacobi */
+    private static final int MAX_INVERSE_ITERATIONS = 8;
+
+    private double[] px = new double[0], py = new double[0], pt = new double[0];
+    private int n;
+    // entries of A'A for rows (x,y,t,1); s1 is the number of points
+    private double sxx, sxy, sxt, sx, syy, syt, sy, stt, st, s1;
+    private final double[] m = new double[16], v = new double[16], l = new double[16];
+    private final double[] plane = {0, 0, 1, 0};
+
+    /**
+     * Removes all points.
+     *
+     * @param capacity the largest number of points that will be added
+     */
+    public void clear(int capacity) {
+        if (px.length < capacity) {
+            px = new double[capacity];
+            py = new double[capacity];
+            pt = new double[capacity];
+        }
+        n = 0;
+        sxx = sxy = sxt = sx = syy = syt = sy = stt = st = s1 = 0;
+    }
+
+    /**
+     * Adds a point.
+     *
+     * @param x pixel x
+     * @param y pixel y
+     * @param t time coordinate
+     */
+    public void add(double x, double y, double t) {
+        px[n] = x;
+        py[n] = y;
+        pt[n] = t;
+        n++;
+        accumulate(x, y, t, 1);
+    }
+
+    /**
+     * Removes point i. The last point takes its place, so the order of the
+     * points changes.
+     *
+     * @param i the point index
+     */
+    public void remove(int i) {
+        accumulate(px[i], py[i], pt[i], -1);
+        n--;
+        px[i] = px[n];
+        py[i] = py[n];
+        pt[i] = pt[n];
+    }
+
+    /**
+     * Changes the time coordinate of point i, e.g. when the timestamp of a
+     * neighbor is updated.
+     *
+     * @param i the point index
+     * @param t the new time coordinate
+     */
+    public void setTime(int i, double t) {
+        accumulate(px[i], py[i], pt[i], -1);
+        pt[i] = t;
+        accumulate(px[i], py[i], t, 1);
+    }
+
+    private void accumulate(double x, double y, double t, double w) {
+        double wx = w * x, wy = w * y, wt = w * t;
+        sxx += wx * x;
+        sxy += wx * y;
+        sxt += wx * t;
+        sx += wx;
+        syy += wy * y;
+        syt += wy * t;
+        sy += wy;
+        stt += wt * t;
+        st += wt;
+        s1 += w;
+    }
+
+    /**
+     * Fits the plane to the current points.
+     *
+     * @return the plane parameters (a,b,c,d) with unit norm; the array is
+     * reused by the next fit
+     */
+    public double[] fit() {
+        final double[] a = m;
+        a[0] = sxx;
+        a[1] = a[4] = sxy;
+        a[2] = a[8] = sxt;
+        a[3] = a[12] = sx;
+        a[5] = syy;
+        a[6] = a[9] = syt;
+        a[7] = a[13] = sy;
+        a[10] = stt;
+        a[11] = a[14] = st;
+        a[15] = s1;
+        if (inverseIteration(a, l, plane)) {
+            return plane;
+        }
+        jacobi(a, v);
+        int k = 0;
+        for (int i = 1; i < 4; i++) {
+            if (a[(i * 4) + i] < a[(k * 4) + k]) {
+                k = i;
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            plane[i] = v[(i * 4) + k];
+        }
+        return plane;
+    }
+
+    /**
+     * Finds the eigenvector of the smallest eigenvalue of the symmetric
+     * positive semidefinite 4x4 matrix a by inverse iteration, starting from
+     * x. A tiny shift keeps the factorization defined for exactly planar
+     * points.
+     *
+     * @param a the matrix, not modified
+     * @param l scratch for the Cholesky factor
+     * @param x the start vector, replaced by the unit eigenvector
+     * @return false if the factorization failed or the iteration did not
+     * converge, in which case x is undefined
+     */
+    private static boolean inverseIteration(double[] a, double[] l, double[] x) {
+        double trace = a[0] + a[5] + a[10] + a[15];
+        if (!(trace > 0)) {
+            return false;
+        }
+        double shift = 1e-13 * trace;
+        // Cholesky factorization a+shift*I = L L', L lower triangular stored row by row
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = a[(i * 4) + j] + (i == j ? shift : 0);
+                for (int k = 0; k < j; k++) {
+                    sum -= l[(i * 4) + k] * l[(j * 4) + k];
+                }
+                if (i == j) {
+                    if (!(sum > 0)) {
+                        return false;
+                    }
+                    l[(i * 4) + i] = Math.sqrt(sum);
+                } else {
+                    l[(i * 4) + j] = sum / l[(j * 4) + j];
+                }
+            }
+        }
+        double x0 = x[0], x1 = x[1], x2 = x[2], x3 = x[3];
+        for (int iter = 0; iter < MAX_INVERSE_ITERATIONS; iter++) {
+            // solve L y = x, then L' z = y
+            double y0 = x0 / l[0];
+            double y1 = (x1 - (l[4] * y0)) / l[5];
+            double y2 = (x2 - (l[8] * y0) - (l[9] * y1)) / l[10];
+            double y3 = (x3 - (l[12] * y0) - (l[13] * y1) - (l[14] * y2)) / l[15];
+            double z3 = y3 / l[15];
+            double z2 = (y2 - (l[14] * z3)) / l[10];
+            double z1 = (y1 - (l[9] * z2) - (l[13] * z3)) / l[5];
+            double z0 = (y0 - (l[4] * z1) - (l[8] * z2) - (l[12] * z3)) / l[0];
+            double norm = Math.sqrt((z0 * z0) + (z1 * z1) + (z2 * z2) + (z3 * z3));
+            if (!(norm > 0) || Double.isInfinite(norm)) {
+                return false;
+            }
+            z0 /= norm;
+            z1 /= norm;
+            z2 /= norm;
+            z3 /= norm;
+            if ((z0 * x0) + (z1 * x1) + (z2 * x2) + (z3 * x3) < 0) { // keep the sign of the start vector
+                z0 = -z0;
+                z1 = -z1;
+                z2 = -z2;
+                z3 = -z3;
+            }
+            double change = Math.abs(z0 - x0) + Math.abs(z1 - x1) + Math.abs(z2 - x2) + Math.abs(z3 - x3);
+            x0 = z0;
+            x1 = z1;
+            x2 = z2;
+            x3 = z3;
+            if (change < 1e-12) {
+                x[0] = x0;
+                x[1] = x1;
+                x[2] = x2;
+                x[3] = x3;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Diagonalizes the symmetric 4x4 matrix a in place by cyclic Jacobi
+     * rotations. On return the diagonal of a holds the eigenvalues and the
+     * columns of v the corresponding unit eigenvectors.
+     */
+    private static void jacobi(double[] a, double[] v) {
+        for (int i = 0; i < 16; i++) {
+            v[i] = (i % 5) == 0 ? 1 : 0;
+        }
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            double off = Math.abs(a[1]) + Math.abs(a[2]) + Math.abs(a[3]) + Math.abs(a[6]) + Math.abs(a[7]) + Math.abs(a[11]);
+            if (off == 0) {
+                return;
+            }
+            for (int p = 0; p < 3; p++) {
+                for (int q = p + 1; q < 4; q++) {
+                    double apq = a[(p * 4) + q];
+                    if (apq == 0) {
+                        continue;
+                    }
+                    double app = a[(p * 4) + p], aqq = a[(q * 4) + q];
+                    // an element below the precision of both diagonal elements would only rotate rounding errors
+                    double g = 100 * Math.abs(apq);
+                    if ((sweep > 3) && ((Math.abs(app) + g) == Math.abs(app)) && ((Math.abs(aqq) + g) == Math.abs(aqq))) {
+                        a[(p * 4) + q] = a[(q * 4) + p] = 0;
+                        continue;
+                    }
+                    double theta = (aqq - app) / (2 * apq);
+                    double t = (theta >= 0 ? 1 : -1) / (Math.abs(theta) + Math.sqrt((theta * theta) + 1));
+                    double c = 1 / Math.sqrt((t * t) + 1), s = t * c;
+                    for (int k = 0; k < 4; k++) { // columns p and q
+                        double akp = a[(k * 4) + p], akq = a[(k * 4) + q];
+                        a[(k * 4) + p] = (c * akp) - (s * akq);
+                        a[(k * 4) + q] = (s * akp) + (c * akq);
+                    }
+                    for (int k = 0; k < 4; k++) { // rows p and q
+                        double apk = a[(p * 4) + k], aqk = a[(q * 4) + k];
+                        a[(p * 4) + k] = (c * apk) - (s * aqk);
+                        a[(q * 4) + k] = (s * apk) + (c * aqk);
+                    }
+                    for (int k = 0; k < 4; k++) {
+                        double vkp = v[(k * 4) + p], vkq = v[(k * 4) + q];
+                        v[(k * 4) + p] = (c * vkp) - (s * vkq);
+                        v[(k * 4) + q] = (s * vkp) + (c * vkq);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param i the point index
+     * @param plane the plane parameters (a,b,c,d)
+     * @return the algebraic distance a*x+b*y+c*t+d of point i to the plane
+     */
+    public double distance(int i, double[] plane) {
+        return (plane[0] * px[i]) + (plane[1] * py[i]) + (plane[2] * pt[i]) + plane[3];
+    }
+
+    /** @return the number of points */
+    public int size() {
+        return n;
+    }
+
+    public double getX(int i) {
+        return px[i];
+    }
+
+    public double getY(int i) {
+        return py[i];
+    }
+
+    public double getT(int i) {
+        return pt[i];
+    }
+
+    /** @return sum of x^2 over the points */
+    public double getSxx() {
+        return sxx;
+    }
+
+    /** @return sum of x*y over the points */
+    public double getSxy() {
+        return sxy;
+    }
+
+    /** @return sum of x*t over the points */
+    public double getSxt() {
+        return sxt;
+    }
+
+    /** @return sum of x over the points */
+    public double getSx() {
+        return sx;
+    }
+
+    /** @return sum of y^2 over the points */
+    public double getSyy() {
+        return syy;
+    }
+
+    /** @return sum of y*t over the points */
+    public double getSyt() {
+        return syt;
+    }
+
+    /** @return sum of y over the points */
+    public double getSy() {
+        return sy;
+    }
+
+    /** @return sum of t^2 over the points */
+    public double getStt() {
+        return stt;
+    }
+
+    /** @return sum of t over the points */
+    public double getSt() {
+        return st;
+    }
+}
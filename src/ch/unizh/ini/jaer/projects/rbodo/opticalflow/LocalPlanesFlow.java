@@ -1,6 +1,5 @@
 package ch.unizh.ini.jaer.projects.rbodo.opticalflow;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Locale;
@@ -14,7 +13,6 @@ import net.sf.jaer.event.BasicEvent;
 import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.event.PolarityEvent;
 import static net.sf.jaer.eventprocessing.EventFilter.log;
-import net.sf.jaer.util.jama.Matrix;
 
 /**
  * Draws individual optical flow vectors and computes global motion, rotation
@@ -47,9 +45,10 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
     // high velocity.
     private float th3 = getFloat("th3", 1e-3f);
 
-    private ArrayList<double[]> neighborhood;
+    // Points of the neighborhood and the moments of the plane fit, reused for every event.
+    private final LocalPlaneFitter neighborhood = new LocalPlaneFitter();
     private final float[] planeParameters;
-    private Matrix planeEstimate, planeEstimate_old, A;
+    private final double[] planeEstimate = new double[4], planeEstimate_old = new double[4];
 
     private float sx2, sy2, st2, sxy, sxt, syt, sxx, syy, stt;
     private int xx, yy;
@@ -72,7 +71,6 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
     public LocalPlanesFlow(AEChip chip) {
         super(chip);
         planeParameters = new float[3];
-        planeEstimate = new Matrix(4, 1);
         try {
             planeEstimator = PlaneEstimator.valueOf(getString("planeEstimator", "RobustLP"));
         } catch (IllegalArgumentException ex) {
@@ -96,27 +94,16 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
     }
 
     synchronized void initializeDataMatrix() {
-        sx2 = 0;
-        sy2 = 0;
-        st2 = 0;
-        sxy = 0;
-        sxt = 0;
-        syt = 0;
-        sxx = 0;
-        syy = 0;
-        stt = 0;
-
-        for (double[] n : neighborhood) {
-            sx2 += n[0] * n[0];
-            sy2 += n[1] * n[1];
-            st2 += n[2] * n[2];
-            sxy += n[0] * n[1];
-            sxt += n[0] * n[2];
-            syt += n[1] * n[2];
-            sxx += n[0];
-            syy += n[1];
-            stt += n[2];
-        }
+        // The sums are accumulated by the fitter as the neighborhood is filled.
+        sx2 = (float) neighborhood.getSxx();
+        sy2 = (float) neighborhood.getSyy();
+        st2 = (float) neighborhood.getStt();
+        sxy = (float) neighborhood.getSxy();
+        sxt = (float) neighborhood.getSxt();
+        syt = (float) neighborhood.getSyt();
+        sxx = (float) neighborhood.getSx();
+        syy = (float) neighborhood.getSy();
+        stt = (float) neighborhood.getSt();
     }
 
     synchronized private void computeFittingParameters() {
@@ -215,13 +202,12 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
     }
 
     synchronized void initializeNeighborhood() {
-        neighborhood = new ArrayList<>();
+        neighborhood.clear((2 * searchDistance + 1) * (2 * searchDistance + 1));
         for (i = -searchDistance; i <= searchDistance; i++) {
             for (j = -searchDistance; j <= searchDistance; j++) {
                 t1 = lastTimesMap[x + i][y + j][type];
                 if (t1 != Integer.MIN_VALUE && ts - t1 < maxDtThreshold) {
-                    neighborhood.add(new double[]{x + i, y + j,
-                        (t1 - firstTs) * 1e-6f, 1});
+                    neighborhood.add(x + i, y + j, (t1 - firstTs) * 1e-6f);
                 }
             }
         }
@@ -291,11 +277,11 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
              * (a b c d). As we deal with a homogeneous linear system of
              * equations, the least squares solution is the Eigenvector of
              * matrix A'A corresponding to the smallest Eigenvalue (smallest
-             * error). To speed up the process, we do many calculatios below "by
-             * hand" because the built-in jama-functions (times, minus, copy,
-             * getMatrix, etc) involve new matrix initializations. At first, the
-             * data matrix has as many rows as there are pixels in the
-             * neighborhood. However, at initialization and during the iterative
+             * error). To speed up the process, A'A is not formed from A with
+             * general matrix code but accumulated point by point by
+             * LocalPlaneFitter, which also finds the eigenvector of the fixed
+             * size 4x4 matrix without allocating. At first, the data matrix has
+             * as many rows as there are pixels in the neighborhood. However, at initialization and during the iterative
              * improvement, we check if an event in the neighborhood is
              * unreasonably far away in time. If this is the case, remove it
              * from our system of equations. In oscillating motion, this
@@ -315,25 +301,17 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
             }
 
             // Initial fit
-            A = new Matrix(neighborhood.toArray(new double[neighborhood.size()][4]));
-            planeEstimate_old = A.transpose().times(A).eig().getV().getMatrix(0, 3, 0, 0);
+            System.arraycopy(neighborhood.fit(), 0, planeEstimate_old, 0, 4);
 
             // Iterative improvement
-            planeEstimate.set(0, 0, planeEstimate_old.get(0, 0));
-            planeEstimate.set(1, 0, planeEstimate_old.get(1, 0));
-            planeEstimate.set(2, 0, planeEstimate_old.get(2, 0));
-            planeEstimate.set(3, 0, planeEstimate_old.get(3, 0));
+            System.arraycopy(planeEstimate_old, 0, planeEstimate, 0, 4);
             eps = 1e6f;
             while (eps > th1) {
                 change = false;
                 for (i = 0; i < neighborhood.size(); i++) // Discard events too far away from plane
                 {
-                    if (Math.abs(planeEstimate_old.get(0, 0) * neighborhood.get(i)[0]
-                            + planeEstimate_old.get(1, 0) * neighborhood.get(i)[1]
-                            + planeEstimate_old.get(2, 0) * neighborhood.get(i)[2]
-                            + planeEstimate_old.get(3, 0) * neighborhood.get(i)[3])
-                            > th2) {
-                        neighborhood.remove(i);
+                    if (Math.abs(neighborhood.distance(i, planeEstimate_old)) > th2) {
+                        neighborhood.remove(i); // only subtracts this point from the fit
                         i--;
                         change = true;
                     }
@@ -342,21 +320,19 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
                     eps = 0;
                 } else if (neighborhood.size() > 3) {
                     // Calculate new plane fit with reduced neighborhood
-                    A = new Matrix(neighborhood.toArray(new double[neighborhood.size()][4]));
-                    planeEstimate = A.transpose().times(A).eig().getV().getMatrix(0, 3, 0, 0);
+                    double[] p = neighborhood.fit();
+                    // the eigenvector sign is arbitrary; keep it pointing the same way as the old one
+                    double dot = p[0] * planeEstimate_old[0] + p[1] * planeEstimate_old[1]
+                            + p[2] * planeEstimate_old[2] + p[3] * planeEstimate_old[3];
+                    double sign = dot < 0 ? -1 : 1;
                     // Update convergence parameter (Euklidean distance of plane)
-                    eps = (float) Math.sqrt((planeEstimate.get(0, 0) - planeEstimate_old.get(0, 0))
-                            * (planeEstimate.get(0, 0) - planeEstimate_old.get(0, 0))
-                            + (planeEstimate.get(1, 0) - planeEstimate_old.get(1, 0))
-                            * (planeEstimate.get(1, 0) - planeEstimate_old.get(1, 0))
-                            + (planeEstimate.get(2, 0) - planeEstimate_old.get(2, 0))
-                            * (planeEstimate.get(2, 0) - planeEstimate_old.get(2, 0))
-                            + (planeEstimate.get(3, 0) - planeEstimate_old.get(3, 0))
-                            * (planeEstimate.get(3, 0) - planeEstimate_old.get(3, 0)));
-                    planeEstimate_old.set(0, 0, planeEstimate.get(0, 0));
-                    planeEstimate_old.set(1, 0, planeEstimate.get(1, 0));
-                    planeEstimate_old.set(2, 0, planeEstimate.get(2, 0));
-                    planeEstimate_old.set(3, 0, planeEstimate.get(3, 0));
+                    double d2 = 0;
+                    for (int k = 0; k < 4; k++) {
+                        planeEstimate[k] = sign * p[k];
+                        d2 += (planeEstimate[k] - planeEstimate_old[k]) * (planeEstimate[k] - planeEstimate_old[k]);
+                    }
+                    eps = (float) Math.sqrt(d2);
+                    System.arraycopy(planeEstimate, 0, planeEstimate_old, 0, 4);
                 } else {
                     vx = 0;
                     vy = 0;
@@ -364,9 +340,9 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
                 }
             }
             if (robustLP) {
-                velFromPar((float) planeEstimate.get(0, 0),
-                        (float) planeEstimate.get(1, 0),
-                        (float) planeEstimate.get(2, 0), th3);
+                velFromPar((float) planeEstimate[0],
+                        (float) planeEstimate[1],
+                        (float) planeEstimate[2], th3);
             } else {
                 // <editor-fold defaultstate="collapsed" desc="Comment">
                 /**
@@ -385,8 +361,8 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
                  * (dx/dt,dy/dt) = (-a3/a1,-a3/a2).
                  */
                 // </editor-fold>
-                vx = Math.abs(planeEstimate.get(0, 0)) < th3 ? 0 : (float) (-planeEstimate.get(2, 0) / planeEstimate.get(0, 0));
-                vy = Math.abs(planeEstimate.get(1, 0)) < th3 ? 0 : (float) (-planeEstimate.get(2, 0) / planeEstimate.get(1, 0));
+                vx = Math.abs(planeEstimate[0]) < th3 ? 0 : (float) (-planeEstimate[2] / planeEstimate[0]);
+                vy = Math.abs(planeEstimate[1]) < th3 ? 0 : (float) (-planeEstimate[2] / planeEstimate[1]);
             }
         }
         v = (float) Math.sqrt(vx * vx + vy * vy);
@@ -408,18 +384,15 @@ public class LocalPlanesFlow extends AbstractMotionFlow {
                     + "%3$2.2f %4$2.2f]; v = [%5$2.2f %6$2.2f]; vIMU = [%7$2.2f %8$2.2f];",
                     new Object[]{neighb, a[1][0], a[0][1], a[0][0], vx, vy, vxGT, vyGT}));
         } else {
-            if (neighborhood == null) {
-                return;
-            }
             neighb = "[";
             for (i = 0; i < neighborhood.size(); i++) {
-                neighb += Arrays.toString(neighborhood.get(i)) + "; ";
+                neighb += Arrays.toString(new double[]{neighborhood.getX(i), neighborhood.getY(i), neighborhood.getT(i), 1}) + "; ";
             }
             neighb += "]";
             log.log(Level.INFO, String.format(Locale.ENGLISH, "T = %1$s; pe = [%2$2.2f "
                     + "%3$2.2f %4$2.2f %5$2.2f]; v = [%6$2.2f %7$2.2f]; vIMU = [%8$2.2f %9$2.2f];",
-                    new Object[]{neighb, planeEstimate.get(0, 0), planeEstimate.get(1, 0),
-                        planeEstimate.get(2, 0), planeEstimate.get(3, 0), vx, vy, vxGT, vyGT}));
+                    new Object[]{neighb, planeEstimate[0], planeEstimate[1],
+                        planeEstimate[2], planeEstimate[3], vx, vy, vxGT, vyGT}));
         }
     }
 
@@ -7,15 +7,25 @@ import static net.sf.jaer.eventprocessing.EventFilter.log;
 import java.io.File;
 import java.io.IOException;
 
-import org.jblas.MatrixFunctions;
-
 import eu.visualize.ini.convnet.EasyXMLReader;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
-import org.jblas.FloatMatrix;
+import net.sf.jaer.util.ParallelLoop;
 
 /**
  * Implements an recurrent neural network framework
  * The framework currently supports GRU layer, LSTM layer and Dense layer
+ * <p>
+ * Weights are stored as flat row major float arrays and each layer computes
+ * all its gate preactivations b+Wx+Uh in one pass over the weight rows, writing
+ * into preallocated vectors, so a time step allocates nothing. The activations
+ * (and LSTM memory cells) of a sequence are kept in a {@link State}; {@link #output(float[])}
+ * runs a single sequence in a default state, while
+ * {@link #output(float[][], State[], int)} advances many independent sequences
+ * by one step, layer by layer so that the weights of a layer are reused from
+ * cache for all sequences, in parallel over blocks of sequences.
  * @author jithendar
  */
 public class RNNetwork {
@@ -38,6 +48,24 @@ public class RNNetwork {
     InputLayer inputLayer; // the first layer in the above array of layers will be this layer
     OutputLayer outputLayer;// the last layer in the layer array will be this layer
     private String xmlFileName = null;
+    /**
+     * Sequences per task of the batched output
+     */
+    private static final int BATCH_GRAIN = 16;
+    /**
+     * State of the single sequence computed by output(float[])
+     */
+    private State defaultState = null;
+    private Workspace defaultWorkspace = null;
+    /**
+     * Workspaces of the parallel batch tasks, reused between calls
+     */
+    private final ConcurrentLinkedQueue<Workspace> workspacePool = new ConcurrentLinkedQueue<>();
+    /**
+     * Largest layer size, the length of the workspace vectors
+     */
+    private int maxLayerSize = 0;
+    private final Random random = new Random();
 
     public RNNetwork() {
         this.initialized = false;
@@ -57,15 +85,74 @@ public class RNNetwork {
     /**
      * Computes the output of the network when given an input frame
      * @param input - A one dimensional float array as the input frame
-     * @return - the activation of the last layer as a DoubleMatrix (jblas)
+     * @return - the activation of the last layer; the array is reused and overwritten by the next call
      */
-    public FloatMatrix output(float[] input) {
-        FloatMatrix tempOutput = new FloatMatrix(input);
-        this.layers[0].computeFromInput(tempOutput);
+    public float[] output(float[] input) {
+        if (this.defaultState == null) {
+            this.allocateStates();
+        }
+        final State state = this.defaultState;
+        this.layers[0].compute(input, state, this.defaultWorkspace);
         for(int i=1;i<this.nLayers;i++) {
-            this.layers[i].compute(this.layers[i-1]);
+            this.layers[i].compute(state.activations[i-1], state, this.defaultWorkspace);
+        }
+        return state.getOutput();
+    }
+
+    /**
+     * Computes one time step for several independent sequences, for example
+     * one per channel or per region, each with its own state. The sequences
+     * are processed one layer at a time, in parallel over blocks of sequences.
+     * @param inputs - inputs[k] is the input frame of sequence k
+     * @param states - states[k] is the state of sequence k, created with {@link #newState()}, which is updated in place
+     * @param n - the number of sequences
+     */
+    public void output(final float[][] inputs, final State[] states, int n) {
+        if (this.defaultState == null) {
+            this.allocateStates();
+        }
+        ParallelLoop.run(0, n, BATCH_GRAIN, new ParallelLoop.Body() {
+            @Override
+            public void run(int from, int to) {
+                Workspace ws = workspacePool.poll();
+                if (ws == null) {
+                    ws = new Workspace(maxLayerSize);
+                }
+                for (int k = from; k < to; k++) {
+                    layers[0].compute(inputs[k], states[k], ws);
+                }
+                for (int i = 1; i < nLayers; i++) {
+                    final Layer layer = layers[i];
+                    for (int k = from; k < to; k++) {
+                        layer.compute(states[k].activations[i - 1], states[k], ws);
+                    }
+                }
+                workspacePool.offer(ws);
+            }
+        });
+    }
+
+    /**
+     * @return a new state at the start of a sequence, for use with {@link #output(float[][], State[], int)}
+     */
+    public State newState() {
+        if (this.defaultState == null) {
+            this.allocateStates();
         }
-        return this.layers[this.nLayers-1].output;
+        return new State();
+    }
+
+    /**
+     * Allocates the default state and the workspace vectors for the present layers
+     */
+    private void allocateStates() {
+        this.maxLayerSize = 0;
+        for (int i = 0; i < this.nLayers; i++) {
+            this.maxLayerSize = Math.max(this.maxLayerSize, this.layers[i].size());
+        }
+        this.workspacePool.clear();
+        this.defaultWorkspace = new Workspace(this.maxLayerSize);
+        this.defaultState = new State();
     }
     /**
      * Loads the network from an XML file, presently incomplete
@@ -238,6 +325,7 @@ public class RNNetwork {
             }
             log.log(Level.INFO, "Succesfully loaded the layer {0}", i);
         }
+        this.allocateStates();
         this.setXmlFileName(f.toString());
         this.initialized = true;
         log.log(Level.INFO, "Succesfully loaded the network");
@@ -249,22 +337,23 @@ public class RNNetwork {
      */
     public interface Activation {
         /**
-         * Applying the activation on a float matrix
-         * @param input - DoubleMatrix containing the linear combination of the previous layer activations/relevant expression
-         * @return DoubleMatrix with the activations
+         * Applies the activation in place to a range of a float array
+         * @param a - array containing the linear combination of the previous layer activations/relevant expression, replaced by the activations
+         * @param from - first index, inclusive
+         * @param to - last index, exclusive
          */
-        public FloatMatrix apply(FloatMatrix input);
+        public void apply(float[] a, int from, int to);
         /**
          * Applying the activation on a float element
-         * @param input - FloatMatrix containing the linear combination of the previous layer activations/relevant expression
-         * @return DoubleMatrix with the activations
+         * @param input - the linear combination of the previous layer activations/relevant expression
+         * @return the activation
          */
         public float apply(float input);
     }
 
     /**
      * Implements the sigmoid activation function.
-     * The function is 1/(1+exp(x))
+     * The function is 1/(1+exp(-x))
      */
     public class Sigmoid implements Activation {
 
@@ -272,13 +361,10 @@ public class RNNetwork {
         }
 
         @Override
-        public FloatMatrix apply(FloatMatrix input) {
-            FloatMatrix denom = new FloatMatrix().copy(input);
-            denom.muli(-1);
-            MatrixFunctions.expi(denom);
-            denom.addi(1);
-            FloatMatrix num = FloatMatrix.ones(denom.rows, denom.columns);
-            return num.divi(denom);
+        public void apply(float[] a, int from, int to) {
+            for (int i = from; i < to; i++) {
+                a[i] = (float) (1.0 / (1.0 + Math.exp(-a[i])));
+            }
         }
         
         @Override
@@ -292,13 +378,10 @@ public class RNNetwork {
          }
 
         @Override
-        public FloatMatrix apply(FloatMatrix input) {
-            FloatMatrix output = new FloatMatrix().copy(input);
-            output.muli((float) 0.2);
-            output.addi((float) 0.5);
-            output.mini(1);
-            output.maxi(0);
-            return output;
+        public void apply(float[] a, int from, int to) {
+            for (int i = from; i < to; i++) {
+                a[i] = Math.max(0, Math.min(1, (a[i] * 0.2f) + 0.5f));
+            }
         }
 
         @Override
@@ -316,13 +399,15 @@ public class RNNetwork {
         }
 
         @Override
-        public FloatMatrix apply(FloatMatrix input) {
-            return MatrixFunctions.tanhi(input);
+        public void apply(float[] a, int from, int to) {
+            for (int i = from; i < to; i++) {
+                a[i] = (float) Math.tanh(a[i]);
+            }
         }
 
         @Override
         public float apply(float input) {
-            return MatrixFunctions.tanh(input);
+            return (float) Math.tanh(input);
         }
     }
     /**
@@ -335,10 +420,12 @@ public class RNNetwork {
         }
 
         @Override
-        public FloatMatrix apply(FloatMatrix input) {
-            FloatMatrix output = new FloatMatrix().copy(input);
-            output.maxi(0);
-            return output;
+        public void apply(float[] a, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (a[i] < 0) {
+                    a[i] = 0;
+                }
+            }
         }
 
         @Override
@@ -359,10 +446,22 @@ public class RNNetwork {
         }
 
         @Override
-        public FloatMatrix apply(FloatMatrix input) {
-            FloatMatrix exp = new FloatMatrix().copy(input);
-            MatrixFunctions.expi(exp);
-            return exp.divi(exp.sum());
+        public void apply(float[] a, int from, int to) {
+            if (from >= to) {
+                return;
+            }
+            float max = a[from];
+            for (int i = from + 1; i < to; i++) {
+                max = Math.max(max, a[i]);
+            }
+            float sum = 0;
+            for (int i = from; i < to; i++) {
+                a[i] = (float) Math.exp(a[i] - max); // shifting by the max does not change the result but avoids overflow
+                sum += a[i];
+            }
+            for (int i = from; i < to; i++) {
+                a[i] /= sum;
+            }
         }
 
         @Override
@@ -381,12 +480,10 @@ public class RNNetwork {
         }
 
         @Override
-        public FloatMatrix apply(FloatMatrix input) {
-            FloatMatrix denom = new FloatMatrix().copy(input);
-            FloatMatrix num = new FloatMatrix().copy(input);
-            MatrixFunctions.absi(denom);
-            denom.addi(1);
-            return num.divi(denom);
+        public void apply(float[] a, int from, int to) {
+            for (int i = from; i < to; i++) {
+                a[i] = a[i] / (1 + Math.abs(a[i]));
+            }
         }
 
         @Override
@@ -403,8 +500,7 @@ public class RNNetwork {
         }
 
         @Override
-        public FloatMatrix apply(FloatMatrix input) {
-            return input;
+        public void apply(float[] a, int from, int to) {
         }
 
         @Override
@@ -414,10 +510,142 @@ public class RNNetwork {
         
     }
 
+    /**
+     * A weight matrix stored row by row in one flat array, so that the
+     * matrix-vector products run over contiguous memory
+     */
+    public static final class Weights {
+
+        final int rows, cols;
+        final float[] data;
+
+        /**
+         * @param a - 2 dimensional float array indexed as a[row][column]
+         */
+        public Weights(float[][] a) {
+            this.rows = a.length;
+            this.cols = (a.length == 0) ? 0 : a[0].length;
+            this.data = new float[this.rows * this.cols];
+            for (int i = 0; i < this.rows; i++) {
+                System.arraycopy(a[i], 0, this.data, i * this.cols, this.cols);
+            }
+        }
+
+        /**
+         * @param row
+         * @param x - vector of at least cols elements
+         * @return the dot product of the row with x
+         */
+        float dot(int row, float[] x) {
+            final float[] w = this.data;
+            final int n = this.cols;
+            int k = row * n;
+            float sum = 0;
+            for (int j = 0; j < n; j++, k++) {
+                sum += w[k] * x[j];
+            }
+            return sum;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public int getCols() {
+            return cols;
+        }
+
+        public float get(int row, int col) {
+            return data[(row * cols) + col];
+        }
+    }
+
+    /**
+     * Computes out[i] = b[i] + W[i]x + U[i]h + V[i]c for every row i of W in
+     * one pass over the rows, without temporary vectors. Used for all the gates
+     * and layer activations before the activation function is applied.
+     * @param b - biases
+     * @param w - multiplies the input x
+     * @param x - input
+     * @param u - multiplies h, may be null
+     * @param h - usually the previous activation of the layer
+     * @param v - multiplies c, may be null
+     * @param c - usually the memory cell of the layer
+     * @param out - the result, must be distinct from x, h and c
+     */
+    static void preactivation(float[] b, Weights w, float[] x, Weights u, float[] h, Weights v, float[] c, float[] out) {
+        for (int i = 0; i < w.rows; i++) {
+            float sum = b[i] + w.dot(i, x);
+            if (u != null) {
+                sum += u.dot(i, h);
+            }
+            if (v != null) {
+                sum += v.dot(i, c);
+            }
+            out[i] = sum;
+        }
+    }
+
+    /**
+     * Holds the activations of all layers and the memory cells of the LSTM
+     * layers for one input sequence. The network weights are shared, so many
+     * independent sequences can be run through the same network by giving
+     * each one its own State.
+     */
+    public class State {
+
+        final float[][] activations;
+        final float[][] cells;
+
+        State() {
+            this.activations = new float[nLayers][];
+            this.cells = new float[nLayers][];
+            for (int i = 0; i < nLayers; i++) {
+                this.activations[i] = new float[layers[i].size()];
+                if (layers[i] instanceof LSTM) {
+                    this.cells[i] = new float[layers[i].size()];
+                }
+            }
+            reset();
+        }
+
+        /**
+         * Resets the state to that at the start of a sequence
+         */
+        public void reset() {
+            for (int i = 0; i < nLayers; i++) {
+                layers[i].reset(this);
+            }
+        }
+
+        /**
+         * @return the activation of the last layer, updated in place by each
+         * time step
+         */
+        public float[] getOutput() {
+            return this.activations[nLayers - 1];
+        }
+    }
+
+    /**
+     * Temporary vectors for the computation of one layer, one per thread
+     */
+    static final class Workspace {
+
+        final float[] a, b, c, d;
+
+        Workspace(int size) {
+            a = new float[size];
+            b = new float[size];
+            c = new float[size];
+            d = new float[size];
+        }
+    }
+
     /**
      * Implements the abstract public class layer, which would then be extended to form different layers
-     * The basic attributes are the index of the layer,
-     * and the output activations of the layer.
+     * The basic attribute is the index of the layer; the activations of the layer
+     * are held in a {@link State}, so that the same layer can compute many sequences.
      * Note that the layer is defined to be a flat layer and hence care must be taken to extend Layer to ConvolutionLayer
      */
     abstract public class Layer {
@@ -430,24 +658,31 @@ public class RNNetwork {
          */
         int index;
         /**
-         *  Activations of the layer
+         * @return the number of units, i.e. the length of the activation vector
          */
-        FloatMatrix output;
+        abstract public int size();
         /**
          * Computes the output activations of the layer for a given input activation,
-         * @param input - for the case of the InputLayer, it should throw an exception for there is no previous layer, for every other layer it would be activations of the previous layer
-         * Internally updates the output variable on arrival of the input
+         * @param input - for the case of the InputLayer, the input frame to the network, for every other layer the activations of the previous layer
+         * @param state - the sequence state; the activations of this layer in it are updated in place
+         * @param ws - temporary vectors of at least size() elements
          */
-        abstract public void compute(Layer input);
+        abstract void compute(float[] input, State state, Workspace ws);
 
         /**
-         * Sets the input to the network as the output of the InputLayer
-         * @param input - a FloatMatrix column vector which represents the binned cochlea data, it should throw an exception when called on a different layer
-         * Internally updates the output variable of the InputLayer on the arrival of input
+         * Resets this layer's part of the state to that at the start of a sequence
+         * @param state
          */
-        abstract public void computeFromInput(FloatMatrix input);
-        
-        abstract public void resetLayer();
+        public void reset(State state) {
+            Arrays.fill(state.activations[this.index], 0);
+        }
+
+        /**
+         * @return the activations of the layer for the single sequence run by {@link RNNetwork#output(float[])}
+         */
+        public float[] getOutput() {
+            return (defaultState == null) ? null : defaultState.activations[this.index];
+        }
         
     }
     /**
@@ -456,33 +691,32 @@ public class RNNetwork {
      */
     public class InputLayer extends Layer {
 
+        private int dim;
+
         public InputLayer(int index) {
             super(index);
         }
 
-        @Override
-        public void compute(Layer input) {
-           throw new UnsupportedOperationException("Input layer only computes on input frame");
-        }
         /**
          * Computes the activations of the InputLayer from the inputs to the network
          * @param input - the input to the network, expectedly the binned frames from the cochlea
          * Updates the activation of the Layer by directly copying the input to it
          */
         @Override
-        public void computeFromInput(FloatMatrix input) {
-                this.output = input;
+        void compute(float[] input, State state, Workspace ws) {
+            System.arraycopy(input, 0, state.activations[this.index], 0, this.dim);
         }
         /**
-         * Initializes an input layer given the input dimension, sets layer index to 0 and creates a FloatMatrix of size inputDimension x 1
+         * Initializes an input layer given the input dimension
          * @param inputDimension
          */
         public void initialize(int inputDimension) {
-                this.output = FloatMatrix.zeros(inputDimension);
+                this.dim = inputDimension;
         }
 
         @Override
-        public void resetLayer() {
+        public int size() {
+            return this.dim;
         }
 
     }
@@ -504,32 +738,36 @@ public class RNNetwork {
         /**
          * Stores the connection weights from the previous layer outputs to the present layer
          */
-        FloatMatrix weightMatrix;
+        Weights weightMatrix;
         /**
          * Stores the biases for the neurons in the present layer
          */
-        FloatMatrix biases;
+        float[] biases;
         /**
          * Computes the activation for the final layer
          */
         @Override
-        public void compute(Layer input) {
-            FloatMatrix temp = this.weightMatrix.mmul(input.output);
-            temp.addi(biases);
-            this.output = this.getActivationFunction().apply(temp);
+        void compute(float[] input, State state, Workspace ws) {
+            final float[] out = state.activations[this.index];
+            RNNetwork.preactivation(this.biases, this.weightMatrix, input, null, null, null, null, out);
+            this.getActivationFunction().apply(out, 0, out.length);
         }
         
         
         public void annotateHistogram (GL2 gl, int width, int height) {
-            if (this.output == null) {
+            float[] output = this.getOutput();
+            if (output == null) {
             } else {
-                float dx = (float) (width)/this.output.length;
+                float dx = (float) (width)/output.length;
                 float dy = (float) 0.8f * (height);
+                float tmpOutputMax = output[0];
+                for (int i = 1; i < output.length; i++) {
+                    tmpOutputMax = Math.max(tmpOutputMax, output[i]);
+                }
                 
                 gl.glBegin(GL.GL_LINE_STRIP);
-                for (int i = 0; i < this.output.length; i++) {
-                    float tmpOutput = this.output.get(i);
-                    float tmpOutputMax = this.output.max();
+                for (int i = 0; i < output.length; i++) {
+                    float tmpOutput = output[i];
                     float y_end = (float) (1 + (dy*tmpOutput)/tmpOutputMax); // draws the relative activations of the neurons in the layer
                     float x_start = 1 + (dx * i);
                     float x_end = x_start + dx;
@@ -545,29 +783,29 @@ public class RNNetwork {
         /**
          * @return - the weightMatrix of the OutputLayer
          */
-        public FloatMatrix getWeightMatrix() {
+        public Weights getWeightMatrix() {
             return weightMatrix;
         }
         /**
          *
-         * @param weightMatrix FloatMatrix of appropriate size
-         * Internally sets the weightMatrix of the OutputLayer to the input FloatMatrix
+         * @param weightMatrix Weights of appropriate size
+         * Internally sets the weightMatrix of the OutputLayer to the input Weights
          */
-        public void setWeightMatrix(FloatMatrix weightMatrix) {
+        public void setWeightMatrix(Weights weightMatrix) {
             this.weightMatrix = weightMatrix;
         }
         /**
          *
          * @return - the biases of the OutputLayer
          */
-        public FloatMatrix getBiases() {
+        public float[] getBiases() {
             return biases;
         }
         /**
          *
-         * @param biases - a float matrix of appropriate size
+         * @param biases - a float array of appropriate size
          */
-        public void setBiases(FloatMatrix biases) {
+        public void setBiases(float[] biases) {
             this.biases = biases;
         }
         /**
@@ -576,9 +814,8 @@ public class RNNetwork {
          * @param biases1 - 1 dimensional float array containing the biases of the neurons
          */
         public void initialize(float[][] weightMatrix1, float[] biases1) {
-            this.weightMatrix = new FloatMatrix(weightMatrix1);
-            this.biases = new FloatMatrix(biases1);
-            this.output = FloatMatrix.zeros(this.weightMatrix.rows);
+            this.weightMatrix = new Weights(weightMatrix1);
+            this.biases = RNNetwork.convertFloatsToFloatsDim1(biases1);
         }
         /**
          * Initializes the OutputLayer given the weightMatrix, the biases and the ActivationFunction of the layer
@@ -587,17 +824,10 @@ public class RNNetwork {
          * @param activationFunction1 - activation function of the layer
          */
         public void initialize(float[][] weightMatrix1, float[] biases1, Activation activationFunction1) {
-            this.weightMatrix = new FloatMatrix(weightMatrix1);
-            this.biases = new FloatMatrix(biases1);
-            this.output = FloatMatrix.zeros(this.weightMatrix.rows);
+            this.initialize(weightMatrix1, biases1);
             this.setActivationFunction(activationFunction1);
         }
 
-        @Override
-        public void computeFromInput(FloatMatrix input) {
-            throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
-        }
-
         /**
          * @return the activationFunction
          */
@@ -613,8 +843,16 @@ public class RNNetwork {
         }
 
         @Override
-        public void resetLayer() {
-            this.output = FloatMatrix.rand(this.weightMatrix.rows);
+        public int size() {
+            return this.weightMatrix.rows;
+        }
+
+        @Override
+        public void reset(State state) {
+            final float[] out = state.activations[this.index];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = random.nextFloat();
+            }
         }
 
     }
@@ -628,50 +866,42 @@ public class RNNetwork {
             super(index);
         }
 
-        /**
-         * The updateGate decides how much the unit updates it's activation from the previous time step to the present one
-         */
-        FloatMatrix updateGate;
-        /**
-         * The resetGate is a way to reset the activation, when 0 it makes the unit as if reading the first symbol of the sequence
-         */
-        FloatMatrix resetGate;
         /**
          * Matrix to be multiplied to the input while calculating the updateGate
          */
-        FloatMatrix updateW;
+        Weights updateW;
         /**
          * Matrix to be multiplied to the hidden activation while calculating the updateGate
          */
-        FloatMatrix updateU;
+        Weights updateU;
         /**
-         * Bias matrix for the update date
+         * Bias for the update gate
          */
-        FloatMatrix updateBias;
+        float[] updateBias;
         /**
          * Matrix to be multiplied to the input while calculating the resetGate
          */
-        FloatMatrix resetW;
+        Weights resetW;
         /**
          * Matrix to be multiplied to the hidden activation while calculating the resetGate
          */
-        FloatMatrix resetU;
+        Weights resetU;
         /**
-         * Bias matrix for the reset gate
+         * Bias for the reset gate
          */
-        FloatMatrix resetBias;
+        float[] resetBias;
         /**
          * Matrix to be multiplied to the input while calculating the candidate activations
          */
-        FloatMatrix hiddenW;
+        Weights hiddenW;
         /**
          * Matrix to be multiplied to the hidden activation while calculating the candidate activations
          */
-        FloatMatrix hiddenU;
+        Weights hiddenU;
         /**
-         * Bias matrix for the candidate activation
+         * Bias for the candidate activation
          */
-        FloatMatrix hiddenBias;
+        float[] hiddenBias;
         /**
          * Activation function in calculating the activation of the update gate,
          * initialized to be a sigmoid activation
@@ -688,36 +918,35 @@ public class RNNetwork {
          */
         Activation activationFunction = new Tanh();
         /**
-         * Computes the output of the GRU layer
+         * Computes the output of the GRU layer. The gates only depend on the
+         * previous activation h, so h is updated in place after all of them are computed.
          */
         @Override
-        public void compute(Layer input) {
-            //Temporary variable to calculate the updateGate, for input x and previous activation h, calculates updateW*x+updateU*h
-            FloatMatrix updateTemp = this.updateW.mmul(input.output);
-            updateTemp.addi(this.updateU.mmul(this.output));
-            updateTemp.addi(this.updateBias);
-            this.updateGate = this.updateActivation.apply(updateTemp);
-            // Temporary variable to calculate the resetGate, for input x and previous activation h, calculates resetW*x+resetU*h
-            FloatMatrix resetTemp = this.resetW.mmul(input.output);
-            resetTemp.addi(this.resetU.mmul(this.output));
-            resetTemp.addi(this.resetBias);
-            this.resetGate = this.resetActivation.apply(resetTemp);
-            // Temporary variable which holds the linear combination of input and hidden activation to calculate the candidate activation
-            FloatMatrix candidateActivation = this.hiddenU.mmul(this.resetGate.mul(this.output));
-            candidateActivation.addi(this.hiddenW.mmul(input.output));
-            candidateActivation.addi(this.hiddenBias);
-            // Temporary variable which holds the linear combination of input and candidate activation to calculate the final activation
-            FloatMatrix outputTemp = this.updateGate.mul(-1);
-            outputTemp.addi(1);
-            outputTemp.muli(this.activationFunction.apply(candidateActivation));
-            this.output = outputTemp.add(this.updateGate.mul(this.output));
+        void compute(float[] input, State state, Workspace ws) {
+            final float[] h = state.activations[this.index];
+            final int n = h.length;
+            final float[] updateGate = ws.a, resetGate = ws.b, resetH = ws.c, candidate = ws.d;
+            // updateGate = updateActivation(updateW*x+updateU*h+updateBias)
+            RNNetwork.preactivation(this.updateBias, this.updateW, input, this.updateU, h, null, null, updateGate);
+            this.updateActivation.apply(updateGate, 0, n);
+            // resetGate = resetActivation(resetW*x+resetU*h+resetBias)
+            RNNetwork.preactivation(this.resetBias, this.resetW, input, this.resetU, h, null, null, resetGate);
+            this.resetActivation.apply(resetGate, 0, n);
+            for (int i = 0; i < n; i++) {
+                resetH[i] = resetGate[i] * h[i];
+            }
+            // candidate = activationFunction(hiddenW*x+hiddenU*(resetGate.h)+hiddenBias)
+            RNNetwork.preactivation(this.hiddenBias, this.hiddenW, input, this.hiddenU, resetH, null, null, candidate);
+            this.activationFunction.apply(candidate, 0, n);
+            // h = (1-updateGate).candidate + updateGate.h
+            for (int i = 0; i < n; i++) {
+                h[i] = ((1 - updateGate[i]) * candidate[i]) + (updateGate[i] * h[i]);
+            }
         }
-        
+
         @Override
-        public void resetLayer() {
-            this.updateGate = FloatMatrix.zeros(this.updateGate.length);
-            this.output = FloatMatrix.zeros(this.hiddenU.rows);
-            this.resetGate = FloatMatrix.zeros(this.resetGate.length);
+        public int size() {
+            return this.hiddenU.rows;
         }
 
         /**
@@ -733,18 +962,15 @@ public class RNNetwork {
          * @param resetBias1 bias values of the neurons to calculate the reset gate
          */
         public void initialize(float[][] hiddenW1, float[][] hiddenU1, float[][] updateW1, float[][] updateU1, float[][] resetW1, float[][] resetU1, float[] hiddenBias1, float[] updateBias1, float[] resetBias1) {
-            this.hiddenW = new FloatMatrix(hiddenW1);
-            this.hiddenU = new FloatMatrix(hiddenU1);
-            this.resetW = new FloatMatrix(resetW1);
-            this.resetU = new FloatMatrix(resetU1);
-            this.updateW = new FloatMatrix(updateW1);
-            this.updateU = new FloatMatrix(updateU1);
-            this.hiddenBias = new FloatMatrix(hiddenBias1);
-            this.updateBias = new FloatMatrix(updateBias1);
-            this.resetBias = new FloatMatrix(resetBias1);
-            this.output = FloatMatrix.zeros(this.hiddenU.rows);
-            this.updateGate = FloatMatrix.zeros(this.hiddenBias.length);
-            this.resetGate = FloatMatrix.zeros(this.hiddenBias.length);            
+            this.hiddenW = new Weights(hiddenW1);
+            this.hiddenU = new Weights(hiddenU1);
+            this.resetW = new Weights(resetW1);
+            this.resetU = new Weights(resetU1);
+            this.updateW = new Weights(updateW1);
+            this.updateU = new Weights(updateU1);
+            this.hiddenBias = RNNetwork.convertFloatsToFloatsDim1(hiddenBias1);
+            this.updateBias = RNNetwork.convertFloatsToFloatsDim1(updateBias1);
+            this.resetBias = RNNetwork.convertFloatsToFloatsDim1(resetBias1);
         }
 
         /**
@@ -763,105 +989,94 @@ public class RNNetwork {
          * @param resetActivation1 activation function to calculate the reset gate
          */
         public void initialize(float[][] hiddenW1, float[][] hiddenU1, float[][] updateW1, float[][] updateU1, float[][] resetW1, float[][] resetU1, float[] hiddenBias1, float[] updateBias1, float[] resetBias1, Activation activationFunction1, Activation updateActivation1, Activation resetActivation1) {
-            this.hiddenW = new FloatMatrix(hiddenW1);
-            this.hiddenU = new FloatMatrix(hiddenU1);
-            this.resetW = new FloatMatrix(resetW1);
-            this.resetU = new FloatMatrix(resetU1);
-            this.updateW = new FloatMatrix(updateW1);
-            this.updateU = new FloatMatrix(updateU1);
-            this.hiddenBias = new FloatMatrix(hiddenBias1);
-            this.updateBias = new FloatMatrix(updateBias1);
-            this.resetBias = new FloatMatrix(resetBias1);
-            this.output = FloatMatrix.zeros(this.hiddenU.rows);
+            this.initialize(hiddenW1, hiddenU1, updateW1, updateU1, resetW1, resetU1, hiddenBias1, updateBias1, resetBias1);
             this.activationFunction = activationFunction1;
             this.updateActivation = updateActivation1;
             this.resetActivation = resetActivation1;
-            this.updateGate = FloatMatrix.zeros(this.hiddenBias.length);
-            this.resetGate = FloatMatrix.zeros(this.hiddenBias.length);            
         }
 
         /**
          * Gets the matrix to be multiplied to the input while calculating the updateGate
          * @return updateW
          */
-        public FloatMatrix getUpdateW() {
+        public Weights getUpdateW() {
             return updateW;
         }
         /**
          * Sets the matrix to be multiplied to the input while calculating the updateGate
          * @param updateW
          */
-        public void setUpdateW(FloatMatrix updateW) {
+        public void setUpdateW(Weights updateW) {
             this.updateW = updateW;
         }
         /**
          * Gets the matrix to be multiplied to the hidden activation while calculating the updateGate
          * @return updateU
          */
-        public FloatMatrix getUpdateU() {
+        public Weights getUpdateU() {
             return updateU;
         }
         /**
          * Sets the matrix to be multiplied to the hidden activation while calculating the updateGate
          * @param updateU
          */
-        public void setUpdateU(FloatMatrix updateU) {
+        public void setUpdateU(Weights updateU) {
             this.updateU = updateU;
         }
         /**
          * Gets the matrix to be multiplied to the input while calculating the resetGate
          * @return resetW
          */
-        public FloatMatrix getResetW() {
+        public Weights getResetW() {
             return resetW;
         }
         /**
          * Sets the matrix to be multiplied to the input while calculating the resetGate
          * @param resetW
          */
-        public void setResetW(FloatMatrix resetW) {
+        public void setResetW(Weights resetW) {
             this.resetW = resetW;
         }
         /**
          * Gets the matrix to be multiplied to the hidden activation while calculating the resetGate
          * @return resetU
          */
-        public FloatMatrix getResetU() {
+        public Weights getResetU() {
             return resetU;
         }
         /**
          * Sets the matrix to be multiplied to the hidden activation while calculating the resetGate
          * @param resetU
          */
-        public void setResetU(FloatMatrix resetU) {
+        public void setResetU(Weights resetU) {
             this.resetU = resetU;
         }
         /**
          * Gets the matrix to be multiplied to the input while calculating the candidate activations
          * @return hiddenW
          */
-        public FloatMatrix getHiddenW() {
+        public Weights getHiddenW() {
             return hiddenW;
         }
         /**
          * Sets the matrix to be multiplied to the input while calculating the candidate activations
          * @param hiddenW
          */
-        public void setHiddenW(FloatMatrix hiddenW) {
+        public void setHiddenW(Weights hiddenW) {
             this.hiddenW = hiddenW;
         }
         /**
          * Gets the matrix to be multiplied to the hidden activation while calculating the candidate activations
          * @return hiddenU
          */
-        public FloatMatrix getHiddenU() {
+        public Weights getHiddenU() {
             return hiddenU;
         }
         /**
          * Sets the matrix to be multiplied to the hidden activation while calculating the candidate activations
          * @param hiddenU
          */
-        public void setHiddenU(FloatMatrix hiddenU) {
+        public void setHiddenU(Weights hiddenU) {
             this.hiddenU = hiddenU;
         }
         /**
@@ -907,35 +1122,30 @@ public class RNNetwork {
             this.activationFunction = activationFunction;
         }
 
-        public FloatMatrix getUpdateBias() {
+        public float[] getUpdateBias() {
             return updateBias;
         }
 
-        public void setUpdateBias(FloatMatrix updateBias) {
+        public void setUpdateBias(float[] updateBias) {
             this.updateBias = updateBias;
         }
 
-        public FloatMatrix getResetBias() {
+        public float[] getResetBias() {
             return resetBias;
         }
 
-        public void setResetBias(FloatMatrix resetBias) {
+        public void setResetBias(float[] resetBias) {
             this.resetBias = resetBias;
         }
 
-        public FloatMatrix getHiddenBias() {
+        public float[] getHiddenBias() {
             return hiddenBias;
         }
 
-        public void setHiddenBias(FloatMatrix hiddenBias) {
+        public void setHiddenBias(float[] hiddenBias) {
             this.hiddenBias = hiddenBias;
         }
 
-        @Override
-        public void computeFromInput(FloatMatrix input) {
-            throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
-        }
-
     }
     /**
      * Extends the Layer class to LSTM,
@@ -947,29 +1157,22 @@ public class RNNetwork {
             super(index);
         }
         
-        FloatMatrix memoryCell;
-        FloatMatrix outputGate;
-        
-        private FloatMatrix Wo;
-        private FloatMatrix Uo;
-        private FloatMatrix Vo;
-        private FloatMatrix bo;
-        private FloatMatrix Wc;
-        private FloatMatrix Uc;
-        private FloatMatrix bc;
+        private Weights Wo;
+        private Weights Uo;
+        private Weights Vo;
+        private float[] bo;
+        private Weights Wc;
+        private Weights Uc;
+        private float[] bc;
         
-        FloatMatrix forgetGate;
-        FloatMatrix inputGate;
-        
-        
-        private FloatMatrix Wf;
-        private FloatMatrix Uf;
-        private FloatMatrix Vf;
-        private FloatMatrix bf;
-        private FloatMatrix Wi;
-        private FloatMatrix Ui;
-        private FloatMatrix Vi;
-        private FloatMatrix bi;
+        private Weights Wf;
+        private Weights Uf;
+        private Weights Vf;
+        private float[] bf;
+        private Weights Wi;
+        private Weights Ui;
+        private Weights Vi;
+        private float[] bi;
         
         private Activation newMemoryActivation = new Tanh();
         private Activation outputActivation = new Tanh();
@@ -977,37 +1180,40 @@ public class RNNetwork {
         private Activation forgetGateActivation = new Sigmoid();
         private Activation inputGateActivation = new Sigmoid();
         
+        /**
+         * Computes the output of the LSTM layer. The memory cell and the
+         * output are updated in place once the gates that read their previous
+         * values have been computed.
+         */
         @Override
-        public void compute(Layer input) {
-            FloatMatrix forgetTemp = this.getWf().mmul(input.output);
-            forgetTemp.addi(this.getUf().mmul(this.output));
-            forgetTemp.addi(this.getVf().mmul(this.memoryCell));
-            forgetTemp.addi(this.getBf());
-            this.forgetGate = this.getForgetGateActivation().apply(forgetTemp);
-            FloatMatrix inputTemp = this.getWi().mmul(input.output);
-            inputTemp.addi(this.getUi().mmul(this.output));
-            inputTemp.addi(this.getVi().mmul(this.memoryCell));
-            inputTemp.addi(this.getBi());
-            this.inputGate = this.getInputGateActivation().apply(inputTemp);
-            FloatMatrix newMemoryTemp = this.getWc().mmul(input.output);
-            newMemoryTemp.addi(this.getUc().mmul(this.output));
-            newMemoryTemp.addi(this.getBc());
-            newMemoryTemp = this.getNewMemoryActivation().apply(newMemoryTemp);
-            FloatMatrix memoryTemp = this.forgetGate.mul(this.memoryCell);
-            memoryTemp.addi(this.inputGate.mul(newMemoryTemp));
-            this.memoryCell = memoryTemp;
-            FloatMatrix outputGateTemp = this.getWo().mmul(input.output);
-            outputGateTemp.addi(this.getUo().mmul(this.output));
-            outputGateTemp.addi(this.getVo().mmul(this.memoryCell));
-            outputGateTemp.addi(this.getBo());
-            this.outputGate = this.getOutputGateActivation().apply(outputGateTemp);
-            this.output = this.outputGate.mul(this.getOutputActivation().apply(this.memoryCell));
+        void compute(float[] input, State state, Workspace ws) {
+            final float[] h = state.activations[this.index], memoryCell = state.cells[this.index];
+            final int n = h.length;
+            final float[] forgetGate = ws.a, inputGate = ws.b, newMemory = ws.c, outputGate = ws.d;
+            RNNetwork.preactivation(this.bf, this.Wf, input, this.Uf, h, this.Vf, memoryCell, forgetGate);
+            this.forgetGateActivation.apply(forgetGate, 0, n);
+            RNNetwork.preactivation(this.bi, this.Wi, input, this.Ui, h, this.Vi, memoryCell, inputGate);
+            this.inputGateActivation.apply(inputGate, 0, n);
+            RNNetwork.preactivation(this.bc, this.Wc, input, this.Uc, h, null, null, newMemory);
+            this.newMemoryActivation.apply(newMemory, 0, n);
+            for (int i = 0; i < n; i++) {
+                memoryCell[i] = (forgetGate[i] * memoryCell[i]) + (inputGate[i] * newMemory[i]);
+            }
+            // the output gate peeks at the new memory cell
+            RNNetwork.preactivation(this.bo, this.Wo, input, this.Uo, h, this.Vo, memoryCell, outputGate);
+            this.outputGateActivation.apply(outputGate, 0, n);
+            System.arraycopy(memoryCell, 0, newMemory, 0, n);
+            this.outputActivation.apply(newMemory, 0, n);
+            for (int i = 0; i < n; i++) {
+                h[i] = outputGate[i] * newMemory[i];
+            }
         }
 
         @Override
-        public void computeFromInput(FloatMatrix input) {
-            throw new UnsupportedOperationException("Not supported on any layer but the input layer"); //To change body of generated methods, choose Tools | Templates.
+        public int size() {
+            return this.Uo.rows;
         }
+
         /**
          * Initializes the LSTM layer
          * @param Wo1
@@ -1027,235 +1233,230 @@ public class RNNetwork {
          * @param bc1 
          */
         public void initialize(float[][] Wo1, float[][] Uo1, float[][] Vo1, float[][] Wf1, float[][] Uf1, float[][] Vf1, float[][] Wi1, float[][] Ui1, float[][] Vi1, float[][] Wc1, float[][] Uc1, float[] bo1, float[] bf1, float[] bi1, float[] bc1) {
-            this.setWo(new FloatMatrix(Wo1));
-            this.setUo(new FloatMatrix(Uo1));
-            this.setVo(new FloatMatrix(Vo1));
-            this.setWf(new FloatMatrix(Wf1));
-            this.setUf(new FloatMatrix(Uf1));
-            this.setVf(new FloatMatrix(Vf1));
-            this.setWi(new FloatMatrix(Wi1));
-            this.setUi(new FloatMatrix(Ui1));
-            this.setVi(new FloatMatrix(Vi1));
-            this.setWc(new FloatMatrix(Wc1));
-            this.setUc(new FloatMatrix(Uc1));
-            this.setBo(new FloatMatrix(bo1));
-            this.setBf(new FloatMatrix(bf1));
-            this.setBi(new FloatMatrix(bi1));
-            this.setBc(new FloatMatrix(bc1));
-            this.output = FloatMatrix.zeros(this.getUo().rows);
-            this.memoryCell = FloatMatrix.zeros(this.getUo().rows);
-            this.forgetGate = FloatMatrix.zeros(this.getUo().rows);
-            this.inputGate = FloatMatrix.zeros(this.getUo().rows);
-            this.outputGate = FloatMatrix.zeros(this.getUo().rows);
+            this.setWo(new Weights(Wo1));
+            this.setUo(new Weights(Uo1));
+            this.setVo(new Weights(Vo1));
+            this.setBo(RNNetwork.convertFloatsToFloatsDim1(bo1));
+            this.setWc(new Weights(Wc1));
+            this.setUc(new Weights(Uc1));
+            this.setBc(RNNetwork.convertFloatsToFloatsDim1(bc1));
+            this.setWf(new Weights(Wf1));
+            this.setUf(new Weights(Uf1));
+            this.setVf(new Weights(Vf1));
+            this.setBf(RNNetwork.convertFloatsToFloatsDim1(bf1));
+            this.setWi(new Weights(Wi1));
+            this.setUi(new Weights(Ui1));
+            this.setVi(new Weights(Vi1));
+            this.setBi(RNNetwork.convertFloatsToFloatsDim1(bi1));
         }
 
         /**
          * @return the Wo
          */
-        public FloatMatrix getWo() {
+        public Weights getWo() {
             return Wo;
         }
 
         /**
          * @param Wo the Wo to set
          */
-        public void setWo(FloatMatrix Wo) {
+        public void setWo(Weights Wo) {
             this.Wo = Wo;
         }
 
         /**
          * @return the Uo
          */
-        public FloatMatrix getUo() {
+        public Weights getUo() {
             return Uo;
         }
 
         /**
          * @param Uo the Uo to set
          */
-        public void setUo(FloatMatrix Uo) {
+        public void setUo(Weights Uo) {
             this.Uo = Uo;
         }
 
         /**
          * @return the Vo
          */
-        public FloatMatrix getVo() {
+        public Weights getVo() {
             return Vo;
         }
 
         /**
          * @param Vo the Vo to set
          */
-        public void setVo(FloatMatrix Vo) {
+        public void setVo(Weights Vo) {
             this.Vo = Vo;
         }
 
         /**
          * @return the bo
          */
-        public FloatMatrix getBo() {
+        public float[] getBo() {
             return bo;
         }
 
         /**
          * @param bo the bo to set
          */
-        public void setBo(FloatMatrix bo) {
+        public void setBo(float[] bo) {
             this.bo = bo;
         }
 
         /**
          * @return the Wc
          */
-        public FloatMatrix getWc() {
+        public Weights getWc() {
             return Wc;
         }
 
         /**
          * @param Wc the Wc to set
          */
-        public void setWc(FloatMatrix Wc) {
+        public void setWc(Weights Wc) {
             this.Wc = Wc;
         }
 
         /**
          * @return the Uc
          */
-        public FloatMatrix getUc() {
+        public Weights getUc() {
             return Uc;
         }
 
         /**
          * @param Uc the Uc to set
          */
-        public void setUc(FloatMatrix Uc) {
+        public void setUc(Weights Uc) {
             this.Uc = Uc;
         }
 
         /**
          * @return the bc
          */
-        public FloatMatrix getBc() {
+        public float[] getBc() {
             return bc;
         }
 
         /**
          * @param bc the bc to set
          */
-        public void setBc(FloatMatrix bc) {
+        public void setBc(float[] bc) {
             this.bc = bc;
         }
 
         /**
          * @return the Wf
          */
-        public FloatMatrix getWf() {
+        public Weights getWf() {
             return Wf;
         }
 
         /**
          * @param Wf the Wf to set
          */
-        public void setWf(FloatMatrix Wf) {
+        public void setWf(Weights Wf) {
             this.Wf = Wf;
         }
 
         /**
          * @return the Uf
          */
-        public FloatMatrix getUf() {
+        public Weights getUf() {
             return Uf;
         }
 
         /**
          * @param Uf the Uf to set
          */
-        public void setUf(FloatMatrix Uf) {
+        public void setUf(Weights Uf) {
             this.Uf = Uf;
         }
 
         /**
          * @return the Vf
          */
-        public FloatMatrix getVf() {
+        public Weights getVf() {
             return Vf;
         }
 
         /**
          * @param Vf the Vf to set
          */
-        public void setVf(FloatMatrix Vf) {
+        public void setVf(Weights Vf) {
             this.Vf = Vf;
         }
 
         /**
          * @return the bf
          */
-        public FloatMatrix getBf() {
+        public float[] getBf() {
             return bf;
         }
 
         /**
          * @param bf the bf to set
          */
-        public void setBf(FloatMatrix bf) {
+        public void setBf(float[] bf) {
             this.bf = bf;
         }
 
         /**
          * @return the Wi
          */
-        public FloatMatrix getWi() {
+        public Weights getWi() {
             return Wi;
         }
 
         /**
          * @param Wi the Wi to set
          */
-        public void setWi(FloatMatrix Wi) {
+        public void setWi(Weights Wi) {
             this.Wi = Wi;
         }
 
         /**
          * @return the Ui
          */
-        public FloatMatrix getUi() {
+        public Weights getUi() {
             return Ui;
         }
 
         /**
          * @param Ui the Ui to set
          */
-        public void setUi(FloatMatrix Ui) {
+        public void setUi(Weights Ui) {
             this.Ui = Ui;
         }
 
         /**
          * @return the Vi
          */
-        public FloatMatrix getVi() {
+        public Weights getVi() {
             return Vi;
         }
 
         /**
          * @param Vi the Vi to set
          */
-        public void setVi(FloatMatrix Vi) {
+        public void setVi(Weights Vi) {
             this.Vi = Vi;
         }
 
         /**
          * @return the bi
          */
-        public FloatMatrix getBi() {
+        public float[] getBi() {
             return bi;
         }
 
         /**
          * @param bi the bi to set
          */
-        public void setBi(FloatMatrix bi) {
+        public void setBi(float[] bi) {
             this.bi = bi;
         }
 
@@ -1330,11 +1531,9 @@ public class RNNetwork {
         }
 
         @Override
-        public void resetLayer() {
-            this.output = FloatMatrix.zeros(this.Uo.rows);
-            this.memoryCell = FloatMatrix.zeros(this.Uc.rows);
-            this.forgetGate = FloatMatrix.zeros(this.Uf.rows);
-            this.inputGate = FloatMatrix.zeros(this.Ui.rows);
+        public void reset(State state) {
+            Arrays.fill(state.activations[this.index], 0);
+            Arrays.fill(state.cells[this.index], 0);
         }
         
     }
@@ -1351,11 +1550,11 @@ public class RNNetwork {
         /**
          * Holds the connection weights from the previous layer
          */
-        FloatMatrix weightMatrix;
+        Weights weightMatrix;
         /**
          * Holds the biases of the neurons in the layer
          */
-        FloatMatrix biases;
+        float[] biases;
         /**
          * Activation for the Dense layer,
          * usually a relu function and hence is initialized so
@@ -1365,10 +1564,15 @@ public class RNNetwork {
          * Computes the output of the Dense layer
          */
         @Override
-        public void compute(Layer input) {
-            FloatMatrix tempOutput = this.weightMatrix.mmul(input.output);
-            tempOutput.addi(biases);
-            this.output = this.activationFunction.apply(tempOutput);
+        void compute(float[] input, State state, Workspace ws) {
+            final float[] out = state.activations[this.index];
+            RNNetwork.preactivation(this.biases, this.weightMatrix, input, null, null, null, null, out);
+            this.activationFunction.apply(out, 0, out.length);
+        }
+
+        @Override
+        public int size() {
+            return this.weightMatrix.rows;
         }
 
         /**
@@ -1377,28 +1581,26 @@ public class RNNetwork {
          * @param biases1 - biases for the neurons in the layer
          */
         public void initialize(float[][] weightMatrix1, float[] biases1) {
-            this.weightMatrix = new FloatMatrix(weightMatrix1);
-            this.biases = new FloatMatrix(biases1);
-            this.output = FloatMatrix.zeros(this.weightMatrix.rows);
+            this.weightMatrix = new Weights(weightMatrix1);
+            this.biases = RNNetwork.convertFloatsToFloatsDim1(biases1);
         }
         /**
          * Initializes the dense layer given weightMatrix and the activation function
          * @param weightMatrix1 - weightMatrix which multiplies the previous input layer
-         * @param biases1 - biases for the neurons in the layer
+         * @param biases1 - biases for the neurons in the layer, as a column
          * @param activationFunction1 - activation function of the layer
          */
         public void initialize(float[][] weightMatrix1, float[][] biases1, Activation activationFunction1) {
-            this.weightMatrix = new FloatMatrix(weightMatrix1);
-            this.biases = new FloatMatrix(biases1);
-            this.output = FloatMatrix.zeros(this.weightMatrix.rows);
+            this.weightMatrix = new Weights(weightMatrix1);
+            this.biases = new Weights(biases1).data;
             this.activationFunction = activationFunction1;
         }
         
-        public FloatMatrix getWeightMatrix() {
+        public Weights getWeightMatrix() {
             return weightMatrix;
         }
 
-        public void setWeightMatrix(FloatMatrix weightMatrix) {
+        public void setWeightMatrix(Weights weightMatrix) {
             this.weightMatrix = weightMatrix;
         }
 
@@ -1410,24 +1612,14 @@ public class RNNetwork {
             this.activationFunction = activationFunction;
         }
 
-        public FloatMatrix getBiases() {
+        public float[] getBiases() {
             return biases;
         }
 
-        public void setBiases(FloatMatrix biases) {
+        public void setBiases(float[] biases) {
             this.biases = biases;
         }
 
-        @Override
-        public void computeFromInput(FloatMatrix input) {
-            throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
-        }
-
-        @Override
-        public void resetLayer() {
-            this.output = FloatMatrix.zeros(this.biases.length);
-        }
-
     }
     /**
      * Converts a 1D float array to a 2D float array, given the reshape parameter
@@ -1516,8 +1708,8 @@ public class RNNetwork {
      * Resets all the layers in the network
      */
     public void resetNetworkLayers () {
-        for(int i=0;i<this.nLayers;i++) {
-            this.layers[i].resetLayer();
+        if (this.defaultState != null) {
+            this.defaultState.reset();
         }
     }
     
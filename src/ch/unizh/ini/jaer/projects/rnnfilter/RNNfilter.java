@@ -22,7 +22,6 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.JOptionPane;
 
 import org.apache.commons.lang3.StringUtils;
-import org.jblas.FloatMatrix;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
@@ -149,6 +148,10 @@ public class RNNfilter extends EventFilter2D implements FrameAnnotater, Property
 	 * Array to store the binned data, this has the data from the latest bin
 	 */
 	private int[] binnedData = new int[this.getnChannels()];
+	/**
+	 * The binned data converted to floats as the network input, reused for every bin
+	 */
+	private float[] binnedInput = new float[this.getnChannels()];
 	/**
 	 * When not using continuous live recording, this array list holds the list of binned data at all previous times,
 	 * which is then given to an RNN network
@@ -618,12 +621,12 @@ public class RNNfilter extends EventFilter2D implements FrameAnnotater, Property
 		if (this.binnedDataList.isEmpty()) {
 			return;
 		}
-		FloatMatrix tempOutput;
-		tempOutput = FloatMatrix.zeros(this.getnChannels());
+		float[] tempOutput = new float[this.getnChannels()];
 		for (int[] currentBinnedData : this.binnedDataList) {
-			tempOutput = this.rnnetwork.output(RNNfilter.intToFloat(currentBinnedData));
+			this.binnedInput = RNNfilter.intToFloat(currentBinnedData, this.binnedInput);
+			tempOutput = this.rnnetwork.output(this.binnedInput);
 		}
-		this.networkOutput = RNNfilter.DMToFloat(tempOutput);
+		this.networkOutput = Arrays.copyOf(tempOutput, tempOutput.length);
 		this.label = RNNfilter.indexOfMaxValue(this.networkOutput);
 	}
 
@@ -682,10 +685,12 @@ public class RNNfilter extends EventFilter2D implements FrameAnnotater, Property
 	 */
 	public void processRNN(int timeStamp) {
 		long now = System.nanoTime();
-		FloatMatrix tempOutput = this.rnnetwork.output(RNNfilter.intToFloat(this.binnedData));
+		this.binnedInput = RNNfilter.intToFloat(this.binnedData, this.binnedInput);
+		float[] tempOutput = this.rnnetwork.output(this.binnedInput);
 		long dt = System.nanoTime() - now;
 		// log.log(Level.INFO, String.format("%d nanoseconds for one frame computation", dt));
-		this.networkOutput = RNNfilter.DMToFloat(tempOutput);
+		// the network reuses its output array, copy it since it is kept for rendering
+		this.networkOutput = Arrays.copyOf(tempOutput, tempOutput.length);
 		if (chip.getCanvas().getDisplayMethod() instanceof RollingCochleaGramDisplayMethod) {
 			if (!addedDisplayMethodPropertyChangeListener) {
 				chip.getCanvas().getDisplayMethod().getSupport().addPropertyChangeListener(this);
@@ -703,9 +708,12 @@ public class RNNfilter extends EventFilter2D implements FrameAnnotater, Property
 		this.resetBins();
 		// if the present timeStamp is very far from the last time RNN was processed, that means an appropriate number
 		// of zero bins have to be sent to the network
+		if (timeStamp > (this.lastBinCompleteTime + this.getBinTimeLength())) {
+			this.binnedInput = RNNfilter.intToFloat(this.binnedData, this.binnedInput); // all zero bins
+		}
 		while (timeStamp > (this.lastBinCompleteTime + this.getBinTimeLength())) {
-			tempOutput = this.rnnetwork.output(RNNfilter.intToFloat(this.binnedData));
-			this.networkOutput = RNNfilter.DMToFloat(tempOutput);
+			tempOutput = this.rnnetwork.output(this.binnedInput);
+			this.networkOutput = Arrays.copyOf(tempOutput, tempOutput.length);
 			this.rnnOutputList.add(this.networkOutput);
 			this.label = RNNfilter.indexOfMaxValue(this.networkOutput);
 			this.lastBinCompleteTime += this.getBinTimeLength();
@@ -742,17 +750,20 @@ public class RNNfilter extends EventFilter2D implements FrameAnnotater, Property
 	}
 
 	/**
-	 * Copies a 1 dimensional FloatMatrix (jblas) into a 1 dimensional float array
+	 * Copies int array to a float array without allocating when the given float array has the right length
 	 *
-	 * @param floatMatrix
-	 *            - 1 dimensional float matrix, there is no check make sure the input is indeed 1 dimensional
-	 * @return 1 dimensional float array
-	 */
-	public static float[] DMToFloat(FloatMatrix floatMatrix) {
-		int length = floatMatrix.length;
-		float[] floatArray = new float[length];
-		for (int i = 0; i < length; i++) {
-			floatArray[i] = floatMatrix.get(i);
+	 * @param intArray
+	 *            - 1 dimensional int array
+	 * @param floatArray
+	 *            - the array to copy into, may be null
+	 * @return floatArray, or a new array if it was null or of a different length
+	 */
+	public static float[] intToFloat(int[] intArray, float[] floatArray) {
+		if ((floatArray == null) || (floatArray.length != intArray.length)) {
+			floatArray = new float[intArray.length];
+		}
+		for (int i = 0; i < intArray.length; i++) {
+			floatArray[i] = intArray[i];
 		}
 		return floatArray;
 	}
@@ -22,7 +22,6 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.JOptionPane;
 
 import org.apache.commons.lang3.StringUtils;
-import org.jblas.FloatMatrix;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
@@ -591,12 +590,11 @@ public class RNNfilterExpFeatures extends EventFilter2D implements FrameAnnotate
         if (this.binnedDataList.isEmpty()) {
             return;
         }
-        FloatMatrix tempOutput;
-        tempOutput = FloatMatrix.zeros(this.getnChannels());
+        float[] tempOutput = new float[this.getnChannels()];
         for (float[] currentBinnedData : this.binnedDataList) {
             tempOutput = this.rnnetwork.output(currentBinnedData);
         }
-        this.networkOutput = RNNfilterExpFeatures.DMToFloat(tempOutput);
+        this.networkOutput = Arrays.copyOf(tempOutput, tempOutput.length);
         this.label = RNNfilterExpFeatures.indexOfMaxValue(this.networkOutput);
     }
 
@@ -660,8 +658,9 @@ public class RNNfilterExpFeatures extends EventFilter2D implements FrameAnnotate
         for (int i = 0; i < this.binnedData.length; i++) {
             this.binnedData[i] /= this.binEventCount;
         }
-        FloatMatrix tempOutput = this.rnnetwork.output(this.binnedData);
-        this.networkOutput = RNNfilterExpFeatures.DMToFloat(tempOutput);
+        float[] tempOutput = this.rnnetwork.output(this.binnedData);
+        // the network reuses its output array, copy it since it is kept for rendering
+        this.networkOutput = Arrays.copyOf(tempOutput, tempOutput.length);
         if (chip.getCanvas().getDisplayMethod() instanceof RollingCochleaGramDisplayMethod) {
             if (!addedDisplayMethodPropertyChangeListener) {
                 chip.getCanvas().getDisplayMethod().getSupport().addPropertyChangeListener(this);
@@ -681,7 +680,7 @@ public class RNNfilterExpFeatures extends EventFilter2D implements FrameAnnotate
         // of zero bins have to be sent to the network
         while (timeStamp > (this.lastBinCompleteTime + this.getBinTimeLength())) {
             tempOutput = this.rnnetwork.output(this.binnedData);
-            this.networkOutput = RNNfilterExpFeatures.DMToFloat(tempOutput);
+            this.networkOutput = Arrays.copyOf(tempOutput, tempOutput.length);
             this.rnnOutputList.add(this.networkOutput);
             this.label = RNNfilterExpFeatures.indexOfMaxValue(this.networkOutput);
             this.lastBinCompleteTime += this.getBinTimeLength();
@@ -717,23 +716,6 @@ public class RNNfilterExpFeatures extends EventFilter2D implements FrameAnnotate
         return floatArray;
     }
 
-    /**
-     * Copies a 1 dimensional FloatMatrix (jblas) into a 1 dimensional float
-     * array
-     *
-     * @param floatMatrix - 1 dimensional float matrix, there is no check make
-     * sure the input is indeed 1 dimensional
-     * @return 1 dimensional float array
-     */
-    public static float[] DMToFloat(FloatMatrix floatMatrix) {
-        int length = floatMatrix.length;
-        float[] floatArray = new float[length];
-        for (int i = 0; i < length; i++) {
-            floatArray[i] = floatMatrix.get(i);
-        }
-        return floatArray;
-    }
-
     /**
      * Returns the index of the maximum value in the array
      *
@@ -196,10 +196,16 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
     //timestamps of the current spike and the previous spike
     float currTime = 0.0f;
     float prevTime = 0.0f;
-    //store spikes and active neurons for propagateSpikingCnn
-    public List<Pair> spikeList = new ArrayList<>();
-    public List<Integer> activeSet = new ArrayList<>();
-    public List<Pair> activeSetSub = new ArrayList<>();
+    //ON events of the current packet: times in seconds and 1-based addresses
+    private float[] eventTimes = new float[0];
+    private int[] eventX = new int[0], eventY = new int[0];
+    private int eventCount = 0;
+    //input spikes for propagateSpikingCnn: column, row and time in the input layer
+    private float[] inputTimes = new float[0];
+    private int[] inputX = new int[0], inputY = new int[0];
+    private int[] medianScratch = new int[0];
+    //time up to which the decay of outSumSpikes has been applied
+    private float outSumTime = 0.0f;
     //store addresses and timestamps for the batched method
     public List<Float> batchTimes = new ArrayList<>();
     public List<Float> batchTimesRest = new ArrayList<>();
@@ -229,12 +235,12 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
 
     @Override
     synchronized public EventPacket<?> filterPacket(EventPacket<?> in){
-        List<Float> times = new ArrayList<>();
-        List<Integer> y = new ArrayList<>();
-        List<Integer> x = new ArrayList<>();
-        List<Integer> y_clone = new ArrayList<>();
-        List<Integer> x_clone = new ArrayList<>();
-
+        eventCount = 0;
+        if (eventTimes.length < in.getSize()) {
+            eventTimes = new float[in.getSize()];
+            eventX = new int[in.getSize()];
+            eventY = new int[in.getSize()];
+        }
 
         for(BasicEvent o: in) {
             if (((PolarityEvent) o).polarity == PolarityEvent.Polarity.On){
@@ -242,11 +248,10 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
                 if (o.timestamp>=0) {
                     ts = (float) (o.timestamp / 1e6);
                 }else ts = (float)(o.timestamp/1e6+4294.967296f);
-                times.add(ts);
-                y.add((int) o.y + 1);
-                x.add((int) o.x + 1);
-                y_clone.add((int) o.y + 1);
-                x_clone.add((int) o.x + 1);
+                eventTimes[eventCount] = ts;
+                eventX[eventCount] = (int) o.x + 1;
+                eventY[eventCount] = (int) o.y + 1;
+                eventCount++;
             }
         }
 
@@ -263,7 +268,7 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
         //calculate latency and reset if the digit is changed
         if(showLatency) {
             if (changeDigit) {
-                if (!times.isEmpty()) {
+                if (eventCount > 0) {
                     digitStart = startingTimes.get(0);
                     changeDigit = false;
                     winnerGot = false;
@@ -273,31 +278,23 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
 
 
         if(spike) {
-            if (!x_clone.isEmpty()) {
+            if (eventCount > 0) {
 
                 //use median tracker to process input
                 if (MNIST && medianTracker) {
-                    xMedian = getMedian(x_clone);
-                    yMedian = getMedian(y_clone);
+                    xMedian = getMedian(eventX, eventCount);
+                    yMedian = getMedian(eventY, eventCount);
                 }
 
                 //process spikes such that they're consistent with the size of input layer
-                List<List<Integer>> coordinates_index_new = DVStoPixelInputSpace(x, y, xMedian, yMedian);
-                List<Float> times_new = new ArrayList<>();
-                if (MNIST) {
-                    for (int i = 0; i < coordinates_index_new.size(); i++) {
-                        times_new.add(times.get(coordinates_index_new.get(i).get(2)));
-                    }
-                } else if (robotSteering) {
-                    times_new = times;
-                }
+                int numInput = eventsToInputSpace(xMedian, yMedian);
 
                 //propagate through network
-                propagateSpikingCnn(coordinates_index_new, tRef, threshold, times_new);
+                propagateSpikes(numInput, tRef, threshold);
 
 
                 //make prediction based on output scores
-                prevTimeBatch = times.get(times.size() - 1);
+                prevTimeBatch = eventTimes[eventCount - 1];
                 double max = 0;
                 int prediction = 0;
                 for (int i = 0; i < net.outSumSpikes.length; i++) {
@@ -320,7 +317,7 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
 
 
                 if (labelsAvailable) {
-                    if (times.get(times.size() - 1) > endingTimes.get(0)) {
+                    if (eventTimes[eventCount - 1] > endingTimes.get(0)) {
                         finalPredict = predict;
                         label = labels.get(0);
                         totalCount++;
@@ -345,6 +342,16 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
                 }
             }
         }else if (batch) {
+            List<Float> times = new ArrayList<>(eventCount);
+            List<Integer> y = new ArrayList<>(eventCount);
+            List<Integer> x = new ArrayList<>(eventCount);
+            for (int i = 0; i < eventCount; i++) {
+                times.add(eventTimes[i]);
+                y.add(eventY[i]);
+                x.add(eventX[i]);
+            }
+            List<Integer> y_clone = new ArrayList<>(y);
+            List<Integer> x_clone = new ArrayList<>(x);
             if (!times.isEmpty()) {
                 if (times.get(times.size()-1) <= currTimeBatch) {
                     batchTimes.addAll(times);
@@ -731,6 +738,7 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
                 net.outRefracEnd[i]=0.0f;
                 net.outSumSpikes[i]=0;
             }
+            initSparseLayers();
             log.info(toString(networkReader));
         } catch (RuntimeException e) {
             log.warning("couldn't load net from file: caught " + e.toString());
@@ -808,15 +816,16 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
                     current_layer.spikes.set(j, correctly_sized_zeros);
                 }
             }else if (spike){
-                float[][] correctly_sized_zeros = new float[current_layer.outMaps][current_layer.dimX * current_layer.dimY];
-                float[][] zeros = new float[current_layer.outMaps][current_layer.dimX * current_layer.dimY];
-                for (int j = 0; j < correctly_sized_zeros.length; j++) {
-                    for (int k = 0; k < correctly_sized_zeros[0].length; k++) {
-                        zeros[j][k] = 0.0f;
+                if (current_layer.membranePot != null) {
+                    for (float[] m : current_layer.membranePot) {
+                        Arrays.fill(m, 0.0f);
+                    }
+                }
+                if (!current_layer.refracEnd.isEmpty()) {
+                    for (float[] r : current_layer.refracEnd.get(0)) {
+                        Arrays.fill(r, 0.0f);
                     }
                 }
-                current_layer.membranePot = zeros;
-                net.layers.get(i).refracEnd.add(zeros);
             }
         }
         int outputclass = net.outMemPot.length;
@@ -848,6 +857,66 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
         return median;
     }
 
+    //median of the distinct values among the first n elements, as getMedian(List) but without boxing
+    private int getMedian(int[] values, int n) {
+        if (medianScratch.length < n) {
+            medianScratch = new int[values.length];
+        }
+        int[] v = medianScratch;
+        System.arraycopy(values, 0, v, 0, n);
+        Arrays.sort(v, 0, n);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || v[i] != v[m - 1]) {
+                v[m++] = v[i];
+            }
+        }
+        if (m%2==0){
+            return (int)Math.ceil((double)((v[m/2]+v[m/2-1]))/2.0);
+        }else{
+            return v[(m-1)/2];
+        }
+    }
+
+    /**
+     * Maps the events of the packet to input layer spikes as DVStoPixelInputSpace does, writing them to inputX,
+     * inputY and inputTimes.
+     *
+     * @return the number of input spikes
+     */
+    private int eventsToInputSpace(int x_median, int y_median){
+        if (inputTimes.length < eventCount) {
+            inputTimes = new float[eventTimes.length];
+            inputX = new int[eventTimes.length];
+            inputY = new int[eventTimes.length];
+        }
+        int n = 0;
+        if (MNIST) {
+            for (int i = 0; i < eventCount; i++) {
+                int x_new = eventX[i] - x_median + 14;
+                int y_new = eventY[i] - y_median + 14;
+                if (x_new >= 1 && x_new <= 28 && y_new >= 1 && y_new <= 28) {
+                    inputX[n] = x_new-1;
+                    inputY[n] = 28-y_new;
+                    inputTimes[n] = eventTimes[i];
+                    n++;
+                }
+            }
+        } else if (robotSteering){
+            int dimx = net.layers.get(0).dimX;
+            int dimy = net.layers.get(0).dimY;
+            for (int i = 0; i < eventCount; i++) {
+                int x_new = (int) Math.floor(eventX[i] * (dimx-1) * 1.0 / (chip.getSizeX()-1) + (chip.getSizeX()-dimx)*1.0 / (chip.getSizeX()-1));
+                int y_new = (int) Math.floor(eventY[i] * (dimy-1) * 1.0 / (chip.getSizeY()-1) + (chip.getSizeY()-dimy)*1.0 / (chip.getSizeY()-1));
+                inputX[n] = y_new;
+                inputY[n] = x_new;
+                inputTimes[n] = eventTimes[i];
+                n++;
+            }
+        }
+        return n;
+    }
+
     //convert input spikes to be consistent with size of the input layer for median tracker
     public List<List<Integer>> DVStoPixelInputSpace(List<Integer> x, List<Integer> y, int x_median, int y_median){
         List<List<Integer>> InputSpace = new ArrayList<>();
@@ -886,228 +955,276 @@ public class SpikingCNN extends EventFilter2D implements FrameAnnotater {
         }
     }
 
+    /**
+     * Propagates input spikes through the network one at a time. The input is given as triplets (row, column, index)
+     * as returned by DVStoPixelInputSpace, with the spike times in ts.
+     */
     public void propagateSpikingCnn(List<List<Integer>> input, float tRef, float threshold, List<Float> ts) {
+        int n = ts.size();
+        if (inputTimes.length < n) {
+            inputTimes = new float[n];
+            inputX = new int[n];
+            inputY = new int[n];
+        }
+        for (int i = 0; i < n; i++) {
+            inputX[i] = input.get(i).get(1);
+            inputY[i] = input.get(i).get(0);
+            inputTimes[i] = ts.get(i);
+        }
+        propagateSpikes(n, tRef, threshold);
+    }
+
+    /**
+     * Event driven propagation of the first n spikes in inputX, inputY and inputTimes. Each spike only updates the
+     * neurons it is connected to: a spike of a convolutional layer's input adds the kernel weights to the kernelSize x
+     * kernelSize neurons of its receptive field in every output map, using the precomputed kernelOffsets for spikes away
+     * from the border, and a spike of a subsampling layer's input increments one neuron. Only the neurons touched by
+     * the step are then checked for spiking, and their spikes are passed to the next layer as int addresses in the
+     * layer's spikeQueue. The hidden neurons do not leak; the decay of the output scores outSumSpikes is applied lazily,
+     * from the time of the last update, when an output neuron spikes and at the end of the call.
+     */
+    private void propagateSpikes(int n, float tRef, float threshold) {
+        final List<SpikingCnnStructure.Layer> layers = net.layers;
+        final SpikingCnnStructure.Layer inputLayer = layers.get(0);
+        final float[][] inputRef = inputLayer.refracEnd.get(0);
+        final int d = net.fcWeights.length;
+        if (net.outSpikes == null || net.outSpikes.length != d) {
+            net.outSpikes = new int[d];
+        }
 
-        for (int i = 0; i < ts.size(); i++) {
+        for (int i = 0; i < n; i++) {
 
             //inputlayer
             prevTime = currTime;
-            currTime = ts.get(i);
+            currTime = inputTimes[i];
 
-            if (!spikeList.isEmpty()) {
-                spikeList.clear();
+            inputLayer.spikeCount = 0;
+            int x = inputX[i], y = inputY[i];
+            if (inputRef[x][y]<=currTime){
+                inputLayer.spikeQueue[inputLayer.spikeCount++] = inputLayer.dimX*y+x;
+                inputRef[x][y]=currTime+tRef;
             }
 
-            float[][] inputRef = net.layers.get(0).refracEnd.get(0);
-            if (inputRef[input.get(i).get(1)][input.get(i).get(0)]<=currTime){
-                spikeList.add(new Pair(1, coordinateConversionMatrixToList(input.get(i).get(1) + 1, input.get(i).get(0) + 1, net.layers.get(0).dimX)));
-                inputRef[input.get(i).get(1)][input.get(i).get(0)]=currTime+tRef;
-                net.layers.get(0).refracEnd.clear();
-                net.layers.get(0).refracEnd.add(inputRef);
+            SpikingCnnStructure.Layer prevLayer = inputLayer;
+            for (int j = 1; j < layers.size(); j++) {
+                SpikingCnnStructure.Layer layer = layers.get(j);
+                if ("c".equals(layer.type)) {
+                    convolveSpikes(prevLayer, layer, tRef, threshold);
+                    prevLayer = layer;
+                }else if ("s".equals(layer.type)){
+                    subsampleSpikes(prevLayer, layer, tRef, threshold);
+                    prevLayer = layer;
+                }
             }
 
-            for (int j = 0; j < net.layers.size(); j++) {
-                //convlayer
-                if ("c".equals(net.layers.get(j).type)) {
-
-                    if (!activeSet.isEmpty()) {
-                        activeSet.clear();
+            //fully connected output layer; the spike addresses of the last layer are the indices of the feature vector
+            final int[] spikes = prevLayer.spikeQueue;
+            final int numSpikes = prevLayer.spikeCount;
+            boolean outputSpiked = false;
+            for (int j = 0; j < d; j++) {
+                float impulse = 0.0f;
+                //only add input from neurons past their refractory point
+                if (net.outRefracEnd[j] < currTime) {
+                    final float[] w = net.fcWeights[j];
+                    for (int k = 0; k < numSpikes; k++) {
+                        impulse += w[spikes[k]];
                     }
+                    impulse += net.fcBias[j];
+                }
+                net.outMemPot[j] += impulse;
+                if (net.outMemPot[j] < negLimit) {
+                    net.outMemPot[j] = negLimit;
+                }
+                if (net.outMemPot[j] >= threshold) {
+                    net.outSpikes[j] = 1;
+                    net.outMemPot[j] = 0.0f;
+                    net.outRefracEnd[j] = currTime + tRef;
+                    outputSpiked = true;
+                } else {
+                    net.outSpikes[j] = 0;
+                }
+            }
 
-                    int kSize = net.layers.get(j).kernelSize;
-                    int prevDimX = net.layers.get(j-1).dimX;
-                    int currDimX = net.layers.get(j).dimX;
-
-                    List<Integer> uniqueSpikes = new ArrayList<>();
-                    for (int k = 0; k < spikeList.size(); k++) {
-                        int pos = (int) spikeList.get(k).y;
-                        if (!uniqueSpikes.contains(pos)){
-                            uniqueSpikes.add(pos);
-                        }
-                    }
+            //store results for analysis later
+            if (outputSpiked) {
+                decayOutputScores(currTime);
+                for (int j = 0; j < d; j++) {
+                    net.outSumSpikes[j] += net.outSpikes[j];
+                }
+            }
+        }
+        decayOutputScores(currTime);
+    }
 
-                    //define active set and convolution
-                    for (int k = 0; k < uniqueSpikes.size(); k++) {
-                        int x = (int) coordinateConversionListToMatrix(uniqueSpikes.get(k), prevDimX).x;
-                        int y = (int) coordinateConversionListToMatrix(uniqueSpikes.get(k), prevDimX).y;
+    //applies the decay of outSumSpikes from outSumTime to time t
+    private void decayOutputScores(float t) {
+        if (!reset && t != outSumTime) {
+            float decay = (float) Math.exp(-(t - outSumTime) / decayConstOutput);
+            for (int j = 0; j < net.outSumSpikes.length; j++) {
+                net.outSumSpikes[j] *= decay;
+            }
+        }
+        outSumTime = t;
+    }
 
-                        for (int l = Math.max(1,x-kSize+1); l <= Math.min(x,currDimX); l++) {
-                            for (int m = Math.max(1,y-kSize+1); m <= Math.min(y,currDimX); m++) {
-                                int pos = coordinateConversionMatrixToList(l,m,currDimX);
-                                if (!activeSet.contains(pos)){
-                                    activeSet.add(pos);
-                                }
-                            }
-                        }
+    //starts a new step of a layer, in which each touched neuron is listed once in active
+    private int nextStamp(SpikingCnnStructure.Layer layer) {
+        if (++layer.stamp == Integer.MAX_VALUE) {
+            Arrays.fill(layer.activeStamp, 0);
+            layer.stamp = 1;
+        }
+        return layer.stamp;
+    }
 
+    //propagates the spikes of the previous layer through the convolutional layer
+    private void convolveSpikes(SpikingCnnStructure.Layer prevLayer, SpikingCnnStructure.Layer layer, float tRef, float threshold) {
+        final int kSize = layer.kernelSize, kk = kSize*kSize;
+        final int prevDimX = prevLayer.dimX, prevSize = prevDimX*prevDimX;
+        final int currDimX = layer.dimX, currSize = currDimX*currDimX;
+        final int outMaps = layer.outMaps;
+        final float[] kernels = layer.kernelFlat;
+        final int[] offsets = layer.kernelOffsets;
+        final float[][] mem = layer.membranePot;
+        final float[][] ref = layer.refracEnd.get(0);
+        final int[] in = prevLayer.spikeQueue;
+        final int numIn = prevLayer.spikeCount;
+        final int[] active = layer.active, activeStamp = layer.activeStamp;
+        final int stamp = nextStamp(layer);
+        int numActive = 0;
+
+        for (int k = 0; k < numIn; k++) {
+            final int inMap = in[k]/prevSize, pos = in[k]%prevSize;
+            final int x = pos%prevDimX, y = pos/prevDimX;
+            final int mLo = Math.max(0, x-currDimX+1), mHi = Math.min(x+1, kSize);
+            final int nLo = Math.max(0, y-currDimX+1), nHi = Math.min(y+1, kSize);
+
+            //define active set, in the order of the receptive field positions
+            for (int m = mHi-1; m >= mLo; m--) {
+                for (int nn = nHi-1; nn >= nLo; nn--) {
+                    int col = currDimX*(y-nn)+x-m;
+                    if (activeStamp[col] != stamp) {
+                        activeStamp[col] = stamp;
+                        active[numActive++] = col;
                     }
+                }
+            }
 
-                    float[][] mem = net.layers.get(j).membranePot;
-                    float[][] ref = net.layers.get(j).refracEnd.get(0);
-
-                    for (int k = 0; k < spikeList.size(); k++) {
-                        int inputrow = (int) spikeList.get(k).x;
-                        int x = (int) coordinateConversionListToMatrix((int)spikeList.get(k).y,prevDimX).x;
-                        int y = (int) coordinateConversionListToMatrix((int)spikeList.get(k).y,prevDimX).y;
-
-                        for (int l = 0; l < net.layers.get(j).outMaps; l++) {
-                            float[][] kernel = net.layers.get(j).kernel.get((inputrow-1)*net.layers.get(j).outMaps+l);
-                            for (int m = Math.max(0,x-currDimX); m < Math.min(x,kSize); m++) {
-                                for (int n = Math.max(0,y-currDimX); n < Math.min(y,kSize); n++) {
-                                    int col = coordinateConversionMatrixToList(x-m,y-n,currDimX);
-                                    if (ref[l][col-1]<=currTime) {
-                                        mem[l][col-1] = mem[l][col-1] + kernel[m][n];
-                                    }
-                                }
-                            }
+            //convolution, only for the receptive field of the spike
+            final int base = currDimX*y+x;
+            final boolean interior = mLo == 0 && nLo == 0 && mHi == kSize && nHi == kSize;
+            for (int l = 0; l < outMaps; l++) {
+                final int w0 = (inMap*outMaps+l)*kk;
+                final float[] v = mem[l], r = ref[l];
+                if (interior) {
+                    for (int o = 0; o < kk; o++) {
+                        final int col = base+offsets[o];
+                        if (r[col]<=currTime) {
+                            v[col] += kernels[w0+o];
                         }
                     }
-
-                    spikeList.clear();
-
-                    //check for spiking and negative limit
-                    for (int k = 0; k < net.layers.get(j).outMaps; k++) {
-                        for (int l = 0; l < activeSet.size(); l++) {
-                            int pos = activeSet.get(l)-1;
-                            if (mem[k][pos]>=threshold){
-                                spikeList.add(new Pair(k+1,pos+1));
-                                mem[k][pos]=0.0f;
-                                ref[k][pos]=currTime+tRef;
-                            }else if (mem[k][pos]<negLimit){
-                                mem[k][pos]=negLimit;
+                } else {
+                    for (int m = mLo; m < mHi; m++) {
+                        for (int nn = nLo; nn < nHi; nn++) {
+                            final int col = base-currDimX*nn-m;
+                            if (r[col]<=currTime) {
+                                v[col] += kernels[w0+m*kSize+nn];
                             }
                         }
                     }
-
-                    net.layers.get(j).refracEnd.clear();
-                    net.layers.get(j).membranePot=mem;
-                    net.layers.get(j).refracEnd.add(ref);
-
-                }else if ("s".equals(net.layers.get(j).type)){
-
-                    if (!activeSetSub.isEmpty()){
-                        activeSetSub.clear();
-                    }
-
-                    int scale = net.layers.get(j).scale;
-                    int prevdimx = net.layers.get(j-1).dimX;
-                    int currdimx = net.layers.get(j).dimX;
-
-                    float mem_pot = 1/(((float) scale)*((float) scale));
-
-                    float[][] mem = net.layers.get(j).membranePot;
-                    float[][] ref = net.layers.get(j).refracEnd.get(0);
-
-                    for (int k = 0; k < spikeList.size(); k++) {
-                        int outmaps = (int) spikeList.get(k).x;
-                        int x = (int) coordinateConversionListToMatrix((int)spikeList.get(k).y, prevdimx).x;
-                        int y = (int) coordinateConversionListToMatrix((int)spikeList.get(k).y, prevdimx).y;
-
-                        int x_new = (x-1)/scale+1;
-                        int y_new = (y-1)/scale+1;
-                        int pos_new = coordinateConversionMatrixToList(x_new,y_new,currdimx);
-                        Pair p = new Pair(outmaps,pos_new);
-
-                        if (!activeSetSub.contains(p)){
-                            activeSetSub.add(p);
-                        }
-
-                        if (ref[outmaps-1][pos_new-1]<=currTime) {
-                            mem[outmaps - 1][pos_new - 1] = mem[outmaps - 1][pos_new - 1] + mem_pot;
-                        }
-                    }
-
-                    if (!spikeList.isEmpty()){
-                        spikeList.clear();
-                    }
-
-                    //check for spiking
-                    for (int k = 0; k < activeSetSub.size(); k++) {
-                        if (mem[(int)activeSetSub.get(k).x-1][(int)activeSetSub.get(k).y-1]>=threshold){
-                            spikeList.add(activeSetSub.get(k));
-                            mem[(int)activeSetSub.get(k).x-1][(int)activeSetSub.get(k).y-1]=0.0f;
-                            ref[(int)activeSetSub.get(k).x-1][(int)activeSetSub.get(k).y-1]=currTime+tRef;
-                        }
-                    }
-
-                    net.layers.get(j).membranePot=mem;
-                    net.layers.get(j).refracEnd.clear();
-                    net.layers.get(j).refracEnd.add(ref);
                 }
             }
+        }
 
-            int prevdimx = net.layers.get(net.layers.size()-1).dimX;
-            List<Integer> spikes = new ArrayList<>();
-            for (int j = 0; j < spikeList.size(); j++) {
-                int pos_new = coordinateConversionMatrixToList((int)spikeList.get(j).y,(int)spikeList.get(j).x,prevdimx*prevdimx);
-                spikes.add(pos_new);
-            }
-
-            //ffw*fv
-            int d = net.fcWeights.length;
-
-            float[] impulse = new float[d];
-            for (int j = 0; j < d; j++) {
-                impulse[j]=0.0f;
-            }
-
-            for (int j = 0; j < d; j++) {
-                for (int k = 0; k < spikes.size(); k++) {
-                    impulse[j]=impulse[j]+net.fcWeights[j][spikes.get(k)-1];
-                }
-            }
-
-            //add bias
-            for (int j = 0; j < impulse.length; j++) {
-                impulse[j] = impulse[j] + net.fcBias[j];
-            }
-
-            //only add input from neurons past their refractory point
-            for (int j = 0; j < d; j++) {
-                if (net.outRefracEnd[j] >= currTime) {
-                    impulse[j] = 0.0f;
+        //check for spiking and negative limit
+        final int[] out = layer.spikeQueue;
+        int numOut = 0;
+        for (int l = 0; l < outMaps; l++) {
+            final float[] v = mem[l], r = ref[l];
+            for (int a = 0; a < numActive; a++) {
+                final int col = active[a];
+                if (v[col]>=threshold){
+                    out[numOut++] = l*currSize+col;
+                    v[col]=0.0f;
+                    r[col]=currTime+tRef;
+                }else if (v[col]<negLimit){
+                    v[col]=negLimit;
                 }
             }
+        }
+        layer.spikeCount = numOut;
+    }
 
-            //add input to membrane potential
-            for (int j = 0; j < d; j++) {
-                net.outMemPot[j]=net.outMemPot[j]+impulse[j];
-                if (net.outMemPot[j] < negLimit) {
-                    net.outMemPot[j] = negLimit;
-                }
+    //propagates the spikes of the previous layer through the subsampling layer
+    private void subsampleSpikes(SpikingCnnStructure.Layer prevLayer, SpikingCnnStructure.Layer layer, float tRef, float threshold) {
+        final int scale = layer.scale;
+        final int prevDimX = prevLayer.dimX, prevSize = prevDimX*prevDimX;
+        final int currDimX = layer.dimX, currSize = currDimX*currDimX;
+        final float mem_pot = 1/(((float) scale)*((float) scale));
+        final float[][] mem = layer.membranePot;
+        final float[][] ref = layer.refracEnd.get(0);
+        final int[] in = prevLayer.spikeQueue;
+        final int numIn = prevLayer.spikeCount;
+        final int[] active = layer.active, activeStamp = layer.activeStamp;
+        final int stamp = nextStamp(layer);
+        int numActive = 0;
+
+        for (int k = 0; k < numIn; k++) {
+            final int map = in[k]/prevSize, pos = in[k]%prevSize;
+            final int pos_new = currDimX*((pos/prevDimX)/scale)+(pos%prevDimX)/scale;
+            final int address = map*currSize+pos_new;
+            if (activeStamp[address] != stamp) {
+                activeStamp[address] = stamp;
+                active[numActive++] = address;
             }
-
-            //check for spiking
-            net.outSpikes = new int[d];
-            for (int j = 0; j < d; j++) {
-                if (net.outMemPot[j] >= threshold) {
-                    net.outSpikes[j] = 1;
-                } else {
-                    net.outSpikes[j] = 0;
-                }
+            if (ref[map][pos_new]<=currTime) {
+                mem[map][pos_new] += mem_pot;
             }
+        }
 
-            //reset
-            for (int j = 0; j < d; j++) {
-                if (net.outSpikes[j] == 1) {
-                    net.outMemPot[j] = 0.0f;
-                }
+        //check for spiking
+        final int[] out = layer.spikeQueue;
+        int numOut = 0;
+        for (int a = 0; a < numActive; a++) {
+            final int map = active[a]/currSize, pos = active[a]%currSize;
+            if (mem[map][pos]>=threshold){
+                out[numOut++] = active[a];
+                mem[map][pos]=0.0f;
+                ref[map][pos]=currTime+tRef;
             }
+        }
+        layer.spikeCount = numOut;
+    }
 
-            //ban updates until
-            for (int j = 0; j < d; j++) {
-                if (net.outSpikes[j] == 1) {
-                    net.outRefracEnd[j] = currTime + tRef;
+    /**
+     * Builds the flat kernels, the kernel offsets and the spike queues used by propagateSpikingCnn from the loaded
+     * network.
+     */
+    private void initSparseLayers() {
+        for (int i = 0; i < net.layers.size(); i++) {
+            SpikingCnnStructure.Layer layer = net.layers.get(i);
+            int size = layer.dimX*layer.dimX;
+            int maps = "i".equals(layer.type) ? 1 : layer.outMaps;
+            layer.spikeQueue = new int[maps*size];
+            layer.spikeCount = 0;
+            layer.active = new int[maps*size];
+            layer.activeStamp = new int[maps*size];
+            layer.stamp = 0;
+            if ("c".equals(layer.type)) {
+                int kSize = layer.kernelSize, kk = kSize*kSize;
+                layer.kernelFlat = new float[layer.kernel.size()*kk];
+                for (int j = 0; j < layer.kernel.size(); j++) {
+                    float[][] kernel = layer.kernel.get(j);
+                    for (int m = 0; m < kSize; m++) {
+                        for (int n = 0; n < kSize; n++) {
+                            layer.kernelFlat[j*kk+m*kSize+n] = kernel[m][n];
+                        }
+                    }
                 }
-            }
-
-
-            //store results for analysis later
-            for (int j = 0; j < d; j++) {
-                if (!reset) {
-                    net.outSumSpikes[j] = net.outSumSpikes[j] * (float) Math.exp(-(currTime - prevTime) / decayConstOutput) + net.outSpikes[j];
-                } else {
-                    net.outSumSpikes[j] = net.outSumSpikes[j] + net.outSpikes[j];
+                layer.kernelOffsets = new int[kk];
+                for (int m = 0; m < kSize; m++) {
+                    for (int n = 0; n < kSize; n++) {
+                        layer.kernelOffsets[m*kSize+n] = -(layer.dimX*n+m);
+                    }
                 }
             }
         }
@@ -63,6 +63,20 @@ public class SpikingCnnStructure {
      *
      * dimX, dimY -- dimensions of output maps, normally dimX=dimY
      *
+     * The remaining fields are used by the event driven propagateSpikingCnn. A neuron is addressed by the single int
+     * map*dimX*dimX+dimX*y+x.
+     *
+     * kernelFlat -- the kernels of a convolutional layer in one array; kernel (inMap, outMap) starts at
+     * (inMap*outMaps+outMap)*kernelSize*kernelSize and element [m][n] is at m*kernelSize+n.
+     *
+     * kernelOffsets -- for element m*kernelSize+n, the offset -(dimX*n+m) of the neuron it connects an input spike to,
+     * relative to the position of the spike.
+     *
+     * spikeQueue, spikeCount -- addresses of the neurons of this layer that spiked in the current step.
+     *
+     * active, activeStamp, stamp -- addresses of the neurons touched in the current step, each listed once;
+     * activeStamp[address]==stamp marks a neuron already listed.
+     *
      */
     public static class Layer{
 
@@ -88,5 +102,13 @@ public class SpikingCnnStructure {
         int dimX;
         int dimY;
 
+        float[] kernelFlat;
+        int[] kernelOffsets;
+        int[] spikeQueue;
+        int spikeCount;
+        int[] active;
+        int[] activeStamp;
+        int stamp;
+
     }
 }
@@ -66,6 +66,7 @@ public class DavisDeepLearnCnnProcessor extends EventFilter2D implements Propert
     private int dvsColorScale = getInt("dvsColorScale", 200); // 1/dvsColorScale is amount each event color the timeslice in subsampled timeslice input
     private boolean softMaxOutput = getBoolean("softMaxOutput", false);
     private boolean zeroPadding = getBoolean("zeroPadding", true);
+    private DeepLearnCnnNetwork.ComputeBackend computeBackend = DeepLearnCnnNetwork.ComputeBackend.valueOf(getString("computeBackend", DeepLearnCnnNetwork.ComputeBackend.Gemm.toString()));
     private boolean normalizeDVSForZsNullhop = getBoolean("normalizeDVSForZsNullhop", false); // uses DvsSubsamplerToFrame normalizeFrame method to normalize DVS histogram images and in addition it shifts the pixel values to be centered around zero with range -1 to +1
 
     protected int lastProcessedEventTimestamp = 0;
@@ -99,6 +100,7 @@ public class DavisDeepLearnCnnProcessor extends EventFilter2D implements Propert
         setPropertyTooltip(anal, "dvsColorScale", "1/dvsColorScale is the amount by which each DVS event is added to time slice 2D gray-level histogram");
         setPropertyTooltip(anal, "dvsMinEvents", "minimum number of events to run net on DVS timeslice");
         setPropertyTooltip(anal, "zeroPadding", "CNN uses zero padding; must be set properly according to CNN to run CNN");
+        setPropertyTooltip(anal, "computeBackend", "<html>how conv layers are computed<br>Gemm: blocked matrix multiply on all cores<br>Reference: original per-element loops, for checking results");
         setPropertyTooltip(anal, "normalizeDVSForZsNullhop", "uses DvsSubsamplerToFrame normalizeFrame method to normalize DVS histogram images and in addition it shifts the pixel values to be centered around zero with range -1 to +1\n");
         setPropertyTooltip(anal, "rectifyPolarities", "Rectifies DVS ON and OFF event polarities to ON polarities; discards the sign of the brightness changes, which could improve lighting tolerance");
         setPropertyTooltip(anal, "processingTimeLimitMs", "<html>time limit for processing packet in ms to process OF events (events still accumulate). <br> Set to 0 to disable. <p>Alternative to the system EventPacket timelimiter, which cannot be used here because we still need to accumulate and render the events");
@@ -128,6 +130,7 @@ public class DavisDeepLearnCnnProcessor extends EventFilter2D implements Propert
             apsDvsNet.setSoftMaxOutput(softMaxOutput); // must set manually since net doesn't know option kept here.
             apsDvsNet.setZeroPadding(zeroPadding); // must set manually since net doesn't know option kept here.
             apsDvsNet.setNormalizeDVSForZsNullhop(normalizeDVSForZsNullhop); // must set manually since net doesn't know option kept here.
+            apsDvsNet.setComputeBackend(computeBackend);
             dvsSubsampler = new DvsSubsamplerToFrame(apsDvsNet.inputLayer.dimx, apsDvsNet.inputLayer.dimy, getDvsColorScale());
             dvsSubsampler.setRectifyPolarties(rectifyPolarities);
         } catch (Exception ex) {
@@ -267,6 +270,7 @@ public class DavisDeepLearnCnnProcessor extends EventFilter2D implements Propert
                     apsDvsNet.setSoftMaxOutput(softMaxOutput); // must set manually since net doesn't know option kept here.
                     apsDvsNet.setZeroPadding(zeroPadding); // must set manually since net doesn't know option kept here.
                     apsDvsNet.setNormalizeDVSForZsNullhop(normalizeDVSForZsNullhop); // must set manually since net doesn't know option kept here.
+                    apsDvsNet.setComputeBackend(computeBackend);
                     dvsSubsampler = new DvsSubsamplerToFrame(apsDvsNet.inputLayer.dimx, apsDvsNet.inputLayer.dimy, getDvsColorScale());
                     dvsSubsampler.setRectifyPolarties(rectifyPolarities);
                 } catch (IOException ex) {
@@ -663,6 +667,25 @@ public class DavisDeepLearnCnnProcessor extends EventFilter2D implements Propert
         apsDvsNet.setNormalizeDVSForZsNullhop(normalizeDVSForZsNullhop); // must set manually since net doesn't know option kept here.
     }
 
+    /**
+     * @return the computeBackend
+     */
+    public DeepLearnCnnNetwork.ComputeBackend getComputeBackend() {
+        return computeBackend;
+    }
+
+    /**
+     * @param computeBackend how the conv layers are computed
+     */
+    public void setComputeBackend(DeepLearnCnnNetwork.ComputeBackend computeBackend) {
+        this.computeBackend = computeBackend;
+        putString("computeBackend", computeBackend.toString());
+        if (apsDvsNet == null) {
+            return;
+        }
+        apsDvsNet.setComputeBackend(computeBackend);
+    }
+
     /**
      * @return the rectifyPolarities
      */
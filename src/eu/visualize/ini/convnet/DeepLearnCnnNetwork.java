@@ -27,6 +27,7 @@ import com.jogamp.opengl.GL2ES3;
 import net.sf.jaer.graphics.AEFrameChipRenderer;
 import net.sf.jaer.graphics.ImageDisplay;
 import net.sf.jaer.util.EngineeringFormat;
+import net.sf.jaer.util.ParallelLoop;
 
 /**
  * Simple convolutional neural network (CNN) data structure to hold CNN from
@@ -97,12 +98,14 @@ public class DeepLearnCnnNetwork {
     private boolean printActivations = false;
     private boolean printWeights = false;
     protected boolean lastInputTypeProcessedWasApsFrame = false;
-    private int operationCounter = 0; // counter for ops during update
+    private long operationCounter = 0; // counter for ops during update
     private long startProcessingTimeNs = 0;
     private long processingTimeNs;
     private boolean softMaxOutput = false;
     private boolean zeroPadding = true;
     private boolean normalizeDVSForZsNullhop = false; // uses DvsSubsamplerToFrame normalizeFrame method to normalize DVS histogram images and in addition it shifts the pixel values to be centered around zero with range -1 to +1
+    private ComputeBackend computeBackend = ComputeBackend.Gemm;
+    private PatchBatchEvaluator patchBatchEvaluator = null;
     private EngineeringFormat engFmt = new EngineeringFormat();
     /** Height of final output layer histogram as fraction of AEChip display height */
     public static final float HISTOGRAM_HEIGHT_FRACTION = 0.9f;
@@ -161,6 +164,71 @@ public class DeepLearnCnnNetwork {
         return processLayers();
     }
 
+    /**
+     * Computes the output of the network for many patches of the same frame
+     * together. Each output is the same as from processInputPatchFrame, but
+     * overlapping patches share convolutions where possible and patches are
+     * split across cores. The layer activations are not updated and no
+     * EVENT_MADE_DECISION is fired.
+     *
+     * @param frame the renderer that rendered the APS output
+     * @param offX x offset (center) of each patch
+     * @param offY y offset (center) of each patch
+     * @param n the number of patches
+     * @param outputs output vectors to reuse, or null
+     * @return the vector of output values of each patch, null for a patch
+     * that is not inside the frame
+     * @see PatchBatchEvaluator
+     */
+    public float[][] processInputPatchFrames(AEFrameChipRenderer frame, int[] offX, int[] offY, int n, float[][] outputs) {
+        if (inputLayer == null) {
+            return null;
+        }
+        startProcessingTimeNs = System.nanoTime();
+        outputs = getPatchBatchEvaluator().processPatches(frame, offX, offY, n, outputs);
+        setLastInputTypeProcessedWasApsFrame(true);
+        processingTimeNs = System.nanoTime() - startProcessingTimeNs;
+        return outputs;
+    }
+
+    /**
+     * Computes the output of the network for a regular grid of patches of the
+     * same frame, e.g. for a heat map. Entry ix*ny+iy of the result is for the
+     * patch centered on (x0+ix*strideX, y0+iy*strideY).
+     *
+     * @param frame the renderer that rendered the APS output
+     * @param x0 x of first patch center
+     * @param y0 y of first patch center
+     * @param strideX patch spacing in x
+     * @param strideY patch spacing in y
+     * @param nx number of patches in x
+     * @param ny number of patches in y
+     * @param outputs output vectors to reuse, or null
+     * @return the vector of output values of each patch, null for a patch
+     * that is not inside the frame
+     * @see #processInputPatchFrames
+     */
+    public float[][] processInputPatchGrid(AEFrameChipRenderer frame, int x0, int y0, int strideX, int strideY, int nx, int ny, float[][] outputs) {
+        if (inputLayer == null) {
+            return null;
+        }
+        startProcessingTimeNs = System.nanoTime();
+        outputs = getPatchBatchEvaluator().processGrid(frame, x0, y0, strideX, strideY, nx, ny, outputs);
+        setLastInputTypeProcessedWasApsFrame(true);
+        processingTimeNs = System.nanoTime() - startProcessingTimeNs;
+        return outputs;
+    }
+
+    /**
+     * @return the evaluator used by processInputPatchFrames
+     */
+    public PatchBatchEvaluator getPatchBatchEvaluator() {
+        if (patchBatchEvaluator == null) {
+            patchBatchEvaluator = new PatchBatchEvaluator(this);
+        }
+        return patchBatchEvaluator;
+    }
+
     /**
      * Process network given an input layer.
      *
@@ -526,7 +594,7 @@ public class DeepLearnCnnNetwork {
             int frameWidth = renderer.getChip().getSizeX();
             int dimx2 = dimx / 2;
             int dimy2 = dimy / 2;
-            if ((xOffset < dimx2) || (xOffset > (frameWidth - dimx2)) || (yOffset < dimy2) || (xOffset > (frameWidth - dimy2))) {
+            if ((xOffset < dimx2) || (xOffset > (frameWidth - dimx2)) || (yOffset < dimy2) || (yOffset > (frameHeight - dimy2))) {
                 log.warning("Cannot process input frame patch with x offset: " + xOffset + " and y Offset: " + yOffset + " because frame measures only " + frameWidth + " x " + frameHeight);
                 return null;
             }
@@ -799,6 +867,106 @@ public class DeepLearnCnnNetwork {
         Average, Max, Undefined
     };
 
+    /**
+     * How convolutional layers are computed. Reference convolves each kernel
+     * with each input map element by element. Gemm lowers the whole layer to
+     * one matrix multiply of the weights with the unrolled input patches
+     * (im2col), tiled for the cache and split across cores by output map.
+     */
+    public enum ComputeBackend {
+
+        Reference, Gemm
+    };
+
+    /** Smallest number of multiply-accumulates worth handing to another thread */
+    private static final int MIN_PARALLEL_MACS = 1 << 16;
+    /** Tile sizes of the blocked matrix multiply: output positions by weight rows */
+    private static final int GEMM_TILE_COLS = 256, GEMM_TILE_ROWS = 64;
+
+    /**
+     * Unrolls input maps into columns for a convolution. Row
+     * (inputMap,xx,yy) holds, for each output position, the input pixel under
+     * kernel element xx,yy, or 0 outside the input. Maps are stored by x, then
+     * y.
+     *
+     * @param input the input maps
+     * @param nInputMaps the number of input maps
+     * @param inputMapStride the length of one input map, 0 to read the same
+     * map for every input map
+     * @param inDimX input map width
+     * @param inDimY input map height
+     * @param kernelDim kernel width and height
+     * @param pad the zero padding on each side
+     * @param columns receives the unrolled input, one row per weight and one
+     * column per output position
+     * @param outDimX output map width
+     * @param outDimY output map height
+     */
+    static void im2col(float[] input, int nInputMaps, int inputMapStride, int inDimX, int inDimY, int kernelDim, int pad, float[] columns, int outDimX, int outDimY) {
+        final int outLength = outDimX * outDimY;
+        int row = 0;
+        for (int inputMap = 0; inputMap < nInputMaps; inputMap++) {
+            int mapOffset = inputMap * inputMapStride;
+            for (int xx = 0; xx < kernelDim; xx++) {
+                for (int yy = 0; yy < kernelDim; yy++) {
+                    int rowOffset = row * outLength;
+                    // output y range whose input y lies inside the map
+                    int yoStart = Math.max(0, pad - yy), yoEnd = Math.min(outDimY, (inDimY + pad) - yy);
+                    for (int xo = 0; xo < outDimX; xo++) {
+                        int dst = rowOffset + (xo * outDimY);
+                        int xi = (xo + xx) - pad;
+                        if ((xi < 0) || (xi >= inDimX) || (yoEnd <= yoStart)) {
+                            Arrays.fill(columns, dst, dst + outDimY, 0);
+                            continue;
+                        }
+                        if (yoStart > 0) {
+                            Arrays.fill(columns, dst, dst + yoStart, 0);
+                        }
+                        System.arraycopy(input, mapOffset + (xi * inDimY) + ((yoStart + yy) - pad), columns, dst + yoStart, yoEnd - yoStart);
+                        if (yoEnd < outDimY) {
+                            Arrays.fill(columns, dst + yoEnd, dst + outDimY, 0);
+                        }
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiplies weight rows [from,to) with the columns and accumulates into
+     * the matching output maps.
+     *
+     * @param w the weight matrix, nRows weights per output map
+     * @param c the unrolled input from im2col
+     * @param a the output maps, accumulated into
+     * @param nRows the number of weights per output map
+     * @param n the number of output positions per map
+     * @param from first output map
+     * @param to last output map, exclusive
+     */
+    static void gemm(float[] w, float[] c, float[] a, int nRows, int n, int from, int to) {
+        for (int c0 = 0; c0 < n; c0 += GEMM_TILE_COLS) {
+            int c1 = Math.min(n, c0 + GEMM_TILE_COLS);
+            for (int r0 = 0; r0 < nRows; r0 += GEMM_TILE_ROWS) {
+                int r1 = Math.min(nRows, r0 + GEMM_TILE_ROWS);
+                for (int outputMap = from; outputMap < to; outputMap++) {
+                    int wOffset = outputMap * nRows, aOffset = outputMap * n;
+                    for (int r = r0; r < r1; r++) {
+                        float wr = w[wOffset + r];
+                        if (wr == 0) {
+                            continue;
+                        }
+                        int cOffset = (r * n) - aOffset;
+                        for (int i = aOffset + c0, end = aOffset + c1; i < end; i++) {
+                            a[i] += wr * c[cOffset + i];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * A convolutional layer. Does this operation:
      * <pre>
@@ -846,6 +1014,20 @@ public class DeepLearnCnnNetwork {
         private ImageDisplay[] activationDisplays = null;
         private ImageDisplay[][] kernelDisplays = null;
         private int warningCountMax = 10;
+        /**
+         * Kernels reordered for the Gemm backend, one row per output map with
+         * the weights in im2col row order: input map, then x, then y
+         */
+        private float[] weightMatrix = null;
+        private boolean weightMatrixFlipped;
+        /** Unrolled input patches, one row per weight and one column per output position */
+        private float[] columns = null;
+        private final ParallelLoop.Body gemmBody = new ParallelLoop.Body() {
+            @Override
+            public void run(int from, int to) {
+                gemm(weightMatrix, columns, activations, getNumWeightRows(), outputMapLength, from, to);
+            }
+        };
 
         private ActivationFunction activationFunction = ActivationFunction.Undefined; // default is the sigmoid, the only choice in DeepLearnToolbox
 
@@ -909,6 +1091,7 @@ public class DeepLearnCnnNetwork {
         public void initializeConstants() {
             singleKernelLength = kernelDim * kernelDim;
             halfKernelDim = kernelDim / 2;
+            weightMatrix = null;
             // output size can only be computed once we know our input
             for (float kernel : kernels) {
                 if (kernel < minWeight) {
@@ -968,15 +1151,119 @@ public class DeepLearnCnnNetwork {
                 Arrays.fill(activations, 0);  // clear the output, since results from inputMaps will be accumulated
             }
 
-            for (int inputMap = 0; inputMap < nInputMaps; inputMap++) { // for each inputMap
-                for (int outputMap = 0; outputMap < nOutputMaps; outputMap++) { // for each kernel/outputMap
-                    conv(inputLayer, outputMap, inputMap);
+            if (computeBackend == ComputeBackend.Gemm) {
+                computeGemm(inputLayer);
+            } else {
+                for (int inputMap = 0; inputMap < nInputMaps; inputMap++) { // for each inputMap
+                    for (int outputMap = 0; outputMap < nOutputMaps; outputMap++) { // for each kernel/outputMap
+                        conv(inputLayer, outputMap, inputMap);
+                    }
                 }
             }
 
             applyBiasAndNonlinearity();
         }
 
+        /**
+         * Computes the convolutions as activations = weightMatrix * columns,
+         * where each column of columns holds the input patch under the kernel
+         * at one output position.
+         */
+        private void computeGemm(Layer inputLayer) {
+            int nRows = getNumWeightRows();
+            float[] w = getWeightMatrix();
+            if ((columns == null) || (columns.length != (nRows * outputMapLength))) {
+                columns = new float[nRows * outputMapLength];
+            }
+            // the input layer has a single map that it returns for any map index
+            im2col(inputLayer.activations, nInputMaps, inputLayer instanceof InputLayer ? 0 : inputMapLength, inputMapDim, inputMapDim,
+                    kernelDim, zeroPadding ? halfKernelDim : 0, columns, outputMapDim, outputMapDim);
+
+            long macsPerMap = (long) nRows * outputMapLength;
+            int grain = (int) Math.min(nOutputMaps, Math.max(1, MIN_PARALLEL_MACS / Math.max(1, macsPerMap)));
+            ParallelLoop.run(0, nOutputMaps, grain, gemmBody);
+            operationCounter += 2 * macsPerMap * nOutputMaps;
+        }
+
+        /**
+         * Returns the kernels reordered for the Gemm backend, rebuilding them
+         * if the kernels or the padding changed. Not thread safe; call once
+         * before sharing the matrix between threads.
+         *
+         * @return the weight matrix, one row of getNumWeightRows() weights per
+         * output map
+         */
+        float[] getWeightMatrix() {
+            int nRows = getNumWeightRows();
+            // the reference path flips the kernel except for caffe nets and zero padded nets
+            boolean flip = !zeroPadding && !"caffe_net".equals(nettype);
+            if ((weightMatrix == null) || (weightMatrix.length != (nOutputMaps * nRows)) || (weightMatrixFlipped != flip)) {
+                float[] m = new float[nOutputMaps * nRows];
+                for (int outputMap = 0; outputMap < nOutputMaps; outputMap++) {
+                    int r = outputMap * nRows;
+                    for (int inputMap = 0; inputMap < nInputMaps; inputMap++) {
+                        for (int xx = 0; xx < kernelDim; xx++) {
+                            for (int yy = 0; yy < kernelDim; yy++) {
+                                m[r++] = flip ? kernels[k(inputMap, outputMap, kernelDim - xx - 1, kernelDim - yy - 1)] : kernels[k(inputMap, outputMap, xx, yy)];
+                            }
+                        }
+                    }
+                }
+                weightMatrix = m;
+                weightMatrixFlipped = flip;
+            }
+            return weightMatrix;
+        }
+
+        /** @return the number of weights per output map, i.e. rows of the unrolled input */
+        int getNumWeightRows() {
+            return nInputMaps * singleKernelLength;
+        }
+
+        int getNumOutputMaps() {
+            return nOutputMaps;
+        }
+
+        /**
+         * @param inputDim the input map width or height
+         * @return the output map width or height
+         */
+        int outputDim(int inputDim) {
+            return zeroPadding ? inputDim : (inputDim - kernelDim) + 1;
+        }
+
+        /**
+         * Computes this layer for input maps of any size, which need not be
+         * square, into caller supplied arrays. The layer's own activations are
+         * not touched, so different threads can use this at the same time
+         * with their own arrays.
+         *
+         * @param input the input maps, map by map, each stored by x then y
+         * @param inputMapStride the length of one input map, or 0 if all input
+         * maps are the same single map as for the input layer
+         * @param inDimX input map width
+         * @param inDimY input map height
+         * @param weightMatrix from {@link #getWeightMatrix()}
+         * @param columns scratch of at least getNumWeightRows() times the
+         * output map length
+         * @param output receives the output maps
+         */
+        void computeInto(float[] input, int inputMapStride, int inDimX, int inDimY, final float[] weightMatrix, final float[] columns, final float[] output) {
+            final int outDimX = outputDim(inDimX), outDimY = outputDim(inDimY), n = outDimX * outDimY;
+            final int nRows = getNumWeightRows();
+            im2col(input, nInputMaps, inputMapStride, inDimX, inDimY, kernelDim, zeroPadding ? halfKernelDim : 0, columns, outDimX, outDimY);
+            Arrays.fill(output, 0, nOutputMaps * n, 0);
+            long macsPerMap = (long) nRows * n;
+            int grain = (int) Math.min(nOutputMaps, Math.max(1, MIN_PARALLEL_MACS / Math.max(1, macsPerMap)));
+            ParallelLoop.run(0, nOutputMaps, grain, new ParallelLoop.Body() {
+                @Override
+                public void run(int from, int to) {
+                    gemm(weightMatrix, columns, output, nRows, n, from, to);
+                }
+            });
+            applyBiasAndNonlinearity(output, n);
+        }
+
         // convolves a given kernel over the inputMap and accumulates output to activations
         private void conv(Layer inputLayer, int outputMap, int inputMap) {
             int startx = halfKernelDim, starty = halfKernelDim, endx = inputMapDim - halfKernelDim, endy = inputMapDim - halfKernelDim;
@@ -987,8 +1274,8 @@ public class DeepLearnCnnNetwork {
                 starty = halfKernelDim;
                 endx = inputMapDim + halfKernelDim;
                 endy = inputMapDim + halfKernelDim;
-                for (int xi = halfKernelDim; xi <= inputMapDim - halfKernelDim; xi++) { // index to outputMap
-                    for (int yi = halfKernelDim; yi <= inputMapDim - halfKernelDim; yi++) {
+                for (int xi = halfKernelDim; xi < inputMapDim + halfKernelDim; xi++) { // index to outputMap
+                    for (int yi = halfKernelDim; yi < inputMapDim + halfKernelDim; yi++) {
                         newInputArray[xi][yi] = inputLayer.a(inputMap, xi - halfKernelDim, yi - halfKernelDim);
                     }
                 }
@@ -1067,28 +1354,44 @@ public class DeepLearnCnnNetwork {
             if (activations == null) {
                 return;
             }
+            applyBiasAndNonlinearity(activations, outputMapDim * outputMapDim);
+            operationCounter += 2 * activationsLength;
+        }
+
+        /**
+         * Adds the bias of each map and applies the activation function in
+         * place.
+         *
+         * @param a the output maps
+         * @param mapLength the length of one output map
+         */
+        private void applyBiasAndNonlinearity(float[] a, int mapLength) {
+            if (activationFunction == ActivationFunction.Undefined) {
+                log.warning("activation type undefined; please set actvation type for all convolutional layers");
+                return;
+            }
             for (int b = 0; b < biases.length; b++) {
-                for (int x = 0; x < outputMapDim; x++) {
-                    for (int y = 0; y < outputMapDim; y++) {
-                        int idx = o(b, x, y);
-                        switch (activationFunction) {
-                            case Sigmoid:
-                                activations[idx] = sigm(activations[idx] + biases[b]);
-                                break;
-                            case ReLu:
-                                activations[idx] = relu(activations[idx] + biases[b]);
-                                break;
-                            case None:
-                                activations[idx] = (activations[idx] + biases[b]);
-                                break;
-                            default:
-                                log.warning("activation type undefined; please set actvation type for all convolutional layers");
+                final float bias = biases[b];
+                final int start = b * mapLength, end = start + mapLength; // each map is contiguous
+                switch (activationFunction) {
+                    case Sigmoid:
+                        for (int idx = start; idx < end; idx++) {
+                            a[idx] = sigm(a[idx] + bias);
                         }
-                        operationCounter += 2;
-                    }
+                        break;
+                    case ReLu:
+                        for (int idx = start; idx < end; idx++) {
+                            float v = a[idx] + bias;
+                            a[idx] = v > 0 ? v : 0;
+                        }
+                        break;
+                    case None:
+                        for (int idx = start; idx < end; idx++) {
+                            a[idx] += bias;
+                        }
+                        break;
                 }
             }
-
         }
 
         /**
@@ -1249,37 +1552,98 @@ public class DeepLearnCnnNetwork {
                 activations = new float[activationsLength];
             }
 
+            if (poolingType == PoolingType.Undefined) {
+                log.warning("poolingType is undefined. Please define the pooling type (average or max) for each pooling layer");
+            }
+            if (o(nOutputMaps - 1, outputMapDim - 1, outputMapDim - 1) >= activations.length) {
+                log.warning("overran this pooling layer's output activations");
+                return;
+            }
+            final float[] in = convLayer.activations;
+            final boolean max = poolingType == PoolingType.Max;
             for (int map = 0; map < nOutputMaps; map++) {
                 for (int xo = 0; xo < outputMapDim; xo++) { // output map index
                     for (int yo = 0; yo < outputMapDim; yo++) { // output map
-                        float sumOrMax = 0; // sum
+                        float sumOrMax = 0; // sum, or max that is at least 0
                         // input indices
-                        int startx = xo * averageOverDim, endx = startx + averageOverDim, starty = yo * averageOverDim, endy = starty + averageOverDim;
+                        int startx = xo * averageOverDim, endx = startx + averageOverDim, starty = yo * averageOverDim;
                         for (int xi = startx; xi < endx; xi++) { // iterate over input
-                            for (int yi = starty; yi < endy; yi++) {
-                                switch (poolingType) {
-                                    case Average:
-                                        sumOrMax += convLayer.a(map, xi, yi); // add to sum to processDownsampledFrame average
-                                        break;
-                                    case Max:
-                                        float f = convLayer.a(map, xi, yi);
-                                        sumOrMax = f > sumOrMax ? f : sumOrMax;
-                                        break;
-                                    case Undefined:
-                                        log.warning("poolingType is undefined. Please define the pooling type (average or max) for each pooling layer");
+                            int idx = convLayer.o(map, xi, starty), end = idx + averageOverDim; // input y is contiguous
+                            if (max) {
+                                for (; idx < end; idx++) {
+                                    float f = in[idx];
+                                    sumOrMax = f > sumOrMax ? f : sumOrMax;
+                                }
+                            } else {
+                                for (; idx < end; idx++) {
+                                    sumOrMax += in[idx]; // add to sum to processDownsampledFrame average
                                 }
-                                operationCounter++;
                             }
                         }
-                        // debug
-                        int idx = o(map, xo, yo);
-                        if (idx >= activations.length) {
-                            log.warning("overran this pooling layer's output activations");
-                        }
                         if (poolingType == PoolingType.Average) {
                             activations[o(map, xo, yo)] = sumOrMax * averageOverMultiplier;  //average
-                        } else {
+                        } else if (max) {
                             activations[o(map, xo, yo)] = sumOrMax;
+                        } else {
+                            activations[o(map, xo, yo)] = 0;
+                        }
+                    }
+                }
+            }
+            operationCounter += nOutputMaps * outputMapDim * outputMapDim * averageOverNum;
+        }
+
+        /**
+         * @param inputDim the input map width or height
+         * @return the output map width or height
+         */
+        int outputDim(int inputDim) {
+            return inputDim / averageOverDim;
+        }
+
+        int getPoolingDim() {
+            return averageOverDim;
+        }
+
+        /**
+         * Pools input maps of any size, which need not be square, into a
+         * caller supplied array without touching the layer's own activations.
+         *
+         * @param in the input maps, map by map, each stored by x then y
+         * @param nMaps the number of maps
+         * @param inDimX input map width
+         * @param inDimY input map height
+         * @param out receives the pooled maps
+         */
+        void computeInto(float[] in, int nMaps, int inDimX, int inDimY, float[] out) {
+            final int outDimX = outputDim(inDimX), outDimY = outputDim(inDimY), inLength = inDimX * inDimY;
+            final boolean max = poolingType == PoolingType.Max;
+            final float multiplier = 1f / (averageOverDim * averageOverDim);
+            int o = 0;
+            for (int map = 0; map < nMaps; map++) {
+                for (int xo = 0; xo < outDimX; xo++) {
+                    for (int yo = 0; yo < outDimY; yo++) {
+                        float sumOrMax = 0; // sum, or max that is at least 0
+                        int startx = xo * averageOverDim, endx = startx + averageOverDim;
+                        for (int xi = startx; xi < endx; xi++) {
+                            int idx = (map * inLength) + (xi * inDimY) + (yo * averageOverDim), end = idx + averageOverDim;
+                            if (max) {
+                                for (; idx < end; idx++) {
+                                    float f = in[idx];
+                                    sumOrMax = f > sumOrMax ? f : sumOrMax;
+                                }
+                            } else {
+                                for (; idx < end; idx++) {
+                                    sumOrMax += in[idx];
+                                }
+                            }
+                        }
+                        if (poolingType == PoolingType.Average) {
+                            out[o++] = sumOrMax * multiplier;
+                        } else if (max) {
+                            out[o++] = sumOrMax;
+                        } else {
+                            out[o++] = 0;
                         }
                     }
                 }
@@ -1396,40 +1760,98 @@ public class DeepLearnCnnNetwork {
                 Arrays.fill(activations, 0);
             }
             try {
-                int aidx = 0;
-                for (int unit = 0; unit < biases.length; unit++) {  // for each output unit
-                    for (int w = 0; w < input.activations.length; w++) { // simply MAC the weight times the input activation
-                        activations[unit] += input.activations[aidx] * weight(unit, biases.length, w);
-                        aidx++; // the input activations are stored in the feature maps of last layer, column, row, map order
-                        operationCounter += 2;
-                    }
-                    aidx = 0;
-                }
+                // the input activations are stored in the feature maps of last layer, column, row, map order; treat them as one long map
+                weightedSum(input.activations, 1, 1, input.activations.length, 0, 0, 1, input.activations.length, activations);
+                operationCounter += 2 * biases.length * input.activations.length;
             } catch (ArrayIndexOutOfBoundsException e) {
                 log.warning("ArrayIndexOutOfBoundsException while computing fully connected or output layer. Could you have an incorrect zeroPadding setting? " + e.toString());
                 throw new ArrayIndexOutOfBoundsException(e.toString());
             }
 
+            applyActivationFunction(activations);
             maxActivation = Float.NEGATIVE_INFINITY;
+            for (int unit = 0; unit < biases.length; unit++) {
+                operationCounter += 2;
+                if (activations[unit] > maxActivation) {
+                    maxActivatedUnit = unit;
+                    maxActivation = activations[unit];
+                }
+            }
+
+        }
+
+        int getNumUnits() {
+            return biases.length;
+        }
+
+        /**
+         * Computes the layer output for a window of the input feature maps
+         * into a caller supplied array, without touching the layer's own
+         * activations. The window has the size of the feature maps the layer
+         * was trained on, so a fully connected layer can be slid over feature
+         * maps computed for a larger input.
+         *
+         * @param in the input maps, map by map, each stored by x then y
+         * @param nMaps the number of maps
+         * @param inDimX input map width
+         * @param inDimY input map height
+         * @param wx x of the window corner
+         * @param wy y of the window corner
+         * @param wDimX window width
+         * @param wDimY window height
+         * @param out receives the unit outputs
+         * @param softMax true to normalize the outputs with softmax
+         */
+        void computeInto(float[] in, int nMaps, int inDimX, int inDimY, int wx, int wy, int wDimX, int wDimY, float[] out, boolean softMax) {
+            Arrays.fill(out, 0, biases.length, 0);
+            weightedSum(in, nMaps, inDimX, inDimY, wx, wy, wDimX, wDimY, out);
+            applyActivationFunction(out);
+            if (softMax) {
+                softMax(out);
+            }
+        }
+
+        /**
+         * Accumulates weights times inputs of a window into out. Weights are
+         * stored by input, so march through them once and accumulate all
+         * units per input activation.
+         */
+        private void weightedSum(float[] in, int nMaps, int inDimX, int inDimY, int wx, int wy, int wDimX, int wDimY, float[] out) {
+            final int nUnits = biases.length, inLength = inDimX * inDimY;
+            int widx = 0; // see weight(unit, nUnits, w)
+            for (int map = 0; map < nMaps; map++) {
+                for (int x = wx; x < (wx + wDimX); x++) {
+                    int idx = (map * inLength) + (x * inDimY) + wy;
+                    for (int end = idx + wDimY; idx < end; idx++, widx += nUnits) {
+                        float a = in[idx];
+                        if (a == 0) {
+                            continue; // common after ReLu
+                        }
+                        if ((widx + nUnits) > weights.length) {
+                            throw new ArrayIndexOutOfBoundsException(widx + nUnits);
+                        }
+                        for (int unit = 0; unit < nUnits; unit++) {
+                            out[unit] += a * weights[widx + unit];
+                        }
+                    }
+                }
+            }
+        }
+
+        private void applyActivationFunction(float[] a) {
             for (int unit = 0; unit < biases.length; unit++) {
                 switch (activationFunction) {
                     case Sigmoid:
                     case Undefined:
-                        activations[unit] = sigm(activations[unit] + biases[unit]);
+                        a[unit] = sigm(a[unit] + biases[unit]);
                         break;
                     case ReLu:
-                        activations[unit] = relu(activations[unit] + biases[unit]);
+                        a[unit] = relu(a[unit] + biases[unit]);
                         break;
                     case None:
-                        activations[unit] = (activations[unit] + biases[unit]);
-                }
-                operationCounter += 2;
-                if (activations[unit] > maxActivation) {
-                    maxActivatedUnit = unit;
-                    maxActivation = activations[unit];
+                        a[unit] = (a[unit] + biases[unit]);
                 }
             }
-
         }
 
         private float weight(int unit, int nUnits, int weight) {
@@ -1530,25 +1952,30 @@ public class DeepLearnCnnNetwork {
             if (activations == null || activations.length == 0) {
                 return;
             }
+            softMax(activations);
+            maxActivation = Float.NEGATIVE_INFINITY;
+            for (int k = 0; k < activations.length; k++) {
+                if (activations[k] > maxActivation) {
+                    maxActivatedUnit = k;
+                    maxActivation = activations[k];
+                }
+                operationCounter += 4;
+            }
+        }
+
+        private void softMax(float[] a) {
             float sum = 0;
-            for (int k = 0; k < activations.length; k++) { // simply MAC the weight times the input activation
-                float f = (float) Math.exp(activations[k]);
+            for (int k = 0; k < biases.length; k++) {
+                float f = (float) Math.exp(a[k]);
                 if (Float.isInfinite(f)) {
                     f = Float.MAX_VALUE; // handle exponential overflow
                 }
                 sum += f;
-                activations[k] = f;
-                operationCounter += 2;
+                a[k] = f;
             }
-            maxActivation = Float.NEGATIVE_INFINITY;
             float r = 1 / sum;
-            for (int k = 0; k < activations.length; k++) { // simply MAC the weight times the input activation
-                activations[k] *= r;
-                if (activations[k] > maxActivation) {
-                    maxActivatedUnit = k;
-                    maxActivation = activations[k];
-                }
-                operationCounter += 2;
+            for (int k = 0; k < biases.length; k++) {
+                a[k] *= r;
             }
         }
 
@@ -1709,6 +2136,7 @@ public class DeepLearnCnnNetwork {
                 ConvLayer c = (ConvLayer) l;
                 if (c.kernels != null) {
                     Arrays.fill(c.kernels, weight);
+                    c.weightMatrix = null;
                 }
                 if (c.biases != null) {
                     Arrays.fill(c.biases, bias);
@@ -2089,6 +2517,20 @@ public class DeepLearnCnnNetwork {
         this.zeroPadding = zeroPadding;
     }
 
+    /**
+     * @return the computeBackend
+     */
+    public ComputeBackend getComputeBackend() {
+        return computeBackend;
+    }
+
+    /**
+     * @param computeBackend how convolutional layers are computed
+     */
+    public void setComputeBackend(ComputeBackend computeBackend) {
+        this.computeBackend = computeBackend;
+    }
+
     /**
      * @return the normalizeDVSForZsNullhop
      */
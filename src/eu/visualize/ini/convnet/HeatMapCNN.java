@@ -40,6 +40,7 @@ public class HeatMapCNN extends DavisDeepLearnCnnProcessor{
 
     private boolean hideOutput = getBoolean("hideOutput", false);
     private boolean processROI = getBoolean("processROI", false);
+    private boolean approximateHeatMap = getBoolean("approximateHeatMap", false);
     private boolean showAnalogDecisionOutput = getBoolean("showAnalogDecisionOutput", false);
     private TargetLabeler targetLabeler = null;
     private int totalDecisions = 0, correct = 0, incorrect = 0;
@@ -50,6 +51,8 @@ public class HeatMapCNN extends DavisDeepLearnCnnProcessor{
     private int outputX = 0, outputY = 0;  // Output location
     private double outputProbVal = 0; // The max probablity in the heatmap
     private ParticleFilterTracking tracker;
+    private float[][] patchOutputs = null; // reused network outputs of all patches
+    private final int[] roiX = new int[4], roiY = new int[4];
 
     public ParticleFilterTracking getTracker() {
         return tracker;
@@ -67,6 +70,7 @@ public class HeatMapCNN extends DavisDeepLearnCnnProcessor{
         setPropertyTooltip("showAnalogDecisionOutput", "shows output units as analog shading");
         setPropertyTooltip("hideOutput", "All the output units are hided");
         setPropertyTooltip("processROI", "Regions of Interest will be processed");
+        setPropertyTooltip("approximateHeatMap", "computes convolutions once over the whole frame also for zero padded CNNs; much faster, but patch outputs differ from the exact ones because patches see their neighbors instead of zero padding");
 
         FilterChain chain = new FilterChain(chip);
         targetLabeler = new TargetLabeler(chip); // used to validate whether descisions are correct or not
@@ -247,6 +251,7 @@ public class HeatMapCNN extends DavisDeepLearnCnnProcessor{
                 int dimy2 = apsDvsNet.inputLayer.dimy/2;
                 int idx = 0;
 
+                apsDvsNet.getPatchBatchEvaluator().setApproximateSharingEnabled(approximateHeatMap);
                 tracker = this.getTracker(); // Get the current particle filter                
 
                 // processROI is the flag to indicate the input of the heatMap
@@ -263,20 +268,23 @@ public class HeatMapCNN extends DavisDeepLearnCnnProcessor{
 
                    for (int i=0; i< 2; i++ ){
                        for (int j = 0; j< 2; j++){
-                           float[] outputs = apsDvsNet.processInputPatchFrame((AEFrameChipRenderer) (chip.getRenderer()), centerx[i], centery[j]);
-                           heatMap[idx]=outputs[0];
+                           roiX[idx] = centerx[i];
+                           roiY[idx] = centery[j];
                            idx++;
                        }
-                    }      
+                    }
+                    patchOutputs = apsDvsNet.processInputPatchFrames((AEFrameChipRenderer) (chip.getRenderer()), roiX, roiY, processed_num, patchOutputs);
+                    for (idx = 0; idx < processed_num; idx++) {
+                        heatMap[idx] = patchOutputs[idx] == null ? 0 : patchOutputs[idx][0]; // null if the patch is not inside the frame
+                    }
                     updateOutput_ROI();
                 } else {
-                    for(int x = dimx2; x< (chip.getSizeX()-dimx2); x+= strideX){
-                        for(int y = dimy2; y< (chip.getSizeY()-dimy2); y+= strideY){
-                            float[] outputs = apsDvsNet.processInputPatchFrame((AEFrameChipRenderer) (chip.getRenderer()), x, y);
-                            // apsDvsNet.drawActivations();
-                            heatMap[idx]=outputs[0];
-                            idx++;
-                        }
+                    // all patches are evaluated together so that overlapping patches share convolutions
+                    int nx = ((chip.getSizeX() - (2 * dimx2)) + strideX - 1) / strideX;
+                    int ny = ((chip.getSizeY() - (2 * dimy2)) + strideY - 1) / strideY;
+                    patchOutputs = apsDvsNet.processInputPatchGrid((AEFrameChipRenderer) (chip.getRenderer()), dimx2, dimy2, strideX, strideY, nx, ny, patchOutputs);
+                    for (idx = 0; idx < (nx * ny) && idx < heatMap.length; idx++) {
+                        heatMap[idx] = patchOutputs[idx][0];
                     }
 
                     updateOutput(); // Heatmap is updated, the output should also be updated.
@@ -371,4 +379,20 @@ public class HeatMapCNN extends DavisDeepLearnCnnProcessor{
 
     }
 
+    /**
+     * @return the approximateHeatMap
+     */
+    public boolean isApproximateHeatMap() {
+        return approximateHeatMap;
+    }
+
+    /**
+     * @param approximateHeatMap true to share convolutions between overlapping
+     * patches also for zero padded CNNs
+     */
+    public void setApproximateHeatMap(boolean approximateHeatMap) {
+        this.approximateHeatMap = approximateHeatMap;
+        putBoolean("approximateHeatMap", approximateHeatMap);
+    }
+
 }
@@ -37,15 +37,12 @@ import net.sf.jaer.eventprocessing.EventFilter2D;
 import net.sf.jaer.eventprocessing.FilterChain;
 import net.sf.jaer.eventprocessing.tracking.RectangularClusterTrackerEvent;
 import net.sf.jaer.graphics.FrameAnnotater;
-import net.sf.jaer.util.filter.ParticleFilter.DynamicEvaluator;
-import net.sf.jaer.util.filter.ParticleFilter.MeasurmentEvaluator;
-import net.sf.jaer.util.filter.ParticleFilter.ParticleFilter;
+import net.sf.jaer.util.filter.ParticleFilter.FastParticleFilter;
+import net.sf.jaer.util.filter.ParticleFilter.ParticleMeasurementModel;
+import net.sf.jaer.util.filter.ParticleFilter.ParticleMotionModel;
 import net.sf.jaer.eventprocessing.tracking.RectangularClusterTracker;
 import net.sf.jaer.graphics.AEFrameChipRenderer;
 import net.sf.jaer.graphics.AEViewer;
-import net.sf.jaer.util.filter.ParticleFilter.AverageEvaluator;
-import net.sf.jaer.util.filter.ParticleFilter.Particle;
-import net.sf.jaer.util.filter.ParticleFilter.SimpleParticle;
 
 /**
  *
@@ -56,11 +53,10 @@ import net.sf.jaer.util.filter.ParticleFilter.SimpleParticle;
 @DevelopmentStatus(DevelopmentStatus.Status.Experimental)
 public class ParticleFilterTracking extends EventFilter2D implements PropertyChangeListener, FrameAnnotater {
     public static final String PROP_SURROUNDINHIBITIONCOST = "PROP_SURROUNDINHIBITIONCOST";
-    private DynamicEvaluator dynamic;
-    private MeasurmentEvaluator measurement;
-    private AverageEvaluator average;
+    private final MotionModel motionModel = new MotionModel();
+    private final MeasurementModel measurementModel = new MeasurementModel();
 
-    private ParticleFilter filter;
+    private FastParticleFilter filter;
     
     private boolean Useframe = false;
     private boolean UseClustersFrametime = false;
@@ -75,6 +71,7 @@ public class ParticleFilterTracking extends EventFilter2D implements PropertyCha
     private boolean UsePureEvents = getBoolean("UsePureEvents", false);
     private boolean displayParticles = getBoolean("displayParticles", false);
     private int eventsNumToProcess = getInt("eventsNumToProcess", 10);
+    private boolean parallelEvaluation = getBoolean("parallelEvaluation", false);
 
     private boolean addedViewerPropertyChangeListener = false; // TODO promote these to base EventFilter class
     private boolean addTimeStampsResetPropertyChangeListener = false;
@@ -97,10 +94,6 @@ public class ParticleFilterTracking extends EventFilter2D implements PropertyCha
         outputX = getStartPositionX();
         outputY = getStartPositionY();
         
-        dynamic = new DynamicEvaluator(noise);
-        measurement = new MeasurmentEvaluator();
-        average = new AverageEvaluator();
-
         tracker = new RectangularClusterTracker(chip);
         heatMapCNN = new HeatMapCNN(chip);
         trackingFilterChain = new FilterChain(chip);
@@ -128,6 +121,7 @@ public class ParticleFilterTracking extends EventFilter2D implements PropertyCha
         setPropertyTooltip("startPositionY", "Particles start position y");
         setPropertyTooltip("UsePureEvents", "Only use events");
         setPropertyTooltip("eventsNumToProcess", "The events in the packet will be processed");
+        setPropertyTooltip("parallelEvaluation", "Propagate and weight the particles on all cores, worthwhile for thousands of particles");
         // setPropertyTooltip("filterEventsEnabled", "Just for test");      
     }
 
@@ -173,18 +167,13 @@ public class ParticleFilterTracking extends EventFilter2D implements PropertyCha
                     enableFlg.set(0, true);   
                     measurementWeight.set(0, 1.0);
                 }      
-                Random r = new Random();
-
                 filterProcess();
 
-                outputX = filter.getAverageX();
-                outputY = filter.getAverageY();
+                outputX = filter.getMean(0);
+                outputY = filter.getMean(1);
                 /* If particles are outside, then they will be reset to the center point. */
                 if(outputX > 240 || outputY > 180 || outputX < 0 || outputY < 0) {
-                    for(int i = 0; i < filter.getParticleCount(); i++) {
-                        filter.get(i).setX(120 + 50 * (r.nextDouble() * 2 - 1));
-                        filter.get(i).setY(90 + 50 * (r.nextDouble() * 2 - 1));
-                    }
+                    resetParticlesToCenter();
                 }                
             }    
             
@@ -235,24 +224,20 @@ public class ParticleFilterTracking extends EventFilter2D implements PropertyCha
             }             
         }
         
-        Random r = new Random();
         filterProcess();
    
-        outputX = filter.getAverageX();
-        outputY = filter.getAverageY();
+        outputX = filter.getMean(0);
+        outputY = filter.getMean(1);
         /* If particles are outside, then they will be reset to the center point. */
         if(outputX > 240 || outputY > 180 || outputX < 0 || outputY < 0) {
-            for(i = 0; i < filter.getParticleCount(); i++) {
-                filter.get(i).setX(120 + 50 * (r.nextDouble() * 2 - 1));
-                filter.get(i).setY(90 + 50 * (r.nextDouble() * 2 - 1));
-            }
+            resetParticlesToCenter();
         }                 
 
         try (FileWriter outFile = new FileWriter(outputFilename,true)) {
             outFile.write(String.format(in.getFirstEvent().getTimestamp() + " " + (int)outputX + " " + (int)outputY + "\n"));
             outFile.close();
         } catch (IOException ex) {
-            Logger.getLogger(ParticleFilter.class.getName()).log(Level.SEVERE, null, ex);
+            Logger.getLogger(ParticleFilterTracking.class.getName()).log(Level.SEVERE, null, ex);
         } catch (Exception e) {
             log.warning("Caught " + e + ". See following stack trace.");
             e.printStackTrace();
@@ -266,29 +251,24 @@ public class ParticleFilterTracking extends EventFilter2D implements PropertyCha
     */
     @Override
     public void resetFilter() {
-        filter = new ParticleFilter(dynamic, measurement, average);
-        
-        Random r = new Random();
-        for(int i = 0; i < particlesCount; i++) {
-//                double x = (chip.getSizeX()/2) * (r.nextDouble()*2 - 1) + chip.getSizeX()/2;
-//                double y = (chip.getSizeX()/2) * (r.nextDouble()*2 - 1) + chip.getSizeX()/2;
-                double x = r.nextGaussian() + startPositionX;
-                double y = r.nextGaussian() + startPositionY;
-                filter.addParticle(new SimpleParticle(x, y));
-        }    
+        filter = new FastParticleFilter(particlesCount, 2);
+        filter.setParallel(parallelEvaluation);
+        filter.initGaussian(new double[]{startPositionX, startPositionY}, 1);
     }
 
     @Override
     public void initFilter() {
-        List<Float> xArray = new ArrayList<Float>();
-        List<Float> yArray = new ArrayList<Float>();
+        measurementModel.numMeasurements = 0;
+    }
 
-        for(int i = 0; i < tracker.getMaxNumClusters(); i ++) {
-            xArray.add((float)0);
-            yArray.add((float)0);
+    /** Scatters the particles uniformly around the center of the 240x180 sensor */
+    private void resetParticlesToCenter() {
+        Random r = filter.getRandom();
+        double[] x = filter.getState(0), y = filter.getState(1);
+        for(int i = 0; i < filter.getParticleCount(); i++) {
+            x[i] = 120 + 50 * (r.nextDouble() * 2 - 1);
+            y[i] = 90 + 50 * (r.nextDouble() * 2 - 1);
         }
-
-        measurement.setMu(xArray, yArray);
     }
 
     @Override
@@ -353,8 +333,9 @@ public class ParticleFilterTracking extends EventFilter2D implements PropertyCha
         if(displayParticles) {
             gl.glColor4f(.1f, 1f, .1f, .25f);
 
+            double[] x = filter.getState(0), y = filter.getState(1);
             for(int i = 0; i < filter.getParticleCount(); i ++) {            
-                gl.glRectd(filter.get(i).getX() - 0.5, filter.get(i).getY() - 0.5, filter.get(i).getX() + 0.5, filter.get(i).getY() + 0.5);
+                gl.glRectd(x[i] - 0.5, y[i] - 0.5, x[i] + 0.5, y[i] + 0.5);
             }            
         }
         
@@ -365,25 +346,73 @@ public class ParticleFilterTracking extends EventFilter2D implements PropertyCha
         // }    
     }   
     
+    /** Runs one predict / weight / resample step against the current measurement locations. */
     public void filterProcess() {
-        Random r = new Random();
+        measurementModel.setMeasurements(measurementLocationsX, measurementLocationsY, measurementWeight);
+        filter.predict(motionModel);
+        double originSum = filter.update(measurementModel); // The sum of the likelihoods before normalize
+        if(originSum > threshold /* && filter.getEffectiveSampleSize() < filter.getParticleCount() * 0.75*/) {
+            filter.resample();
+        }
+    }
 
-        measurement.setMu(measurementLocationsX, measurementLocationsY);
-        measurement.setMeasurementWeight(measurementWeight);
-        
-        double originSum = 0;
-        double effectiveNum = 0;
-        // if(visibleCnt != 0) {
-            measurement.setVisibleCluster(enableFlg);
-            filter.evaluateStrength();            
-            originSum = filter.normalize(); // The sum value before normalize
-            effectiveNum = filter.calculateNeff();
-            if(originSum > threshold /* && effectiveNum < filter.getParticleCount() * 0.75*/) {
-                filter.resample(r);   
-            } else {
-                filter.updateWeight();
+    /** Random walk with gaussian steps of standard deviation noise. */
+    private class MotionModel implements ParticleMotionModel {
+
+        @Override
+        public void predict(double[][] state, int from, int to, Random random) {
+            final double[] x = state[0], y = state[1];
+            final double sigma = noise;
+            for (int i = from; i < to; i++) {
+                x[i] += random.nextGaussian() * sigma;
+                y[i] += random.nextGaussian() * sigma;
             }
-        // }
+        }
+    }
+
+    /**
+     * Likelihood of a particle is the mean over all measurements of a gaussian
+     * of the weighted squared distance to the measurement.
+     */
+    private static class MeasurementModel implements ParticleMeasurementModel {
+
+        double sigma = Math.sqrt(20);
+        int numMeasurements = 0;
+        double[] muX = new double[4], muY = new double[4], weight = new double[4];
+
+        void setMeasurements(List<Float> x, List<Float> y, List<Double> w) {
+            int n = x.size();
+            if (n > muX.length) {
+                muX = new double[n];
+                muY = new double[n];
+                weight = new double[n];
+            }
+            for (int i = 0; i < n; i++) {
+                muX[i] = x.get(i);
+                muY[i] = y.get(i);
+                weight[i] = w.get(i);
+            }
+            numMeasurements = n;
+        }
+
+        @Override
+        public void likelihood(double[][] state, double[] likelihood, int from, int to) {
+            final double[] x = state[0], y = state[1];
+            final int n = numMeasurements;
+            if (n == 0) {
+                Arrays.fill(likelihood, from, to, 0);
+                return;
+            }
+            final double k = -1 / (2 * sigma * sigma), norm = 1.0 / n;
+            for (int i = from; i < to; i++) {
+                double sum = 0;
+                for (int j = 0; j < n; j++) {
+                    double dx = x[i] - muX[j], dy = y[i] - muY[j];
+                    sum += Math.exp(((dx * dx) + (dy * dy)) * weight[j] * k);
+                }
+                likelihood[i] = sum * norm;
+            }
+        }
     }
 
     public double getOutputX() {
@@ -605,6 +634,24 @@ public class ParticleFilterTracking extends EventFilter2D implements PropertyCha
         putFloat("noise", noise);
     }
 
+    /**
+     * @return the parallelEvaluation
+     */
+    public boolean isParallelEvaluation() {
+        return parallelEvaluation;
+    }
+
+    /**
+     * @param parallelEvaluation the parallelEvaluation to set
+     */
+    public void setParallelEvaluation(boolean parallelEvaluation) {
+        this.parallelEvaluation = parallelEvaluation;
+        putBoolean("parallelEvaluation", parallelEvaluation);
+        if (filter != null) {
+            filter.setParallel(parallelEvaluation);
+        }
+    }
+
 
  
 }
@@ -0,0 +1,437 @@
+/*
+ * PatchBatchEvaluator.java
+ *
+ * Evaluates a CNN on many patches of one frame together.
+ */
+package eu.visualize.ini.convnet;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import eu.visualize.ini.convnet.DeepLearnCnnNetwork.ConvLayer;
+import eu.visualize.ini.convnet.DeepLearnCnnNetwork.Layer;
+import eu.visualize.ini.convnet.DeepLearnCnnNetwork.OutputOrInnerProductFullyConnectedLayer;
+import eu.visualize.ini.convnet.DeepLearnCnnNetwork.SubsamplingLayer;
+import net.sf.jaer.graphics.AEFrameChipRenderer;
+import net.sf.jaer.util.ParallelLoop;
+
+/**
+ * Evaluates a {@link DeepLearnCnnNetwork} on many patches of the same APS
+ * frame, e.g. for sliding window detection or heat maps. The result for each
+ * patch is the same as from
+ * {@link DeepLearnCnnNetwork#processInputPatchFrame(AEFrameChipRenderer, int, int)}.
+ * <p>
+ * The frame pixels under all patches are read once. Then one of two methods
+ * is used:
+ * <ul>
+ * <li>Shared (fully convolutional): the convolution and pooling layers are
+ * run once over the bounding box of all patches and the fully connected
+ * layers are slid over the resulting feature maps, so overlapping patches do
+ * not recompute the same convolutions. This gives exactly the per-patch result
+ * only for nets without zero padding and when all patch corners are on the
+ * grid of the total pooling factor, so it is only used then, and only when
+ * the patches together cover more pixels than their bounding box. With zero
+ * padding the results differ near the patch borders, where the patch sees
+ * its neighbors' pixels instead of zeros; this can be allowed with
+ * {@link #setApproximateSharingEnabled(boolean)}.
+ * <li>Batched: each patch is run through the network on its own, with patches
+ * split across cores, each thread using its own scratch arrays.
+ * </ul>
+ * Nets with layer combinations this class does not handle fall back to
+ * calling processInputPatchFrame for each patch.
+ * <p>
+ * The network's own layer activations are not changed by the batched and
+ * shared methods, and no {@link DeepLearnCnnNetwork#EVENT_MADE_DECISION} is
+ * fired for the patches.
+ */
+public class PatchBatchEvaluator {
+
+    private final DeepLearnCnnNetwork net;
+    /** Scratch arrays, one set per concurrently running chunk */
+    private final ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<Workspace>();
+    private float[] region = new float[0];
+    private int[] gridX = new int[0], gridY = new int[0];
+    private boolean sharingEnabled = true;
+    private boolean approximateSharingEnabled = false;
+    private Method lastMethod = null;
+
+    /** How the last batch was computed */
+    public enum Method {
+
+        Shared, Batched, Sequential
+    };
+
+    /**
+     * Layer chain of the net, excluding the input layer and including the
+     * output layer, with the patch dimensions after each layer
+     */
+    private Layer[] chain;
+    private float[][] weightMatrices;
+    private int firstFullyConnected, patchFeatureDimX, patchFeatureDimY, totalPooling;
+
+    /**
+     * @param net the network to evaluate
+     */
+    public PatchBatchEvaluator(DeepLearnCnnNetwork net) {
+        this.net = net;
+    }
+
+    /**
+     * Computes the network output for patches centered on each of the given
+     * points, in the coordinates of processInputPatchFrame.
+     *
+     * @param renderer the renderer holding the APS frame
+     * @param xs patch center x coordinates
+     * @param ys patch center y coordinates
+     * @param n the number of patches
+     * @param outputs array of output vectors to reuse, or null
+     * @return the output vector of each patch, or a null entry for a patch
+     * that is not completely inside the frame
+     */
+    synchronized public float[][] processPatches(AEFrameChipRenderer renderer, int[] xs, int[] ys, int n, float[][] outputs) {
+        if ((outputs == null) || (outputs.length < n)) {
+            outputs = new float[n][];
+        }
+        if (n == 0) {
+            return outputs;
+        }
+        final int dimx = net.inputLayer.dimx, dimy = net.inputLayer.dimy, dimx2 = dimx / 2, dimy2 = dimy / 2;
+        final int frameWidth = renderer.getChip().getSizeX(), frameHeight = renderer.getChip().getSizeY();
+
+        if (!analyzeNetwork(dimx, dimy)) {
+            lastMethod = Method.Sequential;
+            for (int i = 0; i < n; i++) {
+                float[] o = net.processInputPatchFrame(renderer, xs[i], ys[i]);
+                outputs[i] = o == null ? null : copy(o, outputs[i]);
+            }
+            return outputs;
+        }
+
+        // bounding box of the patch corners
+        int minX0 = Integer.MAX_VALUE, maxX0 = Integer.MIN_VALUE, minY0 = Integer.MAX_VALUE, maxY0 = Integer.MIN_VALUE;
+        int numValid = 0;
+        boolean aligned = true;
+        int alignX = 0, alignY = 0;
+        for (int i = 0; i < n; i++) {
+            int x0 = xs[i] - dimx2, y0 = ys[i] - dimy2;
+            if ((x0 < 0) || ((x0 + dimx) > frameWidth) || (y0 < 0) || ((y0 + dimy) > frameHeight)) {
+                outputs[i] = null;
+                continue;
+            }
+            if (numValid == 0) {
+                alignX = mod(x0, totalPooling);
+                alignY = mod(y0, totalPooling);
+            } else if ((mod(x0, totalPooling) != alignX) || (mod(y0, totalPooling) != alignY)) {
+                aligned = false;
+            }
+            numValid++;
+            minX0 = Math.min(minX0, x0);
+            maxX0 = Math.max(maxX0, x0);
+            minY0 = Math.min(minY0, y0);
+            maxY0 = Math.max(maxY0, y0);
+            if ((outputs[i] == null) || (outputs[i].length != net.outputLayer.getNumUnits())) {
+                outputs[i] = new float[net.outputLayer.getNumUnits()];
+            }
+        }
+        if (numValid == 0) {
+            return outputs;
+        }
+
+        // read the region once, columns by x with y flipped as done by InputLayer.processInputFramePatch
+        final int regionWidth = (maxX0 - minX0) + dimx, regionHeight = (maxY0 - minY0) + dimy;
+        if (region.length < (regionWidth * regionHeight)) {
+            region = new float[regionWidth * regionHeight];
+        }
+        final int yTop = (maxY0 + dimy) - 1;
+        for (int rx = 0; rx < regionWidth; rx++) {
+            int o = rx * regionHeight;
+            for (int ry = 0; ry < regionHeight; ry++) {
+                region[o + ry] = renderer.getApsGrayValueAtPixel(minX0 + rx, yTop - ry) * 1024;
+            }
+        }
+
+        boolean share = sharingEnabled && aligned && (!net.isZeroPadding() || approximateSharingEnabled)
+                && (((long) numValid * dimx * dimy) > ((long) regionWidth * regionHeight));
+        if (share) {
+            processShared(xs, ys, n, outputs, regionWidth, regionHeight, minX0, maxY0);
+        } else {
+            processBatched(xs, ys, n, outputs, regionHeight, minX0, maxY0);
+        }
+        return outputs;
+    }
+
+    /**
+     * Computes the network output for a regular grid of patch centers. The
+     * outputs are ordered by x, then y, i.e. entry ix*ny+iy is for center
+     * (x0+ix*strideX, y0+iy*strideY).
+     *
+     * @param renderer the renderer holding the APS frame
+     * @param x0 x of first patch center
+     * @param y0 y of first patch center
+     * @param strideX patch center spacing in x
+     * @param strideY patch center spacing in y
+     * @param nx number of patches in x
+     * @param ny number of patches in y
+     * @param outputs array of output vectors to reuse, or null
+     * @return the output vector of each patch, or a null entry for a patch
+     * that is not completely inside the frame
+     */
+    synchronized public float[][] processGrid(AEFrameChipRenderer renderer, int x0, int y0, int strideX, int strideY, int nx, int ny, float[][] outputs) {
+        int n = nx * ny;
+        if (gridX.length < n) {
+            gridX = new int[n];
+            gridY = new int[n];
+        }
+        int i = 0;
+        for (int ix = 0; ix < nx; ix++) {
+            for (int iy = 0; iy < ny; iy++) {
+                gridX[i] = x0 + (ix * strideX);
+                gridY[i] = y0 + (iy * strideY);
+                i++;
+            }
+        }
+        return processPatches(renderer, gridX, gridY, n, outputs);
+    }
+
+    private void processBatched(final int[] xs, final int[] ys, final int n, final float[][] outputs, final int regionHeight, final int minX0, final int maxY0) {
+        lastMethod = Method.Batched;
+        final int dimx = net.inputLayer.dimx, dimy = net.inputLayer.dimy, dimx2 = dimx / 2, dimy2 = dimy / 2;
+        int grain = Math.max(1, n / (2 * ParallelLoop.getParallelism()));
+        ParallelLoop.run(0, n, grain, new ParallelLoop.Body() {
+            @Override
+            public void run(int from, int to) {
+                Workspace ws = acquire();
+                try {
+                    ws.input = ensure(ws.input, dimx * dimy);
+                    for (int i = from; i < to; i++) {
+                        if (outputs[i] == null) {
+                            continue;
+                        }
+                        int x0 = xs[i] - dimx2, y0 = ys[i] - dimy2;
+                        int src = ((x0 - minX0) * regionHeight) + (maxY0 - y0);
+                        for (int x = 0; x < dimx; x++) {
+                            System.arraycopy(region, src + (x * regionHeight), ws.input, x * dimy, dimy);
+                        }
+                        float[] features = computeConvolutional(ws, ws.input, dimx, dimy);
+                        computeFullyConnected(ws, features, ws.featureMaps, ws.featureDimX, ws.featureDimY, 0, 0, outputs[i]);
+                    }
+                } finally {
+                    release(ws);
+                }
+            }
+        });
+    }
+
+    private void processShared(final int[] xs, final int[] ys, final int n, final float[][] outputs, int regionWidth, int regionHeight, final int minX0, final int maxY0) {
+        lastMethod = Method.Shared;
+        final int dimx2 = net.inputLayer.dimx / 2, dimy2 = net.inputLayer.dimy / 2;
+        Workspace shared = acquire();
+        try {
+            final float[] features = computeConvolutional(shared, region, regionWidth, regionHeight);
+            final int maps = shared.featureMaps, fdx = shared.featureDimX, fdy = shared.featureDimY;
+            int grain = Math.max(1, n / (2 * ParallelLoop.getParallelism()));
+            ParallelLoop.run(0, n, grain, new ParallelLoop.Body() {
+                @Override
+                public void run(int from, int to) {
+                    Workspace ws = acquire();
+                    try {
+                        for (int i = from; i < to; i++) {
+                            if (outputs[i] == null) {
+                                continue;
+                            }
+                            int wx = ((xs[i] - dimx2) - minX0) / totalPooling, wy = (maxY0 - (ys[i] - dimy2)) / totalPooling;
+                            computeFullyConnected(ws, features, maps, fdx, fdy, wx, wy, outputs[i]);
+                        }
+                    } finally {
+                        release(ws);
+                    }
+                }
+            });
+        } finally {
+            release(shared);
+        }
+    }
+
+    /**
+     * Runs the convolution and pooling layers on one input map.
+     *
+     * @return the final feature maps; their number and size are left in ws
+     */
+    private float[] computeConvolutional(Workspace ws, float[] input, int dimX, int dimY) {
+        float[] in = input;
+        int maps = 1, dx = dimX, dy = dimY;
+        boolean fromInputLayer = true;
+        for (int l = 0; l < firstFullyConnected; l++) {
+            float[] out = ws.buffers[l & 1];
+            if (chain[l] instanceof ConvLayer) {
+                ConvLayer c = (ConvLayer) chain[l];
+                int odx = c.outputDim(dx), ody = c.outputDim(dy);
+                ws.columns = ensure(ws.columns, c.getNumWeightRows() * odx * ody);
+                out = ensure(out, c.getNumOutputMaps() * odx * ody);
+                c.computeInto(in, fromInputLayer ? 0 : dx * dy, dx, dy, weightMatrices[l], ws.columns, out);
+                maps = c.getNumOutputMaps();
+                dx = odx;
+                dy = ody;
+            } else {
+                SubsamplingLayer s = (SubsamplingLayer) chain[l];
+                int odx = s.outputDim(dx), ody = s.outputDim(dy);
+                out = ensure(out, maps * odx * ody);
+                s.computeInto(in, maps, dx, dy, out);
+                dx = odx;
+                dy = ody;
+            }
+            ws.buffers[l & 1] = out;
+            in = out;
+            fromInputLayer = false;
+        }
+        ws.featureMaps = maps;
+        ws.featureDimX = dx;
+        ws.featureDimY = dy;
+        return in;
+    }
+
+    /**
+     * Runs the fully connected layers on a patch sized window of the feature
+     * maps.
+     */
+    private void computeFullyConnected(Workspace ws, float[] features, int maps, int fdx, int fdy, int wx, int wy, float[] output) {
+        float[] in = features;
+        int wdx = patchFeatureDimX, wdy = patchFeatureDimY;
+        for (int l = firstFullyConnected; l < chain.length; l++) {
+            OutputOrInnerProductFullyConnectedLayer f = (OutputOrInnerProductFullyConnectedLayer) chain[l];
+            boolean last = l == (chain.length - 1);
+            float[] out = last ? output : (ws.units[l & 1] = ensure(ws.units[l & 1], f.getNumUnits()));
+            f.computeInto(in, maps, fdx, fdy, wx, wy, wdx, wdy, out, last && net.isSoftMaxOutput());
+            // later layers see the units as maps of a single pixel
+            in = out;
+            maps = f.getNumUnits();
+            fdx = fdy = wdx = wdy = 1;
+            wx = wy = 0;
+        }
+    }
+
+    /**
+     * Collects the layers and checks that the net is made of convolution and
+     * pooling layers followed by fully connected layers, with pooling that
+     * divides the patch evenly.
+     *
+     * @return true if the batched and shared methods can be used
+     */
+    private boolean analyzeNetwork(int dimx, int dimy) {
+        Layer[] layers = net.layers;
+        if ((layers == null) || (net.nLayers < 1) || (net.outputLayer == null) || !(layers[0] instanceof DeepLearnCnnNetwork.InputLayer)) {
+            return false;
+        }
+        int n = net.nLayers; // skip the input layer, add the output layer
+        if ((chain == null) || (chain.length != n)) {
+            chain = new Layer[n];
+            weightMatrices = new float[n][];
+        }
+        firstFullyConnected = -1;
+        totalPooling = 1;
+        int dx = dimx, dy = dimy;
+        for (int l = 0; l < n; l++) {
+            Layer layer = l < (n - 1) ? layers[l + 1] : net.outputLayer;
+            chain[l] = layer;
+            weightMatrices[l] = null;
+            if (layer instanceof ConvLayer) {
+                if (firstFullyConnected >= 0) {
+                    return false;
+                }
+                ConvLayer c = (ConvLayer) layer;
+                weightMatrices[l] = c.getWeightMatrix(); // build here, before threads share it
+                dx = c.outputDim(dx);
+                dy = c.outputDim(dy);
+            } else if (layer instanceof SubsamplingLayer) {
+                SubsamplingLayer s = (SubsamplingLayer) layer;
+                int p = s.getPoolingDim();
+                if ((firstFullyConnected >= 0) || (l == 0) || !(chain[l - 1] instanceof ConvLayer) || (p < 1) || ((dx % p) != 0) || ((dy % p) != 0)) {
+                    return false;
+                }
+                totalPooling *= p;
+                dx = s.outputDim(dx);
+                dy = s.outputDim(dy);
+            } else if (layer instanceof OutputOrInnerProductFullyConnectedLayer) {
+                if (firstFullyConnected < 0) {
+                    firstFullyConnected = l;
+                    patchFeatureDimX = dx;
+                    patchFeatureDimY = dy;
+                }
+            } else {
+                return false;
+            }
+            if ((dx < 1) || (dy < 1)) {
+                return false;
+            }
+        }
+        return firstFullyConnected >= 0;
+    }
+
+    private Workspace acquire() {
+        Workspace ws = workspaces.poll();
+        return ws != null ? ws : new Workspace();
+    }
+
+    private void release(Workspace ws) {
+        workspaces.offer(ws);
+    }
+
+    private static float[] ensure(float[] a, int length) {
+        return (a == null) || (a.length < length) ? new float[length] : a;
+    }
+
+    private static float[] copy(float[] src, float[] dst) {
+        if ((dst == null) || (dst.length != src.length)) {
+            dst = new float[src.length];
+        }
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
+    }
+
+    private static int mod(int a, int b) {
+        int m = a % b;
+        return m < 0 ? m + b : m;
+    }
+
+    /** Scratch arrays of one thread */
+    private static final class Workspace {
+
+        float[] input, columns;
+        float[][] buffers = new float[2][], units = new float[2][];
+        int featureMaps, featureDimX, featureDimY;
+    }
+
+    /**
+     * @return how the last batch was computed, or null if none was computed
+     * yet
+     */
+    public Method getLastMethod() {
+        return lastMethod;
+    }
+
+    public boolean isSharingEnabled() {
+        return sharingEnabled;
+    }
+
+    /**
+     * @param sharingEnabled true to compute overlapping patches fully
+     * convolutionally when that gives the same result, false to always
+     * evaluate each patch on its own
+     */
+    public void setSharingEnabled(boolean sharingEnabled) {
+        this.sharingEnabled = sharingEnabled;
+    }
+
+    public boolean isApproximateSharingEnabled() {
+        return approximateSharingEnabled;
+    }
+
+    /**
+     * @param approximateSharingEnabled true to also compute overlapping
+     * patches fully convolutionally for zero padded nets, where the result
+     * then differs from evaluating each patch on its own close to the patch
+     * borders
+     */
+    public void setApproximateSharingEnabled(boolean approximateSharingEnabled) {
+        this.approximateSharingEnabled = approximateSharingEnabled;
+    }
+}
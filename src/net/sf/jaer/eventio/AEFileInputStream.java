@@ -1634,4 +1634,14 @@ public class AEFileInputStream extends DataInputStream implements AEFileInputStr
         this.timestampResetBitmask = timestampResetBitmask;
     }
 
+    /**
+     * Returns true if this is a jAER 3.x file, whose events are read through
+     * a parser of the file's packets.
+     *
+     * @return true for jAER 3.x files
+     */
+    public boolean isJaer3Enabled() {
+        return jaer3EnableFlg;
+    }
+
 }
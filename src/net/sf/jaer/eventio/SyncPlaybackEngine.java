@@ -0,0 +1,521 @@
+/* SyncPlaybackEngine.java */
+package net.sf.jaer.eventio;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.AEChip;
+
+/**
+ * Synchronized playback of several recordings without any viewer, e.g. of the
+ * files of a multi-camera rig listed in an index file. Each recording is a
+ * source with its own AEFileInputStream and decoder thread. The sources are
+ * cut into slices of a shared logical clock: slice k covers the logical times
+ * after startTimestamp+k*timesliceUs up to and including the start of the next
+ * slice, and each source reads the events whose timestamp plus the source's
+ * time offset fall in it. The
+ * slices of all sources with the same k form a {@link PacketGroup}.
+ * <p>
+ * The decoder threads read ahead in parallel up to a bounded number of
+ * slices. Because the slice boundaries depend only on the logical clock and
+ * never on thread timing or rendering, the groups are the same on every run.
+ * Groups are either pulled by the consumer with {@link #nextGroup()}, or
+ * pushed to {@link PacketGroupListener}s by {@link #play(float)} at a chosen
+ * speed relative to real time, or as fast as they are decoded.
+ * <p>
+ * Like {@link net.sf.jaer.SyncPlayer}, this assumes monotonic timestamps in
+ * each file.
+ */
+public class SyncPlaybackEngine {
+
+    private static final Logger log = Logger.getLogger("SyncPlaybackEngine");
+    private static final long SLICE_POLL_INTERVAL_MS = 5; // while nextGroup waits for a decoder, with the lock released
+
+    /** Receives the packet groups emitted by {@link #play(float)} */
+    public interface PacketGroupListener {
+
+        /**
+         * Called from the playback thread for every group, in order.
+         *
+         * @param group the group, whose packets the listener may keep
+         */
+        void packetGroup(PacketGroup group);
+
+        /** Called from the playback thread after the last group of all sources */
+        void endOfPlayback();
+    }
+
+    /** The packets of all sources for one slice of the logical clock */
+    public static class PacketGroup {
+
+        private final int index, startTimestamp, endTimestamp;
+        private final AEPacketRaw[] packets;
+
+        PacketGroup(int index, int startTimestamp, int endTimestamp, AEPacketRaw[] packets) {
+            this.index = index;
+            this.startTimestamp = startTimestamp;
+            this.endTimestamp = endTimestamp;
+            this.packets = packets;
+        }
+
+        /** @return the number of the slice, starting with 0 after start or rewind */
+        public int getIndex() {
+            return index;
+        }
+
+        /** @return the logical time in us at the start of the slice, exclusive */
+        public int getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        /** @return the logical time in us at the end of the slice, inclusive */
+        public int getEndTimestamp() {
+            return endTimestamp;
+        }
+
+        /**
+         * Returns the packet of a source. Its timestamps are those of the
+         * file, i.e. without the time offset of the source.
+         *
+         * @param source the number of the source, in the order they were added
+         * @return the packet, empty if the source has no events in this slice
+         */
+        public AEPacketRaw getPacket(int source) {
+            return packets[source];
+        }
+
+        /** @return the number of sources */
+        public int getNumSources() {
+            return packets.length;
+        }
+    }
+
+    /** One slice of a source, or the end of the source if packet is null */
+    private static final class Slice {
+
+        final int index;
+        final AEPacketRaw packet;
+
+        Slice(int index, AEPacketRaw packet) {
+            this.index = index;
+            this.packet = packet;
+        }
+    }
+
+    private class Source {
+
+        final File file;
+        final AEFileInputStream stream;
+        volatile int timeOffsetUs = 0;
+        final ArrayBlockingQueue<Slice> queue;
+        Thread thread = null;
+        boolean ended = false; // only used by the consumer
+
+        Source(File file, AEChip chip) throws IOException {
+            this.file = file;
+            stream = new AEFileInputStream(file, chip);
+            stream.setRepeat(false);
+            queue = new ArrayBlockingQueue<Slice>(readAheadSlices);
+        }
+
+        /** Reads the slices of this source from the current start of the logical clock */
+        void decode(int generation) {
+            int start = startTimestamp, dt = timesliceUs;
+            try {
+                stream.rewind();
+                for (int k = 0; generation == SyncPlaybackEngine.this.generation; k++) {
+                    stream.setCurrentStartTimestamp((start + (k * dt)) - timeOffsetUs);
+                    AEPacketRaw p = stream.readPacketByTime(dt);
+                    if (!put(new Slice(k, copy(p)), generation)) {
+                        return;
+                    }
+                    if ((stream.position() >= stream.getMarkOutPosition()) || (stream.position() >= stream.size())) {
+                        break; // without repeat the stream returns empty packets from the end on
+                    }
+                }
+            } catch (EOFException e) {
+                log.fine("end of " + file);
+            } catch (IOException e) {
+                log.warning("decoding " + file + " caught " + e + ", ending this source");
+            } catch (RuntimeException e) {
+                log.warning("decoding " + file + " caught " + e + ", ending this source");
+            } finally {
+                put(new Slice(-1, null), generation); // so that the consumer never waits for a slice that will not come
+            }
+        }
+
+        /** Blocks until there is space in the queue, unless the engine is stopped or rewound */
+        private boolean put(Slice slice, int generation) {
+            try {
+                while (generation == SyncPlaybackEngine.this.generation) {
+                    if (queue.offer(slice, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.info("decoder of " + file + " interrupted");
+            }
+            return false;
+        }
+    }
+
+    private final ArrayList<Source> sources = new ArrayList<Source>();
+    private final CopyOnWriteArrayList<PacketGroupListener> listeners = new CopyOnWriteArrayList<PacketGroupListener>();
+    private final int timesliceUs;
+    private int readAheadSlices = 16;
+    private volatile int startTimestamp = 0;
+    private volatile int generation = 0; // incremented to stop the decoders
+    private boolean started = false;
+    private int nextIndex = 0;
+    private volatile Thread playThread = null;
+
+    /**
+     * Makes an engine without sources.
+     *
+     * @param timesliceUs the duration of each slice of the logical clock in us
+     */
+    public SyncPlaybackEngine(int timesliceUs) {
+        if (timesliceUs <= 0) {
+            throw new IllegalArgumentException("timesliceUs=" + timesliceUs + " must be positive");
+        }
+        this.timesliceUs = timesliceUs;
+    }
+
+    /**
+     * Reads the data files listed in an index file, one file name per line
+     * relative to the folder of the index file, as written for synchronized
+     * logging by JAERViewer.
+     *
+     * @param indexFile the .aeidx or .index file
+     * @return the data files
+     * @throws IOException if the index file cannot be read or a data file
+     * does not exist
+     */
+    public static ArrayList<File> readIndexFile(File indexFile) throws IOException {
+        ArrayList<File> files = new ArrayList<File>();
+        BufferedReader reader = new BufferedReader(new FileReader(indexFile));
+        try {
+            String filename;
+            while ((filename = reader.readLine()) != null) {
+                if (filename.trim().isEmpty()) {
+                    continue;
+                }
+                File file = new File(indexFile.getParentFile(), filename);
+                if (!file.isFile()) {
+                    throw new FileNotFoundException(file + " from index file " + indexFile + " doesn't exist");
+                }
+                files.add(file);
+            }
+        } finally {
+            reader.close();
+        }
+        return files;
+    }
+
+    /**
+     * Adds a recording. Sources can only be added before the first group is
+     * read.
+     *
+     * @param file the data file
+     * @param chip the chip the data was recorded from
+     * @return the number of the source
+     * @throws IOException if the file cannot be opened
+     */
+    public synchronized int addSource(File file, AEChip chip) throws IOException {
+        if (started) {
+            throw new IllegalStateException("cannot add sources after playback started");
+        }
+        sources.add(new Source(file, chip));
+        return sources.size() - 1;
+    }
+
+    /** @return the number of sources */
+    public synchronized int getNumSources() {
+        return sources.size();
+    }
+
+    /**
+     * Sets the time offset of a source, which is added to the timestamps of
+     * its file to get the logical time. Takes effect on the next start or
+     * rewind.
+     *
+     * @param source the number of the source
+     * @param timeOffsetUs the offset in us
+     */
+    public synchronized void setTimeOffsetUs(int source, int timeOffsetUs) {
+        sources.get(source).timeOffsetUs = timeOffsetUs;
+    }
+
+    public synchronized int getTimeOffsetUs(int source) {
+        return sources.get(source).timeOffsetUs;
+    }
+
+    /**
+     * Sets the time offsets so that the first events of all sources are at
+     * logical time 0. By default the offsets are 0, i.e. the files are
+     * aligned by their absolute timestamps as they are for files logged
+     * together from synchronized devices.
+     */
+    public synchronized void alignFirstTimestamps() {
+        for (Source s : sources) {
+            s.timeOffsetUs = -s.stream.getFirstTimestamp();
+        }
+    }
+
+    /** @return the duration of each slice in us */
+    public int getTimesliceUs() {
+        return timesliceUs;
+    }
+
+    /** @return the maximum number of slices that each decoder reads ahead */
+    public int getReadAheadSlices() {
+        return readAheadSlices;
+    }
+
+    /**
+     * Sets the maximum number of slices that each decoder reads ahead. Must be
+     * called before sources are added.
+     *
+     * @param readAheadSlices the number of slices
+     */
+    public synchronized void setReadAheadSlices(int readAheadSlices) {
+        if (!sources.isEmpty()) {
+            throw new IllegalStateException("set readAheadSlices before adding sources");
+        }
+        this.readAheadSlices = readAheadSlices;
+    }
+
+    /** Starts the decoders at the earliest logical time of all sources */
+    private void startDecoders() {
+        int start = Integer.MAX_VALUE;
+        for (Source s : sources) {
+            start = Math.min(start, s.stream.getFirstTimestamp() + s.timeOffsetUs);
+        }
+        startTimestamp = (start == Integer.MAX_VALUE) ? 0 : start;
+        final int gen = generation;
+        for (final Source s : sources) {
+            s.queue.clear();
+            s.ended = false;
+            s.thread = new Thread("SyncPlaybackEngine decoder " + s.file.getName()) {
+                @Override
+                public void run() {
+                    s.decode(gen);
+                }
+            };
+            s.thread.setDaemon(true);
+            s.thread.start();
+        }
+        nextIndex = 0;
+        started = true;
+    }
+
+    private void stopDecoders() {
+        generation++;
+        for (Source s : sources) {
+            if (s.thread != null) {
+                s.queue.clear();
+                try {
+                    s.thread.join();
+                } catch (InterruptedException e) {
+                    log.warning("interrupted while waiting for decoder of " + s.file + " to stop");
+                }
+                s.thread = null;
+                s.queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the next group, waiting for the decoders if necessary. Starts the
+     * decoders on the first call. While it waits, the lock of the engine is
+     * released, so that {@link #stop()} and {@link #close()} are not blocked
+     * by a slow or failed decoder.
+     *
+     * @return the group, or null after the last group of all sources or if
+     * the decoders were stopped while waiting
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized PacketGroup nextGroup() throws InterruptedException {
+        if (!started) {
+            startDecoders();
+        }
+        final int gen = generation;
+        AEPacketRaw[] packets = new AEPacketRaw[sources.size()];
+        boolean any = false;
+        for (int i = 0; i < packets.length; i++) {
+            Source s = sources.get(i);
+            Slice slice = null;
+            if (!s.ended) {
+                slice = pollSlice(s, gen);
+                if (gen != generation) {
+                    return null; // stopped, closed or rewound while waiting
+                }
+            }
+            if ((slice == null) || (slice.packet == null)) {
+                s.ended = true;
+                packets[i] = new AEPacketRaw(new int[0], new int[0]);
+            } else {
+                if (slice.index != nextIndex) {
+                    throw new IllegalStateException("slice " + slice.index + " of " + s.file + " where slice " + nextIndex + " was expected");
+                }
+                packets[i] = slice.packet;
+                any = true;
+            }
+        }
+        if (!any) {
+            return null;
+        }
+        int t = startTimestamp + (nextIndex * timesliceUs);
+        return new PacketGroup(nextIndex++, t, t + timesliceUs, packets);
+    }
+
+    /**
+     * Waits for the next slice of a source, releasing the lock of the engine
+     * while the queue is empty.
+     *
+     * @return the slice, or null if the decoder ended without putting the
+     * end of the source or if the decoders were stopped
+     */
+    private Slice pollSlice(Source s, int gen) throws InterruptedException {
+        while (gen == generation) {
+            Slice slice = s.queue.poll();
+            if (slice != null) {
+                return slice;
+            }
+            if ((s.thread == null) || !s.thread.isAlive()) {
+                return s.queue.poll(); // it may have put its last slice just before it ended
+            }
+            wait(SLICE_POLL_INTERVAL_MS);
+        }
+        return null;
+    }
+
+    /**
+     * Restarts all sources at the earliest logical time. Call it from the
+     * thread that reads the groups, or while play is stopped.
+     */
+    public synchronized void rewind() {
+        stopDecoders();
+        startDecoders();
+    }
+
+    public void addListener(PacketGroupListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(PacketGroupListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts a thread that emits the groups to the listeners until the end of
+     * all sources or until {@link #stop()}.
+     *
+     * @param speed the logical time per real time, e.g. 1 for real time or 10
+     * for 10 times faster; 0 or less to emit the groups as fast as they are
+     * decoded
+     */
+    public synchronized void play(final float speed) {
+        if (playThread != null) {
+            throw new IllegalStateException("already playing");
+        }
+        playThread = new Thread("SyncPlaybackEngine playback") {
+            @Override
+            public void run() {
+                long startNs = 0;
+                int startIndex = -1, lastIndex = -1;
+                try {
+                    PacketGroup g;
+                    while ((playThread == this) && ((g = nextGroup()) != null)) {
+                        if (speed > 0) {
+                            if ((startIndex < 0) || (g.getIndex() <= lastIndex)) { // first group, or rewound
+                                startNs = System.nanoTime();
+                                startIndex = g.getIndex();
+                            }
+                            lastIndex = g.getIndex();
+                            long dueNs = startNs + (long) ((1000f * (g.getIndex() - startIndex) * timesliceUs) / speed);
+                            long waitNs = dueNs - System.nanoTime();
+                            if (waitNs > 0) {
+                                Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+                            }
+                        }
+                        for (PacketGroupListener l : listeners) {
+                            l.packetGroup(g);
+                        }
+                    }
+                    if (playThread == this) {
+                        for (PacketGroupListener l : listeners) {
+                            l.endOfPlayback();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    log.info("playback interrupted");
+                } finally {
+                    synchronized (SyncPlaybackEngine.this) {
+                        if (playThread == this) {
+                            playThread = null;
+                        }
+                    }
+                }
+            }
+        };
+        playThread.start();
+    }
+
+    /** Stops the thread started by {@link #play(float)} and waits for it to finish */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = playThread;
+            playThread = null;
+        }
+        if ((t != null) && (t != Thread.currentThread())) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                log.warning("interrupted while waiting for playback to stop");
+            }
+        }
+    }
+
+    /** @return true while the thread started by {@link #play(float)} runs */
+    public boolean isPlaying() {
+        return playThread != null;
+    }
+
+    /** Stops playback and the decoders and closes all files */
+    public void close() {
+        stop();
+        synchronized (this) {
+            stopDecoders();
+            for (Source s : sources) {
+                try {
+                    s.stream.close();
+                } catch (IOException e) {
+                    log.warning("closing " + s.file + " caught " + e);
+                }
+            }
+            sources.clear();
+            started = false;
+        }
+    }
+
+    /** Copies the events of the reused packet of a stream to a packet of its own */
+    private static AEPacketRaw copy(AEPacketRaw p) {
+        int n = p.getNumEvents();
+        AEPacketRaw c = new AEPacketRaw(Arrays.copyOf(p.getAddresses(), n), Arrays.copyOf(p.getTimestamps(), n), Arrays.copyOf(p.getEventtypes(), n));
+        c.setData(Arrays.copyOf(p.getPixelDataArray(), n));
+        return c;
+    }
+}
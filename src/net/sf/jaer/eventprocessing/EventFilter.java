@@ -23,6 +23,7 @@ import net.sf.jaer.Description;
 import net.sf.jaer.chip.AEChip;
 import net.sf.jaer.graphics.FrameAnnotater;
 import net.sf.jaer.util.HasPropertyTooltips;
+import net.sf.jaer.util.PreferencesSnapshot;
 import net.sf.jaer.util.PropertyTooltipSupport;
 
 /**
@@ -73,6 +74,11 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      * @see setEnclosed
      */
     private Preferences prefs = null; // default null, constructed when AEChip is known Preferences.userNodeForPackage(EventFilter.class);
+    /**
+     * Snapshot of prefs that is open while the FilterChain constructs its
+     * filters, or null
+     */
+    private PreferencesSnapshot prefsSnapshot = null;
     /**
      * Provides change support, e.g. for enabled state. Filters can cause their
      * FilterPanel GUI control for a property to update if they fire a
@@ -145,6 +151,7 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
         this.chip = chip;
         try {
             prefs = constructPrefsNode();
+            prefsSnapshot = PreferencesSnapshot.get(prefs);
         } catch (Exception e) {
             log.warning("Constructing prefs for " + this + ": " + e.getMessage() + " cause=" + e.getCause());
         }
@@ -576,6 +583,20 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
         setFilterEnabled(prefs.getBoolean(prefsEnabledKey(), filterEnabled));
     }
 
+    /**
+     * Returns the open snapshot of the preferences node, which the getters
+     * read from while the FilterChain is being constructed.
+     *
+     * @return the snapshot, or null if there is no open snapshot of prefs
+     */
+    private PreferencesSnapshot prefsSnapshot() {
+        PreferencesSnapshot s = prefsSnapshot;
+        if ((s != null) && (!s.isOpen() || (s.getNode() != prefs))) {
+            prefsSnapshot = s = null;
+        }
+        return s;
+    }
+
     /**
      * Returns the prefernces key for the filter
      *
@@ -682,6 +703,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      */
     public void putLong(String key, long value) {
         prefs.putLong(prefsKeyHeader() + key, value);
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            s.put(prefsKeyHeader() + key, String.valueOf(value));
+        }
     }
 
     /**
@@ -692,6 +717,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      */
     public void putInt(String key, int value) {
         prefs.putInt(prefsKeyHeader() + key, value);
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            s.put(prefsKeyHeader() + key, String.valueOf(value));
+        }
     }
 
     /**
@@ -702,6 +731,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      */
     public void putFloat(String key, float value) {
         prefs.putFloat(prefsKeyHeader() + key, value);
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            s.put(prefsKeyHeader() + key, String.valueOf(value));
+        }
     }
 
     /**
@@ -712,6 +745,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      */
     public void putDouble(String key, double value) {
         prefs.putDouble(prefsKeyHeader() + key, value);
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            s.put(prefsKeyHeader() + key, String.valueOf(value));
+        }
     }
 
     /**
@@ -735,6 +772,13 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
         for (int i = 0; i < value.length; i++) {
             prefs.putFloat(prefsKeyHeader() + key + i, value[i]);
         }
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            s.put(prefsKeyHeader() + key + "Length", String.valueOf(value.length));
+            for (int i = 0; i < value.length; i++) {
+                s.put(prefsKeyHeader() + key + i, String.valueOf(value[i]));
+            }
+        }
     }
 
     /**
@@ -745,6 +789,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      */
     public void putBoolean(String key, boolean value) {
         prefs.putBoolean(prefsKeyHeader() + key, value);
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            s.put(prefsKeyHeader() + key, String.valueOf(value));
+        }
     }
 
     /**
@@ -755,6 +803,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      */
     public void putString(String key, String value) {
         prefs.put(prefsKeyHeader() + key, value);
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            s.put(prefsKeyHeader() + key, value);
+        }
     }
     // </editor-fold>
 
@@ -767,6 +819,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      * @return long value
      */
     public long getLong(String key, long def) {
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            return s.getLong(prefsKeyHeader() + key, def);
+        }
         return prefs.getLong(prefsKeyHeader() + key, def);
     }
 
@@ -778,6 +834,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      * @return int value
      */
     public int getInt(String key, int def) {
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            return s.getInt(prefsKeyHeader() + key, def);
+        }
         return prefs.getInt(prefsKeyHeader() + key, def);
     }
 
@@ -789,6 +849,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      * @return float value
      */
     public float getFloat(String key, float def) {
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            return s.getFloat(prefsKeyHeader() + key, def);
+        }
         return prefs.getFloat(prefsKeyHeader() + key, def);
     }
 
@@ -800,6 +864,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      * @return double value
      */
     public double getDouble(String key, double def) {
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            return s.getDouble(prefsKeyHeader() + key, def);
+        }
         return prefs.getDouble(prefsKeyHeader() + key, def);
     }
 
@@ -822,13 +890,13 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      * @return float[] in preferences
      */
     public float[] getFloatArray(String key, float[] def) {
-        int length = prefs.getInt(prefsKeyHeader() + key + "Length", 0);
+        int length = getInt(key + "Length", 0);
         if (def.length != length) {
             return def;
         }
         float[] outArray = new float[length];
         for (int i = 0; i < length; i++) {
-            outArray[i] = prefs.getFloat(prefsKeyHeader() + key + i, 0.0f);
+            outArray[i] = getFloat(key + i, 0.0f);
         }
         return outArray;
     }
@@ -841,6 +909,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      * @return boolean value
      */
     public boolean getBoolean(String key, boolean def) {
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            return s.getBoolean(prefsKeyHeader() + key, def);
+        }
         return prefs.getBoolean(prefsKeyHeader() + key, def);
     }
 
@@ -852,6 +924,10 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
      * @return string value
      */
     public String getString(String key, String def) {
+        PreferencesSnapshot s = prefsSnapshot();
+        if (s != null) {
+            return s.get(prefsKeyHeader() + key, def);
+        }
         return prefs.get(prefsKeyHeader() + key, def);
     }
     // </editor-fold>
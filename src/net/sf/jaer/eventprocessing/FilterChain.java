@@ -6,6 +6,8 @@ package net.sf.jaer.eventprocessing;
 import java.beans.PropertyChangeSupport;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
@@ -13,7 +15,20 @@ import java.io.ObjectOutputStream;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
@@ -21,6 +36,7 @@ import java.util.prefs.Preferences;
 import net.sf.jaer.chip.AEChip;
 import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.util.ClassChooserDialog;
+import net.sf.jaer.util.PreferencesSnapshot;
 
 /**
  * A chain of EventFilter that serially filters or processes packets of
@@ -61,6 +77,16 @@ import net.sf.jaer.util.ClassChooserDialog;
  * rf.setEnclosed(true, this);                     // set rf to be enclosed and inside this filter
  * getEnclosedFilterChain().add(rf);               // add rf to this EventFilter's FilterChain
  * </pre>
+ * <p>
+ * The state of the filters that implement {@link StatefulFilter} can be saved
+ * in a {@link FilterChainCheckpoint} and restored. If checkpointIntervalUs is
+ * set, the chain takes checkpoints while it filters packets, so that after a
+ * seek in a recording {@link #restoreCheckpoint(int)} can restore the state
+ * the filters had near the new position.
+ * <p>
+ * If the {@link LoadShedder} of the chain is enabled, it keeps the processing
+ * time of packets within a latency budget by shedding events or skipping
+ * expensive filters when a burst of events arrives.
  *
  * @author tobi
  */
@@ -84,6 +110,18 @@ public class FilterChain extends LinkedList<EventFilter2D> {
     private int timeLimitMs;
 
     private boolean timedOut = false;
+    private boolean parallelConstructionEnabled;
+    private int checkpointIntervalUs;
+    private int checkpointMemoryLimitMB;
+    /**
+     * Checkpoints taken by filterPacket, keyed by timestamp
+     */
+    private final TreeMap<Integer, FilterChainCheckpoint> checkpoints = new TreeMap<Integer, FilterChainCheckpoint>();
+    private long checkpointBytes = 0;
+    private int checkpointSpacingUs; // starts at checkpointIntervalUs, doubled when checkpoints are thinned out
+    private boolean restorePending = false; // set by restoreCheckpoint, applied by filterPacket before the next packet
+    private FilterChainCheckpoint pendingCheckpoint = null; // null to reset the filters
+    private final LoadShedder loadShedder;
 
     /**
      * The updateIntervalMs is used by EventFilter2D's to ensure maximum update
@@ -134,6 +172,11 @@ public class FilterChain extends LinkedList<EventFilter2D> {
         timeLimitEnabled = chip.getPrefs().getBoolean("FilterChain.timeLimitEnabled", false);
         timeLimitMs = chip.getPrefs().getInt("FilterChain.timeLimitMs", 10);
         updateIntervalMs = chip.getPrefs().getFloat("FilterChain.updateIntervalMs", 10);
+        parallelConstructionEnabled = chip.getPrefs().getBoolean("FilterChain.parallelConstructionEnabled", false);
+        checkpointIntervalUs = chip.getPrefs().getInt("FilterChain.checkpointIntervalUs", 0);
+        checkpointMemoryLimitMB = chip.getPrefs().getInt("FilterChain.checkpointMemoryLimitMB", 64);
+        checkpointSpacingUs = checkpointIntervalUs;
+        loadShedder = new LoadShedder(chip.getPrefs());
 
         setTimeLimitEnabled(timeLimitEnabled);
         setTimeLimitMs(timeLimitMs);
@@ -173,16 +216,25 @@ public class FilterChain extends LinkedList<EventFilter2D> {
      * enabled filters and only if input packet in is non-null. If
      * timeLimitEnabled=true then the timeLimiter is started on the first
      * packet. Any subsequent input iterator for events will then timeout when
-     * the time limit has been reached.
+     * the time limit has been reached. If checkpointIntervalUs is set, a
+     * checkpoint of the filters is taken after the packet has been filtered
+     * when the last one is older than the checkpoint interval. If load
+     * shedding is enabled, the LoadShedder may shed events of the packet or
+     * skip filters before it is filtered.
      *
      * @param in the input packet of events
      * @return the resulting output.
      */
     synchronized public EventPacket filterPacket(EventPacket in) {
+        if (restorePending) {
+            applyPendingRestore();
+        }
         if (!filteringEnabled || size() == 0) {
             return in;
         }
         EventPacket out;
+        final boolean checkpointing = (checkpointIntervalUs > 0) && (in != null) && !in.isEmpty();
+        final int lastTimestamp = checkpointing ? in.getLastTimestamp() : 0; // taken before the filters, which may filter out the last event
         if (timeLimitEnabled) {
             if (chip.getAeViewer().isPaused()) {
                 in.setTimeLimitEnabled(false);
@@ -199,20 +251,32 @@ public class FilterChain extends LinkedList<EventFilter2D> {
                     f.perf.resetStatistics();
                 }
             }
+            loadShedder.resetStatistics();
             log.info("compute performance statistics reset");
             resetPerformanceMeasurementStatistics = false;
         }
+        final boolean shedding = loadShedder.isEnabled() && (in != null);
+        if (shedding) {
+            loadShedder.startPacket(this, in);
+        }
         for (EventFilter2D f : this) {
             if (!f.isFilterEnabled() || in == null) {
                 continue;  // tobi added so that each filter doesn't need to check if enabled and non-null packet
             }
+            if (shedding && loadShedder.isSkipped(f)) {
+                continue;
+            }
             if (measurePerformanceEnabled) {
                 if (f.perf == null) {
                     f.perf = new EventProcessingPerformanceMeter(f);
                 }
                 f.perf.start(in);
             }
+            final long startNs = shedding ? System.nanoTime() : 0;
             out = f.filterPacket(in);
+            if (shedding) {
+                loadShedder.filterDone(f, System.nanoTime() - startNs);
+            }
             timedOut = in.isTimedOut();
             if (measurePerformanceEnabled && f.perf != null) {
                 f.perf.stop();
@@ -220,9 +284,224 @@ public class FilterChain extends LinkedList<EventFilter2D> {
             }
             in = out;
         }
+        if (shedding) {
+            loadShedder.endPacket();
+        }
+        if (checkpointing) {
+            maybeTakeCheckpoint(lastTimestamp);
+        }
         return in;
     }
 
+    /**
+     * Saves the state of the enabled filters that implement
+     * {@link StatefulFilter}, including enclosed filters and filter chains.
+     * Filters whose state cannot be written are left out and will be reset on
+     * restore.
+     *
+     * @param timestamp the timestamp of the last event that was processed, to
+     * label the checkpoint with
+     * @return the checkpoint
+     */
+    synchronized public FilterChainCheckpoint checkpoint(int timestamp) {
+        ArrayList<EventFilter> filters = new ArrayList<EventFilter>();
+        collectStatefulFilters(this, filters);
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int n = 0;
+        try {
+            DataOutputStream entriesOut = new DataOutputStream(entries);
+            for (EventFilter f : filters) {
+                state.reset();
+                try {
+                    DataOutputStream stateOut = new DataOutputStream(state);
+                    ((StatefulFilter) f).writeState(stateOut);
+                    stateOut.flush();
+                } catch (IOException | RuntimeException e) {
+                    log.warning("could not save state of " + f + ": " + e);
+                    continue;
+                }
+                entriesOut.writeUTF(f.getClass().getName());
+                entriesOut.writeInt(state.size());
+                state.writeTo(entriesOut);
+                n++;
+            }
+            entriesOut.flush();
+            DataOutputStream dataOut = new DataOutputStream(data);
+            dataOut.writeInt(n);
+            entries.writeTo(dataOut);
+            dataOut.flush();
+        } catch (IOException e) { // cannot happen writing to memory
+            throw new RuntimeException(e);
+        }
+        return new FilterChainCheckpoint(timestamp, data.toByteArray());
+    }
+
+    /**
+     * Resets all filters and then restores the state of the filters saved in
+     * a checkpoint. A saved state is restored to the stateful filter of the
+     * same class, counting filters of the same class in the order they are
+     * visited. Filters whose state cannot be restored, e.g. because the chip
+     * size changed, stay reset.
+     *
+     * @param checkpoint the checkpoint
+     * @return the number of filters whose state was restored
+     */
+    synchronized public int restore(FilterChainCheckpoint checkpoint) {
+        reset();
+        ArrayList<EventFilter> filters = new ArrayList<EventFilter>();
+        collectStatefulFilters(this, filters);
+        HashMap<String, Integer> visitedCounts = new HashMap<String, Integer>();
+        int restored = 0;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(checkpoint.getData()));
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String className = in.readUTF();
+                byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+                Integer k = visitedCounts.get(className);
+                k = (k == null) ? 0 : k + 1;
+                visitedCounts.put(className, k);
+                EventFilter f = findStatefulFilter(filters, className, k);
+                if (f == null) {
+                    log.info("no enabled filter " + className + " to restore its state to");
+                    continue;
+                }
+                try {
+                    ((StatefulFilter) f).readState(new DataInputStream(new ByteArrayInputStream(state)));
+                    restored++;
+                } catch (IOException | RuntimeException e) {
+                    log.warning("could not restore state of " + f + ", resetting it: " + e);
+                    f.resetFilter();
+                }
+            }
+        } catch (IOException e) {
+            log.warning("corrupt checkpoint, filters that were not restored yet stay reset: " + e);
+        }
+        return restored;
+    }
+
+    /**
+     * Restores the checkpoint taken by filterPacket that is closest before a
+     * timestamp, e.g. after a seek in a recording. If there is no checkpoint
+     * within about two checkpoint intervals before the timestamp, e.g. because
+     * this part of the recording has not been played yet, the filters are
+     * reset instead. The seek usually comes from the GUI or the player, so
+     * the checkpoint is only chosen here; it is restored by filterPacket on
+     * the processing thread before it filters the next packet.
+     *
+     * @param timestamp the timestamp that processing continues from
+     * @return true if a checkpoint will be restored, false if the filters will
+     * be reset
+     */
+    synchronized public boolean restoreCheckpoint(int timestamp) {
+        Map.Entry<Integer, FilterChainCheckpoint> e = checkpoints.floorEntry(timestamp);
+        restorePending = true;
+        if ((e == null) || ((timestamp - e.getKey()) > (2 * checkpointSpacingUs))) {
+            pendingCheckpoint = null;
+            return false;
+        }
+        pendingCheckpoint = e.getValue();
+        return true;
+    }
+
+    /** Restores or resets the filters as requested by restoreCheckpoint */
+    private void applyPendingRestore() {
+        if (pendingCheckpoint == null) {
+            reset();
+        } else {
+            restore(pendingCheckpoint);
+        }
+        restorePending = false;
+        pendingCheckpoint = null;
+    }
+
+    /**
+     * Discards the checkpoints taken by filterPacket, e.g. when another file
+     * is played.
+     */
+    synchronized public void clearCheckpoints() {
+        pendingCheckpoint = null; // a pending restore resets the filters instead
+        checkpoints.clear();
+        checkpointBytes = 0;
+        checkpointSpacingUs = checkpointIntervalUs;
+    }
+
+    /**
+     * @return the number of checkpoints held for restoreCheckpoint
+     */
+    synchronized public int getNumCheckpoints() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Takes a checkpoint unless there is one less than checkpointSpacingUs
+     * before timestamp. If the checkpoints take more than
+     * checkpointMemoryLimitMB, every second checkpoint is dropped and the
+     * spacing is doubled, so that the checkpoints keep covering all of the
+     * played time.
+     */
+    private void maybeTakeCheckpoint(int timestamp) {
+        Integer before = checkpoints.floorKey(timestamp);
+        if ((before != null) && ((timestamp - before) < checkpointSpacingUs)) {
+            return;
+        }
+        FilterChainCheckpoint c = checkpoint(timestamp);
+        checkpoints.put(timestamp, c);
+        checkpointBytes += c.getSizeBytes();
+        final long limit = (long) checkpointMemoryLimitMB << 20;
+        while ((checkpointBytes > limit) && (checkpoints.size() > 1)) {
+            Iterator<FilterChainCheckpoint> i = checkpoints.values().iterator();
+            boolean drop = false;
+            while (i.hasNext()) {
+                FilterChainCheckpoint old = i.next();
+                if (drop) {
+                    checkpointBytes -= old.getSizeBytes();
+                    i.remove();
+                }
+                drop = !drop;
+            }
+            if (checkpointSpacingUs < (Integer.MAX_VALUE / 2)) {
+                checkpointSpacingUs *= 2;
+            }
+        }
+    }
+
+    /**
+     * Adds the enabled StatefulFilters of filters and of the filters and
+     * filter chains they enclose, depth first.
+     */
+    private static void collectStatefulFilters(Iterable<? extends EventFilter> filters, List<EventFilter> list) {
+        for (EventFilter f : filters) {
+            if (!f.isFilterEnabled()) {
+                continue;
+            }
+            if (f instanceof StatefulFilter) {
+                list.add(f);
+            }
+            if (f.getEnclosedFilter() != null) {
+                ArrayList<EventFilter> enclosed = new ArrayList<EventFilter>(1);
+                enclosed.add(f.getEnclosedFilter());
+                collectStatefulFilters(enclosed, list);
+            }
+            if (f.getEnclosedFilterChain() != null) {
+                collectStatefulFilters(f.getEnclosedFilterChain(), list);
+            }
+        }
+    }
+
+    /** Returns the k'th filter of class className in list, or null */
+    private static EventFilter findStatefulFilter(List<EventFilter> list, String className, int k) {
+        for (EventFilter f : list) {
+            if (f.getClass().getName().equals(className) && (k-- == 0)) {
+                return f;
+            }
+        }
+        return null;
+    }
+
     /**
      * @param filterClass the class to search for
      * @return the first filter with class filterClass, or null if there is none
@@ -363,7 +642,92 @@ public class FilterChain extends LinkedList<EventFilter2D> {
     public boolean isFilteringEnabled() {
         return filteringEnabled;
     }
-    static final Class[] filterConstructorParams = {AEChip.class}; // params to constructor of an EventFilter2D
+    /**
+     * @return true if contructPreferredFilters constructs the filters in
+     * parallel
+     */
+    public boolean isParallelConstructionEnabled() {
+        return parallelConstructionEnabled;
+    }
+
+    /**
+     * Sets whether contructPreferredFilters constructs the filters on several
+     * threads. Filters whose construction fails on a worker thread, e.g.
+     * because their constructor depends on another filter of the chain, are
+     * constructed again in order on the calling thread. A filter whose
+     * construction is still running on a worker thread after the timeout is
+     * not constructed again but left out of the chain, and cleaned up when
+     * its construction finishes. Off by default, because filter constructors
+     * are generally not written to run concurrently.
+     *
+     * @param parallelConstructionEnabled true to construct in parallel
+     */
+    public void setParallelConstructionEnabled(boolean parallelConstructionEnabled) {
+        this.parallelConstructionEnabled = parallelConstructionEnabled;
+        chip.getPrefs().putBoolean("FilterChain.parallelConstructionEnabled", parallelConstructionEnabled);
+    }
+    /**
+     * @return the interval in us of the checkpoints that filterPacket takes, 0
+     * if it takes none
+     */
+    public int getCheckpointIntervalUs() {
+        return checkpointIntervalUs;
+    }
+
+    /**
+     * Sets the interval of the checkpoints that filterPacket takes of the
+     * state of the StatefulFilters, so that restoreCheckpoint can restore the
+     * state after a seek. Existing checkpoints are discarded.
+     *
+     * @param checkpointIntervalUs the interval in us of event time, 0 to take
+     * no checkpoints
+     */
+    synchronized public void setCheckpointIntervalUs(int checkpointIntervalUs) {
+        if (checkpointIntervalUs < 0) {
+            checkpointIntervalUs = 0;
+        }
+        this.checkpointIntervalUs = checkpointIntervalUs;
+        clearCheckpoints();
+        chip.getPrefs().putInt("FilterChain.checkpointIntervalUs", checkpointIntervalUs);
+    }
+
+    /**
+     * @return true if filterPacket takes checkpoints
+     */
+    public boolean isCheckpointingEnabled() {
+        return checkpointIntervalUs > 0;
+    }
+
+    /**
+     * @return the max memory in MB that the checkpoints may take
+     */
+    public int getCheckpointMemoryLimitMB() {
+        return checkpointMemoryLimitMB;
+    }
+
+    /**
+     * Sets the max memory that the checkpoints may take. When it is exceeded,
+     * every second checkpoint is dropped and the interval between new
+     * checkpoints is doubled.
+     *
+     * @param checkpointMemoryLimitMB the limit in MB
+     */
+    public void setCheckpointMemoryLimitMB(int checkpointMemoryLimitMB) {
+        if (checkpointMemoryLimitMB < 1) {
+            checkpointMemoryLimitMB = 1;
+        }
+        this.checkpointMemoryLimitMB = checkpointMemoryLimitMB;
+        chip.getPrefs().putInt("FilterChain.checkpointMemoryLimitMB", checkpointMemoryLimitMB);
+    }
+    /**
+     * @return the LoadShedder that keeps the processing time of packets
+     * within a latency budget
+     */
+    public LoadShedder getLoadShedder() {
+        return loadShedder;
+    }
+    static final Class<?>[] filterConstructorParams = {AEChip.class}; // params to constructor of an EventFilter2D
+    private static final int PARALLEL_CONSTRUCTION_TIMEOUT_S = 60; // after this time a filter still under construction on a worker thread is left out
 
     /**
      * makes a new FilterChain, which constructs the default filters as stored
@@ -397,7 +761,10 @@ public class FilterChain extends LinkedList<EventFilter2D> {
 
     /**
      * Constructs the preferred filters for the FilterChain as stored in user
-     * Preferences.
+     * Preferences. If parallelConstructionEnabled is set, the filters are
+     * constructed concurrently and then added in their stored order. The
+     * preferences of the chip are read once into a PreferencesSnapshot that
+     * the filters read their preferences from while they are constructed.
      */
     @SuppressWarnings("unchecked")
     synchronized public void contructPreferredFilters() {
@@ -413,29 +780,65 @@ public class FilterChain extends LinkedList<EventFilter2D> {
             } else {
                 classNames = chip.getDefaultEventFilterClassNames();
             }
-            Class[] par = {chip.getClass()}; // argument to filter constructor
             ArrayList<String> toRemove = new ArrayList<String>();
-            for (String s : classNames) {
-                try {
-                    Class cl = Class.forName(s);
-                    Constructor co = cl.getConstructor(filterConstructorParams);
-                    EventFilter2D fi = (EventFilter2D) co.newInstance(chip);
-                    add(fi);
-                } catch (Exception e) {
-                    log.warning("couldn't construct filter " + s + " for chip " + chip.getClass().getName() + " : " + e.toString() + " will remove this filter from Preferences");
-                    toRemove.add(s);
-                    if (e.getCause() != null) {
-                        Throwable t = e.getCause();
-                        t.printStackTrace();
-                    }
-                } catch (NoClassDefFoundError err) {
-                    log.warning("couldn't construct filter " + s + " for chip " + chip.getClass().getName() + " : " + err.toString() + " will remove this filter from Preferences");
-                    toRemove.add(s);
-                    if (err.getCause() != null) {
-                        Throwable t = err.getCause();
-                        t.printStackTrace();
+            FilterConstruction[] constructions = null;
+            int i = 0;
+            PreferencesSnapshot snapshot = PreferencesSnapshot.open(prefs);
+            try {
+                if (parallelConstructionEnabled && (classNames.size() > 1)) {
+                    constructions = submitFilterConstructions(classNames);
+                }
+                for (i = 0; i < classNames.size(); i++) {
+                    String s = classNames.get(i);
+                    if (constructions != null) {
+                        try {
+                            add(constructions[i].future.get(PARALLEL_CONSTRUCTION_TIMEOUT_S, TimeUnit.SECONDS));
+                            continue;
+                        } catch (ExecutionException e) {
+                            log.info("constructing filter " + s + " in parallel caught " + e.getCause() + ", constructing it again on this thread");
+                        } catch (TimeoutException e) { // e.g. its constructor waits for this thread
+                            EventFilter2D f = constructions[i].abandon();
+                            if (f != null) { // finished just now
+                                add(f);
+                                continue;
+                            }
+                            if (constructions[i].isStarted()) {
+                                log.warning("constructing filter " + s + " in parallel took more than " + PARALLEL_CONSTRUCTION_TIMEOUT_S + " s; it is left out of the chain and not constructed again while its construction still runs");
+                                continue;
+                            }
+                            log.info("construction of filter " + s + " did not start within " + PARALLEL_CONSTRUCTION_TIMEOUT_S + " s, constructing it on this thread");
+                        }
                     }
+                    try {
+                        add(constructFilter(s));
+                    } catch (Exception e) {
+                        log.warning("couldn't construct filter " + s + " for chip " + chip.getClass().getName() + " : " + e.toString() + " will remove this filter from Preferences");
+                        toRemove.add(s);
+                        if (e.getCause() != null) {
+                            Throwable t = e.getCause();
+                            t.printStackTrace();
+                        }
+                    } catch (NoClassDefFoundError err) {
+                        log.warning("couldn't construct filter " + s + " for chip " + chip.getClass().getName() + " : " + err.toString() + " will remove this filter from Preferences");
+                        toRemove.add(s);
+                        if (err.getCause() != null) {
+                            Throwable t = err.getCause();
+                            t.printStackTrace();
+                        }
 
+                    }
+                }
+            } finally {
+                if (snapshot != null) {
+                    snapshot.close();
+                }
+                if (constructions != null) { // clean up the filters that were constructed but not added, e.g. after an exception
+                    for (int j = i; j < constructions.length; j++) {
+                        EventFilter2D f = constructions[j].abandon();
+                        if (f != null) {
+                            f.cleanup();
+                        }
+                    }
                 }
             }
             if (toRemove.size() > 0) {
@@ -452,6 +855,100 @@ public class FilterChain extends LinkedList<EventFilter2D> {
         }
     }
 
+    /**
+     * Constructs a filter for the chip.
+     *
+     * @param className the class name of the filter
+     * @return the new filter
+     * @throws Exception if the class is not a filter or its constructor throws
+     * an exception
+     */
+    private EventFilter2D constructFilter(String className) throws Exception {
+        Class<?> cl = Class.forName(className);
+        Constructor<?> co = cl.getConstructor(filterConstructorParams);
+        return (EventFilter2D) co.newInstance(chip);
+    }
+
+    /**
+     * The construction of a filter on a worker thread. Once the calling thread
+     * abandons it, a filter that is constructed later is cleaned up on the
+     * worker thread instead of being returned.
+     */
+    private final class FilterConstruction implements Callable<EventFilter2D> {
+
+        private final String className;
+        private Future<EventFilter2D> future;
+        private boolean started = false, abandoned = false;
+        private EventFilter2D filter = null;
+
+        FilterConstruction(String className) {
+            this.className = className;
+        }
+
+        @Override
+        public EventFilter2D call() throws Exception {
+            synchronized (this) {
+                if (abandoned) {
+                    return null;
+                }
+                started = true;
+            }
+            EventFilter2D f = constructFilter(className);
+            synchronized (this) {
+                if (!abandoned) {
+                    filter = f;
+                    return f;
+                }
+            }
+            log.info("cleaning up filter " + className + " whose construction took too long and was abandoned");
+            f.cleanup();
+            return null;
+        }
+
+        /**
+         * Abandons the construction; if it has not started, it will not run.
+         *
+         * @return the filter if it has already been constructed, which the
+         * caller must add or clean up, or null
+         */
+        synchronized EventFilter2D abandon() {
+            abandoned = true;
+            return filter;
+        }
+
+        /** @return true if the construction has started on a worker thread */
+        synchronized boolean isStarted() {
+            return started;
+        }
+    }
+
+    /**
+     * Starts constructing the filters on a pool of worker threads.
+     *
+     * @param classNames the class names of the filters
+     * @return the constructions, in the order of classNames
+     */
+    private FilterConstruction[] submitFilterConstructions(List<String> classNames) {
+        int nThreads = Math.min(classNames.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+            int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "FilterChain construction " + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        FilterConstruction[] constructions = new FilterConstruction[classNames.size()];
+        for (int i = 0; i < constructions.length; i++) {
+            constructions[i] = new FilterConstruction(classNames.get(i));
+            constructions[i].future = executor.submit(constructions[i]);
+        }
+        executor.shutdown(); // threads exit when all filters are constructed
+        return constructions;
+    }
+
     synchronized void customize() {
         log.info("customizing filter chain for chip class=" + chip.getClass());
         ArrayList<String> currentFilterNames = new ArrayList<String>();
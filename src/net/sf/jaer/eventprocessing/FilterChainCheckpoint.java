@@ -0,0 +1,171 @@
+/* FilterChainCheckpoint.java */
+package net.sf.jaer.eventprocessing;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The saved state of the {@link StatefulFilter}s of a {@link FilterChain} at
+ * an event timestamp, made by {@link FilterChain#checkpoint(int)} and
+ * restored by {@link FilterChain#restore(FilterChainCheckpoint)}.
+ * <p>
+ * The state is held in a compact binary form: for each stateful filter of the
+ * chain, in the order the chain visits them, the class name of the filter and
+ * the bytes written by its {@link StatefulFilter#writeState writeState}. A
+ * checkpoint can be written to a stream with {@link #writeTo} and read again
+ * with {@link #readFrom}, e.g. to continue processing of a live source on
+ * another machine.
+ * <p>
+ * The static methods write and read the maps of last event times that many
+ * filters keep; they run-length encode only the pixels that have never seen
+ * an event, so that the large empty areas of a map take little space and the
+ * others take no more than the raw map.
+ */
+public class FilterChainCheckpoint {
+
+    private static final int MAGIC = 0x6A414543; // "jAEC"
+    private static final short VERSION = 2; // 2: timestamp maps encode only runs of empty values
+    private final int timestamp;
+    private final byte[] data;
+
+    FilterChainCheckpoint(int timestamp, byte[] data) {
+        this.timestamp = timestamp;
+        this.data = data;
+    }
+
+    /** @return the timestamp in us of the last event that was processed before the checkpoint was made */
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    /** @return the size of the saved state in bytes */
+    public int getSizeBytes() {
+        return data.length;
+    }
+
+    /** @return the saved state, not a copy */
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Writes the checkpoint to a stream. The stream is not closed.
+     *
+     * @param out the stream
+     * @throws IOException if the stream throws it
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeShort(VERSION);
+        dos.writeInt(timestamp);
+        dos.writeInt(data.length);
+        dos.write(data);
+        dos.flush();
+    }
+
+    /**
+     * Reads a checkpoint that was written by {@link #writeTo}. The stream is
+     * not closed.
+     *
+     * @param in the stream
+     * @return the checkpoint
+     * @throws IOException if the stream does not hold a checkpoint of this
+     * version
+     */
+    public static FilterChainCheckpoint readFrom(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("stream does not hold a FilterChainCheckpoint");
+        }
+        short version = dis.readShort();
+        if (version != VERSION) {
+            throw new IOException("FilterChainCheckpoint has version " + version + " but only version " + VERSION + " can be read");
+        }
+        int timestamp = dis.readInt();
+        int length = dis.readInt();
+        if (length < 0) {
+            throw new IOException("FilterChainCheckpoint has negative length " + length);
+        }
+        byte[] data = new byte[length];
+        dis.readFully(data);
+        return new FilterChainCheckpoint(timestamp, data);
+    }
+
+    /**
+     * Writes a map of timestamps, e.g. the last event time of each pixel, as
+     * its size and empty value followed by blocks of a run of empty values
+     * and the values that follow it up to the next empty one. Pixels that
+     * have not seen an event take little space, while the other values are
+     * written as they are, since neighboring pixels rarely have equal
+     * timestamps.
+     *
+     * @param out the output
+     * @param map the map, whose rows must all have the same length
+     * @param emptyValue the value of pixels that have not seen an event, e.g.
+     * Integer.MIN_VALUE
+     * @throws IOException if the output throws it
+     * @see #readTimestampMap
+     */
+    public static void writeTimestampMap(DataOutput out, int[][] map, int emptyValue) throws IOException {
+        int sx = map.length, sy = sx == 0 ? 0 : map[0].length;
+        out.writeInt(sx);
+        out.writeInt(sy);
+        out.writeInt(emptyValue);
+        final int n = sx * sy;
+        int i = 0;
+        while (i < n) {
+            int start = i;
+            while ((i < n) && (map[i / sy][i % sy] == emptyValue)) {
+                i++;
+            }
+            final int empty = i - start;
+            start = i;
+            while ((i < n) && (map[i / sy][i % sy] != emptyValue)) {
+                i++;
+            }
+            out.writeInt(empty);
+            out.writeInt(i - start);
+            for (int j = start; j < i; j++) {
+                out.writeInt(map[j / sy][j % sy]);
+            }
+        }
+    }
+
+    /**
+     * Reads a map written by {@link #writeTimestampMap} into an existing map.
+     *
+     * @param in the input
+     * @param map the map to fill
+     * @throws IOException if the saved map has another size than map or is
+     * corrupt
+     */
+    public static void readTimestampMap(DataInput in, int[][] map) throws IOException {
+        int sx = in.readInt(), sy = in.readInt();
+        if ((map.length != sx) || ((sx > 0) && (map[0].length != sy))) {
+            throw new IOException("saved map is " + sx + "x" + sy + " but map is " + map.length + "x" + (map.length == 0 ? 0 : map[0].length));
+        }
+        final int emptyValue = in.readInt();
+        int x = 0, y = 0;
+        long remaining = (long) sx * sy;
+        while (remaining > 0) {
+            int empty = in.readInt(), values = in.readInt();
+            if ((empty < 0) || (values < 0) || ((empty + (long) values) == 0) || ((empty + (long) values) > remaining)) {
+                throw new IOException("corrupt block of " + empty + " empty and " + values + " other values with " + remaining + " values remaining");
+            }
+            remaining -= empty + (long) values;
+            for (int k = -empty; k < values; k++) {
+                map[x][y] = k < 0 ? emptyValue : in.readInt();
+                if (++y == sy) {
+                    y = 0;
+                    x++;
+                }
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.util.prefs.Preferences;
 
 import javax.swing.AbstractAction;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.border.Border;
@@ -91,6 +92,17 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
             }
         });
         setRestoreFilterEnabledStateEnabled(prefs.getBoolean("FilterFrame.restoreFilterEnabledStateEnabled", true)); // sets the menu item state
+        if (filterChain != null) {
+            final JCheckBoxMenuItem parallelConstructionCheckBoxMenuItem = new JCheckBoxMenuItem("Construct filters in parallel", filterChain.isParallelConstructionEnabled());
+            parallelConstructionCheckBoxMenuItem.setToolTipText("If enabled, the filters of the chain are constructed on several threads on startup and when the chain is customized");
+            parallelConstructionCheckBoxMenuItem.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    filterChain.setParallelConstructionEnabled(parallelConstructionCheckBoxMenuItem.isSelected());
+                }
+            });
+            modeMenu.add(parallelConstructionCheckBoxMenuItem);
+        }
         if (chip != null) {
             setTitle(chip.getName() + " - filters");
         }
@@ -203,6 +203,7 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
     protected java.util.ArrayList<JComponent> controls = new ArrayList<JComponent>();
     private HashMap<String, Container> groupContainerMap = new HashMap();
     private JComponent ungroupedControls = null;
+    private boolean introspectedControlsAdded = false;
     private JPanel inheritedPanel = null;
     private float DEFAULT_REAL_VALUE = 0.01f; // value jumped to from zero on key or wheel up
 
@@ -229,7 +230,9 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
         normalBorder = titledBorder.getBorder();
         redLineBorder = BorderFactory.createLineBorder(Color.red);
         enabledCheckBox.setSelected(getFilter().isFilterEnabled());
-        addIntrospectedControls();
+        // the introspected controls are only built when they are first shown, so a chain of many filters
+        // shows up quickly as a list of their enable/reset headers
+        setControlsVisible(false);
         // when filter fires a property change event, we getString called here and we update all our controls
         getFilter().getSupport().addPropertyChangeListener(this);
 //        // add ourselves to listen for all enclosed filter property changes as well
@@ -595,7 +598,6 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
             add(ungroupedControls);
         }
         add(Box.createHorizontalStrut(0));  // use up vertical space to get components to top
-        setControlsVisible(false);
 //        System.out.println("added glue to "+this);
     }
 
@@ -1480,7 +1482,7 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
 //                            " newValue=" + propertyChangeEvent.getNewValue());
                     HasSetter setter = setterMap.get(propertyChangeEvent.getPropertyName());
                     if (setter == null) {
-                        if (!printedSetterWarning) {
+                        if (introspectedControlsAdded && !printedSetterWarning) {
                             log.warning("in filter " + getFilter() + " there is no setter for property change from property named " + propertyChangeEvent.getPropertyName());
                             printedSetterWarning = true;
                         }
@@ -1587,6 +1589,9 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
      * filter's controls and to show all filters in chain.
      */
     public void setControlsVisible(boolean visible) {
+        if (visible) {
+            addIntrospectedControlsIfNeeded();
+        }
         controlsVisible = visible;
         getFilter().setSelected(visible); // exposing controls 'selects' this filter
         setBorderActive(visible);
@@ -1652,6 +1657,16 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
         }
     }
 
+    /** Builds the introspected controls the first time they are needed */
+    private void addIntrospectedControlsIfNeeded() {
+        if (introspectedControlsAdded) {
+            return;
+        }
+        introspectedControlsAdded = true;
+        addIntrospectedControls();
+        revalidate();
+    }
+
     private void setBorderActive(final boolean yes) {
         // see http://forum.java.sun.com/thread.jspa?threadID=755789
         if (yes) {
@@ -1923,6 +1938,7 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
     JPanel controlPanel;
 
     public void addCustomControls(JPanel control) {
+        addIntrospectedControlsIfNeeded(); // keep custom controls below the introspected ones
         if (controlPanel == null) {
             controlPanel = new JPanel();
             controlPanel.setLayout(new BoxLayout(controlPanel, BoxLayout.Y_AXIS));
@@ -0,0 +1,379 @@
+/* LoadShedder.java */
+package net.sf.jaer.eventprocessing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+
+import net.sf.jaer.event.ApsDvsEvent;
+import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.event.EventPacket;
+
+/**
+ * Keeps the processing time of a {@link FilterChain} within a latency budget
+ * when bursts of events arrive, e.g. from fast motion in the scene. The
+ * shedder measures the cost in ns per event of each filter of the chain.
+ * Before a packet is filtered it predicts the processing time of the packet
+ * from these costs, and if the prediction exceeds the budget it sheds load
+ * according to its {@link Policy}, so that processing degrades gradually
+ * instead of falling further and further behind.
+ * <p>
+ * Unlike the time limit of the FilterChain, which stops the iteration over a
+ * packet when the time is up and so drops the events at the end of the
+ * packet, the shedder decides before the packet is processed and spreads the
+ * loss over the packet. The shed events are marked filtered out in the input
+ * packet, so they are also not rendered. APS samples, IMU samples and
+ * special events are never shed.
+ * <p>
+ * The cost of a filter is only measured while it runs. So that a skipped
+ * filter whose cost has dropped, e.g. because the scene calmed down, is not
+ * skipped forever, its recorded cost decays each time it is skipped, until it
+ * is run again and its cost is measured anew.
+ * <p>
+ * Statistics of the shed load are kept and logged every few seconds while
+ * load is shed.
+ */
+public class LoadShedder {
+
+    /** How load is shed when the predicted processing time exceeds the budget */
+    public enum Policy {
+
+        /** Events are dropped evenly over the packet so that the predicted time fits the budget */
+        SUBSAMPLE,
+        /** All events of the event type shedEventType are dropped, e.g. OFF events */
+        DROP_EVENT_TYPE,
+        /** The most expensive filters are not run on the packet until the remaining ones fit the budget */
+        SKIP_EXPENSIVE_FILTERS
+    };
+
+    private static final Logger log = Logger.getLogger("LoadShedder");
+    private static final float COST_MIXING_FACTOR = 0.1f; // of the running average of the filter costs
+    private static final float SKIPPED_COST_DECAY = 0.9f; // factor applied to the cost of a filter each time it is skipped
+    private static final long STATISTICS_LOG_INTERVAL_MS = 5000;
+    private final Preferences prefs;
+    private boolean enabled;
+    private float latencyBudgetMs;
+    private Policy policy = Policy.SUBSAMPLE;
+    private int shedEventType;
+
+    /** Running average cost in ns per event that enters the chain, of each filter */
+    private final WeakHashMap<EventFilter2D, Float> costs = new WeakHashMap<EventFilter2D, Float>();
+    private final HashSet<EventFilter2D> skippedFilters = new HashSet<EventFilter2D>();
+    /** Filters whose cost decayed while they were skipped; their next measurement replaces the cost */
+    private final Set<EventFilter2D> decayedFilters = Collections.newSetFromMap(new WeakHashMap<EventFilter2D, Boolean>());
+    private int packetEvents; // events entering the chain in the current packet, after shedding
+    private long packetStartNs;
+
+    // statistics
+    private long packetCount, shedPacketCount, overBudgetPacketCount;
+    private long eventCount, shedEventCount, skippedFilterCount;
+    private float lastPredictedMs, lastMeasuredMs;
+    private long lastLogTimeMs = 0;
+    private long shedPacketCountAtLastLog = 0;
+
+    /**
+     * Makes a new LoadShedder that stores its settings in the preferences of
+     * the chip of the FilterChain.
+     *
+     * @param prefs the preferences
+     */
+    LoadShedder(Preferences prefs) {
+        this.prefs = prefs;
+        enabled = prefs.getBoolean("FilterChain.loadSheddingEnabled", false);
+        latencyBudgetMs = prefs.getFloat("FilterChain.loadSheddingLatencyBudgetMs", 10);
+        shedEventType = prefs.getInt("FilterChain.loadSheddingEventType", 0);
+        try {
+            policy = Policy.valueOf(prefs.get("FilterChain.loadSheddingPolicy", Policy.SUBSAMPLE.toString()));
+        } catch (IllegalArgumentException e) {
+            log.warning("unknown load shedding policy in preferences, using " + policy + ": " + e);
+        }
+    }
+
+    /**
+     * Called by the FilterChain before the packet is filtered. Predicts the
+     * processing time and sheds load if it exceeds the budget.
+     *
+     * @param filters the filters of the chain
+     * @param in the packet
+     */
+    synchronized void startPacket(Iterable<EventFilter2D> filters, EventPacket<?> in) {
+        packetStartNs = System.nanoTime();
+        skippedFilters.clear();
+        final int n = in.getSize();
+        packetEvents = n;
+        packetCount++;
+        eventCount += n;
+        float costNsPerEvent = 0;
+        ArrayList<EventFilter2D> enabledFilters = new ArrayList<EventFilter2D>();
+        for (EventFilter2D f : filters) {
+            if (f.isFilterEnabled()) {
+                enabledFilters.add(f);
+                costNsPerEvent += getCost(f);
+            }
+        }
+        final float budgetNs = latencyBudgetMs * 1e6f;
+        final float predictedNs = costNsPerEvent * n;
+        lastPredictedMs = predictedNs * 1e-6f;
+        if ((predictedNs <= budgetNs) || (n == 0)) {
+            return;
+        }
+        shedPacketCount++;
+        int shed = 0;
+        switch (policy) {
+            case SUBSAMPLE:
+                shed = subsample(in, budgetNs / predictedNs);
+                break;
+            case DROP_EVENT_TYPE:
+                shed = dropEventType(in);
+                break;
+            case SKIP_EXPENSIVE_FILTERS:
+                skipExpensiveFilters(enabledFilters, predictedNs - budgetNs, n);
+                break;
+        }
+        shedEventCount += shed;
+        packetEvents = n - shed;
+    }
+
+    /** Marks events filtered out so that about the fraction keep of the sheddable events remains, and returns the number marked */
+    private int subsample(EventPacket<?> in, float keep) {
+        final int n = in.getSize();
+        int shed = 0;
+        float acc = 0;
+        for (int i = 0; i < n; i++) {
+            BasicEvent e = in.getEvent(i);
+            if (!isSheddable(e)) {
+                continue;
+            }
+            acc += keep;
+            if (acc >= 1) {
+                acc -= 1;
+            } else {
+                e.setFilteredOut(true);
+                shed++;
+            }
+        }
+        return shed;
+    }
+
+    /** Marks the events of type shedEventType filtered out and returns their number */
+    private int dropEventType(EventPacket<?> in) {
+        final int n = in.getSize();
+        int shed = 0;
+        for (int i = 0; i < n; i++) {
+            BasicEvent e = in.getEvent(i);
+            if (isSheddable(e) && (e.getType() == shedEventType)) {
+                e.setFilteredOut(true);
+                shed++;
+            }
+        }
+        return shed;
+    }
+
+    private static boolean isSheddable(BasicEvent e) {
+        if ((e == null) || e.isSpecial() || e.isFilteredOut()) {
+            return false;
+        }
+        return !(e instanceof ApsDvsEvent) || ((ApsDvsEvent) e).isDVSEvent();
+    }
+
+    /**
+     * Adds the most expensive filters to skippedFilters until their cost is
+     * at least excessNs, and decays the recorded cost of each skipped filter
+     */
+    private void skipExpensiveFilters(ArrayList<EventFilter2D> enabledFilters, float excessNs, int n) {
+        Collections.sort(enabledFilters, new Comparator<EventFilter2D>() {
+            @Override
+            public int compare(EventFilter2D a, EventFilter2D b) {
+                return Float.compare(getCost(b), getCost(a));
+            }
+        });
+        for (EventFilter2D f : enabledFilters) {
+            if (excessNs <= 0) {
+                break;
+            }
+            float cost = getCost(f);
+            skippedFilters.add(f);
+            skippedFilterCount++;
+            excessNs -= cost * n;
+            costs.put(f, cost * SKIPPED_COST_DECAY);
+            decayedFilters.add(f);
+        }
+    }
+
+    /**
+     * @return true if the filter should not be run on the current packet
+     */
+    boolean isSkipped(EventFilter2D f) {
+        return skippedFilters.contains(f);
+    }
+
+    /**
+     * Called by the FilterChain after a filter has processed the packet, to
+     * update the cost of the filter.
+     *
+     * @param f the filter
+     * @param durationNs the time the filter took
+     */
+    synchronized void filterDone(EventFilter2D f, long durationNs) {
+        if (packetEvents == 0) {
+            return;
+        }
+        float cost = (float) durationNs / packetEvents;
+        Float old = costs.get(f);
+        if ((old == null) || decayedFilters.remove(f)) { // the decayed cost is no measurement to average with
+            costs.put(f, cost);
+        } else {
+            costs.put(f, old + (COST_MIXING_FACTOR * (cost - old)));
+        }
+    }
+
+    /**
+     * Called by the FilterChain after the packet has been filtered.
+     */
+    void endPacket() {
+        lastMeasuredMs = (System.nanoTime() - packetStartNs) * 1e-6f;
+        if (lastMeasuredMs > latencyBudgetMs) {
+            overBudgetPacketCount++;
+        }
+        skippedFilters.clear();
+        if (shedPacketCount > shedPacketCountAtLastLog) {
+            long now = System.currentTimeMillis();
+            if ((now - lastLogTimeMs) > STATISTICS_LOG_INTERVAL_MS) {
+                log.info(getStatistics());
+                lastLogTimeMs = now;
+                shedPacketCountAtLastLog = shedPacketCount;
+            }
+        }
+    }
+
+    private float getCost(EventFilter2D f) {
+        Float c = costs.get(f);
+        return c == null ? 0 : c;
+    }
+
+    /**
+     * @return the running average cost of a filter in ns per event entering
+     * the chain, or 0 if it has not been measured yet
+     */
+    synchronized public float getCostNsPerEvent(EventFilter2D f) {
+        return getCost(f);
+    }
+
+    /**
+     * @return a summary of the shed load since the last resetStatistics
+     */
+    synchronized public String getStatistics() {
+        StringBuilder sb = new StringBuilder(String.format("LoadShedder (%s, budget %.1f ms): shed load in %d of %d packets, shed %d of %d events (%.1f%%), skipped %d filter runs; %d packets over budget; last packet predicted %.2f ms, took %.2f ms; costs",
+                policy, latencyBudgetMs,
+                shedPacketCount, packetCount,
+                shedEventCount, eventCount, eventCount == 0 ? 0f : (100f * shedEventCount) / eventCount,
+                skippedFilterCount, overBudgetPacketCount,
+                lastPredictedMs, lastMeasuredMs));
+        for (Map.Entry<EventFilter2D, Float> e : costs.entrySet()) {
+            sb.append(String.format(" %s=%.1f ns/ev", e.getKey().getClass().getSimpleName(), e.getValue()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Resets the statistics of shed load; the measured costs of the filters
+     * are kept.
+     */
+    public void resetStatistics() {
+        packetCount = 0;
+        shedPacketCount = 0;
+        overBudgetPacketCount = 0;
+        eventCount = 0;
+        shedEventCount = 0;
+        skippedFilterCount = 0;
+        shedPacketCountAtLastLog = 0;
+    }
+
+    /** @return the number of events shed since the last resetStatistics */
+    public long getShedEventCount() {
+        return shedEventCount;
+    }
+
+    /** @return the number of packets in which load was shed since the last resetStatistics */
+    public long getShedPacketCount() {
+        return shedPacketCount;
+    }
+
+    /** @return the number of packets since the last resetStatistics */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * @return true if load is shed
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled true to shed load when the predicted processing time of
+     * a packet exceeds the latency budget
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        prefs.putBoolean("FilterChain.loadSheddingEnabled", enabled);
+    }
+
+    /**
+     * @return the latency budget in ms for the processing of one packet
+     */
+    public float getLatencyBudgetMs() {
+        return latencyBudgetMs;
+    }
+
+    /**
+     * @param latencyBudgetMs the latency budget in ms for the processing of
+     * one packet by the chain
+     */
+    public void setLatencyBudgetMs(float latencyBudgetMs) {
+        if (latencyBudgetMs < 0.1f) {
+            latencyBudgetMs = 0.1f;
+        }
+        this.latencyBudgetMs = latencyBudgetMs;
+        prefs.putFloat("FilterChain.loadSheddingLatencyBudgetMs", latencyBudgetMs);
+    }
+
+    /**
+     * @return the policy
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param policy how load is shed
+     */
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+        prefs.put("FilterChain.loadSheddingPolicy", policy.toString());
+    }
+
+    /**
+     * @return the event type that is dropped by the DROP_EVENT_TYPE policy
+     */
+    public int getShedEventType() {
+        return shedEventType;
+    }
+
+    /**
+     * @param shedEventType the event type that is dropped by the
+     * DROP_EVENT_TYPE policy, e.g. 0 for the OFF events of a PolarityEvent
+     * packet
+     */
+    public void setShedEventType(int shedEventType) {
+        this.shedEventType = shedEventType;
+        prefs.putInt("FilterChain.loadSheddingEventType", shedEventType);
+    }
+}
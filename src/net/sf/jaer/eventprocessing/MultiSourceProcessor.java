@@ -5,18 +5,9 @@
 package net.sf.jaer.eventprocessing;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.PriorityQueue;
-import java.util.Queue;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import net.sf.jaer.chip.AEChip;
-import net.sf.jaer.event.BasicEvent;
 import net.sf.jaer.event.EventPacket;
-import net.sf.jaer.event.OutputEventIterator;
 
 /**
  * This is an extension of EventFilter2D that can deal with multiple streams of 
@@ -25,23 +16,11 @@ import net.sf.jaer.event.OutputEventIterator;
  */
 public abstract class MultiSourceProcessor extends EventFilter2D {
     
-    ArrayList<Queue<BasicEvent>> buffers=new ArrayList();   // Stores events to ensure monotonicity between calls.
-    
-    PriorityQueue<BasicEvent> pq;
-    
-    private int maxWaitTime=100000; // Maximum time to wait (in microseconds) for events from one source before continuing
-    
-    boolean[] queueAlive;
+    /** Merges the already-sorted input streams by timestamp with a k-way heap */
+    PacketMerger merger;
     
     public int lastEventTime=Integer.MIN_VALUE;
     
-    boolean liveSources = false;
-    
-    // Keep track of desynchronized, possibly looping time sources
-    int[] bufferLoopOffsets;
-    int[] bufferStarts;
-    int[] bufferPrevTimes;
-    
     /** Initialize a MultiSensoryFilter with the chip, and the number of inputs
      it will take
      */
@@ -53,17 +32,7 @@ public abstract class MultiSourceProcessor extends EventFilter2D {
         if (nInputs==0)
             nInputs=1;
     
-        pq=new PriorityQueue(nInputs,new EventComp());
-        
-        for (int i=0; i<nInputs; i++)
-            buffers.add(new LinkedList());
-        
-        queueAlive=new boolean[buffers.size()];
-        bufferStarts = new int[buffers.size()];
-        bufferPrevTimes = new int[buffers.size()];
-        
-        // Ensure proper comparison
-        Arrays.fill(bufferStarts,Integer.MIN_VALUE);
+        merger=new PacketMerger(nInputs);
         
         out=new EventPacket();
         
@@ -98,23 +67,23 @@ public abstract class MultiSourceProcessor extends EventFilter2D {
      * @return the maxWaitTime
      */
     public int getMaxWaitTime() {
-        return maxWaitTime;
+        return merger.getMaxWaitTime();
     }
 
     /**
      * @param maxWaitTime the maxWaitTime to set
      */
     public void setMaxWaitTime(int maxWaitTime) {
-        this.maxWaitTime = maxWaitTime;
+        merger.setMaxWaitTime(maxWaitTime);
     }
     
-    /** Comparator class for events, compares by timestamp */
-    class EventComp implements Comparator<BasicEvent>
-    {   @Override
-        public int compare(BasicEvent o1, BasicEvent o2) {
-            return o1.getTimestamp()-o2.getTimestamp(); // Compare might be more efficient.
-        }
-
+    /**
+     * @param source the input index
+     * @return how far in us this input lags behind the most advanced one, or
+     * Integer.MIN_VALUE if it has not delivered events yet
+     */
+    public int getSourceSkew(int source) {
+        return merger.getSkew(source);
     }
     
     /** Take in a set of EventPackets and merge them into a single packet, 
@@ -140,159 +109,9 @@ public abstract class MultiSourceProcessor extends EventFilter2D {
         if (packets.size()==1)
             return packets.get(0);
 
-        int goToTime=Integer.MIN_VALUE;        
-        
-        try { 
-            // Step 1: dump all events into queues
-            for (int i = 0; i < packets.size(); i++) {                                
-                BasicEvent ev = null;
-                
-                // Skip uninitialized sources
-                if(packets.get(i)==null)
-                    continue;
-                
-                for (int k=0; k<packets.get(i).getSize(); k++)  {
-                    ev = packets.get(i).getEvent(k);
-                    
-                    if(bufferStarts[i] == Integer.MIN_VALUE)
-                        bufferStarts[i] = ev.timestamp;
-                    
-                    ev.timestamp -= bufferStarts[i];
-                    
-                    /*
-                    // Find true start time, so that times run from zero to +inf
-                    if(bufferStarts[i] == Integer.MIN_VALUE)
-                        bufferStarts[i] = ev.timestamp;
-                    int preadjust = ev.timestamp;                    
-                    // Subtract off start time and add loop offset time
-                    ev.timestamp = ev.timestamp - bufferStarts[i] + bufferLoopOffsets[i];
-                    
-                    // If we've looped in time, continue adding time
-                    if(bufferPrevTimes[i] > ev.timestamp){
-                        // If we somehow looped back before a time we've seen,
-                        //   create a new artificial start time that keeps it all
-                        //   sane and monotonic and correct.
-                        if(ev.timestamp < 0){
-                            bufferStarts[i] = preadjust + bufferLoopOffsets[i] - 
-                                    bufferPrevTimes[i] - 1;
-                            ev.timestamp = preadjust - bufferStarts[i] + bufferLoopOffsets[i];
-                        }
-                        else {
-                            bufferLoopOffsets[i] = bufferPrevTimes[i]+1;
-                            ev.timestamp += bufferLoopOffsets[i];
-                        }
-                    }
-                    
-                    
-                    if (ev.timestamp < 0)
-                        throw new RuntimeException("Event found below initial timestamp. Time:" +
-                                ev.timestamp);
-                    
-                    // Store this time for next iteration
-                    bufferPrevTimes[i]=ev.timestamp;
-                    */
-                    
-                    
-                    if (ev.timestamp < 0)
-                        throw new RuntimeException("Event found below initial timestamp. Time:" +
-                                ev.timestamp);
-                    
-                    bufferPrevTimes[i] = ev.timestamp;
-                    
-                    BasicEvent evo = ev.getClass().newInstance(); // This seems WRONG! Alternative would be adding a copy method to all events
-                    evo.copyFrom(ev);
-                    evo.source = (byte) i;
-                    
-                    LinkedList<BasicEvent> testBuf=(LinkedList)buffers.get(i);
-                    
-                    //if (!testBuf.isEmpty() && testBuf.getLast().timestamp>evo.timestamp)
-                    //     System.out.println("NonMonotonicTimeStamp!");
-                    
-                    buffers.get(i).add(evo);
-                }
-
-                if (ev!=null)
-                    goToTime=Math.max(goToTime, ev.timestamp);
-            }
-
-        } catch (InstantiationException ex) {
-            Logger.getLogger(MultiSourceProcessor.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IllegalAccessException ex) {
-            Logger.getLogger(MultiSourceProcessor.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        
-        goToTime-=getMaxWaitTime();
-        
-        /* Step 2, if dead queues have received events, revive them, add their 
-         * elements back into the priority queue.
-         */
-        if (pq.size()<buffers.size())
-        {   for (int i=0; i<buffers.size(); i++)
-            {   if (!queueAlive[i] && !buffers.get(i).isEmpty())
-                {   BasicEvent ev=buffers.get(i).poll();
-                    ev.source=(byte)i;
-
-                    /*
-                    if (lastEventTime!=Integer.MIN_VALUE && ev.timestamp-lastEventTime<0)
-                    {   
-                        resynchronize();      
-                        throw new RuntimeException("The event-streams from your sources are out of synch. "
-                                + "by "+(ev.timestamp-lastEventTime)/1000+"ms, which is more than the max wait time of "+
-                                maxWaitTime/1000+"ms.  Either synchronize your sources or set a bigger maxWaitTime.");
-                    }
-                    */
-                    
-                    pq.add(ev);
-           
-                    queueAlive[i]=true;
-                }
-            }
-        }
-                
-            
-        /* Step 3: pull ordered events from priority queue.  Replace each pulled
-         * event with an event originating from the same buffer as the pulled 
-         * event, ensuring that pq always contains 1 element from each source.  
-         * Run until one of the source buffers is empty.
-         */
-        if (out==null)// Why does this happen?
-            out=new EventPacket();
-        out.clear();
-        OutputEventIterator<BasicEvent> outItr=out.outputIterator();
-        
-        BasicEvent ev=null;
-        while(!pq.isEmpty())
-        {
-            
-            if (pq.peek().timestamp>goToTime)
-                break;
-            
-            // Pull next output event from head of Priority Queue, write to output
-            ev=pq.poll();
-                        
-            outItr.writeToNextOutput(ev);
-            
-            // If last-pulled-from-buffer is empty  
-            if (buffers.get(ev.source).isEmpty())
-            {   // If buffer did get input this round, return
-                if (queueAlive[ev.source])
-                {   // Mark the queue as dead, do not replace item polled from Priority Queue, return
-                    queueAlive[ev.source]=false;
-                    break;
-                }
-                
-            }
-            else 
-            {
-                // Replace event polled with event from same buffer
-                BasicEvent pulledFromBuffer=buffers.get(ev.source).poll();
-                
-                pq.add(pulledFromBuffer);
-            }
-        }
-        
-        if (ev!=null)
-            lastEventTime=ev.timestamp;
+        out=merger.merge(packets);
+        if (!out.isEmpty())
+            lastEventTime=out.getLastTimestamp();
         
         return out;
         
@@ -302,12 +121,6 @@ public abstract class MultiSourceProcessor extends EventFilter2D {
     public void resynchronize()
     {
         lastEventTime=Integer.MIN_VALUE;
-        for (int i=0;i<buffers.size();i++)
-        {   
-            bufferStarts[i] = Integer.MIN_VALUE;
-            buffers.get(i).clear();
-            queueAlive[i]=false;
-        }
-        pq.clear();
+        merger.reset();
     }
 }
@@ -0,0 +1,305 @@
+/*
+ * PacketMerger.java
+ *
+ * K-way timestamp merge of already-sorted packets from several sources.
+ */
+package net.sf.jaer.eventprocessing;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.event.OutputEventIterator;
+
+/**
+ * Merges packets from several sources into one packet ordered by timestamp.
+ * <p>
+ * Each source's packets must be in timestamp order, as they come from a
+ * sensor or a recording. The merger keeps a buffer per source and a binary
+ * min-heap of source indices keyed by the primitive timestamp of each
+ * buffer's head event, so merging costs O(log k) per event for k sources and
+ * nothing is sorted or compared through event objects. Events are copied into
+ * reused packet storage; after warm-up no events are allocated.
+ * <p>
+ * Each source has a watermark, the latest timestamp it has delivered. Events
+ * are only output up to the smallest watermark of the sources that have
+ * delivered data, since a source behind that may still send earlier events.
+ * A source is waited for at most maxWaitTime behind the most advanced source;
+ * beyond that its events are output as late (out of order) when they arrive
+ * rather than holding back the others. {@link #getSkew(int)} reports how far
+ * each source is behind.
+ * <p>
+ * Timestamps of each source are made relative to that source's first event
+ * so that sensors with unrelated clocks can be merged. The source index is
+ * written to {@link BasicEvent#source}.
+ */
+public class PacketMerger {
+
+    private int numSources;
+    private EventPacket<?>[] buffers, spareBuffers;
+    private int[] heads;
+    private int[] watermarks;
+    private int[] timestampOffsets;
+    private boolean[] started;
+    private int[] heap;
+    private int heapSize;
+    private int maxWaitTime = 100000;
+    private int lastOutputTimestamp = Integer.MIN_VALUE;
+    private EventPacket<BasicEvent> out = new EventPacket<BasicEvent>();
+
+    /**
+     * @param numSources the number of sources
+     */
+    public PacketMerger(int numSources) {
+        setNumSources(numSources);
+    }
+
+    /**
+     * Sets the number of sources and clears all buffered events.
+     *
+     * @param numSources the number of sources, at least 1
+     */
+    final public void setNumSources(int numSources) {
+        if (numSources < 1) {
+            numSources = 1;
+        }
+        this.numSources = numSources;
+        buffers = new EventPacket<?>[numSources];
+        spareBuffers = new EventPacket<?>[numSources];
+        heads = new int[numSources];
+        watermarks = new int[numSources];
+        timestampOffsets = new int[numSources];
+        started = new boolean[numSources];
+        heap = new int[numSources];
+        reset();
+    }
+
+    public int getNumSources() {
+        return numSources;
+    }
+
+    /** Clears buffered events and restarts the timestamps of all sources. */
+    public void reset() {
+        for (int i = 0; i < numSources; i++) {
+            if (buffers[i] != null) {
+                buffers[i].clear();
+            }
+            heads[i] = 0;
+        }
+        Arrays.fill(started, false);
+        Arrays.fill(watermarks, Integer.MIN_VALUE);
+        heapSize = 0;
+        lastOutputTimestamp = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Merges the next packet of each source with the events buffered from
+     * earlier calls.
+     *
+     * @param packets one EventPacket per source in source order, null for a
+     * source that has nothing new
+     * @return the merged packet, reused on the next call
+     */
+    public EventPacket<?> merge(List<?> packets) {
+        int n = Math.min(packets.size(), numSources);
+        Class<? extends BasicEvent> outClass = null;
+        for (int i = 0; i < n; i++) {
+            EventPacket<?> p = (EventPacket<?>) packets.get(i);
+            if (p == null) {
+                continue;
+            }
+            append(i, p);
+        }
+        for (int i = 0; i < numSources; i++) {
+            if (buffers[i] != null) {
+                outClass = commonSuperclass(outClass, buffers[i].getEventClass());
+            }
+        }
+        if ((outClass != null) && (out.getEventClass() != outClass)) {
+            out = new EventPacket<BasicEvent>(outClass);
+        }
+        OutputEventIterator<BasicEvent> outItr = out.outputIterator();
+
+        int limit = getMergeLimit();
+        heapSize = 0;
+        for (int i = 0; i < numSources; i++) {
+            if ((buffers[i] != null) && (heads[i] < buffers[i].getSize())) {
+                heap[heapSize++] = i;
+            }
+        }
+        for (int k = (heapSize / 2) - 1; k >= 0; k--) {
+            siftDown(k);
+        }
+        while (heapSize > 0) {
+            int s = heap[0];
+            BasicEvent e = buffers[s].getEvent(heads[s]);
+            if (e.timestamp > limit) {
+                break;
+            }
+            outItr.nextOutput().copyFrom(e);
+            lastOutputTimestamp = e.timestamp;
+            heads[s]++;
+            if (heads[s] >= buffers[s].getSize()) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(0);
+        }
+        for (int i = 0; i < numSources; i++) {
+            compact(i);
+        }
+        return out;
+    }
+
+    /**
+     * Returns the timestamp up to which events are output: the smallest
+     * watermark of the started sources, but not more than maxWaitTime behind
+     * the largest one.
+     */
+    private int getMergeLimit() {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int i = 0; i < numSources; i++) {
+            if (!started[i]) {
+                continue;
+            }
+            min = Math.min(min, watermarks[i]);
+            max = Math.max(max, watermarks[i]);
+        }
+        if (max == Integer.MIN_VALUE) {
+            return Integer.MIN_VALUE;
+        }
+        return Math.max(min, max - maxWaitTime);
+    }
+
+    private void append(int s, EventPacket<?> p) {
+        int size = p.getSize();
+        if (size == 0) {
+            return;
+        }
+        if ((buffers[s] == null) || (buffers[s].getEventClass() != p.getEventClass())) {
+            buffers[s] = p.constructNewPacket();
+            spareBuffers[s] = p.constructNewPacket();
+            heads[s] = 0;
+        }
+        OutputEventIterator<?> itr = buffers[s].getOutputIterator(); // appends after the buffered events
+        for (int k = 0; k < size; k++) {
+            BasicEvent e = p.getEvent(k);
+            if (!started[s]) {
+                timestampOffsets[s] = e.timestamp;
+                started[s] = true;
+            }
+            BasicEvent o = itr.nextOutput();
+            o.copyFrom(e);
+            o.timestamp = e.timestamp - timestampOffsets[s];
+            o.source = (byte) s;
+            watermarks[s] = o.timestamp;
+        }
+    }
+
+    /** Moves the unmerged events of a source to the front of its buffer */
+    private void compact(int s) {
+        EventPacket<?> buf = buffers[s];
+        if ((buf == null) || (heads[s] == 0)) {
+            return;
+        }
+        EventPacket<?> spare = spareBuffers[s];
+        OutputEventIterator<?> itr = spare.outputIterator();
+        for (int k = heads[s]; k < buf.getSize(); k++) {
+            itr.nextOutput().copyFrom(buf.getEvent(k));
+        }
+        buffers[s] = spare;
+        spareBuffers[s] = buf;
+        buf.clear();
+        heads[s] = 0;
+    }
+
+    private int headTimestamp(int s) {
+        return buffers[s].getEvent(heads[s]).timestamp;
+    }
+
+    private void siftDown(int k) {
+        int s = heap[k];
+        int t = headTimestamp(s);
+        while (true) {
+            int c = (2 * k) + 1;
+            if (c >= heapSize) {
+                break;
+            }
+            int tc = headTimestamp(heap[c]);
+            if ((c + 1) < heapSize) {
+                int tr = headTimestamp(heap[c + 1]);
+                if (tr < tc) {
+                    c++;
+                    tc = tr;
+                }
+            }
+            if (tc >= t) {
+                break;
+            }
+            heap[k] = heap[c];
+            k = c;
+        }
+        heap[k] = s;
+    }
+
+    private static Class<? extends BasicEvent> commonSuperclass(Class<? extends BasicEvent> a, Class<? extends BasicEvent> b) {
+        if (a == null) {
+            return b;
+        }
+        Class<?> c = a;
+        while (!c.isAssignableFrom(b)) {
+            c = c.getSuperclass();
+        }
+        return c.asSubclass(BasicEvent.class);
+    }
+
+    /**
+     * @param source the source index
+     * @return how far the source's watermark is behind the most advanced
+     * source, 0 for the most advanced one, or Integer.MIN_VALUE if it has not
+     * delivered any events yet
+     */
+    public int getSkew(int source) {
+        if (!started[source]) {
+            return Integer.MIN_VALUE;
+        }
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < numSources; i++) {
+            if (started[i]) {
+                max = Math.max(max, watermarks[i]);
+            }
+        }
+        return max - watermarks[source];
+    }
+
+    /**
+     * @param source the source index
+     * @return the latest timestamp delivered by the source, relative to its
+     * first event
+     */
+    public int getWatermark(int source) {
+        return watermarks[source];
+    }
+
+    /** @return the number of events of a source waiting for the other sources */
+    public int getNumBuffered(int source) {
+        return buffers[source] == null ? 0 : buffers[source].getSize() - heads[source];
+    }
+
+    /** @return the timestamp of the last event output */
+    public int getLastOutputTimestamp() {
+        return lastOutputTimestamp;
+    }
+
+    public int getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * @param maxWaitTime the longest time in us the merge waits for a lagging
+     * source
+     */
+    public void setMaxWaitTime(int maxWaitTime) {
+        this.maxWaitTime = maxWaitTime < 0 ? 0 : maxWaitTime;
+    }
+}
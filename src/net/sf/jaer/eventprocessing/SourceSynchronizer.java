@@ -30,6 +30,7 @@ public class SourceSynchronizer {
     Container panel;
     JLabel[] timeStampLabels;
     JLabel[] labelsOfDespair;
+    int[] timestamps;
         
     public SourceSynchronizer(ArrayList<AEViewer.Ambassador> viewerList,JPanel pan)
     {
@@ -98,12 +99,12 @@ public class SourceSynchronizer {
         jointPane.add(new JLabel("Disparity"),c);
         
         
-        labelsOfDespair=new JLabel[(viewers.size()*(viewers.size()+1)/2)];
+        labelsOfDespair=new JLabel[(viewers.size()*(viewers.size()-1)/2)];
         for (int i=0; i<viewers.size(); i++)
             for (int j=0; j<i; j++)
             {   JLabel jt=new JLabel();
                 jointPane.add(jt,c);
-                labelsOfDespair[j+i*j]=jt;
+                labelsOfDespair[pairIndex(i,j)]=jt;
             }
                 
         
@@ -155,12 +156,18 @@ public class SourceSynchronizer {
         return jp;
     }
 
+    /** Index of the pair j<i in the lower triangle, so every pair has its own label */
+    private static int pairIndex(int i, int j)
+    {   return i*(i-1)/2+j;
+    }
+
     public boolean update() {
         
         if (!panel.isShowing())
             return false;
         
-        int[] timestamps=new int[viewers.size()];
+        if (timestamps==null || timestamps.length!=viewers.size())
+            timestamps=new int[viewers.size()];
         
         for (int i=0; i<viewers.size(); i++)
         {   timestamps[i]= viewers.get(i).getPacket().getFirstTimestamp();
@@ -171,7 +178,7 @@ public class SourceSynchronizer {
         for (int i=0; i<viewers.size(); i++)
             for (int j=0; j<i; j++)
             {   
-                labelsOfDespair[j+i*j].setText(timestamps[j]-timestamps[i]+"us");
+                labelsOfDespair[pairIndex(i,j)].setText(timestamps[j]-timestamps[i]+"us");
             }
         
 //        panel.revalidate();
@@ -0,0 +1,49 @@
+/* StatefulFilter.java */
+package net.sf.jaer.eventprocessing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * EventFilters implement this interface when their internal state, e.g. maps
+ * of past event times or tracked clusters, can be saved and restored. The
+ * {@link FilterChain} uses it to take checkpoints of the state of its filters
+ * during playback, so that after a seek the filters can continue from the
+ * state they had near the new position instead of starting from a reset. A
+ * checkpoint can also be written to a stream, e.g. to hand the state of a
+ * live processing chain over to another process.
+ * <p>
+ * Only the state that is built up from the events is saved, not the
+ * parameters of the filter, which are kept in the preferences. The FilterChain
+ * calls the methods on the processing thread between packets: writeState after
+ * filtering a packet and readState before filtering the next packet after a
+ * seek, so they never run concurrently with filterPacket of the filter. Other
+ * threads, e.g. the GUI, may still reset the filter or read its state at any
+ * time, so implementations synchronize on the filter as their other methods
+ * do; {@link FilterChain#checkpoint} and {@link FilterChain#restore} also
+ * call them on the calling thread.
+ *
+ * @see FilterChain#checkpoint(int)
+ * @see FilterChainCheckpoint
+ */
+public interface StatefulFilter {
+
+    /**
+     * Writes the state of the filter.
+     *
+     * @param out the output to write to
+     * @throws IOException if the output throws it
+     */
+    void writeState(DataOutput out) throws IOException;
+
+    /**
+     * Reads the state written by {@link #writeState}. If the state does not
+     * fit the filter, e.g. because it was written for a chip of another size,
+     * an IOException is thrown and the FilterChain resets the filter.
+     *
+     * @param in the input to read from
+     * @throws IOException if the state cannot be read or does not fit
+     */
+    void readState(DataInput in) throws IOException;
+}
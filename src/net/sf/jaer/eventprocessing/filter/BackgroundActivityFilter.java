@@ -3,6 +3,9 @@
  * Created on October 21, 2005, 12:33 PM */
 package net.sf.jaer.eventprocessing.filter;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
@@ -14,17 +17,21 @@ import net.sf.jaer.chip.Chip2D;
 import net.sf.jaer.event.BasicEvent;
 import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.eventprocessing.EventFilter2D;
+import net.sf.jaer.eventprocessing.FilterChainCheckpoint;
+import net.sf.jaer.eventprocessing.StatefulFilter;
 
 /**
  * An filter that filters slow background activity by only passing
  * events that are supported by another event in the past {@link #setDt dt} in
  * the immediate spatial neighborhood, defined by a subsampling bit shift.
+ * The map of past event times is saved and restored as {@link StatefulFilter}
+ * state.
  *
  * @author tobi
  */
 @Description("Filters out uncorrelated background activity noise")
 @DevelopmentStatus(DevelopmentStatus.Status.Stable)
-public class BackgroundActivityFilter extends EventFilter2D implements Observer {
+public class BackgroundActivityFilter extends EventFilter2D implements Observer, StatefulFilter {
 
     final int MAX_DT = 100000, MIN_DT = 10;
     final int DEFAULT_TIMESTAMP = Integer.MIN_VALUE;
@@ -148,6 +155,25 @@ public class BackgroundActivityFilter extends EventFilter2D implements Observer
         return lastTimesMap;
     }
 
+    @Override
+    public synchronized void writeState(DataOutput out) throws IOException {
+        if (lastTimesMap == null) {
+            allocateMaps(chip);
+        }
+        FilterChainCheckpoint.writeTimestampMap(out, lastTimesMap == null ? new int[0][0] : lastTimesMap, DEFAULT_TIMESTAMP);
+    }
+
+    @Override
+    public synchronized void readState(DataInput in) throws IOException {
+        if (lastTimesMap == null) {
+            allocateMaps(chip);
+        }
+        if (lastTimesMap == null) {
+            throw new IOException("chip has no pixels, cannot restore map of past event times");
+        }
+        FilterChainCheckpoint.readTimestampMap(in, lastTimesMap);
+    }
+
     // <editor-fold defaultstate="collapsed" desc="getter-setter / Min-Max for --Dt--">
     /**
      * gets the background allowed delay in us
@@ -582,25 +582,6 @@ public class CellStatsProber extends EventFilter2D implements FrameAnnotater, Mo
             if (stats.count > 0) {
                 measureAverageEPS(globalHist.lastT, stats.count);
             }
-            if (isiHistEnabled && individualISIsEnabled) {
-                globalHist.reset();
-                for (ISIHist h : histMap.values()) {
-                    for (int i = 0; i < isiNumBins; i++) {
-                        int v = globalHist.bins[i] += h.bins[i];
-                        if (v > globalHist.maxCount) {
-                            globalHist.maxCount = v;
-                        }
-                        globalHist.lessCount += h.lessCount;
-                        globalHist.moreCount += h.moreCount;
-                        if (scaleHistogramsIncludingOverflow && (globalHist.lessCount > globalHist.maxCount)) {
-                            globalHist.maxCount = globalHist.lessCount;
-                        }
-                        if (scaleHistogramsIncludingOverflow && (globalHist.moreCount > globalHist.maxCount)) {
-                            globalHist.maxCount = globalHist.moreCount;
-                        }
-                    }
-                }
-            }
         }
 
         public void setRateTauMs(float tauMs) {
@@ -722,6 +703,15 @@ public class CellStatsProber extends EventFilter2D implements FrameAnnotater, Mo
                     }
                 }
                 int bin = getIsiBin(isi);
+                count(bin);
+                if (this != globalHist) {
+                    globalHist.count(bin); // keep the sum of the individual histograms up to date per event
+                }
+                lastT = e.timestamp;
+            }
+
+            /** Increments one bin or overflow count and tracks the largest count */
+            void count(int bin) {
                 if (bin < 0) {
                     lessCount++;
                     if (scaleHistogramsIncludingOverflow && (lessCount > maxCount)) {
@@ -738,7 +728,6 @@ public class CellStatsProber extends EventFilter2D implements FrameAnnotater, Mo
                         maxCount = v;
                     }
                 }
-                lastT = e.timestamp;
             }
 
             /**
@@ -809,7 +798,7 @@ public class CellStatsProber extends EventFilter2D implements FrameAnnotater, Mo
                 if ((bins == null) || (bins.length != isiNumBins)) {
                     bins = new int[isiNumBins];
                 } else {
-                    Arrays.fill(globalHist.bins, 0);
+                    Arrays.fill(bins, 0);
                 }
                 lessCount = 0;
                 moreCount = 0;
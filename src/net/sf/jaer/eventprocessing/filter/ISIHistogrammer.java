@@ -8,7 +8,6 @@ import java.awt.Color;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -25,6 +24,7 @@ import net.sf.jaer.util.chart.Axis;
 import net.sf.jaer.util.chart.Category;
 import net.sf.jaer.util.chart.Series;
 import net.sf.jaer.util.chart.XYChart;
+import net.sf.jaer.util.filter.LazyDecayingArray;
 /**
  * Histograms ISIs along selected direction of chip event space.
  * @author tobi
@@ -38,17 +38,34 @@ licensed under the LGPL (<a href="http://en.wikipedia.org/wiki/GNU_Lesser_Genera
 public class ISIHistogrammer extends EventFilter2D implements Observer{
 
     /**
-     * @return the bins
+     * @return the bin counts, decayed to the last event time and rounded
      */
     public int[] getBins (){
-        return bins;
+        if ( binCounts.length != nBins ){
+            binCounts = new int[ nBins ];
+        }
+        for ( int i = 0 ; i < nBins ; i++ ){
+            binCounts[i] = Math.round(getBin(i));
+        }
+        return binCounts;
+    }
+
+    /**
+     * @param i the bin
+     * @return the decayed count of bin i at the last event time
+     */
+    public float getBin (int i){
+        return bins.get(i,lastts);
     }
 
     /**
+     * Scans the bins for the largest count; meant for display.
+     *
      * @return the maxBin
      */
     public int getMaxBin (){
-        return maxBin;
+        int i = bins.getMaxIndex(lastts);
+        return i < 0 ? 0 : Math.round(getBin(i));
     }
 
     private void checkBins (){
@@ -61,13 +78,12 @@ public class ISIHistogrammer extends EventFilter2D implements Observer{
     private int nBins = getPrefs().getInt("ISIHistogrammer.nBins",50);
     private int maxIsiUs = getPrefs().getInt("ISIHistogrammer.maxIsiUs",10000);
     private int minIsiUs = getPrefs().getInt("ISIHistogrammer.minIsiUs",3000);
-    private int[] bins = new int[ nBins ];
-    private int maxBin = 0;
+    /** Bins decay lazily, so adding an ISI costs the same for any number of bins */
+    private LazyDecayingArray bins = new LazyDecayingArray(nBins);
+    private int[] binCounts = new int[ nBins ];
     int nChans = 1;
     int[] lastTs = null;
-    final int MAX_COUNT = 10000000;
     JFrame isiFrame = null;
-    int nextDecayTimestamp = 0, lastDecayTimestamp = 0;
     private float tauDecayMs = getPrefs().getFloat("ISIHistogrammer.tauDecayMs",40);
     private int lastts=0; // to catch nonmonotonic ts that prevent decay of histogram
 
@@ -89,7 +105,7 @@ public class ISIHistogrammer extends EventFilter2D implements Observer{
         for ( BasicEvent e:in ){
             int ts = e.timestamp;
             if(ts-lastts<0){
-               nextDecayTimestamp=ts; 
+               bins.setTime(ts);
             }
             lastts=ts;
             int ch;
@@ -109,8 +125,7 @@ public class ISIHistogrammer extends EventFilter2D implements Observer{
             int dt = ts - lastTs[ch];
             lastTs[ch] = ts;
 
-            addIsi(dt);
-            decayHistogram(ts);
+            addIsi(dt,ts);
         }
         isiFrame.repaint();
         return in;
@@ -122,11 +137,12 @@ public class ISIHistogrammer extends EventFilter2D implements Observer{
             return; // not yet
         }
         lastTs = new int[ nChans ];
-        if ( bins.length != nBins ){
-            bins = new int[ nBins ];
+        if ( bins.size() != nBins ){
+            bins = new LazyDecayingArray(nBins);
         }
-        Arrays.fill(bins,0);
-        maxBin = 0;
+        bins.reset();
+        bins.setTau(tauDecayMs > 0 ? tauDecayMs * 1000 : Float.POSITIVE_INFINITY);
+        lastts = 0;
         if ( activitySeries != null ){
             activitySeries.setCapacity(nBins);
         }
@@ -135,13 +151,7 @@ public class ISIHistogrammer extends EventFilter2D implements Observer{
         }
     }
 
-    private void rescaleBins (){
-        for ( int i = 0 ; i < nBins ; i++ ){
-            bins[i] = bins[i] >> 1;
-        }
-    }
-
-    private void addIsi (int isi){
+    private void addIsi (int isi,int timestamp){
         if ( isi < minIsiUs ){
             return;
         }
@@ -151,18 +161,11 @@ public class ISIHistogrammer extends EventFilter2D implements Observer{
 
         int bin = ( ( ( isi - minIsiUs ) * nBins ) / ( maxIsiUs - minIsiUs ) );
 
-        bins[bin]++;
-        if ( bins[bin] > getMaxBin() ){
-            maxBin = bins[bin];
-        }
-        if ( getMaxBin() > MAX_COUNT ){
-            rescaleBins();
-            maxBin = getMaxBin() >> 1;
-        }
+        bins.add(bin,1,timestamp);
     }
 
     public void doPrintBins (){
-        for ( int i:bins ){
+        for ( int i:getBins() ){
             System.out.print(String.format("%8d ",i));
         }
         System.out.println("");
@@ -300,6 +303,7 @@ public class ISIHistogrammer extends EventFilter2D implements Observer{
         float oldtau=this.tauDecayMs;
         this.tauDecayMs = tauDecayMs;
         getPrefs().putFloat("ISIHistogrammer.tauDecayMs",tauDecayMs);
+        bins.setTau(tauDecayMs > 0 ? tauDecayMs * 1000 : Float.POSITIVE_INFINITY);
         getSupport().firePropertyChange("tauDecayMs",oldtau,this.tauDecayMs);
     }
 
@@ -315,16 +319,6 @@ public class ISIHistogrammer extends EventFilter2D implements Observer{
         setIsiDisplay(false);
     }
 
-    public void decayHistogram (int timestamp){
-        if ( tauDecayMs > 0 && timestamp >= nextDecayTimestamp ){
-            float decayconstant = (float)java.lang.Math.exp(-( timestamp - lastDecayTimestamp ) / ( tauDecayMs * 1000 ));
-            for ( int i = 0 ; i < bins.length ; i++ ){
-                bins[i] = (int)( bins[i] * decayconstant );
-            }
-            nextDecayTimestamp = (int)( timestamp + ( tauDecayMs * 1000 ) / 10 );
-            lastDecayTimestamp = timestamp;
-        }
-    }
     public Series activitySeries;
     private Axis binAxis;
     private Axis activityAxis;
@@ -350,9 +344,9 @@ public class ISIHistogrammer extends EventFilter2D implements Observer{
                             //log.info("numbins="+myBins.numOfBins);
                             for ( int i = 0 ; i < nBins ; i++ ){
                                 if ( isLogPlotEnabled() ){
-                                    activitySeries.add(i,(float)Math.log(bins[i]));
+                                    activitySeries.add(i,(float)Math.log(getBin(i)));
                                 } else{
-                                    activitySeries.add(i,bins[i]);
+                                    activitySeries.add(i,getBin(i));
                                 }
                             }
 
@@ -2,6 +2,9 @@ package net.sf.jaer.eventprocessing.filter;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
@@ -15,6 +18,8 @@ import net.sf.jaer.eventio.AEFileInputStream;
 import net.sf.jaer.eventio.AEInputStream;
 import static net.sf.jaer.eventprocessing.EventFilter.log;
 import net.sf.jaer.eventprocessing.EventFilter2D;
+import net.sf.jaer.eventprocessing.FilterChainCheckpoint;
+import net.sf.jaer.eventprocessing.StatefulFilter;
 import net.sf.jaer.graphics.AEViewer;
 import net.sf.jaer.graphics.AbstractAEPlayer;
 
@@ -22,13 +27,14 @@ import net.sf.jaer.graphics.AbstractAEPlayer;
  * Adds a refractory period to pixels so that they events only pass if there is
  * sufficient time since the last event from that pixel; so it knocks out high
  * firing rates from cells. The option passShortISIsEnabled inverts the logic.
- * redundant events.
+ * redundant events. The last event times are saved and restored as
+ * {@link StatefulFilter} state.
  *
  * @author tobi
  */
 @Description("Applies a refractory period to pixels so that they events only pass if there is sufficient time since the last event from that pixel")
 @DevelopmentStatus(DevelopmentStatus.Status.Stable)
-public class RefractoryFilter extends EventFilter2D implements Observer, PropertyChangeListener {
+public class RefractoryFilter extends EventFilter2D implements Observer, PropertyChangeListener, StatefulFilter {
 
     final int DEFAULT_TIMESTAMP = Integer.MIN_VALUE;
     /**
@@ -136,6 +142,23 @@ public class RefractoryFilter extends EventFilter2D implements Observer, Propert
         return lastTimestamps;
     }
 
+    @Override
+    synchronized public void writeState(DataOutput out) throws IOException {
+        if (lastTimestamps == null) {
+            allocateMaps(chip);
+            resetLastTimestamps();
+        }
+        FilterChainCheckpoint.writeTimestampMap(out, lastTimestamps, DEFAULT_TIMESTAMP);
+    }
+
+    @Override
+    synchronized public void readState(DataInput in) throws IOException {
+        if (lastTimestamps == null) {
+            allocateMaps(chip);
+        }
+        FilterChainCheckpoint.readTimestampMap(in, lastTimestamps);
+    }
+
     void resetLastTimestamps() {
         for (int[] a:lastTimestamps ) {
             Arrays.fill(a, DEFAULT_TIMESTAMP);
@@ -4,23 +4,31 @@
  */
 package net.sf.jaer.eventprocessing.filter;
 
+import java.util.Arrays;
+
+import net.sf.jaer.aemonitor.AEConstants;
 import net.sf.jaer.chip.AEChip;
 import net.sf.jaer.event.BasicEvent;
 import net.sf.jaer.event.EventPacket;
-import net.sf.jaer.event.OutputEventIterator;
 import net.sf.jaer.event.TypedEvent;
+import net.sf.jaer.util.filter.LazyDecayingArray;
 
 /**
- * Estimates event rates of TypedEvent in a packet. Expensive because it splits
- * up data to temporary packets to estimate rate.
+ * Estimates event rates of TypedEvent in a packet. Each type has an
+ * exponentially decaying event count with time constant eventRateTauMs that
+ * is updated in O(1) per event, so the per-type rates cost no more than the
+ * overall rate.
  *
  * @author tobi
  */
 public class TypedEventRateEstimator extends EventRateEstimator {
 
     private int numCellTypes = 0;
-    private EventPacket<? extends BasicEvent>[] typedEventPackets = null;
-    private EventRateEstimator[] eventRateEstimators = null;
+    /** Decaying event count per type, converges to rate*tau */
+    private LazyDecayingArray typeCounts = null;
+    private int[] packetCounts = null;
+    private float[] instantaneousRates = null;
+    private int lastTimestamp = 0;
     protected boolean measureIndividualTypesEnabled=getBoolean("measureIndividualTypesEnabled", true);
 
     public TypedEventRateEstimator(AEChip chip) {
@@ -35,33 +43,48 @@ public class TypedEventRateEstimator extends EventRateEstimator {
     @Override
     synchronized public EventPacket<?> filterPacket(EventPacket<?> in) {
         super.filterPacket(in); // measure overall event rate and send updates to observers that listen for these updates
-        if(!isMeasureIndividualTypesEnabled()) {
+        if(!isMeasureIndividualTypesEnabled() || (in == null) || (in.getSize() == 0)) {
 			return in;
 		}
-        checkOutputPacketEventType(in);
-        if (numCellTypes != in.getNumCellTypes()) {                     // build tmp packets to hold different types of events
+        if (numCellTypes != in.getNumCellTypes()) {
             numCellTypes = in.getNumCellTypes();
-            typedEventPackets = new EventPacket[numCellTypes];
-            eventRateEstimators=new EventRateEstimator[numCellTypes];
-            for (int i = 0; i < numCellTypes; i++) {
-                typedEventPackets[i] = in.constructNewPacket();
-                eventRateEstimators[i] = new EventRateEstimator(chip);
-                eventRateEstimators[i].setEventRateTauMs(getEventRateTauMs());
-                eventRateEstimators[i].setMaxRate(getMaxRate());
-            }
-        }
-        numCellTypes=in.getNumCellTypes(); // do it again in case option measureIndividualTypesEnabled was changed
-        OutputEventIterator[] outItrs = new OutputEventIterator[numCellTypes];
-        for (int i = 0; i < numCellTypes; i++) {                            // get the iterators to fill these packets
-            outItrs[i] = typedEventPackets[i].outputIterator(); // reset tmp packets
+            typeCounts = new LazyDecayingArray(numCellTypes);
+            typeCounts.setTau(getEventRateTauMs() * 1000 / AEConstants.TICK_DEFAULT_US);
+            packetCounts = new int[numCellTypes];
+            instantaneousRates = new float[numCellTypes];
         }
-
-        for (BasicEvent i : in) {                                       // fill the packets
+        Arrays.fill(packetCounts, 0);
+        int firstTimestamp = 0;
+        boolean first = true;
+        for (BasicEvent i : in) {
+            if (i.isSpecial()) {
+                continue;
+            }
             TypedEvent e = (TypedEvent) i;
-            outItrs[e.getType()].nextOutput().copyFrom(e); // split up events to packets
+            int type = e.getType();
+            if ((type < 0) || (type >= numCellTypes)) {
+                continue;
+            }
+            if (e.timestamp < lastTimestamp) {
+                typeCounts.reset(); // time went backwards, start over
+            }
+            if (first) {
+                firstTimestamp = e.timestamp;
+                first = false;
+            }
+            lastTimestamp = e.timestamp;
+            typeCounts.add(type, 1, e.timestamp);
+            packetCounts[type]++;
         }
-        for (int i = 0; i < numCellTypes; i++) {                    // process each packet
-            eventRateEstimators[i].filterPacket(typedEventPackets[i]);
+        if (!first) {
+            int dt = lastTimestamp - firstTimestamp;
+            for (int i = 0; i < numCellTypes; i++) {
+                if (dt <= 0) {
+                    instantaneousRates[i] = packetCounts[i] > 0 ? getMaxRate() : 0;
+                } else {
+                    instantaneousRates[i] = (1e6f * packetCounts[i]) / (dt * AEConstants.TICK_DEFAULT_US);
+                }
+            }
         }
         return in;
     }
@@ -69,33 +92,26 @@ public class TypedEventRateEstimator extends EventRateEstimator {
     @Override
     synchronized public void resetFilter() {
         super.resetFilter(); //To change body of generated methods, choose Tools | Templates.
-        if (eventRateEstimators != null) {
-            for (EventRateEstimator e : eventRateEstimators) {
-                if (e != null) {
-                    e.resetFilter();
-                }
-            }
+        if (typeCounts != null) {
+            typeCounts.reset();
+            Arrays.fill(instantaneousRates, 0);
         }
+        lastTimestamp = 0;
     }
 
     @Override
     synchronized public void setEventRateTauMs(float eventRateTauMs) {
         super.setEventRateTauMs(eventRateTauMs); //To change body of generated methods, choose Tools | Templates.
-        if (eventRateEstimators != null) {
-            for (EventRateEstimator e : eventRateEstimators) {
-                if (e != null) {
-                    e.setEventRateTauMs(eventRateTauMs);
-                }
-            }
+        if (typeCounts != null) {
+            typeCounts.setTau(getEventRateTauMs() * 1000 / AEConstants.TICK_DEFAULT_US);
         }
-
     }
 
     public float getInstantaneousEventRate(int i) {
         if ((i < 0) || (i >= numCellTypes)) {
             return Float.NaN;
         } else {
-            return eventRateEstimators[i].getInstantaneousEventRate();
+            return instantaneousRates[i];
         }
     }
 
@@ -106,7 +122,7 @@ public class TypedEventRateEstimator extends EventRateEstimator {
         if ((i < 0) || (i >= numCellTypes)) {
             return Float.NaN;
         } else {
-            return eventRateEstimators[i].getFilteredEventRate();
+            return (1e6f * typeCounts.getRate(i, lastTimestamp)) / AEConstants.TICK_DEFAULT_US;
         }
     }
 
@@ -116,12 +132,8 @@ public class TypedEventRateEstimator extends EventRateEstimator {
             return Float.NaN;
         }
         float sum = 0;
-        if (eventRateEstimators != null) {
-            for (EventRateEstimator e : eventRateEstimators) {
-                if (e != null) {
-                    sum += e.getInstantaneousEventRate();
-                }
-            }
+        for (int i = 0; i < numCellTypes; i++) {
+            sum += getInstantaneousEventRate(i);
         }
         return sum / numCellTypes;
     }
@@ -132,28 +144,12 @@ public class TypedEventRateEstimator extends EventRateEstimator {
             return Float.NaN;
         }
         float sum = 0;
-        if (eventRateEstimators != null) {
-            for (EventRateEstimator e : eventRateEstimators) {
-                if (e != null) {
-                    sum += e.getFilteredEventRate();
-                }
-            }
+        for (int i = 0; i < numCellTypes; i++) {
+            sum += getFilteredEventRate(i);
         }
         return sum / numCellTypes;
     }
 
-    @Override
-    synchronized public void setMaxRate(float maxRate) {
-        super.setMaxRate(maxRate); //To change body of generated methods, choose Tools | Templates.
-        if (eventRateEstimators != null) {
-            for (EventRateEstimator e : eventRateEstimators) {
-                if (e != null) {
-                    e.setMaxRate(maxRate);
-                }
-            }
-        }
-    }
-
     /**
      * @return the measureIndividualTypesEnabled
      */
@@ -0,0 +1,322 @@
+/*
+ * HoughAccumulator.java
+ *
+ * Event-driven Hough accumulator shared by HoughCircleTracker and HoughLineTracker.
+ */
+package net.sf.jaer.eventprocessing.tracking;
+
+import net.sf.jaer.util.filter.LazyDecayingArray;
+
+/**
+ * An event-driven Hough accumulator with lazy exponential decay and an
+ * incrementally maintained list of the strongest peaks.
+ * <p>
+ * The accumulator is a flat array of width*height cells, cell index
+ * x+width*y. Every cell carries the time it was last touched; decay is applied
+ * only when a cell is read or voted, so the cost of a vote does not depend on
+ * the size of the accumulator and no periodic sweep over all cells is needed
+ * (see {@link LazyDecayingArray}).
+ * Because all cells decay with the same time constant, the relative order of
+ * cells only changes when they are voted, which lets the top-K peak list be
+ * updated on each vote instead of rescanning the array.
+ * <p>
+ * Time is measured in arbitrary integer ticks supplied by the caller, e.g. event
+ * timestamps in us or a packet counter. Decay factors are looked up from a
+ * table rather than computed with Math.exp on each access.
+ * <p>
+ * Negative votes (e.g. removing old events from a sliding window) are
+ * supported; the listed peak value is updated but a cell that is not listed is
+ * only promoted the next time it receives a positive vote. Call
+ * {@link #rescanPeaks(int)} when an exact list is needed after negative votes.
+ */
+public class HoughAccumulator {
+
+    private final int width, height;
+    private final LazyDecayingArray cells;
+
+    private final int maxNumPeaks;
+    private int peakSuppressionRadius = 0;
+    private int numPeaks = 0;
+    private final int[] peakCells;
+    private final float[] peakValues;
+    private final int[] peakTimes;
+
+    /**
+     * Constructs a new accumulator.
+     *
+     * @param width the number of cells along the first (x) dimension
+     * @param height the number of cells along the second (y) dimension
+     * @param maxNumPeaks the number of peaks K to maintain, at least 1
+     */
+    public HoughAccumulator(int width, int height, int maxNumPeaks) {
+        if ((width <= 0) || (height <= 0)) {
+            throw new IllegalArgumentException("accumulator size must be positive, got " + width + "x" + height);
+        }
+        if (maxNumPeaks < 1) {
+            maxNumPeaks = 1;
+        }
+        this.width = width;
+        this.height = height;
+        cells = new LazyDecayingArray(width * height);
+        this.maxNumPeaks = maxNumPeaks;
+        peakCells = new int[maxNumPeaks];
+        peakValues = new float[maxNumPeaks];
+        peakTimes = new int[maxNumPeaks];
+    }
+
+    /** Zeros all cells and clears the peak list. */
+    public void reset() {
+        cells.reset();
+        numPeaks = 0;
+    }
+
+    /**
+     * Sets the decay time constant.
+     *
+     * @param tau the time constant in ticks. Float.POSITIVE_INFINITY (or NaN)
+     * disables decay, 0 keeps no memory of votes from earlier ticks.
+     */
+    public void setTau(float tau) {
+        cells.setTau(tau);
+    }
+
+    /**
+     * Sets the decay so that cells are multiplied by <code>factor</code> each tick.
+     *
+     * @param factor the decay factor per tick, 0 for no memory and 1 for no decay
+     */
+    public void setDecayFactorPerTick(float factor) {
+        cells.setDecayFactorPerTick(factor);
+    }
+
+    /** @return the decay time constant in ticks */
+    public float getTau() {
+        return cells.getTau();
+    }
+
+    /**
+     * Sets the radius in cells (Chebyshev distance) within which only the
+     * strongest cell is kept as a peak. 0 allows adjacent cells to be separate
+     * peaks.
+     *
+     * @param radius the suppression radius in cells
+     */
+    public void setPeakSuppressionRadius(int radius) {
+        peakSuppressionRadius = radius < 0 ? 0 : radius;
+        numPeaks = 0;
+    }
+
+    public int getPeakSuppressionRadius() {
+        return peakSuppressionRadius;
+    }
+
+    /** @return the decay factor for dt ticks */
+    private float decay(int dt) {
+        return cells.decay(dt);
+    }
+
+    /**
+     * Adds a vote to a cell.
+     *
+     * @param cell the cell index x+width*y
+     * @param weight the vote weight, may be negative
+     * @param time the current time in ticks
+     * @return the new value of the cell
+     */
+    public float vote(int cell, float weight, int time) {
+        float v = cells.add(cell, weight, time);
+        updatePeaks(cell, v, time);
+        return v;
+    }
+
+    /**
+     * Adds a vote to cell x,y; votes outside the accumulator are ignored.
+     *
+     * @return the new value of the cell, or 0 if the cell is outside
+     */
+    public float vote(int x, int y, float weight, int time) {
+        if ((x < 0) || (x >= width) || (y < 0) || (y >= height)) {
+            return 0;
+        }
+        return vote(x + (width * y), weight, time);
+    }
+
+    /**
+     * Multiplies a cell by a factor, e.g. to depress a detected peak.
+     *
+     * @param cell the cell index
+     * @param factor the multiplier
+     * @param time the current time in ticks
+     */
+    public void scale(int cell, float factor, int time) {
+        float v = cells.scale(cell, factor, time);
+        int i = findPeak(cell);
+        if (i >= 0) {
+            peakValues[i] = v;
+            peakTimes[i] = time;
+            sortPeak(i, time);
+        }
+    }
+
+    /**
+     * Returns the decayed value of a cell without modifying it.
+     *
+     * @param cell the cell index
+     * @param time the current time in ticks
+     * @return the value
+     */
+    public float get(int cell, int time) {
+        return cells.get(cell, time);
+    }
+
+    public float get(int x, int y, int time) {
+        return get(x + (width * y), time);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumCells() {
+        return cells.size();
+    }
+
+    /** @return the number of valid peaks, at most the K passed to the constructor */
+    public int getNumPeaks() {
+        return numPeaks;
+    }
+
+    /**
+     * @param i the peak rank, 0 is the strongest
+     * @return the cell index of the peak
+     */
+    public int getPeakCell(int i) {
+        return peakCells[i];
+    }
+
+    public int getPeakX(int i) {
+        return peakCells[i] % width;
+    }
+
+    public int getPeakY(int i) {
+        return peakCells[i] / width;
+    }
+
+    /**
+     * @param i the peak rank, 0 is the strongest
+     * @param time the current time in ticks
+     * @return the decayed value of the peak
+     */
+    public float getPeakValue(int i, int time) {
+        return peakValues[i] * decay(time - peakTimes[i]);
+    }
+
+    /**
+     * Rebuilds the peak list by a full scan of the accumulator. Only needed
+     * after negative votes or scaling if an exact list is required.
+     *
+     * @param time the current time in ticks
+     */
+    public void rescanPeaks(int time) {
+        numPeaks = 0;
+        for (int cell = 0; cell < cells.size(); cell++) {
+            float v = get(cell, time);
+            if (v > 0) {
+                updatePeaks(cell, v, time);
+            }
+        }
+    }
+
+    private int findPeak(int cell) {
+        for (int i = 0; i < numPeaks; i++) {
+            if (peakCells[i] == cell) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isNear(int cella, int cellb) {
+        int dx = Math.abs((cella % width) - (cellb % width));
+        int dy = Math.abs((cella / width) - (cellb / width));
+        return (dx <= peakSuppressionRadius) && (dy <= peakSuppressionRadius);
+    }
+
+    private void removePeak(int i) {
+        numPeaks--;
+        for (int j = i; j < numPeaks; j++) {
+            peakCells[j] = peakCells[j + 1];
+            peakValues[j] = peakValues[j + 1];
+            peakTimes[j] = peakTimes[j + 1];
+        }
+    }
+
+    /** Moves peak i up or down so the list stays ordered by decayed value at time */
+    private void sortPeak(int i, int time) {
+        int c = peakCells[i];
+        float v = peakValues[i];
+        int t = peakTimes[i];
+        float dv = v * decay(time - t);
+        while ((i > 0) && (getPeakValue(i - 1, time) < dv)) {
+            peakCells[i] = peakCells[i - 1];
+            peakValues[i] = peakValues[i - 1];
+            peakTimes[i] = peakTimes[i - 1];
+            i--;
+        }
+        while ((i < (numPeaks - 1)) && (getPeakValue(i + 1, time) > dv)) {
+            peakCells[i] = peakCells[i + 1];
+            peakValues[i] = peakValues[i + 1];
+            peakTimes[i] = peakTimes[i + 1];
+            i++;
+        }
+        peakCells[i] = c;
+        peakValues[i] = v;
+        peakTimes[i] = t;
+    }
+
+    private void updatePeaks(int cell, float v, int time) {
+        int i = findPeak(cell);
+        if (i >= 0) {
+            peakValues[i] = v;
+            peakTimes[i] = time;
+            sortPeak(i, time);
+            return;
+        }
+        if (v <= 0) {
+            return;
+        }
+        if ((numPeaks == maxNumPeaks) && (getPeakValue(numPeaks - 1, time) >= v)) {
+            return; // weaker than all peaks, the common case
+        }
+        if (peakSuppressionRadius > 0) {
+            // a stronger peak nearby suppresses this cell, weaker ones nearby are replaced by it
+            for (int j = 0; j < numPeaks; j++) {
+                if (isNear(cell, peakCells[j]) && (getPeakValue(j, time) >= v)) {
+                    return;
+                }
+            }
+            for (int j = numPeaks - 1; j >= 0; j--) {
+                if (isNear(cell, peakCells[j])) {
+                    removePeak(j);
+                }
+            }
+        }
+        if (numPeaks < maxNumPeaks) {
+            numPeaks++;
+        }
+        i = numPeaks - 1;
+        peakCells[i] = cell;
+        peakValues[i] = v;
+        peakTimes[i] = time;
+        sortPeak(i, time);
+    }
+
+    @Override
+    public String toString() {
+        return "HoughAccumulator " + width + "x" + height + " tau=" + cells.getTau() + " numPeaks=" + numPeaks;
+    }
+}
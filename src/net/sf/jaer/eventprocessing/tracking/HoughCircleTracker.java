@@ -12,6 +12,7 @@ import java.awt.Graphics;
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -37,13 +38,16 @@ import ch.unizh.ini.jaer.projects.labyrinthkalman.WeightedEvent;
 @Description("Circle tracker based on a hough transform")
 public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater, Observer {
 
-	// the Hough space
+	// the Hough space, decayed lazily per cell and holding the running maxima
 	int cameraX;
 	int cameraY;
-	float[][] accumulatorArray;
+	HoughAccumulator accumulator;
 
-	//for decay in Hough space
-	float timeStamp = 0;
+	// precomputed offsets of the circle outline that each event votes for
+	int[] stencilX, stencilY;
+
+	// last timestamp of the packet, used to read out the decayed Hough space
+	int timeStamp = 0;
 
 	// the running maxima in Hough space
 	Coordinate[] maxCoordinate;
@@ -52,8 +56,9 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 	float[] maxValue;
 
 	// history of the encountered spikes to remove the least recent one from
-	// hough space
-	Coordinate[] eventHistory;
+	// hough space, packed as x+cameraX*y, -1 for empty slots
+	int[] eventHistory;
+	float[] eventHistoryWeight;
 	int bufferIndex = 0;
 
 	// visualisation stuff
@@ -85,9 +90,9 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 		setPropertyTooltip("radius","radius of circle in pixels");
 		setPropertyTooltip("bufferLength","number of events to consider when searching for new maximum location");
 		setPropertyTooltip("threshold",""); // TODO
-		setPropertyTooltip("decay","");
+		setPropertyTooltip("decay","in decayMode the Hough space decays exponentially with time constant 10ms/decay, 0 disables decay");
 		setPropertyTooltip("nrMax","");
-		setPropertyTooltip("decayMode","");
+		setPropertyTooltip("decayMode","decay the Hough space over time instead of removing the votes of the least recent of bufferLength events");
 		setPropertyTooltip("drawHough","overlays the Hough space real values on the sensor output");
 	}
 
@@ -124,24 +129,24 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 
 		System.out.println("HoughCircleTracker initialising...");
 
-		accumulatorArray = new float[chip.getSizeX()][chip.getSizeY()];
-
 		if((chip.getSizeX()==0) || (chip.getSizeY()==0)){
+			accumulator = null;
 			return;
 		}
 
 		cameraX = chip.getSizeX();
 		cameraY = chip.getSizeY();
 
-		for(int i=0;i<chip.getSizeX();i++){
-			for(int j=0; j < chip.getSizeY();j++){
-				accumulatorArray[i][j]=0;
-			}
-		}
+		accumulator = new HoughAccumulator(cameraX, cameraY, nrMax);
+		accumulator.setPeakSuppressionRadius(Math.max(1, Math.round(radius)));
+		accumulator.setTau(decayMode ? getDecayTauUs() : Float.POSITIVE_INFINITY);
+		timeStamp = 0;
+		computeStencil();
 
-		eventHistory = new Coordinate[bufferLength];
+		eventHistory = new int[bufferLength];
+		eventHistoryWeight = new float[bufferLength];
 		for(int i=0;i<bufferLength;i++) {
-			eventHistory[i] = null;
+			eventHistory[i] = -1;
 		}
 
 		bufferIndex = 0;
@@ -183,10 +188,11 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 
 	synchronized public void setLocDepression(boolean locDepression){
 		getPrefs().putBoolean("HoughCircleTracker.locDepression",locDepression);
-		if(locDepression != this.locDepression) {
+		boolean changed = locDepression != this.locDepression;
+		this.locDepression = locDepression;
+		if(changed) {
 			resetFilter();
 		}
-		this.locDepression = locDepression;
 	}
 
 	public boolean getDecayMode(){
@@ -195,10 +201,11 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 
 	synchronized public void setDecayMode(boolean decayMode){
 		getPrefs().putBoolean("HoughCircleTracker.decayMode",decayMode);
-		if(decayMode != this.decayMode) {
+		boolean changed = decayMode != this.decayMode;
+		this.decayMode = decayMode;
+		if(changed) {
 			resetFilter();
 		}
-		this.decayMode = decayMode;
 	}
 
 	public boolean getDrawHough(){
@@ -207,10 +214,11 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 
 	synchronized public void setDrawHough(boolean drawHough){
 		getPrefs().putBoolean("HoughCircleTracker.drawHough",drawHough);
-		if(drawHough != this.drawHough) {
+		boolean changed = drawHough != this.drawHough;
+		this.drawHough = drawHough;
+		if(changed) {
 			resetFilter();
 		}
-		this.drawHough = drawHough;
 	}
 
 	public float getRadius() {
@@ -225,11 +233,11 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 		}
 		getPrefs().putFloat("HoughCircleTracker.radius", radius);
 
-		if(radius != this.radius) {
+		boolean changed = radius != this.radius;
+		this.radius = radius;
+		if(changed) {
 			resetFilter();
 		}
-
-		this.radius = radius;
 	}
 
 	public float getDecay() {
@@ -242,12 +250,11 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 			decay = 0;
 		}
 
-		if(decay != this.decay)
-		{
+		boolean changed = decay != this.decay;
+		this.decay = decay;
+		if(changed) {
 			resetFilter();
 		}
-
-		this.decay = decay;
 	}
 
 
@@ -302,19 +309,19 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 		cameraY=chip.getSizeY();
 		cameraX=chip.getSizeX();
 
-		if((accumulatorArray == null) || (maxValue == null) || (maxCoordinate == null)) {
+		if((accumulator == null) || (maxValue == null) || (maxCoordinate == null)) {
 			return;
 		}
 
 		GL2 gl=drawable.getGL().getGL2();
 
 		// draw the Hough space
-		if(drawHough == true)
+		if((drawHough == true) && (nrMax > 0))
 		{
 			for (int x = 0; x < cameraX; x++) {
 				for (int y = 0; y < cameraY; y++) {
 
-					float red   = accumulatorArray[x][y]/maxValue[0];
+					float red   = accumulator.get(x, y, timeStamp)/maxValue[0];
 					float green = 1.0f - red;
 
 					gl.glColor4f(red,green,0.0f,.3f);
@@ -348,232 +355,45 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 
 	}
 
-	// fast inclined ellipse drawing algorithm; ellipse eqn: A*x^2+B*y^2+C*x*y-1 = 0
-	// the algorithm is fast because it uses just integer addition and subtraction
-	void accumulate(Coordinate event, float weight){
-
-		// TODO: this is a little overhead here, since we only draw circles in
-		// Hough space (not ellipses)
-		int centerX = (int)event.x;
-		int centerY = (int)event.y;
-		int aa	  = Math.round(radius*radius);
-		int bb	  = aa;
-		int twoC	= 0;
-
-		int x = 0;
-		int y = Math.round((float)Math.sqrt(bb));
-		int twoaa = 2*aa;
-		int twobb = 2*bb;
-		int dx =   (twoaa*y) + (twoC*x);   //slope =dy/dx
-		int dy = -((twobb*x) + (twoC*y));
-		int ellipseError = aa*((y*y)-bb);
-
-		// first sector: (dy/dx > 1) -> y+1 (x+1)
-		// d(x,y+1)   = 2a^2y+a^2+2cx				= dx+aa
-		// d(x+1,y+1) = 2b^2x+b^2+2cy+2c+2a^2y+a^2+2cx = d(x,y+1)-dy+bb
-		while (dy > dx){
-			increaseHoughPoint(centerX+x,centerY+y,weight);
-			increaseHoughPoint(centerX-x,centerY-y,weight);
-			ellipseError = ellipseError + dx + aa;
-			dx = dx + twoaa;
-			dy = dy - twoC;
-			y = y + 1;
-			if ((((2*ellipseError)-dy)+bb) > 0) {
-				ellipseError = (ellipseError - dy) + bb ;
-				dx = dx + twoC;
-				dy = dy - twobb;
-				x = x + 1;
-			}
-		}
-
-		// second sector: (dy/dx > 0) -> x+1 (y+1)
-		// d(x+1,y)   = 2b^2x+b^2+2cy				= -dy+bb
-		// d(x+1,y+1) = 2b^2x+b^2+2cy+2c+2a^2y+a^2+2cx = d(x+1,y)+dx+aa
-		while (dy > 0){
-			increaseHoughPoint(centerX+x,centerY+y,weight);
-			increaseHoughPoint(centerX-x,centerY-y,weight);
-			ellipseError = (ellipseError - dy) + bb;
-			dx = dx + twoC;
-			dy = dy - twobb;
-			x = x + 1;
-			if (((2*ellipseError) + dx + aa) < 0){
-				ellipseError = ellipseError + dx + aa ;
-				dx = dx + twoaa;
-				dy = dy - twoC;
-				y = y + 1;
-			}
-		}
-
-		// third sector: (dy/dx > -1) -> x+1 (y-1)
-		// d(x+1,y)   = 2b^2x+b^2+2cy				= -dy+bb
-		// d(x+1,y-1) = 2b^2x+b^2+2cy-2c-2a^2y+a^2-2cx = d(x+1,y)-dx+aa
-		while (dy > - dx){
-			increaseHoughPoint(centerX+x,centerY+y,weight);
-			increaseHoughPoint(centerX-x,centerY-y,weight);
-			ellipseError = (ellipseError - dy) + bb;
-			dx = dx + twoC;
-			dy = dy - twobb;
-			x = x + 1;
-			if ((((2*ellipseError) - dx) + aa) > 0){
-				ellipseError = (ellipseError - dx) + aa;
-				dx = dx - twoaa;
-				dy = dy + twoC;
-				y = y - 1;
-			}
-		}
-
-		// fourth sector: (dy/dx < 0) -> y-1 (x+1)
-		// d(x,y-1)   = -2a^2y+a^2-2cx			   = -dx+aa
-		// d(x+1,y-1) = 2b^2x+b^2+2cy-2c-2a^2y+a^2-2cx = d(x+1,y)-dy+bb
-		while (dx > 0){
-			increaseHoughPoint(centerX+x,centerY+y,weight);
-			increaseHoughPoint(centerX-x,centerY-y,weight);
-			ellipseError = (ellipseError - dx) + aa;
-			dx = dx - twoaa;
-			dy = dy + twoC;
-			y = y - 1;
-			if ((((2*ellipseError) - dy) + bb) < 0){
-				ellipseError = (ellipseError - dy) + bb;
-				dx = dx + twoC;
-				dy = dy - twobb;
-				x = x + 1;
-			}
-		}
-
-		//fifth sector (dy/dx > 1) -> y-1 (x-1)
-		// d(x,y-1)   = -2a^2y+a^2-2cx				= -dx+aa
-		// d(x-1,y-1) = -2b^2x+b^2-2cy+2c-2a^2y+a^2-2cx = d(x+1,y)+dy+bb
-		while ((dy < dx)&& (x > 0)){
-			increaseHoughPoint(centerX+x,centerY+y,weight);
-			increaseHoughPoint(centerX-x,centerY-y,weight);
-			ellipseError = (ellipseError - dx) + aa;
-			dx = dx - twoaa;
-			dy = dy + twoC;
-			y = y - 1;
-			if (((2*ellipseError) + dy + bb) > 0){
-				ellipseError = ellipseError  + dy + bb;
-				dx = dx - twoC;
-				dy = dy + twobb;
-				x = x - 1;
-			}
-		}
-
-		// sixth sector: (dy/dx > 0) -> x-1 (y-1)
-		// d(x-1,y)   = -2b^2x+b^2-2cy				= dy+bb
-		// d(x-1,y-1) = -2b^2x+b^2-2cy+2c-2a^2y+a^2-2cx = d(x+1,y)-dx+aa
-		while ((dy < 0)&& (x > 0)){
-			increaseHoughPoint(centerX+x,centerY+y,weight);
-			increaseHoughPoint(centerX-x,centerY-y,weight);
-			ellipseError = ellipseError + dy + bb;
-			dx = dx - twoC;
-			dy = dy + twobb;
-			x = x - 1;
-			if ((((2*ellipseError) - dx) + aa) < 0){
-				ellipseError = (ellipseError  - dx) + aa;
-				dx = dx - twoaa;
-				dy = dy + twoC;
-				y = y - 1;
-			}
-		}
-
-		// seventh sector: (dy/dx > -1) -> x-1 (y+1)
-		// d(x-1,y)   = -2b^2x+b^2-2cy				= dy+bb
-		// d(x-1,y+1) = -2b^2x+b^2-2cy-2c+2a^2y+a^2+2cx = d(x+1,y)-dx+aa
-		while ((dy < - dx)&& (x > 0)){
-			increaseHoughPoint(centerX+x,centerY+y,weight);
-			increaseHoughPoint(centerX-x,centerY-y,weight);
-			ellipseError = ellipseError + dy + bb;
-			dx = dx - twoC;
-			dy = dy + twobb;
-			x = x - 1;
-			if (((2*ellipseError) + dx + aa) > 0){
-				ellipseError = ellipseError  + dx + aa;
-				dx = dx + twoaa;
-				dy = dy - twoC;
-				y = y + 1;
-			}
-		}
-
-		// eight sector: (dy/dx < 0) -> y+1 (x-1)
-		// d(x,y+1)   = 2a^2y+a^2+2cx				 = dx+aa
-		// d(x-1,y+1) = -2b^2x+b^2-2cy-2c+2a^2y+a^2+2cx = d(x,y+1)+dy+bb
-		while (((dy > 0) && (dx < 0))&& (x > 0)){
-			increaseHoughPoint(centerX+x,centerY+y,weight);
-			increaseHoughPoint(centerX-x,centerY-y,weight);
-			ellipseError = ellipseError + dx + aa;
-			dx = dx + twoaa;
-			dy = dy - twoC;
-			y = y + 1;
-			if (((2*ellipseError) + dy + bb) < 0){
-				ellipseError = ellipseError + dy + bb ;
-				dx = dx - twoC;
-				dy = dy + twobb;
-				x = x - 1;
+	/** Computes the offsets of the circle outline of the current radius around a point */
+	private void computeStencil() {
+		int r = (int)Math.ceil(radius);
+		int size = (2*r)+1;
+		boolean[] used = new boolean[size*size];
+		int n = Math.max(8, (int)Math.ceil(8*Math.PI*radius));
+		int[] xs = new int[n];
+		int[] ys = new int[n];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			double angle = ((2*Math.PI)/n)*i;
+			int x = (int)Math.round(radius*Math.cos(angle));
+			int y = (int)Math.round(radius*Math.sin(angle));
+			int k = (x+r) + (size*(y+r));
+			if (used[k]) {
+				continue; // each cell only gets one vote per event
 			}
+			used[k] = true;
+			xs[count] = x;
+			ys[count] = y;
+			count++;
 		}
+		stencilX = Arrays.copyOf(xs, count);
+		stencilY = Arrays.copyOf(ys, count);
 	}
 
-	boolean islocmax(int x, int y)
-	{
-		int locMaxRad = 1;
-		int i =1;
-		if (((x-locMaxRad) < 0) || ((x+locMaxRad) > (chip.getSizeX()-1))
-			|| ((y-locMaxRad) < 0) || ((y+locMaxRad) > (chip.getSizeY()-1))) {
-			return false;
-		}
-		if(accumulatorArray[x][y]<accumulatorArray[x][y+1]) {
-			return false;
-		}
-		if(accumulatorArray[x][y]<accumulatorArray[x][y-1]) {
-			return false;
-		}
-		if(accumulatorArray[x][y]<accumulatorArray[x+1][y]) {
-			return false;
-		}
-		if(accumulatorArray[x][y]<accumulatorArray[x-1][y]) {
-			return false;
+	/** @return the time constant of the Hough space decay in us */
+	private float getDecayTauUs() {
+		if (decay <= 0) {
+			return Float.POSITIVE_INFINITY;
 		}
-		if(accumulatorArray[x][y]<accumulatorArray[x+1][y-1]) {
-			return false;
-		}
-		if(accumulatorArray[x][y]<accumulatorArray[x-1][y+1]) {
-			return false;
-		}
-		if(accumulatorArray[x][y]<accumulatorArray[x+1][y+1]) {
-			return false;
-		}
-		if(accumulatorArray[x][y]<accumulatorArray[x-1][y-1]) {
-			return false;
-		}
-
-
-		return true;
-
-
+		return 10000f/decay;
 	}
 
-	void increaseHoughPoint(int x, int y, float weight) {
-
-		if ((x < 0) || (x > (chip.getSizeX() - 1)) || (y < 0) || (y > (chip.getSizeY() - 1))) {
-			return;
-		}
-
-		// increase the value of the hough point
-		accumulatorArray[x][y] = accumulatorArray[x][y] + weight;
-
-		// check if this is a new maximum
-		for(int i=0; i<nrMax; i++)
-		{
-			if (accumulatorArray[x][y] >= maxValue[i]) {
-
-				maxValue[i] = accumulatorArray[x][y];
-
-				if ((maxValue[i] > threshold) && (maxCoordinate[i] != null)){
-					maxCoordinate[i].x = x;
-					maxCoordinate[i].y = y;
-				}
-				i += nrMax;
-			}
+	/** Votes for all possible circle centers of an event at x,y */
+	void accumulate(int x, int y, float weight, int timestamp) {
+		final int[] sx = stencilX, sy = stencilY;
+		for (int i = 0; i < sx.length; i++) {
+			accumulator.vote(x+sx[i], y+sy[i], weight, timestamp);
 		}
 	}
 
@@ -586,29 +406,10 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 			return in;
 		}
 
-		if(decayMode == true) {
-			float delta_t = in.getLastTimestamp() - timeStamp;
-			float decay_factor = 1.0f/(0.0001f * decay * delta_t);
-
-			//for an exponentially decaying hough-space-weight.
-			for (int x = 0; x < cameraX; x++) {
-				for (int y = 0; y < cameraY; y++) {
-					accumulatorArray[x][y] *= decay_factor;
-
-				}
-			}
+		if(accumulator == null) {
+			return in;
 		}
-		timeStamp = in.getLastTimestamp();
-
-
-		maxValue = new float[nrMax];
-		for(int i = 0; i<nrMax; i++)
-		{
-			if(maxCoordinate[i] == null) {
-				maxCoordinate[i] = new Coordinate(0.0f,0.0f);
-			}
 
-		}
 		for (BasicEvent event : in) {
 
 			float weight=1;
@@ -617,43 +418,39 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 				weight = weightedEvent.weight;
 			}
 
-			// save event in history
-			eventHistory[bufferIndex] = new Coordinate(event.x, event.y);
-
 			// accumulate all possible circle centers for the current event
-			accumulate(eventHistory[bufferIndex], weight);
+			accumulate(event.x, event.y, weight, event.timestamp);
 
-			// increase buffer index
-			bufferIndex = (bufferIndex+1)%bufferLength;
+			if((decayMode == false) && (bufferLength > 0)) {
+				// save event in history
+				eventHistory[bufferIndex] = event.x + (cameraX*event.y);
+				eventHistoryWeight[bufferIndex] = weight;
 
-			// remove the least recent event from hough space
-			if((eventHistory[bufferIndex] != null) && (decayMode == false)) {
-				accumulate(eventHistory[bufferIndex], -1);
+				// increase buffer index
+				bufferIndex = (bufferIndex+1)%bufferLength;
+
+				// remove the least recent event from hough space
+				int old = eventHistory[bufferIndex];
+				if(old >= 0) {
+					accumulate(old%cameraX, old/cameraX, -eventHistoryWeight[bufferIndex], event.timestamp);
+				}
 			}
 		}
+		timeStamp = in.getLastTimestamp();
+
 		for(int i = 0; i<nrMax; i++)
 		{
+			if(maxCoordinate[i] == null) {
+				maxCoordinate[i] = new Coordinate(0.0f,0.0f);
+			}
 			maxValue[i] = 0;
 		}
-		for (int x = 0; x < cameraX; x++) {
-			for (int y = 0; y < cameraY; y++) {
-
-				for(int i=0; i<nrMax; i++)
-				{
-					if ((accumulatorArray[x][y] >= maxValue[i])
-						&& islocmax(x,y)) {
-
-						maxValue[i] = accumulatorArray[x][y];
-
-						if (maxValue[i] > threshold){
-							maxCoordinate[i].x = x;
-							maxCoordinate[i].y = y;
-						}
-						i += nrMax;
-					}
-				}
+		for(int i = 0; (i<nrMax) && (i<accumulator.getNumPeaks()); i++)
+		{
+			maxValue[i] = accumulator.getPeakValue(i, timeStamp);
+			if (maxValue[i] > threshold){
+				maxCoordinate[i].setCoordinate(accumulator.getPeakX(i), accumulator.getPeakY(i));
 			}
-
 		}
 
 		OutputEventIterator itr = out.outputIterator();
@@ -667,15 +464,12 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 				if(((x-1) > 0) && ((x+1) < (chip.getSizeX()-1))
 					&& ((y-1) > 0) && ((y+1) < (chip.getSizeY()-1)))
 				{
-					accumulatorArray[x][y] *= 0.01f;
-					accumulatorArray[x][y+1] *= 0.1f;
-					accumulatorArray[x][y-1] *= 0.1f;
-					accumulatorArray[x+1][y] *= 0.1f;
-					accumulatorArray[x-1][y] *= 0.1f;
-					accumulatorArray[x+1][y+1] *= 0.1f;
-					accumulatorArray[x-1][y+1] *= 0.1f;
-					accumulatorArray[x-1][y-1] *= 0.1f;
-					accumulatorArray[x-1][y-1] *= 0.1f;
+					for (int dx = -1; dx <= 1; dx++) {
+						for (int dy = -1; dy <= 1; dy++) {
+							float f = ((dx == 0) && (dy == 0)) ? 0.01f : 0.1f;
+							accumulator.scale((x+dx)+(cameraX*(y+dy)), f, timeStamp);
+						}
+					}
 				}
 
 			}
@@ -683,7 +477,7 @@ public class HoughCircleTracker extends EventFilter2D implements FrameAnnotater,
 			BasicEvent outEvent = itr.nextOutput();
 			outEvent.x = (short)maxCoordinate[i].x;
 			outEvent.y = (short)maxCoordinate[i].y;
-			outEvent.timestamp = (int) timeStamp;
+			outEvent.timestamp = timeStamp;
 			//this timestamp is only on packet resolution!
 		}
 		// pass events unchanged to next filter
@@ -51,9 +51,11 @@ import net.sf.jaer.util.filter.LowpassFilter;
  * http://www.cs.tu-bs.de/rob/lehre/bv/HNF.html for a good interactive java
  * applet demo.
  * <p>
- * Each point is splatted in its p, theta form into an accumulator array; the
- * array maximum value is computed for each packet and the resulting p,theta
- * values are lowpass filtered to form the output.
+ * Each point is splatted in its p, theta form into a {@link HoughAccumulator};
+ * the cells each pixel votes for are precomputed, the accumulator decays lazily
+ * by houghDecayFactor per packet and keeps track of its maximum on each vote,
+ * so no sweep over the accumulator is needed per packet. The resulting p,theta
+ * values of the maximum are lowpass filtered to form the output.
  *
  * @author tobi
  * @see LineDetector
@@ -77,14 +79,22 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
     private float rhoResPixels = getPrefs().getFloat("LineTracker.rhoResPixels", 6);
     private boolean showHoughWindow = false;
     private float rhoLimit;
-    private float[][] accumArray;
+    private HoughAccumulator accumulator;
     private int nTheta, nRho;
     private float tauMs = getPrefs().getFloat("LineTracker.tauMs", 10);
 
     float[] cos = null, sin = null;
     int rhoMaxIndex, thetaMaxIndex;
     float accumMax;
-    int[][] accumUpdateTime;
+    // clock of the accumulator decay, counts packets
+    int packetCounter = 0;
+    // precomputed cells each pixel x+sizeX*y votes for, -1 for rho out of range; null for chips too large for the table
+    int[] voteStencil;
+    private static final int MAX_VOTE_STENCIL_SIZE = 1 << 22; // 16 MB of ints
+    // the allowed thetas and x*cos and y*sin for each of them, used to compute rho when there is no voteStencil
+    int[] voteThetas;
+    float[] xCos, ySin;
+    int numVotesPerPixel, sizeX, sizeY;
     float sx2, sy2; // half chip size
     private float rhoPixelsFiltered = 0;
     private float thetaDegFiltered = 0;
@@ -168,8 +178,13 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
         // rho can span this +/- limit after hough transform of event
         // coordinate which shifted so that middle of chip is zero
         nRho = (int) ((2 * rhoLimit) / rhoResPixels);
-        accumArray = new float[nTheta][nRho];
-        //        accumUpdateTime=new int[nTheta][nRho];
+        if ((nTheta > 0) && (nRho > 0)) {
+            accumulator = new HoughAccumulator(nTheta, nRho, 1);
+            accumulator.setDecayFactorPerTick(houghDecayFactor);
+        } else {
+            accumulator = null;
+        }
+        packetCounter = 0;
         accumMax = Float.NEGATIVE_INFINITY;
         // precompute sin/cos for accumulator array updates for quantized angle values
         cos = new float[nTheta];
@@ -185,6 +200,65 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
         rhoFilter.setTauMs(tauMs);
         thetaFilter.setTauMs(tauMs);
         allowedThetaNumber = getAllowedThetaNumber(favorVerticalAngleRangeDeg);
+        computeVoteStencil();
+    }
+
+    /**
+     * Precomputes for every pixel the accumulator cells it votes for, i.e. the
+     * quantized rho for each allowed theta. If this table would be larger than
+     * MAX_VOTE_STENCIL_SIZE, e.g. for a VGA sensor, only x*cos and y*sin are
+     * tabulated for each column and row and rho is computed from them for each
+     * event.
+     */
+    synchronized private void computeVoteStencil() {
+        sizeX = chip.getSizeX();
+        sizeY = chip.getSizeY();
+        voteStencil = null;
+        if ((accumulator == null) || (sizeX == 0) || (sizeY == 0)) {
+            voteThetas = null;
+            return;
+        }
+        // the allowed angles are 0 to allowedThetaNumber and Pi-allowedThetaNumber to Pi
+        int[] thetas = new int[nTheta];
+        numVotesPerPixel = 0;
+        for (int thetaNumber = 0; (thetaNumber < allowedThetaNumber) && (thetaNumber < nTheta); thetaNumber++) {
+            thetas[numVotesPerPixel++] = thetaNumber;
+        }
+        for (int thetaNumber = Math.max((nTheta - allowedThetaNumber) + 1, allowedThetaNumber); thetaNumber < nTheta; thetaNumber++) {
+            thetas[numVotesPerPixel++] = thetaNumber;
+        }
+        voteThetas = thetas;
+        xCos = new float[numVotesPerPixel * sizeX];
+        ySin = new float[numVotesPerPixel * sizeY];
+        for (int i = 0; i < numVotesPerPixel; i++) {
+            for (int ex = 0; ex < sizeX; ex++) {
+                xCos[(i * sizeX) + ex] = (ex - sx2) * cos[thetas[i]];
+            }
+            for (int ey = 0; ey < sizeY; ey++) {
+                ySin[(i * sizeY) + ey] = (ey - sy2) * sin[thetas[i]];
+            }
+        }
+        if (((long) sizeX * sizeY * numVotesPerPixel) > MAX_VOTE_STENCIL_SIZE) {
+            return;
+        }
+        voteStencil = new int[sizeX * sizeY * numVotesPerPixel];
+        int k = 0;
+        for (int ey = 0; ey < sizeY; ey++) {
+            float y = ey - sy2;
+            for (int ex = 0; ex < sizeX; ex++) {
+                float x = ex - sx2; // x,y relative to center of chip
+                for (int i = 0; i < numVotesPerPixel; i++) {
+                    int thetaNumber = thetas[i];
+                    float rho = (((x * cos[thetaNumber]) + (y * sin[thetaNumber])));
+                    int rhoNumber = (int) ((rho + rhoLimit) / rhoResPixels);
+                    if ((rhoNumber < 0) || (rhoNumber >= nRho)) {
+                        voteStencil[k++] = -1;
+                    } else {
+                        voteStencil[k++] = thetaNumber + (nTheta * rhoNumber);
+                    }
+                }
+            }
+        }
     }
 
     @Override
@@ -198,12 +272,15 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
         if (getEnclosedFilterChain() != null) {
             in = getEnclosedFilterChain().filterPacket(in);
         }
+        if (voteThetas == null) {
+            return in;
+        }
         int index = 0;
         for (BasicEvent e : in) {
             addEvent(e);
             index++;
         }
-        decayAccumArray();
+        updateLineEstimate();
         thetaDegFiltered = thetaFilter.filter(getThetaDeg(), in.getLastTimestamp());
         rhoPixelsFiltered = rhoFilter.filter(getRhoPixels(), in.getLastTimestamp());
 
@@ -226,49 +303,29 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
     // http://rkb.home.cern.ch/rkb/AN16pp/node122.html
 
     private void addEvent(BasicEvent e) {
-        float x = e.x - sx2;
-        float y = e.y - sy2; // x,y relative to center of chip
-        // iterate over all angles included in allowedThetaNumber angles
-        for (int thetaNumber = 0; thetaNumber < allowedThetaNumber; thetaNumber++) {
-            // only iterate up to allowed angle, 0 is vertical line,
-            // iterate over theta, computing  rho, quantizing it, and integrating it into the Hough array
-            float rho = (((x * cos[thetaNumber]) + (y * sin[thetaNumber])));
-            int rhoNumber = (int) ((rho + rhoLimit) / rhoResPixels);
-            if ((rhoNumber < 0) || (rhoNumber >= nRho)) {
-                //                log.warning(String.format("e.x=%d, e.y=%d, x=%f, y=%f, rho=%f, rhoNumber=%d",e.x,e.y,x,y,rho,rhoNumber));
-                continue;
+        if ((e.x < 0) || (e.x >= sizeX) || (e.y < 0) || (e.y >= sizeY)) {
+            return;
+        }
+        final int[] stencil = voteStencil;
+        if (stencil == null) {
+            for (int i = 0; i < numVotesPerPixel; i++) {
+                float rho = xCos[(i * sizeX) + e.x] + ySin[(i * sizeY) + e.y];
+                int rhoNumber = (int) ((rho + rhoLimit) / rhoResPixels);
+                if ((rhoNumber >= 0) && (rhoNumber < nRho)) {
+                    accumulator.vote(voteThetas[i] + (nTheta * rhoNumber), 1, packetCounter);
+                }
             }
-            updateHoughAccumulator(thetaNumber, rhoNumber);
+            return;
         }
-        // iterate over all angles included in allowedThetaNumber angles, handle the angles from Pi-allowedThetaNumber to Pi
-        for (int thetaNumber = (nTheta - allowedThetaNumber) + 1; thetaNumber < nTheta; thetaNumber++) {
-            // only iterate up to allowed angle, 0 is vertical line,
-            // iterate over theta, computing  rho, quantizing it, and integrating it into the Hough array
-            float rho = (((x * cos[thetaNumber]) + (y * sin[thetaNumber])));
-            int rhoNumber = (int) ((rho + rhoLimit) / rhoResPixels);
-            if ((rhoNumber < 0) || (rhoNumber >= nRho)) {
-                //                log.warning(String.format("e.x=%d, e.y=%d, x=%f, y=%f, rho=%f, rhoNumber=%d",e.x,e.y,x,y,rho,rhoNumber));
-                continue;
+        int k = (e.x + (sizeX * e.y)) * numVotesPerPixel;
+        for (int i = 0; i < numVotesPerPixel; i++, k++) {
+            int cell = stencil[k];
+            if (cell >= 0) {
+                accumulator.vote(cell, 1, packetCounter);
             }
-            updateHoughAccumulator(thetaNumber, rhoNumber);
         }
     }
 
-    /**
-     * Uses a reset array and just counts events in each bin to determine the
-     * peak locations of the lines
-     *
-     * @param thetaNumber the index of the theta of the line. thetaNumber=0
-     * means theta=0 which is a horizontal line, theta=nTheta/2 is a vertical
-     * line. ???? must be wrong, rotate 90 deg
-     * @param rhoNumber the rho (radius) number. rho is spaced by rhoResPixels.
-     */
-    private void updateHoughAccumulator(int thetaNumber, int rhoNumber) {
-        float f = accumArray[thetaNumber][rhoNumber];
-        f++;
-        accumArray[thetaNumber][rhoNumber] = f; // update the accumulator
-    }
-
     @Override
     public void annotate(GLAutoDrawable drawable) {
         if (!isFilterEnabled()) {
@@ -331,7 +388,8 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
 
             @Override
             synchronized public void display(GLAutoDrawable drawable) {
-                if (accumArray == null) {
+                final HoughAccumulator accumulator = HoughLineTracker.this.accumulator;
+                if (accumulator == null) {
                     return;
                 }
                 GL2 gl = drawable.getGL().getGL2();
@@ -341,7 +399,7 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
                 gl.glClear(GL.GL_COLOR_BUFFER_BIT);
                 for (int i = 0; i < nTheta; i++) {
                     for (int j = 0; j < nRho; j++) {
-                        float f = accumArray[i][j] / accumMax;
+                        float f = accumulator.get(i, j, packetCounter) / accumMax;
                         gl.glColor3f(f, f, f);
                         gl.glRectf(i, j, i + 1, j + 1);
                     }
@@ -425,25 +483,18 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
         rhoFilter.setTauMs(tauMs);
         thetaFilter.setTauMs(tauMs);
     }
-    // doesn't actually reset, but decays accumulator array according to houghDecayFactor
-    // also determines maximum accumulator value and sets line estimate according to this
+    // doesn't actually reset; advances the accumulator clock so that it decays by houghDecayFactor per packet
+    // and takes the line estimate from the accumulator maximum
 
-    private void decayAccumArray() {
+    private void updateLineEstimate() {
         // TODO: Detect more than one line
         accumMax = 0;
-        for (int theta = 0; theta < nTheta; theta++) {
-            float[] f = accumArray[theta];
-            for (int rho = 0; rho < f.length; rho++) {
-                float fval = f[rho];
-                fval *= houghDecayFactor;
-                if (fval > accumMax) {
-                    accumMax = fval;
-                    thetaMaxIndex = theta;
-                    rhoMaxIndex = rho;
-                }
-                f[rho] = fval;
-            }
+        if (accumulator.getNumPeaks() > 0) {
+            accumMax = accumulator.getPeakValue(0, packetCounter);
+            thetaMaxIndex = accumulator.getPeakX(0);
+            rhoMaxIndex = accumulator.getPeakY(0);
         }
+        packetCounter++;
     }
 
     public boolean isShowHoughWindow() {
@@ -512,6 +563,7 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
         }
         this.favorVerticalAngleRangeDeg = favorVerticalAngleRangeDeg;
         allowedThetaNumber = getAllowedThetaNumber(favorVerticalAngleRangeDeg);
+        computeVoteStencil();
         getPrefs().putFloat("LineTracker.favorVerticalAngleRangeDeg", favorVerticalAngleRangeDeg);
     }
     //    public int getUpdateThresholdEvents() {
@@ -535,6 +587,9 @@ public class HoughLineTracker extends EventFilter2D implements FrameAnnotater, L
             houghDecayFactor = 1;
         }
         this.houghDecayFactor = houghDecayFactor;
+        if (accumulator != null) {
+            accumulator.setDecayFactorPerTick(houghDecayFactor);
+        }
         getPrefs().putFloat("LineTracker.houghDecayFactor", houghDecayFactor);
     }
 }
@@ -6,7 +6,8 @@
  *state vectors is changed from pixel in meters. The measurements used for the "update" step of the Kalman filter is the
  *positon of the supported cluster. This class has to be instancieated only once per RectangularClusterTracker. Multiple instances of
  *clusters are managed via LinkedList(to look which clusters are new and which died) and a HashMap which maps a Cluster to
- *its datastructure.
+ *its datastructure. The filters of all clusters are stored and stepped together in a BatchKalmanFilter, the datastructure
+ *of a cluster only holds its slot there.
  */
 
 package net.sf.jaer.eventprocessing.tracking;
@@ -30,7 +31,7 @@ import net.sf.jaer.eventprocessing.EventFilter2D;
 import net.sf.jaer.eventprocessing.tracking.RectangularClusterTracker.Cluster;
 import net.sf.jaer.graphics.AEChipRenderer;
 import net.sf.jaer.graphics.FrameAnnotater;
-import net.sf.jaer.util.Matrix;
+import net.sf.jaer.util.filter.BatchKalmanFilter;
 
 import com.jogamp.opengl.util.gl2.GLUT;
 
@@ -63,9 +64,12 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 	private boolean feedbackToCluster = getPrefs().getBoolean("KalmanFilter.feedbackToCluster",false);
 	//    private boolean doLog = prefs.getBoolean("KalmanFilter.doLog",false);
 	private boolean useDynamicVariances = getPrefs().getBoolean("KalmanFilter.useDynamicVariances",true);
+	//with this option on, the filters of all clusters are stepped on all cores
+	private boolean parallelUpdate = getPrefs().getBoolean("KalmanFilter.parallelUpdate",false);
 
-	private float processVariance;
-	private float measurementVariance;
+	//the Kalman filters of all clusters, axis 0 is y and axis 1 is x. Process noise is only applied along y,
+	//the direction of the highway.
+	private final BatchKalmanFilter filters = new BatchKalmanFilter(BatchKalmanFilter.Model.ConstantVelocity, 64);
 
 	private float beta; //Angle between highway and camera at the first pixel
 	private float cameraAngle;//Opening angle of the camera
@@ -89,6 +93,8 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 		chip.addObserver(this);
 		//        prefs.addPreferenceChangeListener(this);
 		this.tracker = tracker;
+		filters.setProcessNoiseAxisScale(1, 0);
+		filters.setParallel(parallelUpdate);
 
 	}
 
@@ -137,14 +143,16 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 		}
 		//check if they have still support, if not add them to the zombie list.
 		for(Cluster c:pruneList){
-			kalmans.remove(c);
-			continue;
+			ClusterData cd = kalmans.remove(c);
+			if(cd != null) {
+				filters.removeTrack(cd.slot);
+			}
 		}
 		pruneList.clear();
 		for(Cluster c:clusters){
-			if(kalmans.containsKey(c)){
-				kalmans.get(c).predict();
-				kalmans.get(c).update();
+			ClusterData cd = kalmans.get(c);
+			if(cd != null){
+				cd.setMeasurement();
 				//                if(doLog){
 					//                    try {
 				//                        logWriter.write(c.getLastEventTimestamp() + "\t"+ distAtPixel(c.getLocation()).y + "\t" +kalmans.getString(c).x[0]+ "\t" +
@@ -166,6 +174,13 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 				//                }
 			}
 		}
+		//prediction and update step for all clusters with a new measurement in one pass
+		filters.step();
+		if(feedbackToCluster){
+			for(ClusterData cd:kalmans.values()){
+				cd.feedback();
+			}
+		}
 	}
 
 
@@ -174,27 +189,15 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 		return "KalmanFilter.toString not yet implemented";
 	}
 	/**
-	 *The data class for each Cluster. In this data structure all the necessary matrices for the Kalman Filter is stored. Each
-	 *cluster is assigned to such a structure. The class provides also the algorithm itself(prediction and update step) of
-	 *the KF.
+	 *The data class for each Cluster. It holds the slot of the cluster in the BatchKalmanFilter, which stores the state
+	 *vector (y, velocity in y, x, velocity in x) and the covariances of all clusters and runs the prediction and update
+	 *step for all of them together. The measurement is the position of the supported cluster.
 	 */
 	final public class ClusterData{
 		Cluster c; //the observation
-		private int latestTimeStampOfLastStep;
-		private float[][] F; //Transition Model(tranistion of x(t-1) -> x(t)
-		private float[][] B; //maps the control vector on the state vector
-		private float[][] Q; //variance matrix of normally distributed process noise
-		private float[][] H; //observation model: maps x on z(state vector onto the observation)
-		private float[][] R; //variance matrix of  normally distributed observation noise
-		private float[][] Pp; //pred. error cov. matrix
-		private float[][] P; //error cov. matrix
-		private float[] x; //the state vector
-		private float[] xp; //the predicted state vector
-		private float[] z; // observation
-		private float[] u; //control vector
-		private float[] y; //error/residual of measurement resp. innovation
-
-		private float deltaTime;
+		final int slot; //the index of this cluster in the BatchKalmanFilter
+
+		private float mixingFactor = tracker.getMixingFactor();
 
 		/**
 		 * The only constructor. For a Cluster it creates the necessary datastructures.
@@ -202,113 +205,43 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 		 */
 		ClusterData(Cluster c){
 			this.c = c;
-			initData();
+			//since we are little unsure about the initial position, the initial covariance is identity.
+			//The process variance depends actually on how many events we collect till track...
+			Point2D.Float p = measurement();
+			slot = filters.addTrack(p.y, p.x, c.getLastEventTimestamp()-c.getLifetime(), 1, maxMeasurementVariance+100, 1);
 		}
 
 		/**
-		 *This method initializes the Kalman Filter for the supported cluster depending on the actual cluster position and
-		 *the chosen metric(see mapToRoad parameter).
+		 *@return the actual position of the supported cluster, in meters if mapToRoad is selected, else in pixels.
 		 */
-		private void initData(){
-			F = new float[dimStateVector][dimStateVector];
-			Q = new float[dimStateVector][dimStateVector];
-			B = new float[dimStateVector][dimStateVector];
-			H = new float[dimMeasurement][dimStateVector];
-			R = new float[dimMeasurement][dimMeasurement];
-			Pp = new float[dimStateVector][dimStateVector];
-			P = new float[dimStateVector][dimStateVector];
-			xp = new float[dimStateVector];
-			x = new float[dimStateVector];
-			z = new float[dimMeasurement];
-			u = new float[dimStateVector];
-			y = new float[dimMeasurement];
-
-			latestTimeStampOfLastStep = c.getLastEventTimestamp()-c.getLifetime();
-			deltaTime = c.getLifetime();
-
-			measurementVariance = 1;
-			processVariance = maxMeasurementVariance+100;//depends actually on how many events we collect till track...
-
-			//since we are little unsure about the initial position:
-				Matrix.identity(P);
-				Matrix.identity(F);
-
-				H[0][0] = 1; H[0][1] = 0; H[0][2] = 0;H[0][3] = 0;
-				H[1][0] = 0; H[1][1] = 0; H[1][2] = 1;H[1][3] = 0;
-
-				Matrix.zero(R);
-				R[0][0] = measurementVariance; R[1][1] = measurementVariance;
-
-
-				Matrix.zero(Q);
-
-
-				B[0][0]= 0;B[1][1]=0;B[0][1]=0;B[1][0]=0;
-				if(!mapToRoad){
-					x[0] = (float)c.getLocation().getY();
-					x[1] = 0; // artificial initial velocity in y- direction ( units in Pixel)
-					x[2] = (float)c.getLocation().getX();
-					x[3] = 0; // artificial initial velocity in x- direction
-					//System.out.println("new init at y = " + x[0]);
-					z[0] = c.getLocation().y; // the observation
-					z[1] = c.getLocation().x;
-
-				}else{
-					/*
-					 *If map to raod option is selected, we calculate the distance to the pixel where the Cluster is in meters
-					 *and store this distance in the state vector, but only for y-coordinate.
-					 *This is done by distAtPixelY.
-					 */
-					Point2D.Float pointInMeters = distAtPixel(c.getLocation());
-					x[0] = pointInMeters.y;
-					x[1] = 0; // artificial initial velocity in y- direction in [m/s]
-					x[2] = pointInMeters.x;
-					x[3] = 0; // artificial initial velocity in x- direction
-
-					z[0] = pointInMeters.y;
-					z[1] = pointInMeters.x;
-				}
+		private Point2D.Float measurement(){
+			if(!mapToRoad){
+				return c.getLocation();
+			}else{
+				/*
+				 *If map to raod option is selected, we calculate the distance to the pixel where the Cluster is in meters
+				 *and store this distance in the state vector.
+				 *This is done by distAtPixel.
+				 */
+				return distAtPixel(c.getLocation());
+			}
 		}
 
 		/**
-		 *The prediction step of the KalmanFilter. The new predicted state vector xp and also the Error cov.Matrix P is
-		 *calculated.
+		 *Queues the actual cluster position as measurement for the next step of the filters and adapts the variances.
 		 */
-		void predict(){
-			//xp = addVector(multmatrix(F,x),multMatrix(G,a));
+		void setMeasurement(){
 			updateVariances();
-			deltaTime = (c.getLastEventTimestamp() - latestTimeStampOfLastStep)*1.e-6f;
-			//System.out.println("deltaTime in s = " + deltaTime);
-			if(c.getLastEventTimestamp() > latestTimeStampOfLastStep) {
-				latestTimeStampOfLastStep = c.getLastEventTimestamp();
-			}
-			F[0][1]= deltaTime; F[2][3]= deltaTime;
-			B[0][0] = (float)Math.pow(deltaTime,2)/2f;
-			B[1][1] = deltaTime;
-			xp =  multMatrix(F,x);
-			//System.out.println("predicted x:");Matrix.print(xp);
-
-
-			Q[0][0] = (float)Math.pow(deltaTime,4)/4;  Q[0][1] = (float)Math.pow(deltaTime,3)/2;
-			Q[1][0] = Q[0][1];                  Q[1][1] = (float)Math.pow(deltaTime,2);
-			//Q = multMatrix(Q,(processVariance*perspectiveScale(c.getLocation())));
-			//Matrix.print(Q);
-			//            Matrix.identity(Q);
-			//Q = multMatrix(Q,processVariance);
-			//Q[0][0] = processVariance;Q[1][1] = processVariance;
-			//Pp = F*P*F'+Q
-			Q = multMatrix(Q,processVariance);
-			Pp = addMatrix(multMatrix(multMatrix(F,P),transposeMatrix(F)),Q);
-
-			//System.out.println("predicted P:");Matrix.print(Pp);
+			Point2D.Float p = measurement();
+			filters.setMeasurement(slot, p.y, p.x, c.getLastEventTimestamp());
 		}
 
-
-		private float mixingFactor = tracker.getMixingFactor();
 		private void updateVariances(){
+			float processVariance = filters.getProcessVariance(slot);
+			float measurementVariance = filters.getMeasurementVariance(slot);
 			if(useDynamicVariances){
 				if (processVariance > minProcessVariance) {
-					processVariance = ((1-mixingFactor)*processVariance) - (mixingFactor*minProcessVariance);
+					processVariance = ((1-mixingFactor)*processVariance) + (mixingFactor*minProcessVariance);
 				}
 				else {
 					processVariance = minProcessVariance;
@@ -323,86 +256,48 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 				processVariance = minProcessVariance;
 				measurementVariance = maxMeasurementVariance;
 			}
+			filters.setVariances(slot, processVariance, measurementVariance);
 		}
 
-		/**
-		 *The update step for the Kalman Filter. As measurement the actual position of the supported cluster is taken.
-		 *Depending on the metric(see map to road) the measurement is first translated in meters.
-		 */
-		void update(){
-			//the observation or measurement:
-			if(!mapToRoad){
-				z[0] = c.getLocation().y; // the observation
-				z[1] = c.getLocation().x;
-
-			}else{
-				Point2D.Float pm = distAtPixel(c.getLocation());
-				z[0] = pm.y;
-				z[1] = pm.x;
+		/** Sets the cluster to the actual position of the Kalman filter. */
+		void feedback(){
+			if(!mapToRoad) {
+				c.setLocation(new Point2D.Float(getX(),getY()));
 			}
-
-			//z[1] = 0; // the velocity observation (doesn't matter)
-			//H[0][0] = perspectiveScale(c.getLocation());
-
-			//y = z-H*xp
-			float[] yTemp = new float[dimMeasurement];
-
-			yTemp = multMatrix(H,xp);
-			Matrix.subtract(z,yTemp,y);
-			//System.out.println("The error(y[2] should be 0) ~y = ");Matrix.print(y);
-
-			//update R:
-			R[0][0] = measurementVariance; R[1][1] = measurementVariance;
-
-			//S = H*Pp*H'+R
-			float[][] S = new float[dimMeasurement][dimMeasurement];
-			float[][] STemp = new float[dimMeasurement][dimStateVector];
-			float[][] STemp2 = new float[dimMeasurement][dimMeasurement];
-			Matrix.multiply(H,Pp,STemp);
-			Matrix.multiply(STemp,transposeMatrix(H),STemp2); Matrix.add(STemp2,R,S);
-
-			//K = Pp*H'*inv(S)
-			float[][] K = new float[dimStateVector][dimMeasurement];
-			float[][] Ktemp = new float[dimStateVector][dimMeasurement];
-			//System.out.println("H: ");Matrix.print(H);
-			Matrix.multiply(Pp,transposeMatrix(H),Ktemp);
-			//System.out.println("\nS: "); Matrix.print(S);
-
-			Matrix.invert(S);
-			//System.out.println("\ninv(S): "); Matrix.print(S);
-			//S[0][0] = 1/S[0][0];
-			//System.out.println("\nMatrix inv(S):");Matrix.print(S);
-			Matrix.multiply(Ktemp,S,K);
-			//System.out.println("\nKtemp: "); Matrix.print(K);
-			//System.out.println("\nThe new Kalman Gain:");Matrix.print(K);
-
-			//P = (I-K*H)Pp
-			float[][] I = new float[dimStateVector][dimStateVector];
-			float[][] Ptemp = new float[dimStateVector][dimStateVector];
-			Matrix.identity(I);
-			Matrix.multiply(K,H,P);Matrix.subtract(I,P,Ptemp);Matrix.multiply(Ptemp,Pp,P);
-			//System.out.println("\nthe new P:\n");Matrix.print(P);
-
-			//x = xp + K*y
-			float[] xTemp = new float[dimStateVector];
-			Matrix.multiply(K,y,xTemp);
-			Matrix.add(xp,xTemp,x);
-
-			if(feedbackToCluster){
-				if(!mapToRoad) {
-					c.setLocation(new Point2D.Float(x[2],x[0]));
-				}
-				else {
-					c.setLocation(pixelYAtDist(new Point2D.Float(x[2],x[0])));
-				}
+			else {
+				c.setLocation(pixelYAtDist(new Point2D.Float(getX(),getY())));
 			}
+		}
+
+		/** @return the y position of the state vector */
+		public float getY(){
+			return filters.getPosition(slot, 0);
+		}
+
+		/** @return the velocity in y of the state vector */
+		public float getVelocityY(){
+			return filters.getVelocity(slot, 0);
+		}
 
-			//System.out.println("\nThe new state vector:\ny: " + x[0]);
-			//System.out.println("velocity:" + x[1]);
+		/** @return the x position of the state vector */
+		public float getX(){
+			return filters.getPosition(slot, 1);
+		}
 
+		/** @return the velocity in x of the state vector */
+		public float getVelocityX(){
+			return filters.getVelocity(slot, 1);
 		}
 
+		/** @return the predicted y position */
+		public float getPredictedY(){
+			return filters.getPredictedPosition(slot, 0);
+		}
 
+		/** @return the predicted x position */
+		public float getPredictedX(){
+			return filters.getPredictedPosition(slot, 1);
+		}
 	};
 
 	/**
@@ -476,93 +371,19 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 			return scale;
 		}
 	}
-	final static float[][] transposeMatrix(float[][] a){
-		int ra = a.length; int ca = a[0].length;
-		float[][] m = new float[ca][ra];
-		for(int i = 0; i< ra;i++){
-			for(int j = 0; j < ca; j++) {
-				m[j][i] = a[i][j];
-			}
-		}
-		return m;
-	}
-
-	final static float[][] multMatrix(float[][] a, float s){
-		int ra = a.length; int ca = a[0].length;
-		float[][] m = new float[ra][ca];
-		for(int i = 0; i < ra;i++) {
-			for(int j = 0; j < ca; j++) {
-				m[i][j] = a[i][j]*s;
-			}
-		}
-		return m;
-	}
-
-	final static float[][] multMatrix(float[][] a, float[][] b){
-		int ra = a.length; int ca = a[0].length;
-		int rb = b.length; int cb = b[0].length;
-		if(ca != rb){ System.err.println("Matrix dimensions do not agree"); return null;}
-		float[][] m = new float[ra][cb];
-		for(int i = 0; i < ra;i++) {
-			for(int j = 0; j < cb; j++){
-				m[i][j] =0;
-				for(int k = 0; k < ca;k++) {
-					m[i][j] += a[i][k]*b[k][j];
-				}
-			}
-		}
-		return m;
-	}
-
-	final static float[] multMatrix(float[][] a, float[] x){
-		int ra = a.length; int ca = a[0].length;
-		if(ca != x.length){ System.err.println("Matrix dimensions do not agree"); return null;}
-		float[] m = new float[ra];
-		for(int i = 0; i < ra; i++){
-			m[i] =0;
-			for(int k = 0; k < ca;k++) {
-				m[i] += a[i][k]*x[k];
-			}
-		}
-		return m;
-	}
-
-	final static float[][] addMatrix(float [][] a, float[][] b){
-		int ra = a.length; int ca = a[0].length;
-		int rb = b.length; int cb = b[0].length;
-		if((ca != cb) || (ra != rb)){ System.err.println("Matrix dimensions do not agree"); return null;}
-		float[][] m = new float[ra][cb];
-		for(int i = 0; i < ra;i++) {
-			for(int j = 0; j < cb; j++) {
-				m[i][j] = a[i][j]+b[i][j];
-			}
-		}
-		return m;
-	}
-
-	final static float[] addVector(float[] a, float[] b){
-		int ra = a.length; int rb = b.length;
-		if(ra != rb){System.err.println("Vector dimension do not agree.");return null;}
-		float[] m = new float[ra];
-		for(int i = 0; i< ra; i++){
-			m[i] = a[i]+b[i];
-		}
-		return m;
-	}
-
 	final void drawFilter(final ClusterData cd, float[][][] fr, Color color){
 		int xp0 = 0; //y-position of prediction
 		int xp2 = 0;//x-position of prediction vector
 		int x0 = 0; //y-position of state vector
 		int x2 = 0;//x-position of statevector;
 		if(!mapToRoad){
-			xp0 = Math.round(cd.xp[0]);
-			x0 = Math.round(cd.x[0] );
-			xp2 = Math.round(cd.xp[2]);
-			x2 = Math.round(cd.x[2] );
+			xp0 = Math.round(cd.getPredictedY());
+			x0 = Math.round(cd.getY());
+			xp2 = Math.round(cd.getPredictedX());
+			x2 = Math.round(cd.getX());
 		}else{
-			Point2D.Float predXInPx = pixelYAtDist(new Point2D.Float(cd.xp[2],cd.xp[0]));
-			Point2D.Float xInPx = pixelYAtDist(new Point2D.Float(cd.x[2],cd.x[0]));
+			Point2D.Float predXInPx = pixelYAtDist(new Point2D.Float(cd.getPredictedX(),cd.getPredictedY()));
+			Point2D.Float xInPx = pixelYAtDist(new Point2D.Float(cd.getX(),cd.getY()));
 
 			xp0 = Math.round(predXInPx.y);
 			x0 = Math.round(xInPx.y);
@@ -620,6 +441,7 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 	@Override
 	synchronized public void resetFilter() {
 		kalmans.clear();
+		filters.clear();
 	}
 
 	@Override
@@ -657,13 +479,14 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 		int font = GLUT.BITMAP_HELVETICA_12;
 		gl.glPushMatrix();
 		{
-			for(Cluster c:kalmans.keySet()){
+			for(ClusterData cd:kalmans.values()){
+				Cluster c = cd.c;
 				if(c.isVisible()){
 					if(!mapToRoad){
-						x = kalmans.get(c).x[2];
-						y = kalmans.get(c).x[0];
+						x = cd.getX();
+						y = cd.getY();
 					}else{
-						Point2D.Float xInPx = pixelYAtDist(new Point2D.Float(kalmans.get(c).x[2],kalmans.get(c).x[0]));
+						Point2D.Float xInPx = pixelYAtDist(new Point2D.Float(cd.getX(),cd.getY()));
 						x = xInPx.x;
 						y = xInPx.y;
 					}
@@ -686,10 +509,10 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 
 					//draw the prediction as a square
 					if(!mapToRoad){
-						x = kalmans.get(c).xp[2];
-						y = kalmans.get(c).xp[0];
+						x = cd.getPredictedX();
+						y = cd.getPredictedY();
 					}else{
-						Point2D.Float xInPx = pixelYAtDist(new Point2D.Float(kalmans.get(c).xp[2],kalmans.get(c).xp[0]));
+						Point2D.Float xInPx = pixelYAtDist(new Point2D.Float(cd.getPredictedX(),cd.getPredictedY()));
 						x = xInPx.x;
 						y = xInPx.y;
 					}
@@ -705,12 +528,12 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 					//show the velocity
 					gl.glEnd();
 					gl.glRasterPos3f(x+2,y+2,0);
-					glut.glutBitmapString(font, String.format("v(y) = %.1f",kalmans.get(c).x[1]));
+					glut.glutBitmapString(font, String.format("v(y) = %.1f",cd.getVelocityY()));
 					//show the velocity as a vector
 					gl.glBegin(GL.GL_LINES);
 					{
 						gl.glVertex2f(x,y);
-						gl.glVertex2f(x+kalmans.get(c).x[3],y+kalmans.get(c).x[1]);
+						gl.glVertex2f(x+cd.getVelocityX(),y+cd.getVelocityY());
 					}
 					gl.glEnd();
 				}
@@ -803,6 +626,14 @@ public class KalmanFilter extends EventFilter2D implements FrameAnnotater, Obser
 	public boolean getUseDynamicVariances(){
 		return useDynamicVariances;
 	}
+	public void setParallelUpdate(boolean parallelUpdate){
+		this.parallelUpdate = parallelUpdate;
+		filters.setParallel(parallelUpdate);
+		getPrefs().putBoolean("KalmanFilter.parallelUpdate",parallelUpdate);
+	}
+	public boolean getParallelUpdate(){
+		return parallelUpdate;
+	}
 	private BufferedWriter logWriter;
 
 	//    public void setDoLog(boolean doLog){
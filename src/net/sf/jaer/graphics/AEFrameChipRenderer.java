@@ -9,7 +9,10 @@
 package net.sf.jaer.graphics;
 
 import java.beans.PropertyChangeEvent;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Random;
@@ -40,6 +43,14 @@ import net.sf.jaer.util.histogram.SimpleHistogram;
  *
  * Besides the pixmaps for APS samples and ON and OFF events, an additional
  * pixmap is provided for pixel annotation; see {@link #getAnnotateMap() }.
+ * <p>
+ * With {@link #setPackedTexturesEnabled(boolean) packed textures} the APS
+ * samples and DVS events are instead accumulated into compact maps: 16 bit
+ * APS samples and 8 bit ON and OFF event counts per pixel. These maps are
+ * uploaded as textures and the display method does the contrast, gamma and
+ * color mapping in a fragment shader. The float RGBA pixmaps are then only
+ * computed from the packed maps when some other code asks for them, e.g.
+ * with {@link #getPixmapArray()}; values written to them are not displayed.
  *
  * @author christian, tobi
  * @see ChipRendererDisplayMethod
@@ -121,6 +132,26 @@ public class AEFrameChipRenderer extends AEChipRenderer {
     protected boolean computeHistograms = false;
     private boolean displayAnnotation = false;
 
+    private boolean packedTexturesEnabled = prefs.getBoolean("AEFrameChipRenderer.packedTexturesEnabled", false);
+    private boolean packedTexturesActive = false;
+    private boolean packedMapsExpanded = true; // float maps hold what is in the packed maps
+    /**
+     * Packed ON and OFF event counts, two bytes per pixel, saturating at 255,
+     * and the direct buffer they are copied to for the texture upload
+     */
+    protected byte[] dvsCounts;
+    private ByteBuffer dvsCountMap;
+    /**
+     * Packed frame of APS samples in a direct buffer, one short per pixel; 0
+     * for pixels that were not read, otherwise the sample+1
+     */
+    protected ShortBuffer apsFrame;
+    /**
+     * Packed frame being read out and the reset reads of its pixels
+     */
+    protected short[] apsBuffer, apsReset;
+    private int apsFrameNumber = 0;
+
     /**
      * downsampling of DVS to speed up rendering at high frame rate
      */
@@ -205,6 +236,11 @@ public class AEFrameChipRenderer extends AEChipRenderer {
     protected void resetMaps() {
         setColors();
         checkPixmapAllocation();
+        if (packedTexturesActive) {
+            Arrays.fill(dvsCounts, (byte) 0);
+            packedMapsExpanded = false;
+            return;
+        }
         final int n = 4 * textureWidth * textureHeight;
         if ((grayBuffer == null) || (grayBuffer.capacity() != n)) {
             grayBuffer = FloatBuffer.allocate(n); // BufferUtil.newFloatBuffer(n);
@@ -313,6 +349,20 @@ public class AEFrameChipRenderer extends AEChipRenderer {
 //        adaptDvsDownsampling();
 
         numEventTypes = pkt.getNumCellTypes();
+        final boolean packed = isPackedTexturesUsable();
+        if (packed != packedTexturesActive) {
+            if (packed) {
+                packedTexturesActive = true;
+                checkPixmapAllocation();
+                Arrays.fill(dvsCounts, (byte) 0);
+                Arrays.fill(apsBuffer, (short) 0);
+                apsFrame.duplicate().put(apsBuffer);
+                apsFrameNumber++;
+            } else {
+                expandPackedMaps(); // keep what was accumulated in the packed maps
+                packedTexturesActive = false;
+            }
+        }
 
         if (pkt instanceof ApsDvsEventPacket) {
             renderApsDvsEvents(pkt);
@@ -431,6 +481,10 @@ public class AEFrameChipRenderer extends AEChipRenderer {
     private final Random random = new Random();
 
     protected void updateFrameBuffer(final ApsDvsEvent e) {
+        if (packedTexturesActive) {
+            updatePackedFrameBuffer(e);
+            return;
+        }
         final float[] buf = pixBuffer.array();
         // TODO if playing backwards, then frame will come out white because B sample comes before A
 
@@ -455,29 +509,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
             if (val < 0) {
                 val = 0;
             }
-            if ((val >= 0) && (val < minValue)) {
-                minValue = val;
-            } else if (val > maxValue) {
-                maxValue = val;
-            }
-
-            // right here sample-reset value of this pixel is in val
-            if (computeHistograms) {
-                if (!((DavisChip) chip).getAutoExposureController().isCenterWeighted()) {
-                    nextHist.add(val);
-                } else {
-                    // randomly add histogram values to histogram depending on distance from center of image
-                    // to implement a simple form of center weighting of the histogram
-                    float d = (1 - Math.abs(((float) e.x - (sizeX / 2)) / sizeX)) + Math.abs(((float) e.y - (sizeY / 2)) / sizeY);
-                    // d is zero at center, 1 at corners
-                    d *= d;
-
-                    final float r = random.nextFloat();
-                    if (r > d) {
-                        nextHist.add(val);
-                    }
-                }
-            }
+            addFrameSample(e, val);
 
             final float fval = normalizeFramePixel(val);
             buf[index] = fval;
@@ -485,30 +517,105 @@ public class AEFrameChipRenderer extends AEChipRenderer {
             buf[index + 2] = fval;
             buf[index + 3] = 1;
         } else if (e.isEndOfFrame()) {
-            endFrame(e.timestamp);
+            finishFrame(e.timestamp);
+        }
+    }
+
+    /**
+     * Packed texture version of updateFrameBuffer: stores the reset and
+     * signal reads as 16 bit samples
+     */
+    private void updatePackedFrameBuffer(final ApsDvsEvent e) {
+        if (e.isStartOfFrame()) {
+            startFrame(e.timestamp);
+        } else if (e.isResetRead()) {
+            final int index = getIndex(e);
+            if (index < 0) {
+                return;
+            }
+            apsReset[index >> 2] = (short) e.getAdcSample();
+        } else if (e.isSignalRead()) {
+            final int index = getIndex(e);
+            if (index < 0) {
+                return;
+            }
+            final int p = index >> 2;
+            int val = (apsReset[p] & 0xffff) - e.getAdcSample();
+            if (val < 0) {
+                val = 0;
+            }
+            addFrameSample(e, val);
+            apsBuffer[p] = (short) Math.min(val + 1, 0xffff);
+        } else if (e.isEndOfFrame()) {
+            finishFrame(e.timestamp);
+        }
+    }
+
+    /**
+     * Updates the min and max values and the histogram with the sample-reset
+     * value of a pixel
+     */
+    private void addFrameSample(final ApsDvsEvent e, final int val) {
+        if ((val >= 0) && (val < minValue)) {
+            minValue = val;
+        } else if (val > maxValue) {
+            maxValue = val;
+        }
 
-            final SimpleHistogram tmp = currentHist;
-            if (computeHistograms) {
-                currentHist = nextHist;
-                nextHist = tmp;
-                nextHist.reset();
+        // right here sample-reset value of this pixel is in val
+        if (computeHistograms) {
+            if (!((DavisChip) chip).getAutoExposureController().isCenterWeighted()) {
+                nextHist.add(val);
+            } else {
+                // randomly add histogram values to histogram depending on distance from center of image
+                // to implement a simple form of center weighting of the histogram
+                float d = (1 - Math.abs(((float) e.x - (sizeX / 2)) / sizeX)) + Math.abs(((float) e.y - (sizeY / 2)) / sizeY);
+                // d is zero at center, 1 at corners
+                d *= d;
+
+                final float r = random.nextFloat();
+                if (r > d) {
+                    nextHist.add(val);
+                }
             }
+        }
+    }
+
+    private void finishFrame(final int ts) {
+        endFrame(ts);
 
-            ((DavisChip) chip).controlExposure();
+        final SimpleHistogram tmp = currentHist;
+        if (computeHistograms) {
+            currentHist = nextHist;
+            nextHist = tmp;
+            nextHist.reset();
         }
+
+        ((DavisChip) chip).controlExposure();
     }
 
     protected void startFrame(final int ts) {
         timestampFrameStart = ts;
         maxValue = Float.MIN_VALUE;
         minValue = Float.MAX_VALUE;
+        if (packedTexturesActive) {
+            Arrays.fill(apsBuffer, (short) 0);
+            packedMapsExpanded = false;
+            return;
+        }
         System.arraycopy(grayBuffer.array(), 0, pixBuffer.array(), 0, pixBuffer.array().length);
 
     }
 
     protected void endFrame(final int ts) {
         timestampFrameEnd = ts;
-        System.arraycopy(pixBuffer.array(), 0, pixmap.array(), 0, pixBuffer.array().length);
+        if (packedTexturesActive) {
+            apsFrame.duplicate().put(apsBuffer); // the position of apsFrame stays 0 for the display thread
+            apsFrameNumber++;
+            packedMapsExpanded = false;
+        } else {
+            System.arraycopy(pixBuffer.array(), 0, pixmap.array(), 0, pixBuffer.array().length);
+        }
 
         if ((contrastController != null) && (minValue != Float.MAX_VALUE) && (maxValue != Float.MIN_VALUE)) {
             contrastController.endFrame(minValue, maxValue, timestampFrameEnd);
@@ -527,6 +634,19 @@ public class AEFrameChipRenderer extends AEChipRenderer {
 //            return;
 //        }
         dvsDownsamplingCount = 0;
+        if (packedTexturesActive) {
+            final int index = getIndex(e);
+            if (index < 0) {
+                return;
+            }
+            final int k = (index >> 1) + (e.polarity == Polarity.On ? 0 : 1); // 2 bytes per pixel
+            final byte[] counts = dvsCounts;
+            if (counts[k] != (byte) 0xff) {
+                counts[k]++;
+            }
+            packedMapsExpanded = false;
+            return;
+        }
         float[] map;
         if (packet.getNumCellTypes() > 2) {
             map = onMap.array();
@@ -665,6 +785,22 @@ public class AEFrameChipRenderer extends AEChipRenderer {
             offMap = FloatBuffer.allocate(n);
             annotateMap = FloatBuffer.allocate(n);
         }
+        final int np = textureWidth * textureHeight;
+        if (packedTexturesActive && ((dvsCountMap == null) || (dvsCountMap.capacity() < (2 * np)) || (apsFrame.capacity() < np))) {
+            allocatePackedMaps(np);
+        }
+    }
+
+    /**
+     * Events and samples are accumulated in arrays, which are copied in one
+     * block to the direct buffers that are uploaded as textures.
+     */
+    private void allocatePackedMaps(final int np) {
+        dvsCounts = new byte[2 * np];
+        dvsCountMap = ByteBuffer.allocateDirect(2 * np);
+        apsFrame = ByteBuffer.allocateDirect(2 * np).order(ByteOrder.nativeOrder()).asShortBuffer();
+        apsBuffer = new short[np];
+        apsReset = new short[np];
     }
 
     /**
@@ -709,6 +845,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      * @see #getPixMapIndex(int, int)
      */
     protected FloatBuffer getOnMap() {
+        expandPackedMaps();
         onMap.rewind();
         checkPixmapAllocation();
         return onMap;
@@ -721,6 +858,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      * @see #getPixMapIndex(int, int)
      */
     protected FloatBuffer getOffMap() {
+        expandPackedMaps();
         offMap.rewind();
         checkPixmapAllocation();
         return offMap;
@@ -763,6 +901,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      * @return
      */
     public float[] getDvsRenderedValuesAtPixel(final int x, final int y) {
+        expandPackedMaps();
         final int k = getPixMapIndex(x, y);
         final float[] f = new float[3];
         f[0] = onMap.get(k + 3);
@@ -781,6 +920,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      * @return
      */
     public float getApsGrayValueAtPixel(final int x, final int y) {
+        expandPackedMaps();
         final int k = getPixMapIndex(x, y);
         final float[] pm = pixmap.array();
         return (pm[k] + pm[k + 1] + pm[k + 2]) / 3;
@@ -794,6 +934,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      * @param g gray value in range 0-1
      */
     public void setApsGrayValueAtPixel(final int x, final int y, final float g) {
+        expandPackedMaps();
         final int k = getPixMapIndex(x, y);
         final float[] pm = pixmap.array();
         pm[k] = g;
@@ -806,9 +947,153 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      * order
      */
     protected FloatBuffer getPixBuffer() {
+        expandPackedMaps();
         return pixBuffer;
     }
 
+    /**
+     * Overridden to compute the pixmap from the packed maps if packed textures
+     * are used.
+     */
+    @Override
+    public FloatBuffer getPixmap() {
+        expandPackedMaps();
+        return super.getPixmap();
+    }
+
+    /**
+     * Overridden to compute the pixmap from the packed maps if packed textures
+     * are used.
+     */
+    @Override
+    public float[] getPixmapArray() {
+        expandPackedMaps();
+        return super.getPixmapArray();
+    }
+
+    /**
+     * Computes the float RGBA pixmaps of the frame and the ON and OFF events
+     * from the packed maps, if they have changed since the last call.
+     */
+    protected synchronized void expandPackedMaps() {
+        if (!packedTexturesActive || packedMapsExpanded) {
+            return;
+        }
+        packedMapsExpanded = true;
+        checkPixmapAllocation();
+        final float[] on = onMap.array(), off = offMap.array(), pm = pixmap.array(), pb = pixBuffer.array();
+        final float[] offRgb = ignorePolarityEnabled ? onColor : offColor; // as in updateEventMaps
+        final boolean frames = isDisplayFrames();
+        final int np = textureWidth * textureHeight;
+        for (int p = 0, i = 0; p < np; p++, i += 4) {
+            expandEventPixel(on, i, onColor, dvsCounts[2 * p]);
+            expandEventPixel(off, i, offRgb, dvsCounts[(2 * p) + 1]);
+            if (frames) {
+                expandFramePixel(pm, i, apsFrame.get(p));
+                expandFramePixel(pb, i, apsBuffer[p]);
+            }
+        }
+    }
+
+    private void expandEventPixel(final float[] map, final int i, final float[] color, final byte count) {
+        if (count == 0) {
+            map[i] = 0;
+            map[i + 1] = 0;
+            map[i + 2] = 0;
+            map[i + 3] = 0;
+        } else {
+            map[i] = color[0];
+            map[i + 1] = color[1];
+            map[i + 2] = color[2];
+            map[i + 3] = normalizeEvent((float) (count & 0xff) / colorScale);
+        }
+    }
+
+    private void expandFramePixel(final float[] map, final int i, final short sample) {
+        final int v = sample & 0xffff;
+        final float g = v == 0 ? 0 : normalizeFramePixel(v - 1);
+        map[i] = g;
+        map[i + 1] = g;
+        map[i + 2] = g;
+        map[i + 3] = 1;
+    }
+
+    /**
+     * Returns whether packed textures can be used for the packet that is
+     * rendered: they are enabled, the renderer is not a subclass (subclasses
+     * render to the float maps), there are only ON and OFF events, and the
+     * color mode is one the shader implements.
+     */
+    private boolean isPackedTexturesUsable() {
+        return packedTexturesEnabled && (getClass() == AEFrameChipRenderer.class) && (numEventTypes <= 2)
+                && ((colorMode == ColorMode.GrayLevel) || (colorMode == ColorMode.Contrast) || (colorMode == ColorMode.RedGreen));
+    }
+
+    /**
+     * @return true if the last packet was rendered to the packed maps; the
+     * display method must then use {@link #getPackedFrame()} and
+     * {@link #getPackedEventCounts()} or the float maps, which are computed
+     * from the packed maps on request
+     */
+    public boolean isPackedTexturesActive() {
+        return packedTexturesActive;
+    }
+
+    /**
+     * @return true if rendering to packed maps is enabled
+     * @see #setPackedTexturesEnabled(boolean)
+     */
+    public boolean isPackedTexturesEnabled() {
+        return packedTexturesEnabled;
+    }
+
+    /**
+     * Enables rendering to packed maps of 16 bit APS samples and 8 bit event
+     * counts, which are displayed by a fragment shader. The packed maps are
+     * used from the next packet on, if the color mode is GrayLevel, Contrast
+     * or RedGreen and the events have at most 2 types.
+     *
+     * @param packedTexturesEnabled true to enable
+     */
+    public void setPackedTexturesEnabled(final boolean packedTexturesEnabled) {
+        this.packedTexturesEnabled = packedTexturesEnabled;
+        prefs.putBoolean("AEFrameChipRenderer.packedTexturesEnabled", packedTexturesEnabled);
+    }
+
+    /**
+     * Returns the packed ON and OFF event counts for upload as a two channel
+     * texture of getWidth x getHeight pixels, e.g. GL_LUMINANCE_ALPHA.
+     *
+     * @return a direct buffer holding the ON count and then the OFF count of
+     * each pixel, saturating at 255
+     */
+    public ByteBuffer getPackedEventCounts() {
+        dvsCountMap.clear();
+        dvsCountMap.put(dvsCounts, 0, Math.min(dvsCounts.length, dvsCountMap.capacity()));
+        dvsCountMap.flip();
+        return dvsCountMap;
+    }
+
+    /**
+     * Returns the last complete frame of packed APS samples for upload as a
+     * 16 bit texture of getWidth x getHeight pixels.
+     *
+     * @return a direct buffer of unsigned shorts; 0 for pixels that were not
+     * read, otherwise the sample (reset minus signal read) + 1
+     * @see #getPackedFrameNumber()
+     */
+    public ShortBuffer getPackedFrame() {
+        return apsFrame.duplicate();
+    }
+
+    /**
+     * @return a number that changes each time the packed frame changes, to
+     * upload it only when it changed
+     */
+    public int getPackedFrameNumber() {
+        return apsFrameNumber;
+    }
+
     /**
      * sets a specific value of the pixmap
      *
@@ -49,6 +49,10 @@ public class AEPlayer extends AbstractAEPlayer implements AEFileInputStreamInter
 
     boolean fileInputEnabled = false;
     JFileChooser fileChooser;
+    private volatile PlaybackPacketCache packetCache = null;
+    private boolean packetCacheEnabled = AEViewer.prefs.getBoolean("AEPlayer.packetCacheEnabled", true);
+    private int packetCacheSizeEvents = AEViewer.prefs.getInt("AEPlayer.packetCacheSizeEvents", 1 << 22);
+    private static final int READ_AHEAD_PACKETS = 16;
 
     /**
      * Make a new AEPlayer
@@ -269,12 +273,16 @@ public class AEPlayer extends AbstractAEPlayer implements AEFileInputStreamInter
             throw new IOException("chip is not set in AEViewer so we cannot contruct the file input stream for it");
         }
         aeFileInputStream = viewer.getChip().constuctFileInputStream(file); // new AEFileInputStream(file);
+        if (viewer.filterChain != null) {
+            viewer.filterChain.clearCheckpoints(); // they were taken from another file
+        }
         aeFileInputStream.setRepeat(isRepeat());
         aeFileInputStream.setNonMonotonicTimeExceptionsChecked(viewer.getCheckNonMonotonicTimeExceptionsEnabledCheckBoxMenuItem().isSelected());
         aeFileInputStream.setTimestampResetBitmask(viewer.getAeFileInputStreamTimestampResetBitmask());
         aeFileInputStream.setFile(file);
         aeFileInputStream.setRepeat(isRepeat());
         aeFileInputStream.getSupport().addPropertyChangeListener(viewer);
+        openPacketCache();
         // so that users of the stream can get the file information
         if ((viewer.getJaerViewer() != null) && (viewer.getJaerViewer().getViewers().size() == 1)) {
             // if there is only one viewer, start it there
@@ -343,6 +351,7 @@ public class AEPlayer extends AbstractAEPlayer implements AEFileInputStreamInter
             viewer.setPlayMode(AEViewer.PlayMode.WAITING);
         }
         viewer.setPlaybackControlsEnabledState(false);
+        closePacketCache();
         try {
             if (aeFileInputStream != null) {
                 aeFileInputStream.close();
@@ -362,7 +371,7 @@ public class AEPlayer extends AbstractAEPlayer implements AEFileInputStreamInter
 //            System.out.println(Thread.currentThread()+" AEViewer.AEPlayer.rewind() called, rewinding "+aeFileInputStream);
         try {
             aeFileInputStream.rewind();
-            viewer.filterChain.reset();
+            restoreFilterState();
         } catch (Exception e) {
             log.warning("rewind exception: " + e.getMessage());
             e.printStackTrace();
@@ -410,7 +419,15 @@ public class AEPlayer extends AbstractAEPlayer implements AEFileInputStreamInter
         }
         AEPacketRaw aeRaw = null;
         try {
-            if (!viewer.aePlayer.isFlexTimeEnabled()) {
+            PlaybackPacketCache cache = packetCache;
+            if ((cache != null) && (viewer.getAePlayer() == this) && !isRealtimeEnabled()) {
+                // realtime playback changes the time slice on every frame, so its packets are never read again
+                if (!isFlexTimeEnabled()) {
+                    aeRaw = cache.readPacket(false, getTimesliceUs());
+                } else {
+                    aeRaw = cache.readPacket(true, getPacketSizeEvents());
+                }
+            } else if (!viewer.aePlayer.isFlexTimeEnabled()) {
                 aeRaw = aeFileInputStream.readPacketByTime(viewer.getAePlayer().getTimesliceUs());
             } else {
                 aeRaw = aeFileInputStream.readPacketByNumber(viewer.getAePlayer().getPacketSizeEvents());
@@ -439,6 +456,76 @@ public class AEPlayer extends AbstractAEPlayer implements AEFileInputStreamInter
         }
     }
 
+    /**
+     * Opens the read-ahead and replay cache for the file just opened, if it is
+     * enabled. jAER 3.x files and files with timestamp reset events are played
+     * without cache because their parsing state is not captured by the stream
+     * position and timestamps.
+     */
+    private void openPacketCache() {
+        closePacketCache();
+        if (!packetCacheEnabled || (aeFileInputStream == null) || (aeFileInputStream.getClass() != AEFileInputStream.class)
+                || aeFileInputStream.isJaer3Enabled() || (aeFileInputStream.getTimestampResetBitmask() != 0)) {
+            return;
+        }
+        try {
+            packetCache = new PlaybackPacketCache(viewer.getChip(), aeFileInputStream, packetCacheSizeEvents, READ_AHEAD_PACKETS);
+        } catch (IOException e) {
+            log.warning("could not open packet cache, playing without it: " + e);
+        }
+    }
+
+    private void closePacketCache() {
+        if (packetCache != null) {
+            packetCache.close();
+            packetCache = null;
+        }
+    }
+
+    /**
+     * Returns true if packets are read ahead in a separate thread and played
+     * packets are cached for replay.
+     *
+     * @return true if the packet cache is enabled
+     */
+    public boolean isPacketCacheEnabled() {
+        return packetCacheEnabled;
+    }
+
+    /**
+     * Enables or disables the read-ahead and replay cache of packets. Takes
+     * effect on the next file that is opened.
+     *
+     * @param packetCacheEnabled true to enable
+     */
+    public void setPacketCacheEnabled(boolean packetCacheEnabled) {
+        this.packetCacheEnabled = packetCacheEnabled;
+        AEViewer.prefs.putBoolean("AEPlayer.packetCacheEnabled", packetCacheEnabled);
+        if (!packetCacheEnabled) {
+            closePacketCache();
+        }
+    }
+
+    /**
+     * @return the maximum total number of events of the played packets that
+     * are kept for replay
+     */
+    public int getPacketCacheSizeEvents() {
+        return packetCacheSizeEvents;
+    }
+
+    /**
+     * Sets the maximum total number of events of the played packets that are
+     * kept for replay. Each cached event takes about 16 bytes. Takes effect on
+     * the next file that is opened.
+     *
+     * @param packetCacheSizeEvents the number of events
+     */
+    public void setPacketCacheSizeEvents(int packetCacheSizeEvents) {
+        this.packetCacheSizeEvents = packetCacheSizeEvents;
+        AEViewer.prefs.putInt("AEPlayer.packetCacheSizeEvents", packetCacheSizeEvents);
+    }
+
     /**
      * Tries to adjust timeslice to approach realtime playback.
      *
@@ -552,6 +639,21 @@ public class AEPlayer extends AbstractAEPlayer implements AEFileInputStreamInter
 			return;
 		}
         aeFileInputStream.setFractionalPosition(frac);
+        if ((viewer.filterChain != null) && viewer.filterChain.isCheckpointingEnabled()) {
+            restoreFilterState();
+        }
+    }
+
+    /**
+     * Restores the state the filters had near the current position from the
+     * checkpoints of the FilterChain, or resets them if there are none.
+     */
+    private void restoreFilterState() {
+        if (viewer.filterChain.isCheckpointingEnabled()) {
+            viewer.filterChain.restoreCheckpoint(aeFileInputStream.getMostRecentTimestamp());
+        } else {
+            viewer.filterChain.reset();
+        }
     }
 
     @Override
@@ -110,6 +110,7 @@ import net.sf.jaer.chip.AEChip;
 import net.sf.jaer.chip.Calibratible;
 import net.sf.jaer.chip.EventExtractor2D;
 import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.event.OutputEventIterator;
 import net.sf.jaer.eventio.AEDataFile;
 import net.sf.jaer.eventio.AEFileInputStream;
 import net.sf.jaer.eventio.AEFileOutputStream;
@@ -627,6 +628,8 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
     private File loggingFile;
     AEFileOutputStream loggingOutputStream;
     private boolean activeRenderingEnabled = prefs.getBoolean("AEViewer.activeRenderingEnabled", true);
+    private volatile boolean decoupledRenderingEnabled = prefs.getBoolean("AEViewer.decoupledRenderingEnabled", true);
+    private JCheckBoxMenuItem decoupledRenderingCheckBoxMenuItem;
     private boolean renderBlankFramesEnabled = prefs.getBoolean("AEViewer.renderBlankFramesEnabled", false);
     // number of packets to skip over rendering, used to speed up real time processing
     private int skipPacketsRenderingNumberMax = prefs.getInt("AEViewer.skipPacketsRenderingNumber", 0), skipPacketsRenderingNumberCurrent = 0;
@@ -886,6 +889,15 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
 
         // init menu items that are checkboxes to correct initial state
         viewActiveRenderingEnabledMenuItem.setSelected(isActiveRenderingEnabled());
+        decoupledRenderingCheckBoxMenuItem = new JCheckBoxMenuItem("Render on separate thread", isDecoupledRenderingEnabled());
+        decoupledRenderingCheckBoxMenuItem.setToolTipText("<html>If enabled, a copy of each processed packet is rendered and painted by its own thread,<br>so that slow OpenGL rendering does not slow down acquisition and processing.<br>Packets processed while a frame is still being painted are not painted (see <i>drop</i> in the statistics).");
+        decoupledRenderingCheckBoxMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                setDecoupledRenderingEnabled(decoupledRenderingCheckBoxMenuItem.isSelected());
+            }
+        });
+        graphicsSubMenu.insert(decoupledRenderingCheckBoxMenuItem, graphicsSubMenu.getPopupMenu().getComponentIndex(viewActiveRenderingEnabledMenuItem) + 1);
         loggingPlaybackImmediatelyCheckBoxMenuItem.setSelected(isLoggingPlaybackImmediatelyEnabled());
         if(getRenderer()==null){
             throw new NullPointerException("getRenderer() returns null for this AEChip "+chip);
@@ -1815,10 +1827,129 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
     public AEPlayer aePlayer = new AEPlayer(this);
     int noEventCounter = 0;
 
+    /**
+     * Render stage used when rendering is decoupled from processing (see
+     * {@link #setDecoupledRenderingEnabled(boolean)}). ViewLoop copies each
+     * processed packet into a packet of its own and hands it over; this thread
+     * renders the latest packet handed over to the chip renderer and paints
+     * the canvas. The packets are triple buffered: ViewLoop fills one, one
+     * waits to be painted and this thread renders and paints the third, and
+     * the handoff only swaps references, so ViewLoop never waits for rendering
+     * or painting. A packet handed over before the waiting one was taken
+     * replaces it and is counted as dropped.
+     * <p>
+     * While this thread runs, only it renders to the renderer, so the renderer
+     * maps are not changed while they are painted, and the display methods get
+     * the packet of this thread from {@link net.sf.jaer.chip.Chip#getLastData()}. The filters
+     * annotate the frame from this thread while ViewLoop filters the next
+     * packet, just as they annotate from the Swing thread with passive
+     * rendering; filters whose annotations read state that filterPacket
+     * changes synchronize the two methods.
+     */
+    class RenderLoop extends Thread {
+
+        private final Object lock = new Object();
+        private EventPacket<?> backPacket = null; // filled by ViewLoop
+        private EventPacket<?> readyPacket = null; // waiting to be painted, swapped under lock
+        private EventPacket<?> frontPacket = null; // rendered and painted by this thread
+        private boolean frameReady = false;
+        private volatile boolean stop = false;
+        private volatile long handedOffCount = 0, paintedFrameCount = 0, droppedFrameCount = 0;
+        private final ViewLoop owner;
+
+        /**
+         * @param owner the ViewLoop that hands over the packets and whose
+         * rendering and painting methods are used
+         */
+        public RenderLoop(ViewLoop owner) {
+            super();
+            this.owner = owner;
+            setName("AEViewer.RenderLoop");
+            setDaemon(true);
+        }
+
+        /**
+         * Copies the packet and hands the copy over to be rendered and
+         * painted. Called by ViewLoop; never waits for painting.
+         *
+         * @param packet the processed packet, which ViewLoop may reuse as soon
+         * as this method returns
+         */
+        void handOff(EventPacket<?> packet) {
+            EventPacket<?> copy = backPacket;
+            if ((copy == null) || (copy.getClass() != packet.getClass()) || (copy.getEventClass() != packet.getEventClass())) {
+                copy = packet.constructNewPacket();
+            }
+            OutputEventIterator<?> outItr = copy.outputIterator();
+            final int n = packet.getSize();
+            for (int i = 0; i < n; i++) {
+                outItr.nextOutput().copyFrom(packet.getEvent(i));
+            }
+            synchronized (lock) {
+                backPacket = readyPacket;
+                readyPacket = copy;
+                if (frameReady) {
+                    droppedFrameCount++;
+                }
+                frameReady = true;
+                handedOffCount++;
+                lock.notifyAll();
+            }
+        }
+
+        public void stopThread() {
+            synchronized (lock) {
+                stop = true;
+                lock.notifyAll();
+            }
+        }
+
+        long getDroppedFrameCount() {
+            return droppedFrameCount;
+        }
+
+        long getPaintedFrameCount() {
+            return paintedFrameCount;
+        }
+
+        @Override
+        public void run() {
+            while (!stop) {
+                synchronized (lock) {
+                    while (!frameReady && !stop) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            // check stop flag
+                        }
+                    }
+                    if (stop) {
+                        break;
+                    }
+                    EventPacket<?> painted = frontPacket;
+                    frontPacket = readyPacket;
+                    readyPacket = painted;
+                    frameReady = false;
+                }
+                try {
+                    chip.setLastData(frontPacket); // read by display methods while painting
+                    if (owner.renderToRenderer(frontPacket)) {
+                        owner.paintCanvas();
+                        paintedFrameCount++;
+                    }
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "RenderLoop caught exception while rendering", e);
+                }
+            }
+            log.info("AEViewer.RenderLoop ending after painting " + paintedFrameCount + " of " + handedOffCount + " packets, " + droppedFrameCount + " dropped");
+        }
+    }
+
     /**
      * This thread is the main animation loop that acquires events and renders
      * them to the canvas for active rendering. The other components render
-     * themselves on the usual Swing rendering thread.
+     * themselves on the usual Swing rendering thread. If rendering is
+     * decoupled, the canvas is painted by a {@link RenderLoop} instead.
      */
     class ViewLoop extends Thread {
 
@@ -1835,20 +1966,39 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
         }
 
         private void renderPacket(EventPacket ae) {
+            if (renderToRenderer(ae)) {
+                paintCanvas();
+            }
+        } // renderEvents
+
+        /**
+         * Renders the packet to the chip renderer, i.e. updates the image that
+         * is painted on the canvas.
+         *
+         * @return true if the canvas should be painted
+         */
+        private boolean renderToRenderer(EventPacket<?> ae) {
             if (aePlayer.isChoosingFile() || (ae == null) || (!isRenderBlankFramesEnabled() && (ae.getSize() == 0))) {
-                return;
+                return false;
             } // don't render while filechooser is active
 //            boolean subsamplingEnabled = getRenderer().isSubsamplingEnabled();
             //            if (isPaused()) {
             //                getRenderer().setSubsamplingEnabled(false);
             //            } // not needed and always overwrites the preference value
             if (!(getRenderer().isAccumulateEnabled() && isPaused())) {
-                getRenderer().render(packet);
+                getRenderer().render(ae);
             }
             //            if (isPaused()) {
             //                getRenderer().setSubsamplingEnabled(subsamplingEnabled);
             //            }
-            //            if(renderImageEnabled) {
+            return true;
+        }
+
+        /**
+         * Paints the canvas with the current state of the renderer and the
+         * annotations of the filters.
+         */
+        private void paintCanvas() {
             if (isActiveRenderingEnabled()) {
                 chipCanvas.paintFrame(); // actively paint frame now, either with OpenGL or Java2D, depending on switch
             } else {
@@ -1856,8 +2006,48 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
                 chipCanvas.repaint();
                 //                chipCanvas.repaint(1000 / frameRater.getDesiredFPS()); // ask for repaint within frame time
             }
+        }
 
-        } // renderEvents
+        private RenderLoop renderLoop = null;
+
+        /**
+         * Hands a copy of the processed packet over to the RenderLoop, which
+         * renders and paints it on its own thread, starting it if necessary.
+         */
+        private void handOffToRenderLoop(EventPacket<?> ae) {
+            if (renderLoop == null) {
+                renderLoop = new RenderLoop(this);
+                renderLoop.start();
+            }
+            renderLoop.handOff(ae);
+        }
+
+        /**
+         * Stops the RenderLoop and waits until it has finished painting, so
+         * that only ViewLoop renders and paints after rendering is coupled
+         * again.
+         */
+        private void stopRenderLoop() {
+            if (renderLoop == null) {
+                return;
+            }
+            renderLoop.stopThread();
+            try {
+                renderLoop.join();
+            } catch (InterruptedException e) {
+                interrupt(); // ViewLoop checks isInterrupted
+            }
+            renderLoop = null;
+        }
+
+        /**
+         * @return the number of processed packets that were not painted
+         * because the RenderLoop was still busy painting an earlier one
+         */
+        long getDroppedFrameCount() {
+            RenderLoop r = renderLoop;
+            return (r == null) ? 0 : r.getDroppedFrameCount();
+        }
 
         private EventPacket extractPacket(AEPacketRaw aeRaw) {
             boolean subsamplingEnabled = getRenderer().isSubsamplingEnabled();
@@ -1884,6 +2074,9 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
          */
         public void stopThread() {
             stop = true;
+            if (renderLoop != null) {
+                renderLoop.stopThread();
+            }
         }
 
         /**
@@ -1950,7 +2143,9 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
                         }
                     }
 
-                    chip.setLastData(packet);// set the rendered data for use by various methods
+                    if (!isDecoupledRenderingEnabled() || globalized) {
+                        chip.setLastData(packet);// set the rendered data for use by various methods; the RenderLoop sets its own copy
+                    }
 
                     // if we are logging data to disk do it here
                     if (loggingEnabled) {
@@ -1979,12 +2174,24 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
 
                 } // if (!isPaused() || isSingleStep())
 
-                adaptRenderSkipping(); // try to keep up with desired frame rate
+                // when rendering is decoupled, the RenderLoop renders and paints the latest processed packet at its own pace
+                // and this loop never waits for OpenGL, so there is nothing to skip
+                final boolean decoupled = isDecoupledRenderingEnabled() && !globalized;
+                if (decoupled) {
+                    skipPacketsRenderingNumberCurrent = 0;
+                } else {
+                    stopRenderLoop(); // in case decoupled rendering was just switched off
+                    adaptRenderSkipping(); // try to keep up with desired frame rate
+                }
 
-                if ((packet != null) && (skipPacketsRenderingCount-- <= 0)) {
+                if ((packet != null) && (decoupled || (skipPacketsRenderingCount-- <= 0))) {
                     // we only got new events if we were NOT paused. but now we can apply filters, different rendering methods, etc in 'paused' condition
                     try {
-                        renderPacket(packet);
+                        if (!decoupled) {
+                            renderPacket(packet);
+                        } else {
+                            handOffToRenderLoop(packet);
+                        }
                     } catch (RuntimeException e) {
                         String cause = " unknown cause";
                         if (e.getCause() != null) {
@@ -2028,6 +2235,9 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
 
             // Loop Cleanup
             log.info("AEViewer.run() ending: stop=" + stop + " isInterrupted=" + isInterrupted());
+            if (renderLoop != null) {
+                renderLoop.stopThread();
+            }
             if (aemon != null) {
                 aemon.close();
             }
@@ -2606,11 +2816,20 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
 
                 FrameRater fr = getFrameRater();
 
-                String frameRateString = String.format("%3.0f/%dfps,%2dms skip %d ",
-                        fr.getAverageFPS(),
-                        fr.getDesiredFPS(),
-                        fr.getLastDelayMs(),
-                        skipPacketsRenderingNumberCurrent);
+                String frameRateString;
+                if (isDecoupledRenderingEnabled() && !globalized) {
+                    frameRateString = String.format("%3.0f/%dfps,%2dms drop %d ",
+                            fr.getAverageFPS(),
+                            fr.getDesiredFPS(),
+                            fr.getLastDelayMs(),
+                            viewLoop.getDroppedFrameCount());
+                } else {
+                    frameRateString = String.format("%3.0f/%dfps,%2dms skip %d ",
+                            fr.getAverageFPS(),
+                            fr.getDesiredFPS(),
+                            fr.getLastDelayMs(),
+                            skipPacketsRenderingNumberCurrent);
+                }
 
                 String colorScaleString = (getRenderer().isAutoscaleEnabled() ? "AS=" : "FS=") + Integer.toString(cs);
 
@@ -5805,6 +6024,33 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
         prefs.putBoolean("AEViewer.activeRenderingEnabled", activeRenderingEnabled);
     }
 
+    /**
+     * @return true if the canvas is painted by a separate render thread
+     */
+    public boolean isDecoupledRenderingEnabled() {
+        return decoupledRenderingEnabled;
+    }
+
+    /**
+     * Sets whether the canvas is painted by a separate render thread. If
+     * enabled (the default), the ViewLoop hands a copy of each processed
+     * packet to a {@link RenderLoop}, which renders and paints it, so
+     * acquisition and processing never wait for OpenGL and the throughput of
+     * the filters does not depend on the display frame rate; packets that are
+     * processed while an earlier one is still being painted are not painted
+     * and are counted as dropped. If disabled, each packet is rendered and
+     * painted by the ViewLoop itself, with adaptive render skipping.
+     *
+     * @param decoupledRenderingEnabled true to paint on a separate thread
+     */
+    public void setDecoupledRenderingEnabled(boolean decoupledRenderingEnabled) {
+        this.decoupledRenderingEnabled = decoupledRenderingEnabled;
+        prefs.putBoolean("AEViewer.decoupledRenderingEnabled", decoupledRenderingEnabled);
+        if (decoupledRenderingCheckBoxMenuItem != null) {
+            decoupledRenderingCheckBoxMenuItem.setSelected(decoupledRenderingEnabled);
+        }
+    }
+
     private void buildEvalFrame() {
         if (evalFrame == null) {
             setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
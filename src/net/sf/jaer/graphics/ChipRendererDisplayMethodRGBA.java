@@ -40,6 +40,7 @@ public class ChipRendererDisplayMethodRGBA extends DisplayMethod implements Disp
 	public final float SPECIAL_BAR_LOCATION_Y = 0;
 	public final float SPECIAL_BAR_LINE_WIDTH = 8;
 	private boolean renderSpecialEvents = true;
+	private final PackedTextureShader packedTextureShader = new PackedTextureShader();
 
 	/**
 	 * Creates a new instance of ChipRendererDisplayMethodRGBA
@@ -72,18 +73,20 @@ public class ChipRendererDisplayMethodRGBA extends DisplayMethod implements Disp
 
 	private void displayQuad(final GLAutoDrawable drawable) {
 		final Chip2DRenderer renderer = getChipCanvas().getRenderer();
-		final FloatBuffer pixmap = renderer.getPixmap();
+		FloatBuffer pixmap = null;
 		FloatBuffer onMap = null;
 		FloatBuffer offMap = null;
 		FloatBuffer annotateMap = null;
 		boolean displayEvents = false;
 		boolean displayFrames = true;
 		boolean displayAnnotation = false;
+		AEFrameChipRenderer packedRenderer = null; // set if frames and events are drawn from packed textures
 
 		if (renderer instanceof AEFrameChipRenderer) {
 			final AEFrameChipRenderer frameRenderer = (AEFrameChipRenderer) renderer;
-			onMap = frameRenderer.getOnMap();
-			offMap = frameRenderer.getOffMap();
+			if (frameRenderer.isPackedTexturesActive() && (imageTransform == null)) {
+				packedRenderer = frameRenderer;
+			}
 			annotateMap = frameRenderer.getAnnotateMap();
 			displayFrames = frameRenderer.isDisplayFrames();
 			displayEvents = frameRenderer.isDisplayEvents();
@@ -110,6 +113,20 @@ public class ChipRendererDisplayMethodRGBA extends DisplayMethod implements Disp
 		// rather are rendered exactly as they come from data not matter
 		// what zoom.
 
+		if ((packedRenderer != null) && packedTextureShader.display(gl, packedRenderer, chip.getSizeX(), chip.getSizeY())) {
+			getChipCanvas().checkGLError(gl, glu, "after packed frames and events");
+			displayFrames = false; // drawn by the shader
+			displayEvents = false;
+		} else {
+			// float RGBA maps; computed from the packed maps if packed textures are used but cannot be drawn here
+			packedTextureShader.invalidate();
+			pixmap = renderer.getPixmap();
+			if (renderer instanceof AEFrameChipRenderer) {
+				onMap = ((AEFrameChipRenderer) renderer).getOnMap();
+				offMap = ((AEFrameChipRenderer) renderer).getOffMap();
+			}
+		}
+
 		if (displayFrames) {
 			gl.glPushMatrix();
 			if (imageTransform != null) {
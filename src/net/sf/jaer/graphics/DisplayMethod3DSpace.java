@@ -10,10 +10,7 @@ import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.util.gl2.GLUT;
-import java.util.Iterator;
 import net.sf.jaer.chip.Chip2D;
-import net.sf.jaer.event.EventPacket;
-import net.sf.jaer.event.MultiCameraApsDvsEvent;
 
 /**
  * Displays events in a 3D space
@@ -89,38 +86,9 @@ public class DisplayMethod3DSpace extends DisplayMethod implements DisplayMethod
             gl.glEnd();
         }
         
-        // render events
-        EventPacket packet = (EventPacket) chip.getLastData();
-        if (packet == null) {
-            log.warning("null packet to render");
-            gl.glPopMatrix();
-            return;
-        }
-        int n = packet.getSize();
-        if (n == 0) {
-           gl.glPopMatrix();
-             return;
-        }
-
-        Iterator evItr = packet.iterator();
-        
-        float x, y, z;
-        while (evItr.hasNext()) {
-            Object e = evItr.next();
-            if(e instanceof  MultiCameraApsDvsEvent){
-                MultiCameraApsDvsEvent ev = (MultiCameraApsDvsEvent) e;
-
-                gl.glPushMatrix();
-
-                // Estimate the 3D point position
-                
-
-
-                gl.glPopMatrix();
-            }
-        }
-        
-        
+        // events are not drawn yet: the estimation of the 3D position of MultiCameraApsDvsEvent is not implemented,
+        // so the packet is not iterated here. Event display should use an EventVertexRingBuffer as SpaceTimeRollingEventDisplayMethod does.
+        gl.glPopMatrix();
     }
     
 }
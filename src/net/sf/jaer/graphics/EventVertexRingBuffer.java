@@ -0,0 +1,223 @@
+/* EventVertexRingBuffer.java */
+package net.sf.jaer.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES2;
+
+import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.event.EventPacket;
+
+/**
+ * A vertex buffer object of fixed size that holds the most recent events for
+ * the 3-D display methods. The buffer stays on the GPU and is used as a ring:
+ * each frame only the events of the new packet are uploaded at the head, and
+ * events older than the displayed time window are dropped at the tail. The
+ * events are not moved; their position along the time axis is computed by the
+ * vertex shader from the event timestamp and uniforms for the current time and
+ * the time window, so the display rolls without touching the buffer.
+ * <p>
+ * Each vertex is the float x, the float y and the int timestamp of an event.
+ * The timestamp is passed to the shader as an integer attribute (see
+ * {@link #init}), so it keeps its full microsecond resolution. If the buffer
+ * is full, the oldest events are overwritten. If the timestamps jump back
+ * before the oldest event in the buffer, e.g. after a rewind of playback, the
+ * buffer is cleared.
+ * <p>
+ * All methods except the constructor must be called on the GL thread with the
+ * GL context current.
+ */
+public class EventVertexRingBuffer {
+
+    /** Size of one vertex in bytes: float x, float y and int timestamp */
+    public static final int VERTEX_SIZE_BYTES = 12;
+    /** Max number of vertices uploaded with one glBufferSubData call */
+    private static final int UPLOAD_CHUNK_EVENTS = 1 << 16;
+    private final int capacity;
+    private final int[] timestamps; // timestamps of the vertices, to find the tail without reading back the buffer
+    private final ByteBuffer staging;
+    private int vao = 0, vbo = 0;
+    private int head = 0; // index of the next vertex to write
+    private int size = 0; // number of vertices that are drawn, ending at head
+
+    /**
+     * Makes a new ring buffer; the GL buffer is allocated by {@link #init}.
+     *
+     * @param capacityEvents the max number of events in the buffer
+     */
+    public EventVertexRingBuffer(int capacityEvents) {
+        if (capacityEvents <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, not " + capacityEvents);
+        }
+        this.capacity = capacityEvents;
+        timestamps = new int[capacityEvents];
+        staging = ByteBuffer.allocateDirect(Math.min(capacityEvents, UPLOAD_CHUNK_EVENTS) * VERTEX_SIZE_BYTES);
+        staging.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Allocates the vertex buffer and a vertex array object that binds it to
+     * the attributes of the shader program. Does nothing if already done.
+     *
+     * @param gl the GL context
+     * @param xyAttrib the index of the vec2 attribute for the event x and y
+     * @param timestampAttrib the index of the int attribute for the event
+     * timestamp
+     */
+    public void init(GL2 gl, int xyAttrib, int timestampAttrib) {
+        if (vbo != 0) {
+            return;
+        }
+        int[] ids = new int[1];
+        gl.glGenVertexArrays(1, ids, 0);
+        vao = ids[0];
+        gl.glBindVertexArray(vao);
+        gl.glGenBuffers(1, ids, 0);
+        vbo = ids[0];
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) capacity * VERTEX_SIZE_BYTES, null, GL.GL_DYNAMIC_DRAW);
+        gl.glVertexAttribPointer(xyAttrib, 2, GL.GL_FLOAT, false, VERTEX_SIZE_BYTES, 0);
+        gl.glVertexAttribIPointer(timestampAttrib, 1, GL2ES2.GL_INT, VERTEX_SIZE_BYTES, 8);
+        gl.glEnableVertexAttribArray(xyAttrib);
+        gl.glEnableVertexAttribArray(timestampAttrib);
+        gl.glBindVertexArray(0);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Appends the events of a packet that are neither special nor filtered
+     * out. Only these events are uploaded to the GPU.
+     *
+     * @param gl the GL context
+     * @param packet the packet of BasicEvent or subclasses
+     * @return the number of events appended
+     */
+    public int append(GL2 gl, EventPacket<?> packet) {
+        if (vbo == 0) {
+            throw new IllegalStateException("init must be called before appending events");
+        }
+        int n = 0;
+        staging.clear();
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+        for (Object o : packet) {
+            BasicEvent e = (BasicEvent) o;
+            if (e.isSpecial() || e.isFilteredOut()) {
+                continue;
+            }
+            if ((size > 0) && ((e.timestamp - timestamps[tail()]) < 0)) { // time went back before the oldest event, e.g. rewind
+                upload(gl);
+                head = 0;
+                size = 0;
+            }
+            timestamps[head] = e.timestamp;
+            staging.putFloat(e.x).putFloat(e.y).putInt(e.timestamp);
+            head++;
+            if (size < capacity) {
+                size++;
+            }
+            n++;
+            if ((head == capacity) || !staging.hasRemaining()) {
+                upload(gl);
+                if (head == capacity) {
+                    head = 0;
+                }
+            }
+        }
+        upload(gl);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        return n;
+    }
+
+    /** Uploads the staged vertices, which end just before head */
+    private void upload(GL2 gl) {
+        int n = staging.position() / VERTEX_SIZE_BYTES;
+        if (n == 0) {
+            return;
+        }
+        staging.flip();
+        gl.glBufferSubData(GL.GL_ARRAY_BUFFER, (long) (head - n) * VERTEX_SIZE_BYTES, staging.limit(), staging);
+        staging.clear();
+    }
+
+    /**
+     * Drops the events at the tail whose timestamp is before a time. Events
+     * are assumed to be appended in time order; an older event behind a newer
+     * one is dropped with the newer one.
+     *
+     * @param timestamp the oldest timestamp that is kept
+     */
+    public void removeOlderThan(int timestamp) {
+        int tail = tail();
+        while ((size > 0) && ((timestamps[tail] - timestamp) < 0)) {
+            size--;
+            if (++tail == capacity) {
+                tail = 0;
+            }
+        }
+    }
+
+    /**
+     * Draws the events in the buffer from oldest to newest with the shader
+     * program that is in use.
+     *
+     * @param gl the GL context
+     * @param mode the primitive, e.g. GL.GL_POINTS
+     */
+    public void draw(GL2 gl, int mode) {
+        if ((size == 0) || (vao == 0)) {
+            return;
+        }
+        gl.glBindVertexArray(vao);
+        int tail = tail();
+        if ((tail + size) <= capacity) {
+            gl.glDrawArrays(mode, tail, size);
+        } else {
+            gl.glDrawArrays(mode, tail, capacity - tail);
+            gl.glDrawArrays(mode, 0, head);
+        }
+        gl.glBindVertexArray(0);
+    }
+
+    /** Drops all events; the GPU buffer is kept */
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Deletes the GPU buffer and vertex array. {@link #init} must be called
+     * again before further use.
+     *
+     * @param gl the GL context
+     */
+    public void dispose(GL2 gl) {
+        if (vbo == 0) {
+            return;
+        }
+        gl.glDeleteBuffers(1, new int[]{vbo}, 0);
+        gl.glDeleteVertexArrays(1, new int[]{vao}, 0);
+        vbo = 0;
+        vao = 0;
+        clear();
+    }
+
+    private int tail() {
+        int tail = head - size;
+        return tail < 0 ? tail + capacity : tail;
+    }
+
+    /** @return the number of events in the buffer */
+    public int size() {
+        return size;
+    }
+
+    /** @return the max number of events in the buffer */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -12,12 +12,14 @@
 
 package net.sf.jaer.graphics;
 
-import java.util.Arrays;
+import java.nio.FloatBuffer;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
 
+import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.util.gl2.GLUT;
 
 /**
@@ -27,6 +29,9 @@ import com.jogamp.opengl.util.gl2.GLUT;
  */
 public class Histogram3dDisplayMethod extends DisplayMethod implements DisplayMethod3D {
 
+	private static final int VERTEX_FLOATS=6; // x,y,z,r,g,b
+	private FloatBuffer quads=Buffers.newDirectFloatBuffer(VERTEX_FLOATS*4*1024); // vertices of the histogram boxes, grown as needed
+
 	/** Creates a new instance of Histogram3dDisplayMethod */
 	public Histogram3dDisplayMethod(ChipCanvas c) {
 		super(c);
@@ -37,6 +42,7 @@ public class Histogram3dDisplayMethod extends DisplayMethod implements DisplayMe
 	 *Draws a 3-d histogram, where each bin corresponds to one element of collected rendered frame data from ChipRenderer.
 	 *This data is float[][][] array. First dimension is y, 2nd is x, 3rd is RGB 3 vector.
 	 *Each element is rendered as a box of height corresponding to element value.
+	 *The boxes are collected in a vertex array that is drawn with a single call.
 	 *
 	 */
 	@Override
@@ -91,106 +97,73 @@ public class Histogram3dDisplayMethod extends DisplayMethod implements DisplayMe
 			glut.glutBitmapCharacter(font, '#');
 			gl.glPopMatrix();
 
-			try{
-				//        for(int i=0;i<fr.length;i++){
-				//            for(int j=0;j<fr[i].length;j++){
-
-				// now iterate over the frame (fr)
-				int ind=0;
-				for (int x = zoom.getStartPoint().x; x < zoom.getEndPoint().x; x++){
-					for (int y = zoom.getStartPoint().y; y < zoom.getEndPoint().y; y++){
-						if((fr[ind]==gray) && (fr[ind+1]==gray) && (fr[ind+2]==gray)) {ind+=3; continue;}
-						float[] rgb=Arrays.copyOfRange(fr, ind, 3);
-						drawHistogramBoxes(gl,x,y,rgb);
-						ind+=3;
-					}
+			// collect the tops of the histogram boxes in a vertex array and draw them with one call
+			quads.clear();
+			for (int x = zoom.getStartPoint().x; x < zoom.getEndPoint().x; x++){
+				for (int y = zoom.getStartPoint().y; y < zoom.getEndPoint().y; y++){
+					int ind=getRenderer().getPixMapIndex(x, y);
+					if((ind<0) || ((ind+2)>=fr.length)) {continue;} // e.g. zoom set by some other chip
+					if((fr[ind]==gray) && (fr[ind+1]==gray) && (fr[ind+2]==gray)) {continue;}
+					addHistogramBoxes(x,y,fr,ind,gray);
 				}
-			}catch(ArrayIndexOutOfBoundsException e){
-				log.warning("while drawing frame buffer");
-				e.printStackTrace();
-				getChipCanvas().unzoom(); // in case it was some other chip had set the zoom
-				gl.glPopMatrix();
+			}
+			quads.flip();
+			int nVertices=quads.limit()/VERTEX_FLOATS;
+			if(nVertices>0){
+				gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0); // client side arrays
+				quads.position(0);
+				gl.glVertexPointer(3, GL.GL_FLOAT, VERTEX_FLOATS*4, quads);
+				quads.position(3);
+				gl.glColorPointer(3, GL.GL_FLOAT, VERTEX_FLOATS*4, quads);
+				gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+				gl.glEnableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+				gl.glDrawArrays(GL2.GL_QUADS, 0, nVertices);
+				gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+				gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
 			}
 		}
 		gl.glPopMatrix();
 
 	}
 
-	void drawHistogramBoxes(GL2 gl, int x, int y, float[] rgbValues){
-		float[] rgb=new float[3];
+	/** Adds the tops of the boxes of one pixel to the quads vertex array, 4 vertices of x,y,z,r,g,b per box */
+	private void addHistogramBoxes(int x, int y, float[] fr, int ind, float g){
 		int histScale=chip.getMaxSize();
-		float g=getRenderer().getGrayValue();
-		gl.glPushMatrix();
-		{
-			gl.glTranslatef(x,y,0f); // centered on pixel
-			AEChipRenderer.ColorMode colorMode=((AEChipRenderer)getRenderer()).getColorMode();
-			if(colorMode==AEChipRenderer.ColorMode.RedGreen){
-				for(int i=0;i<3;i++){ // rgb components of hist
-					float c=rgbValues[i];
-					if(c==g) {
-						continue;
-					}
-					c*=histScale;
-					for(int j=0;j<3;j++){ rgb[j]=0;}
-					rgb[i]=1;
-					gl.glBegin(GL2.GL_QUADS);
-					gl.glColor3fv(rgb,0);
-					// draw squares for each RGB component offset in y direction
-					float y0=i/3f, y1=y0+0.3333f;
-					//top
-					gl.glVertex3f(0,y0,c);
-					gl.glVertex3f(1,y0,c);
-					gl.glVertex3f(1,y1,c);
-					gl.glVertex3f(0,y1,c);
-
-					gl.glEnd();
+		AEChipRenderer.ColorMode colorMode=((AEChipRenderer)getRenderer()).getColorMode();
+		if(colorMode==AEChipRenderer.ColorMode.RedGreen){
+			for(int i=0;i<3;i++){ // rgb components of hist
+				float c=fr[ind+i];
+				if(c==g) {
+					continue;
 				}
-			}else{
-				float h=rgbValues[0]*histScale;
-				for(int j=0;j<3;j++){ rgb[j]=1;}
-				gl.glBegin(GL2.GL_QUADS);
+				c*=histScale;
+				float r=i==0?1:0, gr=i==1?1:0, b=i==2?1:0;
 				// draw squares for each RGB component offset in y direction
-
-				//CCW winding for all faces
-				//top
-				gl.glColor3fv(rgb,0);
-				gl.glVertex3f(0,0,h);
-				gl.glVertex3f(1,0,h);
-				gl.glVertex3f(1,1,h);
-				gl.glVertex3f(0,1,h);
-
-				//                for(int j=0;j<3;j++){ rgb[j]=.5f;}
-				//                gl.glColor3fv(rgb,0);
-				//
-				//                //front
-				//                gl.glVertex3f(0,0,0);
-				//                gl.glVertex3f(1,0,0);
-				//                gl.glVertex3f(1,0,h);
-				//                gl.glVertex3f(0,0,h);
-				//
-				//                //right
-				//                gl.glVertex3f(1,0,0);
-				//                gl.glVertex3f(1,1,0);
-				//                gl.glVertex3f(1,1,h);
-				//                gl.glVertex3f(1,0,h);
-				//
-				//                //left
-				//                gl.glVertex3f(0,0,0);
-				//                gl.glVertex3f(0,0,h);
-				//                gl.glVertex3f(0,1,h);
-				//                gl.glVertex3f(0,1,0);
-				//
-				//                //back
-				//                gl.glVertex3f(0,1,0);
-				//                gl.glVertex3f(0,1,h);
-				//                gl.glVertex3f(1,1,h);
-				//                gl.glVertex3f(1,1,0);
-				//
-
-				gl.glEnd();
+				float y0=y+(i/3f), y1=y0+0.3333f;
+				addVertex(x,y0,c,r,gr,b);
+				addVertex(x+1,y0,c,r,gr,b);
+				addVertex(x+1,y1,c,r,gr,b);
+				addVertex(x,y1,c,r,gr,b);
 			}
+		}else{
+			float h=fr[ind]*histScale;
+			//CCW winding for all faces
+			//top
+			addVertex(x,y,h,1,1,1);
+			addVertex(x+1,y,h,1,1,1);
+			addVertex(x+1,y+1,h,1,1,1);
+			addVertex(x,y+1,h,1,1,1);
 		}
-		gl.glPopMatrix();
+	}
+
+	private void addVertex(float x, float y, float z, float r, float g, float b){
+		if(quads.remaining()<VERTEX_FLOATS){
+			FloatBuffer larger=Buffers.newDirectFloatBuffer(quads.capacity()*2);
+			quads.flip();
+			larger.put(quads);
+			quads=larger;
+		}
+		quads.put(x).put(y).put(z).put(r).put(g).put(b);
 	}
 
 }
@@ -0,0 +1,231 @@
+/* PackedTextureShader.java */
+package net.sf.jaer.graphics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Scanner;
+import java.util.logging.Logger;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES2;
+
+import eu.seebetter.ini.chips.davis.DavisVideoContrastController;
+
+/**
+ * Draws the packed maps of an {@link AEFrameChipRenderer}: the 16 bit APS
+ * frame and the 8 bit ON and OFF event counts are uploaded as two textures and
+ * combined by a fragment shader, which also applies the contrast, brightness
+ * and gamma of the {@link DavisVideoContrastController} and the ON and OFF
+ * colors. The frame texture is only uploaded when there is a new frame.
+ * <p>
+ * Used by {@link ChipRendererDisplayMethodRGBA}. Must be called on the GL
+ * thread.
+ */
+class PackedTextureShader {
+
+    private static final Logger log = Logger.getLogger("PackedTextureShader");
+    private boolean installed = false, failed = false;
+    private int program;
+    private int frameTexture, eventTexture;
+    private int textureWidth = 0, textureHeight = 0;
+    private int uploadedFrameNumber = -1;
+    private int idFrame, idEvents, idDisplayFrames, idDisplayEvents, idGray, idContrast, idBrightness, idGamma, idMaxADC, idColorScale, idOnColor, idOffColor;
+
+    /**
+     * Draws the frame and events of the renderer as a quad of the chip size.
+     *
+     * @param gl the GL context, transformed so that chip pixels are units
+     * @param renderer the renderer, which must have packed textures active
+     * @param sizeX the chip size in pixels
+     * @param sizeY the chip size in pixels
+     * @return false if the shader could not be installed, in which case the
+     * caller should draw the float maps instead
+     */
+    boolean display(final GL2 gl, final AEFrameChipRenderer renderer, final int sizeX, final int sizeY) {
+        if (!install(gl)) {
+            return false;
+        }
+        final int width = renderer.getWidth(), height = renderer.getHeight();
+        final boolean displayFrames = renderer.isDisplayFrames(), displayEvents = renderer.isDisplayEvents();
+        final boolean reallocate = (width != textureWidth) || (height != textureHeight);
+        if (reallocate) {
+            textureWidth = width;
+            textureHeight = height;
+            uploadedFrameNumber = -1;
+        }
+        gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
+        gl.glActiveTexture(GL.GL_TEXTURE0);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, frameTexture);
+        if (reallocate) {
+            setTextureParameters(gl);
+            gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL2.GL_LUMINANCE16, width, height, 0, GL.GL_LUMINANCE, GL.GL_UNSIGNED_SHORT, null);
+        }
+        if (displayFrames && (renderer.getPackedFrameNumber() != uploadedFrameNumber)) {
+            uploadedFrameNumber = renderer.getPackedFrameNumber();
+            gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, width, height, GL.GL_LUMINANCE, GL.GL_UNSIGNED_SHORT, renderer.getPackedFrame());
+        }
+        gl.glActiveTexture(GL.GL_TEXTURE1);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, eventTexture);
+        if (reallocate) {
+            setTextureParameters(gl);
+            gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL2.GL_LUMINANCE8_ALPHA8, width, height, 0, GL.GL_LUMINANCE_ALPHA, GL.GL_UNSIGNED_BYTE, null);
+        }
+        if (displayEvents) {
+            final ByteBuffer counts = renderer.getPackedEventCounts();
+            gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, width, height, GL.GL_LUMINANCE_ALPHA, GL.GL_UNSIGNED_BYTE, counts);
+        }
+
+        gl.glUseProgram(program);
+        gl.glUniform1i(idFrame, 0);
+        gl.glUniform1i(idEvents, 1);
+        gl.glUniform1i(idDisplayFrames, displayFrames ? 1 : 0);
+        gl.glUniform1i(idDisplayEvents, displayEvents ? 1 : 0);
+        gl.glUniform1f(idGray, renderer.getGrayValue());
+        setContrastUniforms(gl, renderer);
+        gl.glUniform1f(idColorScale, renderer.getColorScale());
+        gl.glUniform3f(idOnColor, renderer.onColor[0], renderer.onColor[1], renderer.onColor[2]);
+        final float[] offColor = renderer.isIgnorePolarityEnabled() ? renderer.onColor : renderer.offColor; // as in updateEventMaps
+        gl.glUniform3f(idOffColor, offColor[0], offColor[1], offColor[2]);
+
+        final float xRatio = (float) sizeX / width, yRatio = (float) sizeY / height;
+        gl.glBegin(GL2.GL_QUADS);
+        gl.glTexCoord2f(0, 0);
+        gl.glVertex2f(0, 0);
+        gl.glTexCoord2f(xRatio, 0);
+        gl.glVertex2f(sizeX, 0);
+        gl.glTexCoord2f(xRatio, yRatio);
+        gl.glVertex2f(sizeX, sizeY);
+        gl.glTexCoord2f(0, yRatio);
+        gl.glVertex2f(0, sizeY);
+        gl.glEnd();
+
+        gl.glUseProgram(0);
+        gl.glActiveTexture(GL.GL_TEXTURE1);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        gl.glActiveTexture(GL.GL_TEXTURE0);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        return true;
+    }
+
+    /**
+     * Forces the frame to be uploaded again, e.g. after the float maps were
+     * drawn in between, which may reuse texture names.
+     */
+    void invalidate() {
+        uploadedFrameNumber = -1;
+    }
+
+    private void setContrastUniforms(final GL2 gl, final AEFrameChipRenderer renderer) {
+        final DavisVideoContrastController c = renderer.getContrastController();
+        if (c == null) { // samples are displayed unchanged, as by normalizeFramePixel
+            gl.glUniform1f(idContrast, 1);
+            gl.glUniform1f(idBrightness, 0);
+            gl.glUniform1f(idGamma, 1);
+            gl.glUniform1f(idMaxADC, 1);
+            return;
+        }
+        if (c.isUseAutoContrast()) {
+            gl.glUniform1f(idContrast, c.getAutoContrast());
+            gl.glUniform1f(idBrightness, c.getAutoBrightness());
+            gl.glUniform1f(idGamma, 1);
+        } else {
+            gl.glUniform1f(idContrast, c.getContrast());
+            gl.glUniform1f(idBrightness, c.getBrightness());
+            gl.glUniform1f(idGamma, c.getGamma());
+        }
+        gl.glUniform1f(idMaxADC, Math.max(1, renderer.getMaxADC()));
+    }
+
+    private void setTextureParameters(final GL2 gl) {
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST); // pixels are not interpolated
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
+    }
+
+    /** Compiles the shaders and makes the textures, once. Returns false if this failed. */
+    private boolean install(final GL2 gl) {
+        if (installed || failed) {
+            return installed;
+        }
+        try {
+            program = gl.glCreateProgram();
+            gl.glAttachShader(program, compile(gl, GL2ES2.GL_VERTEX_SHADER, "PackedTextureShader_Vertex.glsl"));
+            gl.glAttachShader(program, compile(gl, GL2ES2.GL_FRAGMENT_SHADER, "PackedTextureShader_Fragment.glsl"));
+            gl.glLinkProgram(program);
+            final IntBuffer b = IntBuffer.allocate(1);
+            gl.glGetProgramiv(program, GL2ES2.GL_LINK_STATUS, b);
+            if (b.get(0) != GL.GL_TRUE) {
+                throw new IOException("could not link shader program: " + programLog(gl));
+            }
+        } catch (final IOException e) {
+            log.warning(e.toString() + "; drawing float pixmaps instead");
+            failed = true;
+            return false;
+        }
+        idFrame = gl.glGetUniformLocation(program, "frame");
+        idEvents = gl.glGetUniformLocation(program, "events");
+        idDisplayFrames = gl.glGetUniformLocation(program, "displayFrames");
+        idDisplayEvents = gl.glGetUniformLocation(program, "displayEvents");
+        idGray = gl.glGetUniformLocation(program, "gray");
+        idContrast = gl.glGetUniformLocation(program, "contrast");
+        idBrightness = gl.glGetUniformLocation(program, "brightness");
+        idGamma = gl.glGetUniformLocation(program, "gamma");
+        idMaxADC = gl.glGetUniformLocation(program, "maxADC");
+        idColorScale = gl.glGetUniformLocation(program, "colorScale");
+        idOnColor = gl.glGetUniformLocation(program, "onColor");
+        idOffColor = gl.glGetUniformLocation(program, "offColor");
+        final int[] ids = new int[2];
+        gl.glGenTextures(2, ids, 0);
+        frameTexture = ids[0];
+        eventTexture = ids[1];
+        installed = true;
+        return true;
+    }
+
+    private int compile(final GL2 gl, final int type, final String resource) throws IOException {
+        final int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, 1, new String[]{readFromStream(PackedTextureShader.class.getResourceAsStream(resource))}, (int[]) null, 0);
+        gl.glCompileShader(shader);
+        final IntBuffer b = IntBuffer.allocate(1);
+        gl.glGetShaderiv(shader, GL2ES2.GL_COMPILE_STATUS, b);
+        if (b.get(0) != GL.GL_TRUE) {
+            gl.glGetShaderiv(shader, GL2ES2.GL_INFO_LOG_LENGTH, b);
+            final int length = Math.max(1, b.get(0));
+            final ByteBuffer bb = ByteBuffer.allocate(length);
+            b.clear();
+            gl.glGetShaderInfoLog(shader, length, b, bb);
+            throw new IOException("could not compile " + resource + ": " + new String(bb.array(), java.nio.charset.StandardCharsets.UTF_8).trim());
+        }
+        return shader;
+    }
+
+    private String programLog(final GL2 gl) {
+        final IntBuffer b = IntBuffer.allocate(1);
+        gl.glGetProgramiv(program, GL2ES2.GL_INFO_LOG_LENGTH, b);
+        final int length = Math.max(1, b.get(0));
+        final ByteBuffer bb = ByteBuffer.allocate(length);
+        b.clear();
+        gl.glGetProgramInfoLog(program, length, b, bb);
+        return new String(bb.array(), java.nio.charset.StandardCharsets.UTF_8).trim();
+    }
+
+    private String readFromStream(final InputStream ins) throws IOException {
+        if (ins == null) {
+            throw new IOException("Could not read from stream.");
+        }
+        final StringBuilder buffer = new StringBuilder();
+        final Scanner scanner = new Scanner(ins);
+        try {
+            while (scanner.hasNextLine()) {
+                buffer.append(scanner.nextLine()).append('\n');
+            }
+        } finally {
+            scanner.close();
+        }
+        return buffer.toString();
+    }
+}
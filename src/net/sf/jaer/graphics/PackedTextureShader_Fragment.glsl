@@ -0,0 +1,34 @@
+#version 120
+// changes here must be saved to jar file by project build to be able to load this shader as resource
+// combines the packed APS frame and DVS event count textures of AEFrameChipRenderer
+uniform sampler2D frame; // 16 bit APS samples, 0 if the pixel was not read, otherwise sample+1
+uniform sampler2D events; // 8 bit ON event count in luminance, OFF event count in alpha
+uniform bool displayFrames;
+uniform bool displayEvents;
+uniform float gray; // background gray level when frames are not displayed
+uniform float contrast, brightness, gamma, maxADC; // as in DavisVideoContrastController.normalizePixelGrayValue
+uniform float colorScale; // number of events for full color
+uniform vec3 onColor, offColor;
+
+void main() {
+    vec2 tc = gl_TexCoord[0].st;
+    vec3 c = vec3(gray);
+    if (displayFrames) {
+        float s = texture2D(frame, tc).r * 65535.0;
+        if (s < 0.5) {
+            c = vec3(0.0);
+        } else {
+            float v = clamp((contrast * (s - 1.0 + brightness)) / maxADC, 0.0, 1.0);
+            if (gamma != 1.0) {
+                v = pow(v, gamma);
+            }
+            c = vec3(v);
+        }
+    }
+    if (displayEvents) {
+        vec4 n = texture2D(events, tc) * 255.0;
+        c = mix(c, onColor, min(n.r / colorScale, 1.0));
+        c = mix(c, offColor, min(n.a / colorScale, 1.0));
+    }
+    gl_FragColor = vec4(c, 1.0);
+}
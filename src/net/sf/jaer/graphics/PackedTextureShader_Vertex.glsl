@@ -0,0 +1,8 @@
+#version 120
+// changes here must be saved to jar file by project build to be able to load this shader as resource
+// draws the textured quad of the chip with the fixed function modelview and projection matrices
+
+void main() {
+    gl_TexCoord[0] = gl_MultiTexCoord0;
+    gl_Position = ftransform();
+}
@@ -0,0 +1,412 @@
+package net.sf.jaer.graphics;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Logger;
+
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.aemonitor.EventRaw.EventType;
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.eventio.AEFileInputStream;
+import net.sf.jaer.eventio.AEInputStream;
+
+/**
+ * Caches the raw packets of file playback for {@link AEPlayer}. A read-ahead
+ * thread reads the packets following the one just played from its own
+ * AEFileInputStream on the same file, so that mapping of new file chunks,
+ * page faults and the garbage collections triggered by chunk mapping happen
+ * off the viewer thread. Played packets are kept in a least recently used
+ * cache that is limited by its total number of events, so that looping
+ * between marks or stepping back and forth over a segment replays the packets
+ * from memory.
+ * <p>
+ * A packet is identified by the state of the stream it is read from
+ * (position, currentStartTimestamp and mostRecentTimestamp) together with the
+ * time slice or packet size, whose sign gives the direction. When the
+ * player's stream is repositioned, e.g. by a rewind, the slider or a change of
+ * direction, the next lookup simply misses; that packet is read from the
+ * player's stream as before and the read-ahead restarts after it. Packets
+ * whose reading wrapped time, found a non-monotonic timestamp or reached a
+ * mark or the end of the file are never cached or played from the cache, so
+ * that the player's stream handles these cases itself.
+ * <p>
+ * Raw packets are cached rather than extracted ones, because the extractors
+ * reuse their output packets and the filters modify them.
+ */
+public class PlaybackPacketCache {
+
+    private static final Logger log = Logger.getLogger("PlaybackPacketCache");
+
+    /**
+     * Identifies a packet by the stream state it is read from and the read
+     * request
+     */
+    private static final class Key {
+
+        final long position;
+        final int currentStartTimestamp, mostRecentTimestamp;
+        final boolean byNumber;
+        final int size; // time slice in us or number of events, negative for reading backwards
+
+        Key(long position, int currentStartTimestamp, int mostRecentTimestamp, boolean byNumber, int size) {
+            this.position = position;
+            this.currentStartTimestamp = currentStartTimestamp;
+            this.mostRecentTimestamp = mostRecentTimestamp;
+            this.byNumber = byNumber;
+            this.size = size;
+        }
+
+        Key(AEFileInputStream in, boolean byNumber, int size) {
+            this(in.position(), in.getCurrentStartTimestamp(), in.getMostRecentTimestamp(), byNumber, size);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return (position == k.position) && (currentStartTimestamp == k.currentStartTimestamp)
+                    && (mostRecentTimestamp == k.mostRecentTimestamp) && (byNumber == k.byNumber) && (size == k.size);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = (int) (position ^ (position >>> 32));
+            h = (31 * h) + currentStartTimestamp;
+            h = (31 * h) + mostRecentTimestamp;
+            h = (31 * h) + size;
+            return byNumber ? ~h : h;
+        }
+    }
+
+    /** A copy of a packet and the state of the stream after reading it */
+    private static final class Entry {
+
+        final Key key;
+        final int[] addresses, timestamps, pixelData;
+        final EventType[] eventtypes;
+        final long endPosition;
+        final int endCurrentStartTimestamp, endMostRecentTimestamp;
+
+        Entry(Key key, AEPacketRaw packet, AEFileInputStream in) {
+            this.key = key;
+            int n = packet.getNumEvents();
+            addresses = Arrays.copyOf(packet.getAddresses(), n);
+            timestamps = Arrays.copyOf(packet.getTimestamps(), n);
+            eventtypes = Arrays.copyOf(packet.getEventtypes(), n);
+            pixelData = Arrays.copyOf(packet.getPixelDataArray(), n);
+            endPosition = in.position();
+            endCurrentStartTimestamp = in.getCurrentStartTimestamp();
+            endMostRecentTimestamp = in.getMostRecentTimestamp();
+        }
+
+        int getNumEvents() {
+            return addresses.length;
+        }
+
+        /** @return the key of the packet that the same request reads next */
+        Key nextKey() {
+            return new Key(endPosition, endCurrentStartTimestamp, endMostRecentTimestamp, key.byNumber, key.size);
+        }
+    }
+
+    private final AEFileInputStream stream, readAheadStream;
+    private final int maxCachedEvents, readAheadPackets;
+    private final LinkedHashMap<Key, Entry> recent = new LinkedHashMap<Key, Entry>(256, .75f, true); // played packets in access order
+    private final LinkedHashMap<Key, Entry> readAhead = new LinkedHashMap<Key, Entry>(); // packets read ahead and not played yet
+    private int cachedEvents = 0;
+    private Key readAheadKey = null; // the next packet to read ahead, null while the read-ahead is idle
+    private boolean closed = false;
+    private final AEPacketRaw packet = new AEPacketRaw(); // returned on cache hits
+    private int hits = 0, misses = 0;
+    private volatile long markIn = 0, markOut = Long.MAX_VALUE;
+    private volatile boolean nonMonotonicTimeExceptionsChecked;
+    private volatile boolean streamIrregular = false; // set by the player's stream on events it handles itself
+    private boolean readAheadIrregular = false; // same for readAheadStream, only used by the read-ahead thread
+
+    private final PropertyChangeListener streamListener = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            if (isIrregular(evt)) {
+                streamIrregular = true;
+            }
+        }
+    };
+
+    /**
+     * Opens a second stream on the file of the player's stream and starts the
+     * read-ahead thread.
+     *
+     * @param chip the chip of the player
+     * @param stream the player's stream
+     * @param maxCachedEvents the maximum total number of events of the played
+     * packets that are kept
+     * @param readAheadPackets the maximum number of packets read ahead
+     * @throws IOException if the file cannot be opened again
+     */
+    public PlaybackPacketCache(AEChip chip, AEFileInputStream stream, int maxCachedEvents, int readAheadPackets) throws IOException {
+        this.stream = stream;
+        this.maxCachedEvents = maxCachedEvents;
+        this.readAheadPackets = readAheadPackets;
+        nonMonotonicTimeExceptionsChecked = stream.isNonMonotonicTimeExceptionsChecked();
+        readAheadStream = new AEFileInputStream(stream.getFile(), chip);
+        readAheadStream.setRepeat(false);
+        readAheadStream.getSupport().addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (isIrregular(evt)) {
+                    readAheadIrregular = true;
+                }
+            }
+        });
+        stream.getSupport().addPropertyChangeListener(streamListener);
+        new ReadAheadThread().start();
+    }
+
+    private static boolean isIrregular(PropertyChangeEvent evt) {
+        String name = evt.getPropertyName();
+        return AEInputStream.EVENT_WRAPPED_TIME.equals(name) || AEInputStream.EVENT_NON_MONOTONIC_TIMESTAMP.equals(name)
+                || AEInputStream.EVENT_EOF.equals(name) || AEInputStream.EVENT_REWIND.equals(name);
+    }
+
+    /**
+     * Returns the next packet of the player's stream, from the cache if
+     * possible, otherwise by reading it from the stream. Either way the stream
+     * is left in the state after reading the packet and fires
+     * AEInputStream.EVENT_POSITION.
+     *
+     * @param byNumber true to read by number of events, false to read by time
+     * @param size the number of events or the time slice in us, negative for
+     * reading backwards
+     * @return the packet, which is reused on the next call
+     * @throws IOException from reading the stream, e.g. EOFException
+     */
+    public AEPacketRaw readPacket(boolean byNumber, int size) throws IOException {
+        markIn = stream.getMarkInPosition();
+        markOut = stream.getMarkOutPosition();
+        nonMonotonicTimeExceptionsChecked = stream.isNonMonotonicTimeExceptionsChecked();
+        synchronized (stream) { // so that nothing repositions the stream between the lookup and the update of its state
+            Key key = new Key(stream, byNumber, size);
+            Entry entry;
+            synchronized (this) {
+                entry = readAhead.remove(key);
+                if (entry != null) {
+                    notifyAll();
+                } else {
+                    entry = recent.remove(key);
+                    if (entry != null) {
+                        cachedEvents -= entry.getNumEvents();
+                    }
+                }
+                if ((entry != null) && !isCacheable(key, entry.endPosition)) {
+                    entry = null; // the marks were moved since it was read, so the player's stream must handle them
+                }
+                if (entry != null) {
+                    addRecent(entry);
+                    hits++;
+                    readAheadAfter(entry);
+                } else {
+                    misses++;
+                }
+            }
+            if (entry != null) {
+                return replay(entry);
+            }
+
+            streamIrregular = false;
+            AEPacketRaw p = byNumber ? stream.readPacketByNumber(size) : stream.readPacketByTime(size);
+            if (!streamIrregular && isCacheable(key, stream.position())) {
+                entry = new Entry(key, p, stream);
+                synchronized (this) {
+                    addRecent(entry);
+                    readAheadAfter(entry);
+                }
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Copies a cached packet to the returned packet and sets the stream to the
+     * state after reading it
+     */
+    private AEPacketRaw replay(Entry entry) {
+        int n = entry.getNumEvents();
+        packet.ensureCapacity(n);
+        System.arraycopy(entry.addresses, 0, packet.getAddresses(), 0, n);
+        System.arraycopy(entry.timestamps, 0, packet.getTimestamps(), 0, n);
+        System.arraycopy(entry.eventtypes, 0, packet.getEventtypes(), 0, n);
+        System.arraycopy(entry.pixelData, 0, packet.getPixelDataArray(), 0, n);
+        packet.setNumEvents(n);
+        long oldPosition = stream.position();
+        stream.position(entry.endPosition);
+        stream.setCurrentStartTimestamp(entry.endCurrentStartTimestamp);
+        stream.setMostRecentTimestamp(entry.endMostRecentTimestamp);
+        stream.getSupport().firePropertyChange(AEInputStream.EVENT_POSITION, oldPosition, entry.endPosition);
+        return packet;
+    }
+
+    /**
+     * Packets that end at a mark or the end of the file are not cached; the
+     * player's stream rewinds or stops there itself. Cached packets are
+     * checked again when they are played, because the marks may have been
+     * set since they were read.
+     */
+    private boolean isCacheable(Key key, long endPosition) {
+        if (key.size > 0) {
+            return (endPosition > key.position) && (endPosition < markOut) && (endPosition < (stream.size() - 1));
+        } else if (key.size < 0) {
+            return (endPosition < key.position) && (endPosition > markIn) && (endPosition > 0);
+        }
+        return false;
+    }
+
+    /** Adds a played packet, evicting the least recently played packets beyond maxCachedEvents */
+    private void addRecent(Entry entry) {
+        Entry old = recent.put(entry.key, entry);
+        if (old != null) {
+            cachedEvents -= old.getNumEvents();
+        }
+        cachedEvents += entry.getNumEvents();
+        Iterator<Entry> it = recent.values().iterator();
+        while ((cachedEvents > maxCachedEvents) && it.hasNext()) {
+            Entry eldest = it.next();
+            if (eldest == entry) {
+                break;
+            }
+            cachedEvents -= eldest.getNumEvents();
+            it.remove();
+        }
+    }
+
+    /**
+     * Makes the read-ahead continue after a played packet, unless the next
+     * packet is already cached or being read
+     */
+    private void readAheadAfter(Entry entry) {
+        Key next = entry.nextKey();
+        if (next.equals(readAheadKey) || readAhead.containsKey(next) || recent.containsKey(next)) {
+            return;
+        }
+        readAhead.clear();
+        readAheadKey = next;
+        notifyAll();
+    }
+
+    /**
+     * Reads the packet of a key from readAheadStream.
+     *
+     * @return the packet, or null if it should not be cached
+     */
+    private Entry readAheadPacket(Key key) {
+        try {
+            readAheadStream.setNonMonotonicTimeExceptionsChecked(nonMonotonicTimeExceptionsChecked);
+            readAheadStream.position(key.position);
+            readAheadStream.setCurrentStartTimestamp(key.currentStartTimestamp);
+            readAheadStream.setMostRecentTimestamp(key.mostRecentTimestamp);
+            readAheadIrregular = false;
+            AEPacketRaw p = key.byNumber ? readAheadStream.readPacketByNumber(key.size) : readAheadStream.readPacketByTime(key.size);
+            if (readAheadIrregular || !isCacheable(key, readAheadStream.position())) {
+                return null;
+            }
+            return new Entry(key, p, readAheadStream);
+        } catch (EOFException e) {
+            return null;
+        } catch (IOException e) {
+            log.warning("reading ahead caught " + e + ", stopping read-ahead");
+            return null;
+        } catch (RuntimeException e) { // readPacketByNumber throws NullPointerException at the end of the file
+            log.fine("reading ahead caught " + e + ", stopping read-ahead");
+            return null;
+        }
+    }
+
+    private class ReadAheadThread extends Thread {
+
+        ReadAheadThread() {
+            super("PlaybackPacketCache read-ahead");
+            setDaemon(true);
+            setPriority(Thread.NORM_PRIORITY - 1);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Key key;
+                    synchronized (PlaybackPacketCache.this) {
+                        while (!closed && ((readAheadKey == null) || (readAhead.size() >= readAheadPackets))) {
+                            PlaybackPacketCache.this.wait();
+                        }
+                        if (closed) {
+                            break;
+                        }
+                        key = readAheadKey;
+                    }
+                    Entry entry = readAheadPacket(key);
+                    synchronized (PlaybackPacketCache.this) {
+                        if (closed) {
+                            break;
+                        }
+                        if (!key.equals(readAheadKey)) {
+                            continue; // restarted elsewhere while reading
+                        }
+                        if (entry == null) {
+                            readAheadKey = null;
+                            continue;
+                        }
+                        readAhead.put(key, entry);
+                        Key next = entry.nextKey();
+                        readAheadKey = recent.containsKey(next) ? null : next;
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.info("read-ahead interrupted");
+            } finally {
+                try {
+                    readAheadStream.close();
+                } catch (IOException e) {
+                    log.warning("closing read-ahead stream caught " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the read-ahead thread, which then closes its stream, and drops
+     * the cached packets.
+     */
+    public void close() {
+        stream.getSupport().removePropertyChangeListener(streamListener);
+        synchronized (this) {
+            closed = true;
+            readAhead.clear();
+            recent.clear();
+            cachedEvents = 0;
+            notifyAll();
+        }
+        log.info("closed " + this);
+    }
+
+    /** @return the number of packets that were returned from the cache */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /** @return the number of packets that were read from the player's stream */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PlaybackPacketCache with " + recent.size() + " played and " + readAhead.size() + " read-ahead packets of " + cachedEvents
+                + " events, " + hits + " hits and " + misses + " misses";
+    }
+}
@@ -19,7 +19,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
 import java.util.Scanner;
 import java.util.prefs.Preferences;
 
@@ -32,8 +31,10 @@ import com.jogamp.opengl.GL2ES1;
 import com.jogamp.opengl.GL2ES2;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLRunnable;
 import com.jogamp.opengl.fixedfunc.GLLightingFunc;
 import com.jogamp.opengl.fixedfunc.GLMatrixFunc;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
 import com.jogamp.opengl.glu.GLU;
 import com.jogamp.opengl.util.gl2.GLUT;
 
@@ -41,7 +42,6 @@ import eu.seebetter.ini.chips.davis.DavisDisplayConfigInterface;
 import net.sf.jaer.Description;
 import net.sf.jaer.DevelopmentStatus;
 import net.sf.jaer.chip.AEChip;
-import net.sf.jaer.event.BasicEvent;
 import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.graphics.ChipCanvas.ClipArea;
 import net.sf.jaer.util.EngineeringFormat;
@@ -51,7 +51,9 @@ import net.sf.jaer.util.EngineeringFormat;
  * erased and new ones are added to the front. In contrast with
  * SpaceTimeEventDisplayMethod, this method smoothly rolls the events through
  * the display. It uses a vertex and fragment shader program to accelerate the
- * rendering.
+ * rendering. The events are kept in an {@link EventVertexRingBuffer} on the
+ * GPU; each frame only the events of the new packet are uploaded, and the
+ * shader computes their depth from their age.
  *
  * @author tobi, nicolai waniek capocaccia 2015. See also
  * https://github.com/rochus/ebglvis
@@ -74,21 +76,19 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
     private int shaderprogram;
     private int vertexShader;
     private int fragmentShader;
-    private int vao;
-    private int vbo;
-    final int v_vert = 0;
-    private final int BUF_INITIAL_SIZE_EVENTS = 100000;
+    final int xy_vert = 0, t_vert = 1; // attribute locations of event x,y and timestamp in vertex shader
+    /** Max number of events in the rolling window, 12 bytes each on the GPU */
+    private static final int RING_BUFFER_SIZE_EVENTS = 1 << 22;
+    private EventVertexRingBuffer eventBuffer = null; // made on the first display and disposed on deregistration
     private int sx, sy, smax;
-    private float tfac;
 //    private int timeSlice = 0;
     private final FloatBuffer mv = FloatBuffer.allocate(16);
     private final FloatBuffer proj = FloatBuffer.allocate(16);
-    private int idMv, idProj, idt0, idt1, idPointSize;
-    private ArrayList<BasicEvent> eventList = null, eventListTmp = null;
-    private ByteBuffer eventVertexBuffer;
-    private int timeWindowUs = 100000, t0;
-    private static final int EVENT_SIZE_BYTES = (Float.SIZE / 8) * 3;// size of event in shader ByteBuffer
+    private int idMv, idProj, idTNow, idWindowUs, idZmax, idPointSize;
+    private int timeWindowUs = 100000, tNow;
     private int axesDisplayListId = -1;
+    private int axesVbo = 0, axesVertexCount = 0;
+    private static final int AXES_VERTEX_SIZE_BYTES = (Float.SIZE / 8) * 6; // x,y,z,r,g,b
     private boolean regenerateAxesDisplayList = true;
     private final int aspectRatio = 4; // depth of 3d cube compared to max of x and y chip dimension
     private float pointSize = 4f;
@@ -110,7 +110,6 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
             return;
         }
         gl.glEnable(GL3.GL_PROGRAM_POINT_SIZE);
-        checkEventVertexBufferAllocation(BUF_INITIAL_SIZE_EVENTS);
 
         shadersInstalled = true;
         IntBuffer b = IntBuffer.allocate(8); // buffer to hold return values
@@ -145,6 +144,9 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
 
         gl.glAttachShader(shaderprogram, vertexShader);
         gl.glAttachShader(shaderprogram, fragmentShader);
+        gl.glBindAttribLocation(shaderprogram, xy_vert, "xy"); // symbolic names in vertex shader, must be bound before linking
+        gl.glBindAttribLocation(shaderprogram, t_vert, "t");
+        checkGLError(gl, "binding shader attributes");
 
         gl.glLinkProgram(shaderprogram);
         b.clear();
@@ -155,48 +157,19 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
 //        }
 
         checkGLError(gl, "linking shader program");
-        b.clear();
-        gl.glGenVertexArrays(1, b);
-        vao = b.get(0);
-        gl.glBindVertexArray(vao);
-        b.clear();
-        gl.glGenBuffers(1, b);
-        vbo = b.get(0);
-        checkGLError(gl, "setting up vertex array and vertex buffer");
-
-        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
-//        gl.glBindAttribLocation(shaderprogram, polarity_vert, "polarity"); // symbolic names in vertex and fragment shaders
-        gl.glBindAttribLocation(shaderprogram, v_vert, "v");
-//        gl.glBindAttribLocation(shaderprogram, polarity_frag, "frag_polarity");
-        checkGLError(gl, "binding shader attributes");
 
-        gl.glVertexAttribPointer(v_vert, 3, GL.GL_FLOAT, false, EVENT_SIZE_BYTES, 0);
-//        gl.glVertexAttribPointer(polarity_vert, 1, GL.GL_FLOAT, false, EVENT_SIZE_BYTES, 3);
-        checkGLError(gl, "setting vertex attribute pointers");
         idMv = gl.glGetUniformLocation(shaderprogram, "mv");
         idProj = gl.glGetUniformLocation(shaderprogram, "proj");
-        idt0 = gl.glGetUniformLocation(shaderprogram, "t0");
-        idt1 = gl.glGetUniformLocation(shaderprogram, "t1");
+        idTNow = gl.glGetUniformLocation(shaderprogram, "tNow");
+        idWindowUs = gl.glGetUniformLocation(shaderprogram, "windowUs");
+        idZmax = gl.glGetUniformLocation(shaderprogram, "zmax");
         idPointSize = gl.glGetUniformLocation(shaderprogram, "pointSize");
-        if ((idMv < 0) || (idProj < 0) || (idt0 < 0) || (idt1 < 0) || (idPointSize < 0)) {
-            throw new RuntimeException("cannot locate uniform variable idMv, idProj, idt0, idt1, or idPointSize in shader program");
+        if ((idMv < 0) || (idProj < 0) || (idTNow < 0) || (idWindowUs < 0) || (idZmax < 0) || (idPointSize < 0)) {
+            throw new RuntimeException("cannot locate uniform variable idMv, idProj, idTNow, idWindowUs, idZmax, or idPointSize in shader program");
         }
         checkGLError(gl, "getting IDs for uniform modelview and projection matrices in shaders");
     }
 
-    private void checkEventVertexBufferAllocation(int sizeEvents) {
-        if ((eventVertexBuffer == null) || (eventVertexBuffer.capacity() <= (sizeEvents * EVENT_SIZE_BYTES))) {
-            eventVertexBuffer = ByteBuffer.allocateDirect(sizeEvents * EVENT_SIZE_BYTES);
-            eventVertexBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        }
-    }
-
-    private void checkEventListAllocation(int sizeEvents) {
-        if (eventList == null) {
-            eventList = new ArrayList(sizeEvents);
-        }
-    }
-
     private EventPacket lastPacketDisplayed = null;
     private int previousLasttimestamp = 0;
 
@@ -220,6 +193,11 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
             log.warning("could not load shaders: " + ex.toString());
             return;
         }
+        if (eventBuffer == null) {
+            eventBuffer = new EventVertexRingBuffer(RING_BUFFER_SIZE_EVENTS);
+            eventBuffer.init(gl, xy_vert, t_vert);
+            checkGLError(gl, "setting up vertex array and vertex buffer");
+        }
 
         // render events
         final EventPacket packet = (EventPacket) chip.getLastData();
@@ -259,73 +237,77 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
                 newTimeWindowUs = 10000; // tobi - don't let time get too short for window, minimum 10ms
             }
             if (newTimeWindowUs != timeWindowUs) {
-                regenerateAxesDisplayList = true;
-                eventVertexBuffer.clear();
-                if (eventList != null) {
-                    eventList.clear();
-                }
+                regenerateAxesDisplayList = true; // events are kept, the shader rescales their depth to the new window
             }
             timeWindowUs = newTimeWindowUs;
-            t0 = t1 - timeWindowUs;
+            tNow = t1;
 
+            if ((sx != chip.getSizeX()) || (sy != chip.getSizeY())) {
+                regenerateAxesDisplayList = true;
+            }
             sx = chip.getSizeX();
             sy = chip.getSizeY();
             smax = chip.getMaxSize();
-            tfac = (float) (smax * aspectRatio) / timeWindowUs;
-
-            pruneOldEvents(t0, t1);
-            checkEventListAllocation((eventList != null ? eventList.size() : 0) + packet.getSize());
-            addEventsToEventList(packet);
-            checkEventVertexBufferAllocation(eventList.size());
-            eventVertexBuffer.clear(); // sets pos=0 and limit=capacity // TODO should not really clear, rather should erase old events
-            for (BasicEvent ev : eventList) {
-                if ((ev.timestamp < t0) || (ev.timestamp > t1)) {
-                    continue; // don't render events outside of box, no matter how they get there
-                }
-                eventVertexBuffer.putFloat(ev.x);
-                eventVertexBuffer.putFloat(ev.y);
-                eventVertexBuffer.putFloat(tfac * (ev.timestamp - t1)); // negative z
-            }
-            eventVertexBuffer.flip(); // get ready for reading by setting limit=pos and then pos=0
-            checkGLError(gl, "set uniform t0 and t1");
-        }
-        renderEvents(gl, drawable, eventVertexBuffer, eventVertexBuffer.limit(), 1e-6f * timeWindowUs, smax * aspectRatio);
-    }
 
-    private void addEventsToEventList(final EventPacket<BasicEvent> packet) {
-        for (BasicEvent e : packet) {
-//            BasicEvent e = (BasicEvent) o;
-            if (e.isSpecial() || e.isFilteredOut()) {
-                continue;
-            }
-            BasicEvent ne = new BasicEvent();
-            ne.copyFrom(e);
-            eventList.add(ne); // must do this unfortunately because otherwise the original event object in this list will be reused for a later packet
+            eventBuffer.append(gl, packet); // only the new events go to the GPU
+            eventBuffer.removeOlderThan(t1 - timeWindowUs);
+            checkGLError(gl, "appending events to vertex buffer");
         }
+        renderEvents(gl, drawable, 1e-6f * timeWindowUs, smax * aspectRatio);
     }
 
-    private void pruneOldEvents(final int startTimeUs, final int endTimeUs) {
-        if (eventList == null) {
-            return;
+    /**
+     * Writes the lines of the axes box to a static vertex buffer, interleaved
+     * x,y,z,r,g,b, drawn with the fixed function pipeline.
+     */
+    private void updateAxesVertexBuffer(GL2 gl, float zmax) {
+        final float[] near = {0, 0, 1}, far = {.5f, 0, 0};
+        final float[][] lines = { // pairs of x,y,z of the line ends
+            {0, 0, 0}, {sx, 0, 0},
+            {0, 0, 0}, {0, sy, 0},
+            {sx, 0, 0}, {sx, sy, 0},
+            {sx, sy, 0}, {0, sy, 0},
+            {0, 0, 0}, {0, 0, -zmax},
+            {sx, 0, 0}, {sx, 0, -zmax},
+            {0, sy, 0}, {0, sy, -zmax},
+            {sx, sy, 0}, {sx, sy, -zmax},
+            {0, 0, -zmax}, {sx, 0, -zmax},
+            {0, 0, -zmax}, {0, sy, -zmax},
+            {sx, 0, -zmax}, {sx, sy, -zmax},
+            {sx, sy, -zmax}, {0, sy, -zmax}};
+        FloatBuffer b = ByteBuffer.allocateDirect(lines.length * AXES_VERTEX_SIZE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (float[] v : lines) {
+            b.put(v);
+            b.put(v[2] == 0 ? near : far);
         }
-        if (eventListTmp == null) {
-            eventListTmp = new ArrayList(eventList.size());
-        } else {
-            eventListTmp.clear();
+        b.flip();
+        if (axesVbo == 0) {
+            int[] ids = new int[1];
+            gl.glGenBuffers(1, ids, 0);
+            axesVbo = ids[0];
         }
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, axesVbo);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, b.limit() * (Float.SIZE / 8), b, GL.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        axesVertexCount = lines.length;
+        checkGLError(gl, "writing axes vertex buffer");
+    }
 
-        for (BasicEvent ev : eventList) {
-            if ((ev.timestamp >= startTimeUs) || (ev.timestamp < endTimeUs)) {
-                eventListTmp.add(ev);
-            }
-        }
-        eventList.clear();
-        ArrayList<BasicEvent> tmp = eventList;
-        eventList = eventListTmp;
-        eventListTmp = tmp;
+    private void drawAxes(GL2 gl) {
+        gl.glLineWidth(12);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, axesVbo);
+        gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+        gl.glVertexPointer(3, GL.GL_FLOAT, AXES_VERTEX_SIZE_BYTES, 0);
+        gl.glColorPointer(3, GL.GL_FLOAT, AXES_VERTEX_SIZE_BYTES, 3 * (Float.SIZE / 8));
+        gl.glDrawArrays(GL.GL_LINES, 0, axesVertexCount);
+        gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+        gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        checkGLError(gl, "drawing axes");
     }
 
-    void renderEvents(GL2 gl, GLAutoDrawable drawable, ByteBuffer buffer, int nEvents, float dtS, float zmax) {
+    void renderEvents(GL2 gl, GLAutoDrawable drawable, float dtS, float zmax) {
         gl.glDepthMask(true);
         gl.glDepthFunc(GL.GL_GEQUAL);
         gl.glEnable(GL.GL_DEPTH_TEST);
@@ -342,7 +324,6 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
                 gl.glDeleteLists(axesDisplayListId, 1);
             }
             axesDisplayListId = gl.glGenLists(1);
-            gl.glNewList(axesDisplayListId, GL2.GL_COMPILE);
 //        gl.glTranslatef(0, 0, -timeWindowUs);
 //        glu.gluLookAt(0, 0, 0,
 //                0, 0, -1,
@@ -351,53 +332,8 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
 
 //        gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
 //        gl.glPushMatrix();
-            // axes
-            gl.glLineWidth(12);
-            gl.glBegin(GL.GL_LINES);
-
-            gl.glColor3f(0, 0, 1);
-            gl.glVertex3f(0, 0, 0);
-            gl.glVertex3f(sx, 0, 0);
-
-            gl.glVertex3f(0, 0, 0);
-            gl.glVertex3f(0, sy, 0);
-
-            gl.glVertex3f(sx, 0, 0);
-            gl.glVertex3f(sx, sy, 0);
-
-            gl.glVertex3f(sx, sy, 0);
-            gl.glVertex3f(0, sy, 0);
-
-            gl.glColor3f(0, 0, 1);
-            gl.glVertex3f(0, 0, 0);
-            gl.glColor3f(.5f, 0, 0);
-            gl.glVertex3f(0, 0, -zmax);
-            gl.glColor3f(0, 0, 1);
-            gl.glVertex3f(sx, 0, 0);
-            gl.glColor3f(.5f, 0, 0);
-            gl.glVertex3f(sx, 0, -zmax);
-            gl.glColor3f(0, 0, 1);
-            gl.glVertex3f(0, sy, 0);
-            gl.glColor3f(.5f, 0, 0);
-            gl.glVertex3f(0, sy, -zmax);
-            gl.glColor3f(0, 0, 1);
-            gl.glVertex3f(sx, sy, 0);
-            gl.glColor3f(.5f, 0, 0);
-            gl.glVertex3f(sx, sy, -zmax);
-
-            gl.glVertex3f(0, 0, -zmax);
-            gl.glVertex3f(sx, 0, -zmax);
-
-            gl.glVertex3f(0, 0, -zmax);
-            gl.glVertex3f(0, sy, -zmax);
-
-            gl.glVertex3f(sx, 0, -zmax);
-            gl.glVertex3f(sx, sy, -zmax);
-
-            gl.glVertex3f(sx, sy, -zmax);
-            gl.glVertex3f(0, sy, -zmax);
-
-            gl.glEnd();
+            updateAxesVertexBuffer(gl, zmax);
+            gl.glNewList(axesDisplayListId, GL2.GL_COMPILE); // only the axes labels, which are bitmap text
             gl.glShadeModel(GLLightingFunc.GL_FLAT);
 
             // draw axes labels x,y,t. See tutorial at http://jerome.jouvie.free.fr/OpenGl/Tutorials/Tutorial18.php
@@ -464,6 +400,7 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
         gl.glLoadIdentity();
         gl.glTranslatef(0, 0, -zmax);
         gl.glScalef(modelScale, modelScale, modelScale);
+        drawAxes(gl);
         gl.glCallList(axesDisplayListId);
 
 //        getChipCanvas().setDefaultProjection(gl, drawable);
@@ -490,27 +427,20 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
 
         checkGLError(gl, "setting model/view matrix");
 
-        gl.glUniform1f(idt0, -zmax);
-        gl.glUniform1f(idt1, 0);
+        gl.glUniform1i(idTNow, tNow);
+        gl.glUniform1f(idWindowUs, timeWindowUs);
+        gl.glUniform1f(idZmax, zmax);
         if (largePointSizeEnabled) {
             pointSize = 12;
         } else {
             pointSize = 4;
         }
         gl.glUniform1f(idPointSize, pointSize);
-        checkGLError(gl, "setting dimensionless time limits t0 or t1 for event buffer rendering");
+        checkGLError(gl, "setting time window uniforms for event buffer rendering");
 
-        gl.glBindVertexArray(vao);
-//        gl.glEnableVertexAttribArray(polarity_vert);
-        gl.glEnableVertexAttribArray(v_vert);
-        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
-        gl.glBufferData(GL.GL_ARRAY_BUFFER, buffer.limit(), buffer, GL2ES2.GL_STREAM_DRAW);
-        checkGLError(gl, "binding vertex buffers");
-
-        // draw
-        gl.glDrawArrays(GL.GL_POINTS, 0, nEvents);
+        // draw, the ring buffer unbinds its vertex array afterwards to use TextRenderers elsewhere; see http://forum.jogamp.org/TextRenderer-my-text-won-t-show-td4029291.html
+        eventBuffer.draw(gl, GL.GL_POINTS);
         checkGLError(gl, "drawArrays");
-        gl.glBindVertexArray(0); // to use TextRenderers elsewhere; see http://forum.jogamp.org/TextRenderer-my-text-won-t-show-td4029291.html
         gl.glUseProgram(0);
         checkGLError(gl, "disable program");
 //
@@ -575,6 +505,7 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
 
     @Override
     protected void onDeregistration() {
+        disposeEventBuffer();
         if (displayMenu == null) {
             return;
         }
@@ -583,6 +514,29 @@ public class SpaceTimeRollingEventDisplayMethod extends DisplayMethod implements
         viewer.removeMenu(displayMenu);
     }
 
+    /**
+     * Frees the event ring buffer, which holds up to RING_BUFFER_SIZE_EVENTS
+     * events in memory and on the GPU, when another display method is
+     * chosen; the GPU buffer is deleted on the GL thread.
+     */
+    private void disposeEventBuffer() {
+        final EventVertexRingBuffer buffer = eventBuffer;
+        if (buffer == null) {
+            return;
+        }
+        eventBuffer = null;
+        previousLasttimestamp = 0; // so that the next display fills the new buffer
+        if (getChipCanvas().getCanvas() instanceof GLAutoDrawable) {
+            ((GLAutoDrawable) getChipCanvas().getCanvas()).invoke(false, new GLRunnable() {
+                @Override
+                public boolean run(GLAutoDrawable drawable) {
+                    buffer.dispose(drawable.getGL().getGL2());
+                    return true;
+                }
+            });
+        }
+    }
+
     @Override
     protected void onRegistration() {
         if (chip == null) {
@@ -1,21 +1,25 @@
 #version 130
 // changes here must be saved to jar file by project build to be able to load this shader as resource
-in vec3 v; // the event x,y,t, where t is expressed in negative up to aspectRatio*(max array size)
+in vec2 xy; // the event x,y
+in int t; // the event timestamp in us, kept as int to keep full resolution
 out float f, f1;
 
 uniform mat4 mv; // modelview
 uniform mat4 proj; // projection
-uniform float t0; // start of time window
-uniform float t1; // end of time window
+uniform int tNow; // timestamp at the front of the time window
+uniform float windowUs; // duration of the time window in us
+uniform float zmax; // depth of the time axis at the end of the time window
 uniform float pointSize; // base point size
 
 void main() {
-    float z=-v.z; // 0 at most recent time, dt at most distant past
-    float dt=(t1-t0);
-    f=z/dt; // fraction of total time in window, 0 at now, 1 at most distant past
+    f=float(tNow-t)/windowUs; // fraction of total time in window, 0 at now, 1 at most distant past
     f1=1-f; 
-    vec4 vh = vec4(v, 1);// transform vertex to homogeneous coordinate
     gl_PointSize = pointSize*f1+1;
+    if(f<0 || f>1){ // aged out or not yet due, put it outside the clip volume
+        gl_Position = vec4(2, 2, 2, 1);
+        return;
+    }
+    vec4 vh = vec4(xy, -f*zmax, 1);// transform vertex to homogeneous coordinate, z is 0 at most recent time and -zmax at most distant past
     gl_Position = proj * mv * vh; // must be this order
 }
 
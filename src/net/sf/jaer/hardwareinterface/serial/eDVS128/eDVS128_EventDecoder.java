@@ -0,0 +1,198 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package net.sf.jaer.hardwareinterface.serial.eDVS128;
+
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
+import net.sf.jaer.aemonitor.AEPacketRaw;
+
+/**
+ * Streaming decoder for the binary event formats of the eDVS128 firmware. Each
+ * event starts with the byte 1yyyyyyy, followed by pxxxxxxx and a big endian
+ * timestamp whose length depends on the format selected with the !Ex command.
+ * <p>
+ * Bytes are decoded straight from the receive buffer of the reader. Only
+ * complete events are consumed, so the bytes of an event that was split
+ * between two reads are left in the buffer and decoded after the next read.
+ * Bytes without the sync bit at an event boundary are collected as text, e.g.
+ * the responses of the device to commands. After a byte is lost the decoder
+ * only accepts an event again if the following event also starts with the sync
+ * bit.
+ */
+public class eDVS128_EventDecoder {
+
+	static Logger log = Logger.getLogger("eDVS128");
+
+	/** The binary event formats, named by the command that selects them. */
+	public enum EventFormat {
+
+		/** 2 bytes per event, no timestamp; the host time of decoding is used */
+		E0("!E0", 2, 0),
+		/** 4 bytes per event with 16 bit timestamp */
+		E2("!E2", 4, 16),
+		/** 5 bytes per event with 24 bit timestamp */
+		E3("!E3", 5, 24),
+		/** 6 bytes per event with 32 bit timestamp */
+		E4("!E4", 6, 32);
+
+		final String command;
+		final int eventBytes, timestampBits;
+
+		EventFormat(String command, int eventBytes, int timestampBits) {
+			this.command = command;
+			this.eventBytes = eventBytes;
+			this.timestampBits = timestampBits;
+		}
+
+		/** @return the command that makes the device send this format */
+		public String getCommand() {
+			return command;
+		}
+	}
+
+	private static final int MAX_TEXT_LENGTH = 1000;
+	private EventFormat format;
+	private boolean synced = false;
+	private int lastRawTimestamp = 0;
+	private int wrapAdd = 0;
+	private int syncErrors = 0;
+	private final StringBuilder text = new StringBuilder();
+	private final StringBuilder receivedText = new StringBuilder(); // lines of text received since clearReceivedText
+
+	public eDVS128_EventDecoder(EventFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * Decodes all complete events in a buffer. Decoded bytes are consumed from
+	 * the buffer; the bytes of an incomplete last event remain.
+	 *
+	 * @param in the received bytes, between position and limit
+	 * @param out the packet to append the events to. If it is full, further
+	 * events are dropped and its overrunOccuredFlag is set.
+	 * @return the number of events appended
+	 */
+	public int decode(ByteBuffer in, AEPacketRaw out) {
+		final int n = format.eventBytes;
+		int[] addresses = out.getAddresses();
+		int[] timestamps = out.getTimestamps();
+		int count = out.getNumEvents(), start = count;
+		int p = in.position();
+		final int limit = in.limit();
+
+		while ((limit - p) >= n) {
+			int y = in.get(p) & 0xff;
+			if ((y & 0x80) == 0) { // not the start of an event, text from the device or a lost byte
+				if (synced) {
+					synced = false;
+					syncErrors++;
+				}
+				appendText(y);
+				p++;
+				continue;
+			}
+			if (!synced) {
+				if ((limit - p) < (2 * n)) {
+					break; // wait for the next event to confirm that this byte starts an event
+				}
+				if ((in.get(p + n) & 0x80) == 0) {
+					p++;
+					continue;
+				}
+				synced = true;
+			}
+			int x = in.get(p + 1) & 0xff;
+			int timestamp = timestamp(in, p + 2);
+			p += n;
+
+			if (count >= out.getCapacity()) {
+				out.overrunOccuredFlag = true;
+				continue;
+			}
+			addresses[count] = (((x & 0x80) >> 7) | ((y & 0x7f) << 8) | ((x & 0x7f) << 1)) & 0x7FFF;
+			timestamps[count] = timestamp;
+			count++;
+		}
+		in.position(p);
+		out.setNumEvents(count);
+		return count - start;
+	}
+
+	/** Returns the unwrapped timestamp in us of the event whose timestamp starts at position p */
+	private int timestamp(ByteBuffer in, int p) {
+		final int bits = format.timestampBits;
+		if (bits == 0) {
+			return (int) (System.nanoTime() / 1000);
+		}
+		int raw = 0;
+		for (int i = 0; i < (bits >> 3); i++) {
+			raw = (raw << 8) | (in.get(p + i) & 0xff);
+		}
+		if (bits == 32) {
+			return raw;
+		}
+		if (raw < lastRawTimestamp) { // timestamp wrapped
+			wrapAdd += 1 << bits;
+		}
+		lastRawTimestamp = raw;
+		return wrapAdd + raw;
+	}
+
+	private void appendText(int c) {
+		if ((c == '\n') || (c == '\r')) {
+			if (text.length() > 0) {
+				log.info("Device sent: " + text);
+				synchronized (receivedText) {
+					if (receivedText.length() < MAX_TEXT_LENGTH) {
+						receivedText.append(text).append('\n');
+					}
+				}
+				text.setLength(0);
+			}
+		} else if ((c >= ' ') && (text.length() < MAX_TEXT_LENGTH)) {
+			text.append((char) c);
+		}
+	}
+
+	/**
+	 * Restarts timestamp unwrapping and synchronization, e.g. after a reset of the timestamps or a change of format.
+	 * Must not be called concurrently with decode.
+	 */
+	public void reset() {
+		synced = false;
+		lastRawTimestamp = 0;
+		wrapAdd = 0;
+		text.setLength(0);
+	}
+
+	public EventFormat getFormat() {
+		return format;
+	}
+
+	/** Sets the format. Call it only while nothing is decoded, e.g. before the device is told to send the new format. */
+	public void setFormat(EventFormat format) {
+		this.format = format;
+		reset();
+	}
+
+	/** @return the complete lines of text sent by the device since the last clearReceivedText */
+	public String getReceivedText() {
+		synchronized (receivedText) {
+			return receivedText.toString();
+		}
+	}
+
+	public void clearReceivedText() {
+		synchronized (receivedText) {
+			receivedText.setLength(0);
+		}
+	}
+
+	/** @return the number of times the decoder lost the event boundaries */
+	public int getSyncErrors() {
+		return syncErrors;
+	}
+}
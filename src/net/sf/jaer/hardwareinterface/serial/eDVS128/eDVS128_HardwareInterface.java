@@ -6,13 +6,14 @@ package net.sf.jaer.hardwareinterface.serial.eDVS128;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeSupport;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Observable;
 import java.util.Observer;
@@ -24,6 +25,7 @@ import gnu.io.SerialPort;
 import net.sf.jaer.aemonitor.AEListener;
 import net.sf.jaer.aemonitor.AEMonitorInterface;
 import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.aemonitor.AEPacketRawPool;
 import net.sf.jaer.biasgen.Biasgen;
 import net.sf.jaer.biasgen.BiasgenHardwareInterface;
 import net.sf.jaer.biasgen.IPot;
@@ -31,6 +33,7 @@ import net.sf.jaer.biasgen.Pot;
 import net.sf.jaer.chip.AEChip;
 import net.sf.jaer.hardwareinterface.HardwareInterface;
 import net.sf.jaer.hardwareinterface.HardwareInterfaceException;
+import net.sf.jaer.hardwareinterface.serial.eDVS128.eDVS128_EventDecoder.EventFormat;
 
 /**
  * Interface to eDVS128 cameras via FTDI serial port or wifi TCP socket.
@@ -79,6 +82,11 @@ P          - enter reprogramming mode
 !E30  - 10 bytes per event, ASCII <1p> <3y> <3x>; new-line
 !E31  - 10 bytes per event+timestamp, ASCII <1p> <3y> <3x> <5ts>; new-line
  * </pre>
+ * The {@link AEReader} blocks in reads of the serial port or of the TCP
+ * SocketChannel into a direct buffer and decodes the events with
+ * {@link eDVS128_EventDecoder} into the write buffer of an
+ * {@link AEPacketRawPool}. It runs from open until close and also logs the text
+ * that the device sends in response to commands.
  *
  * @author lou, tobi
  */
@@ -95,18 +103,19 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 	public static final int AE_BUFFER_SIZE = 100000; // should handle 5Meps at 30FPS
 	private int aeBufferSize = prefs.getInt("eDVS128.aeBufferSize", AE_BUFFER_SIZE);
 	private static boolean isOpen = false; // confuses things
-	private static boolean eventAcquisitionEnabled = false;
+	private static volatile boolean eventAcquisitionEnabled = false;
 	private static boolean overrunOccuredFlag = false;
-	private byte cHighBitMask = (byte) 0x80;
-	private byte cLowerBitsMask = (byte) 0x7F;
-	private int eventCounter = 0;
-	private int bCalibrated = 0;
 	protected String devicName;
 	private InputStream inputStream;
 	private OutputStream outputStream;
+	private ReadableByteChannel inputChannel;
 	public final PropertyChangeEvent NEW_EVENTS_PROPERTY_CHANGE = new PropertyChangeEvent(this, "NewEvents", null, null);
-	private AEPacketRawPool aePacketRawPool = new AEPacketRawPool();
-	private int lastshortts = 0;
+	private AEPacketRawPool aePacketRawPool = new AEPacketRawPool(this);
+	private eDVS128_EventDecoder decoder = new eDVS128_EventDecoder(preferredEventFormat());
+	/** Size of the receive buffer of the AEReader. */
+	public static final int READ_BUFFER_SIZE = 8192 * 4;
+	/** Time to wait for the response of the device to a reset. */
+	public static final int RESET_RESPONSE_TIMEOUT_MS = 1300;
 	private final int NUM_BIASES = 12; // number of biases, to renumber biases for bias command
 	private boolean DEBUG = false;
 	SerialPort serialPort;
@@ -133,6 +142,29 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 		if ((socket != null) && (serialPort != null)) {
 			throw new Error(serialPort + " and " + socket + " are both supplied which is an error");
 		}
+		inputChannel = Channels.newChannel(inputStream);
+	}
+
+	/**
+	 * Constructs a new eDVS128_HardwareInterface for a TCP connection, e.g. to the wifi eDVS. Events are read from the
+	 * channel with blocking reads.
+	 *
+	 * @param channel
+	 *            the connected channel, in blocking mode
+	 */
+	public eDVS128_HardwareInterface(SocketChannel channel) {
+		inputChannel = channel;
+		outputStream = Channels.newOutputStream(channel);
+		socket = channel.socket();
+	}
+
+	private static EventFormat preferredEventFormat() {
+		try {
+			return EventFormat.valueOf(prefs.get("eDVS128.eventFormat", EventFormat.E2.name()));
+		}
+		catch (IllegalArgumentException e) {
+			return EventFormat.E2;
+		}
 	}
 
 	public void writeOut(String s) {
@@ -189,49 +221,15 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 					p.addObserver(this); // TODO first send won't work
 				}
 			}
-			BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-			CharBuffer buf = CharBuffer.allocate(1000);
 			try {
-				int avail = inputStream.available();
-				if (reader.ready()) {
-					reader.read(buf); // clear buffer
-					log.info(buf.toString());
-				}
+				startAEReader(); // the reader also logs the text that the device sends in response to commands
+				decoder.clearReceivedText();
 				write("R");
-				int wait = 10;
-				Thread.sleep(300);
-
-				while (!reader.ready() && (wait-- > 0)) {
-					Thread.sleep(100);
-				}
-				if (!reader.ready() || (wait == 0)) {
-					log.warning("eDVS did not return startup message after reset");
-				}
-				avail = inputStream.available();
-				if (reader.ready()) {
-					buf.clear();
-					int nread = reader.read(buf);
-					String s = buf.flip().toString();
-					log.info("Device sent after reset: " + s);
-					if ((s == null) || !s.contains("EDVS")) {
-						log.warning("Did not see \"EDVS\" in the post-reset response. Maybe the wrong serial port or IP address?");
-					}
+				if (!waitForText("EDVS", RESET_RESPONSE_TIMEOUT_MS)) {
+					log.warning("Did not see \"EDVS\" in the post-reset response. Maybe the wrong serial port or IP address?");
 				}
-				write("!E2"); // data format, as in serial port interrface
+				write(decoder.getFormat().getCommand()); // data format, as in serial port interrface
 				sendAllBiases();
-				wait = 10;
-				while (!reader.ready() && (wait-- > 0)) {
-					Thread.sleep(100);
-				}
-				if (!reader.ready() || (wait == 0)) {
-					log.warning("eDVS did not return any messages on sending biases");
-				}
-				avail = inputStream.available();
-				if (reader.ready()) {
-					buf.clear();
-					int nread = reader.read(buf);
-					log.info("Device sent after sending biases: " + buf.flip().toString());
-				}
 				setEventAcquisitionEnabled(true);
 			}
 			catch (Exception e) {
@@ -240,6 +238,18 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 		}
 	}
 
+	/** Waits until the device has sent a line of text containing s. */
+	private boolean waitForText(String s, int timeoutMs) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeoutMs;
+		while (!decoder.getReceivedText().contains(s)) {
+			if (System.currentTimeMillis() > end) {
+				return false;
+			}
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
 	@Override
 	public boolean isOpen() {
 		return true;
@@ -265,10 +275,14 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 			}
 			write("0"); // turn off LED on eDVS board (not wifi board)
 			setEventAcquisitionEnabled(false);
+			stopAEReader();
 			// following commented because it deadlocks on RXTX read, which never seems to complete
 			// if (getAeReader() != null) {
 			// getAeReader().join();
 			// }
+			if (inputChannel != null) {
+				inputChannel.close(); // unblocks the reader
+			}
 			if (inputStream != null) {
 				inputStream.close();
 			}
@@ -340,9 +354,7 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 		if (enable) {
 			startAEReader();
 		}
-		else {
-			stopAEReader();
-		}
+		eventAcquisitionEnabled = enable;
 		try {
 			if (enable) {
 				write("E+");
@@ -387,8 +399,31 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 	 */
 	@Override
 	synchronized public void resetTimestamps() {
-		wrapAdd = 0; // TODO call TDS to reset timestamps
-		aePacketRawPool.reset();
+		synchronized (aePacketRawPool) {
+			decoder.reset(); // TODO call TDS to reset timestamps
+			aePacketRawPool.reset();
+		}
+	}
+
+	/** @return the event format that is requested from the device on open */
+	public EventFormat getEventFormat() {
+		return decoder.getFormat();
+	}
+
+	/**
+	 * Sets the event format. If the interface is open, the device is told to send the new format.
+	 *
+	 * @param format
+	 *            the format
+	 */
+	public void setEventFormat(EventFormat format) {
+		synchronized (aePacketRawPool) {
+			decoder.setFormat(format);
+		}
+		prefs.put("eDVS128.eventFormat", format.name());
+		if (isOpen) {
+			writeOut(format.getCommand());
+		}
 	}
 
 	/**
@@ -421,7 +456,6 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 		aePacketRawPool.swap();
 		lastEventsAcquired = aePacketRawPool.readBuffer();
 		nEvents = lastEventsAcquired.getNumEvents();
-		eventCounter = 0;
 		computeEstimatedEventRate(lastEventsAcquired);
 
 		if (nEvents != 0) {
@@ -518,13 +552,9 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 
 	@Override
 	public String toString() {
-		return "eDVS128_HardwareInterface with inputStream=" + inputStream + " outputStream=" + outputStream;
+		return "eDVS128_HardwareInterface with inputChannel=" + inputChannel + " outputStream=" + outputStream;
 	}
 
-	protected boolean running = true;
-	final int WRAP = 0x10000; // amount of timestamp wrap to add for each overflow of 1 bit timestamps
-	final int WRAP_START = 0; // (int)(0xFFFFFFFFL&(2147483648L-0x400000L)); // set high to test big wrap 1<<30;
-	volatile int wrapAdd = WRAP_START; // 0;
 	protected AEReader aeReader = null;
 
 	public AEReader getAeReader() {
@@ -535,11 +565,14 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 		this.aeReader = aeReader;
 	}
 
-	public void startAEReader() {
+	/** Starts the reader, unless it is already running. */
+	synchronized public void startAEReader() {
+		if ((getAeReader() != null) && getAeReader().isAlive()) {
+			return;
+		}
 		setAeReader(new AEReader(this));
 		log.info("Start AE reader...");
 		getAeReader().start();
-		eventAcquisitionEnabled = true;
 	}
 
 	public void stopAEReader() {
@@ -611,319 +644,65 @@ public class eDVS128_HardwareInterface implements HardwareInterface, AEMonitorIn
 	// break;
 	// }
 	// }
+	/**
+	 * Reads the data from the device with blocking reads and decodes it into the write buffer of the AEPacketRawPool.
+	 */
 	public class AEReader extends Thread implements Runnable {
 
-		private byte[] buffer = null;
+		private ByteBuffer buffer = null;
 		eDVS128_HardwareInterface monitor;
 
 		public AEReader(eDVS128_HardwareInterface monitor) {
 			this.monitor = monitor;
 			setName("eDVS_AEReader");
-			/* This is a list of all this interface's endpoints. */
+			setDaemon(true);
 			allocateAEBuffers();
 
-			buffer = new byte[8192 * 4];// UsbUtil.unsignedInt(usbPipe.getUsbEndpoint().getUsbEndpointDescriptor().wMaxPacketSize())];
+			buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
 		}
 
 		@Override
-		@SuppressWarnings("SleepWhileInLoop")
 		public void run() {
-
-			int offset = 0;
-			int length = 0;
-			int len = 0;
-
-			// int count=0;
-			while (running) {
-				try {
-					len = monitor.inputStream.available();
-					if (len == 0) {
-						try {
-							Thread.sleep(10);
-							// System.out.print(".");
-							// if(count++%80==0) System.out.print("\n"+count+"\t");
-						}
-						catch (InterruptedException ex) {
-							log.warning("sleep interrupted while waiting events");
-						}
-						continue;
+			try {
+				while (running) {
+					if (monitor.inputChannel.read(buffer) < 0) {
+						log.warning("end of stream from " + monitor);
+						break;
 					}
-					length = monitor.inputStream.read(buffer, 0, len - (len % 4));
-					// System.out.println(length);
-				}
-				catch (IOException e) {
-					log.warning("Aborting AEReader because caught exception " + e);
-					e.printStackTrace();
-					return;
-				}
-
-				int nDump = 0;
-
-				if (len > 3) { // TODO what if len<=3? e.g. for part of an event that was sent
-					// try {
-					// length = inputStream.read(buffer, 0, len - (len % 4));
-					// } catch (IOException e) {
-					// e.printStackTrace();
-					// }
-
-					translateEvents_code(buffer, length);
-
-					// what is this 'calibration'? TODO
-					if (bCalibrated == 0) {
-						int diff = 0;
-						if (length > 100) {
-							for (int i = 0; i <= 3; i++) {
-								// offset=i;
-								diff = 0;
-								for (int m = 0; m < 10; m++) {
-									diff += (buffer[(4 * (m + 1)) + i] - buffer[(4 * m) + i])
-										* (buffer[(4 * (m + 1)) + i] - buffer[(4 * m) + i]);
-								}
-								// System.out.println(diff);
-								if (diff < 20) { // 10
-									offset = i;
-									// break;
-								}
-							}
-						}
-
-						// System.out.println("length: " + length + " tail: " + nTail + " offset: " + offset);
-
-						switch (offset) {
-							case 0:
-								nDump = 2;
-								break;
-							case 1:
-								nDump = 3;
-								break;
-							case 2:
-								nDump = 0;
-								break;
-							case 3:
-								nDump = 1;
-								break;
-							default:
-								log.warning("offset value should not be " + offset);
-						}
-
-						if (nDump != 0) {
-							long length1 = 0;
-							long len1 = 0;
-							try {
-								while (length1 != nDump) {
-									// len = inputStream.read(buffer, length1, nDump - length1);
-									len1 = monitor.inputStream.skip(nDump - length1);
-									length1 = length1 + len1;
-								}
-							}
-							catch (IOException e) {
-								log.warning("Caught while skpping bytes: " + e.toString());
-							}
-							log.info("Dumped: " + length1 + " bytes / " + nDump);
-						}
-						else {
-							bCalibrated = 1;
-							log.info("Calibrated");
-						}
+					buffer.flip();
+					synchronized (aePacketRawPool) {
+						AEPacketRaw packet = aePacketRawPool.writeBuffer();
+						int first = packet.getNumEvents();
+						decoder.decode(buffer, packet);
+						packet.lastCaptureIndex = first;
+						packet.lastCaptureLength = packet.getNumEvents() - first;
 					}
-
+					buffer.compact(); // keeps the bytes of an incomplete event for the next read
 				}
-
-				if (timestampsReset) {
-					log.info("timestampsReset: flushing aePacketRawPool buffers");
-					aePacketRawPool.reset();
-					timestampsReset = false;
+			}
+			catch (IOException e) {
+				if (running) {
+					log.warning("Aborting AEReader because caught exception " + e);
 				}
 			}
 			log.info("reader thread ending");
 		}
 
 		/**
-		 * Stop/abort listening for data events.
+		 * Stop listening for data events. The thread is not interrupted because that would close the channel; it
+		 * ends when the channel is closed by close().
 		 */
 		synchronized public void finish() {
 			running = false;
-			interrupt();
 		}
 
-		synchronized public void resetTimestamps() {
-			log.info(eDVS128_HardwareInterface.this + ": wrapAdd=" + wrapAdd + ", zeroing it");
-			wrapAdd = WRAP_START;
-			timestampsReset = true; // will inform reader thread that timestamps are reset
-
-		}
-
-		protected boolean running = true;
-		volatile boolean timestampsReset = false; // used to tell processData that another thread has reset timestamps
-	}
-
-	private long lastWrapTime = 0;
-
-	/**
-	 * Writes events from buffer to AEPacketRaw in buffer pool.
-	 *
-	 * @param b
-	 *            data sent from camera
-	 * @param bytesSent
-	 *            number of bytes in buffer that are valid
-	 */
-	protected void translateEvents_code(byte[] b, int bytesSent) {
-		synchronized (aePacketRawPool) {
-
-			AEPacketRaw buffer = aePacketRawPool.writeBuffer();
-			int shortts;
-
-			int[] addresses = buffer.getAddresses();
-			int[] timestamps = buffer.getTimestamps();
-
-			// write the start of the packet
-			buffer.lastCaptureIndex = eventCounter;
-			// log.info("entering translateEvents_code with "+eventCounter+" events");
-
-			StringBuilder sb = null;
-			if (DEBUG) {
-				sb = new StringBuilder(String.format("%d events: Timestamp deltas are ", bytesSent / 4));
-			}
-			int i = 0;
-			while (i < bytesSent) {
-				/*
-				 * event polarity is encoded in the msb of the second byte. i.e.
-				 * Byte0, bit 7: always zero
-				 * Byte0, bits 6-0: event address y
-				 * Byte1, bit 7: event polarity
-				 * Byte1, bits 6-0: event address x
-				 * Bytes2+3: 16 bit timestamp, MSB first
-				 */
-				int y_ = (0xff & b[i]); // & with 0xff to prevent sign bit from extending to int (treat byte as
-										// unsigned)
-				int x_ = (0xff & b[i + 1]);
-				int c_ = (0xff & b[i + 2]);
-				int d_ = (0xff & b[i + 3]);
-
-				if ((y_ & 0x80) != 0x80) {
-					log.warning("Data not aligned - flushing rest of buffer");
-					i++;
-				}
-				else {
-
-					if (eventCounter >= buffer.getCapacity()) {
-						buffer.overrunOccuredFlag = true;
-						continue;
-					}
-					addresses[eventCounter] = (((x_ & cHighBitMask) >> 7) | ((y_ & cLowerBitsMask) << 8) | ((x_ & cLowerBitsMask) << 1))
-						& 0x7FFF;
-
-					shortts = ((c_ << 8) + d_); // should be unsigned since c_ and d_ are unsigned, timestamp is sent
-												// big endian, MSB first at index 3
-					if (lastshortts > shortts) { // timetamp wrapped
-						wrapAdd += WRAP;
-						long thisWrapTime = System.nanoTime();
-
-						if (DEBUG) {
-							log.info("This timestamp was less than last one by " + (shortts - lastshortts) + " and system deltaT="
-								+ ((thisWrapTime - lastWrapTime) / 1000) + "us, wrapAdd=" + (wrapAdd / WRAP) + " wraps");
-						}
-						lastWrapTime = thisWrapTime;
-					}
-					timestamps[eventCounter] = (wrapAdd + shortts) / TICK_DIVIDER;
-					if (DEBUG) {
-						sb.append(String.format("%d ", shortts - lastshortts));
-					}
-					lastshortts = shortts;
-
-					eventCounter++;
-					i += 4; // event size in bytes
-				}
-			}
-			if (DEBUG) {
-				log.info(sb.toString());
-			}
-			buffer.setNumEvents(eventCounter);
-
-			// write capture size
-			buffer.lastCaptureLength = eventCounter - buffer.lastCaptureIndex;
-		} // sync on aePacketRawPool
-
+		protected volatile boolean running = true;
 	}
 
 	void allocateAEBuffers() {
 		synchronized (aePacketRawPool) {
 			aePacketRawPool.allocateMemory();
-		}
-	}
-
-	/** Double buffer for writing and reading events. */
-	private class AEPacketRawPool {
-
-		int capacity;
-		AEPacketRaw[] buffers;
-		AEPacketRaw lastBufferReference;
-		volatile int readBuffer = 0, writeBuffer = 1; // this buffer is the one currently being read from
-
-		AEPacketRawPool() {
-			allocateMemory();
-			reset();
-		}
-
-		/**
-		 * Swaps read and write buffers in preparation for reading last captured buffer of events.
-		 *
-		 */
-		synchronized final void swap() {
-			lastBufferReference = buffers[readBuffer];
-			if (readBuffer == 0) {
-				readBuffer = 1;
-				writeBuffer = 0;
-			}
-			else {
-				readBuffer = 0;
-				writeBuffer = 1;
-			}
-			writeBuffer().clear();
-			writeBuffer().overrunOccuredFlag = false; // mark new write buffer clean, no overrun happened yet. writer
-														// sets this if it happens
-			// log.info("swapped buffers - new read buffer has "+readBuffer().getNumEvents()+" events");
-		}
-
-		/**
-		 * Returns the current read buffer.
-		 *
-		 * @return buffer to read from
-		 */
-		synchronized final AEPacketRaw readBuffer() {
-			return buffers[readBuffer];
-		}
-
-		/**
-		 * Returns the current writing buffer. Does not swap buffers.
-		 *
-		 * @return buffer to write to
-		 * @see #swap
-		 */
-		synchronized final AEPacketRaw writeBuffer() {
-			return buffers[writeBuffer];
-		}
-
-		/** Set the current buffer to be the first one and clear the write buffer */
-		synchronized final void reset() {
-			readBuffer = 0;
-			writeBuffer = 1;
-			buffers[writeBuffer].clear(); // new events go into this buffer which should be empty
-
-			buffers[readBuffer].clear(); // clear read buffer in case this buffer was reset by resetTimestamps
-			// log.info("buffers reset");
-
-		}
-
-		// allocates AEPacketRaw each with capacity AE_BUFFER_SIZE
-		private void allocateMemory() {
-			buffers = new AEPacketRaw[2];
-			for (int i = 0; i < buffers.length; i++) {
-				buffers[i] = new AEPacketRaw();
-				buffers[i].ensureCapacity(getAEBufferSize()); // preallocate this memory for capture thread and to try
-																// to make it contiguous
-
-			}
+			aePacketRawPool.reset();
 		}
 	}
 }
@@ -24,6 +24,7 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Vector;
@@ -580,10 +581,11 @@ public class eDVS128_InterfaceFactory extends javax.swing.JDialog implements Har
                     int tcpport = Integer.parseInt(portTF.getText());
                     prefs.put("eDVS128_InterfaceFactory.HOST", host);
                     prefs.putInt("eDVS128_InterfaceFactory.TCP_PORT", tcpport);
-                    final Socket socket = new Socket();
+                    final SocketChannel channel = SocketChannel.open(); // blocking channel, read by the AEReader without polling
+                    final Socket socket = channel.socket();
                     socket.setReceiveBufferSize(TCP_RECEIVE_BUFFER_SIZE_BYTES);
                     socket.setSendBufferSize(TCP_SEND_BUFFER_SIZE_BYTES);
-                    socket.setSoTimeout(SO_TIMEOUT);
+                    socket.setTcpNoDelay(true); // commands are short
                     log.info("connecting to " + host + ":" + tcpport);
                     socket.connect(new InetSocketAddress(host, tcpport), CONNECTION_TIMEOUT_MS);
                     log.info("success connecting to " + host + ":" + tcpport);
@@ -604,7 +606,7 @@ public class eDVS128_InterfaceFactory extends javax.swing.JDialog implements Har
                             }
                         }
                     });
-                    chosenInterface = new eDVS128_HardwareInterface(socket.getInputStream(), socket.getOutputStream(), null, socket);
+                    chosenInterface = new eDVS128_HardwareInterface(channel);
                     closemap.put(host, chosenInterface);
                     success = true;
                 } catch (SocketTimeoutException e) {
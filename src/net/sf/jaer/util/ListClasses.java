@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -54,6 +55,8 @@ public class ListClasses {
     static final Logger log = Logger.getLogger("net.sf.jaer.util");
     private static boolean debug = false;
     private static final int INIT_SIZE = 4000;
+    /** Results of listUnindexedClasses by superclass name, the class folders do not change while jAER runs */
+    private static final HashMap<String, List<String>> unindexedClasses = new HashMap<String, List<String>>();
 
     private static void usage() {
         System.err.println(
@@ -70,6 +73,30 @@ public class ListClasses {
      * @return list of all fully qualified class names
      */
     public static List<String> listClasses() {
+        return listClasses(null);
+    }
+
+    /**
+     * Like {@link #listClasses()}, but lists only the class folders on the
+     * classpath that carry no {@link SubclassIndex} of the subclasses of
+     * superClassName, e.g. a folder of user classes. Jars are not scanned:
+     * jAER.jar carries the index and the libraries contain no jAER classes, so
+     * a jar of user classes must carry its own index. The folders are listed
+     * only on the first call for each superclass.
+     *
+     * @param superClassName the fully qualified name of the indexed superclass
+     * @return list of the class files of the folders without index
+     */
+    public static synchronized List<String> listUnindexedClasses(String superClassName) {
+        List<String> classNames = unindexedClasses.get(superClassName);
+        if (classNames == null) {
+            classNames = Collections.unmodifiableList(listClasses(superClassName));
+            unindexedClasses.put(superClassName, classNames);
+        }
+        return classNames;
+    }
+
+    private static List<String> listClasses(String indexedSuperClassName) {
         List<String> classNames = new ArrayList<String>(INIT_SIZE);
         try {
             // get the system classpath
@@ -90,6 +117,9 @@ public class ListClasses {
                     log.log(Level.INFO, "classpath token = {0}", token);
                 }
                 File classpathElement = new File(token);
+                if ((indexedSuperClassName != null) && (!classpathElement.isDirectory() || hasIndex(classpathElement, indexedSuperClassName))) {
+                    continue;
+                }
                 classNames.addAll(classpathElement.isDirectory()
                         //?loadClassesFromDir(classpathElement.list(new CLASSFilter()))
                         ? loadClassesFromDir(null, classpathElement, classpathElement)
@@ -104,6 +134,12 @@ public class ListClasses {
         return classNames;
     }
 
+    /** @return true if the class folder carries the index of the subclasses of superClassName */
+    private static boolean hasIndex(File classFolder, String superClassName) {
+        String path = SubclassIndex.INDEX_PATH + superClassName;
+        return new File(classFolder, path.replace('/', File.separatorChar)).isFile();
+    }
+
     private static List<String> loadClassesFromJar(File jarFile) {
         List<String> files = new ArrayList<String>(INIT_SIZE);
         try {
@@ -0,0 +1,96 @@
+/*
+ * ParallelLoop.java
+ *
+ * Shared fork-join helper for splitting index ranges across cores.
+ */
+package net.sf.jaer.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a loop over an index range in parallel on a shared fork-join pool. The
+ * range is split in halves until chunks are at most <code>grain</code> long;
+ * small ranges run directly on the calling thread so callers can use this
+ * unconditionally.
+ * <p>
+ * The loop body gets subranges, not single indices, so that the inner loop
+ * stays a plain primitive loop the JIT can optimize.
+ */
+public final class ParallelLoop {
+
+    /** The loop body, called with disjoint subranges [from,to) of the full range */
+    public interface Body {
+
+        void run(int from, int to);
+    }
+
+    private static ForkJoinPool pool = null;
+
+    private ParallelLoop() {
+    }
+
+    /** @return the shared pool, created on first use with one thread per core */
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return pool;
+    }
+
+    /** @return the number of threads of the shared pool */
+    public static int getParallelism() {
+        return getPool().getParallelism();
+    }
+
+    /**
+     * Runs body over [from,to).
+     *
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param grain the largest chunk that is not split further
+     * @param body the loop body
+     */
+    public static void run(int from, int to, int grain, Body body) {
+        if (grain < 1) {
+            grain = 1;
+        }
+        if ((to - from) <= grain) {
+            if (to > from) {
+                body.run(from, to);
+            }
+            return;
+        }
+        Chunk chunk = new Chunk(from, to, grain, body);
+        if (ForkJoinTask.inForkJoinPool()) {
+            chunk.invoke(); // already inside a pool, just fork
+        } else {
+            getPool().invoke(chunk);
+        }
+    }
+
+    private static final class Chunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final int from, to, grain;
+        private final Body body;
+
+        Chunk(int from, int to, int grain, Body body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if ((to - from) <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Chunk(from, mid, grain, body), new Chunk(mid, to, grain, body));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/* PreferencesSnapshot.java */
+package net.sf.jaer.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * A copy of the key/value pairs of a Preferences node, read in one pass. While
+ * a snapshot is open, e.g. while a FilterChain constructs its filters, the
+ * preference getters of EventFilter read from it instead of making one
+ * Preferences call per key, and the EventFilter putters write through to it.
+ * Preferences written directly to the node are not seen by the snapshot, so it
+ * should only be kept open for a short time.
+ * <p>
+ * Snapshots may be opened more than once for the same node; the snapshot stays
+ * open until each open is matched by a close. The getters parse the stored
+ * strings the same way as Preferences does and are thread safe.
+ */
+public class PreferencesSnapshot {
+
+    private static final Logger log = Logger.getLogger("PreferencesSnapshot");
+    private static final ConcurrentHashMap<Preferences, PreferencesSnapshot> openSnapshots = new ConcurrentHashMap<Preferences, PreferencesSnapshot>();
+    private final Preferences node;
+    private final ConcurrentHashMap<String, String> values;
+    private int openCount = 1;
+    private volatile boolean open = true;
+
+    private PreferencesSnapshot(Preferences node) throws BackingStoreException {
+        this.node = node;
+        String[] keys = node.keys();
+        values = new ConcurrentHashMap<String, String>(keys.length * 2);
+        for (String key : keys) {
+            String value = node.get(key, null);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Opens a snapshot of a node, or returns the snapshot that is already open
+     * for it.
+     *
+     * @param node the preferences node
+     * @return the snapshot, or null if the node could not be read, in which
+     * case there is nothing to close
+     */
+    public static synchronized PreferencesSnapshot open(Preferences node) {
+        PreferencesSnapshot s = openSnapshots.get(node);
+        if (s != null) {
+            s.openCount++;
+            return s;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            s = new PreferencesSnapshot(node);
+            log.fine("read " + s.values.size() + " preferences of " + node.absolutePath() + " in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (BackingStoreException e) {
+            log.warning("could not read preferences of " + node.absolutePath() + ": " + e);
+            return null;
+        } catch (IllegalStateException e) { // node was removed
+            log.warning("could not read preferences of " + node.absolutePath() + ": " + e);
+            return null;
+        }
+        openSnapshots.put(node, s);
+        return s;
+    }
+
+    /**
+     * Returns the open snapshot of a node.
+     *
+     * @param node the preferences node
+     * @return the snapshot, or null if no snapshot of the node is open
+     */
+    public static PreferencesSnapshot get(Preferences node) {
+        if (node == null) {
+            return null;
+        }
+        return openSnapshots.get(node);
+    }
+
+    /**
+     * Closes the snapshot once it has been closed as often as it was opened.
+     */
+    public void close() {
+        synchronized (PreferencesSnapshot.class) {
+            if (--openCount > 0) {
+                return;
+            }
+            open = false;
+            openSnapshots.remove(node, this);
+        }
+        values.clear();
+    }
+
+    /**
+     * @return true until the snapshot is closed
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @return the node this is a snapshot of
+     */
+    public Preferences getNode() {
+        return node;
+    }
+
+    /**
+     * Records a value that was put to the node.
+     *
+     * @param key the full key
+     * @param value the value as stored by Preferences, e.g. from
+     * String.valueOf
+     */
+    public void put(String key, String value) {
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+    }
+
+    public String get(String key, String def) {
+        String v = values.get(key);
+        return v == null ? def : v;
+    }
+
+    public int getInt(String key, int def) {
+        String v = values.get(key);
+        if (v != null) {
+            try {
+                return Integer.parseInt(v);
+            } catch (NumberFormatException e) {
+            }
+        }
+        return def;
+    }
+
+    public long getLong(String key, long def) {
+        String v = values.get(key);
+        if (v != null) {
+            try {
+                return Long.parseLong(v);
+            } catch (NumberFormatException e) {
+            }
+        }
+        return def;
+    }
+
+    public float getFloat(String key, float def) {
+        String v = values.get(key);
+        if (v != null) {
+            try {
+                return Float.parseFloat(v);
+            } catch (NumberFormatException e) {
+            }
+        }
+        return def;
+    }
+
+    public double getDouble(String key, double def) {
+        String v = values.get(key);
+        if (v != null) {
+            try {
+                return Double.parseDouble(v);
+            } catch (NumberFormatException e) {
+            }
+        }
+        return def;
+    }
+
+    public boolean getBoolean(String key, boolean def) {
+        String v = values.get(key);
+        if (v != null) {
+            if (v.equalsIgnoreCase("true")) {
+                return true;
+            } else if (v.equalsIgnoreCase("false")) {
+                return false;
+            }
+        }
+        return def;
+    }
+}
@@ -14,6 +14,11 @@ import net.sf.jaer.DevelopmentStatus;
 
 /**
  * Finds subclasses of a given class name in classes on the loaded classpath.
+ * The subclasses are read from the {@link SubclassIndex} written at build
+ * time, if there is one for the class, and only the class folders that carry
+ * no index, e.g. of user classes, are scanned; otherwise the whole classpath
+ * is scanned, which loads every class on it. Scanned classes are loaded
+ * without initializing them.
  * Classes are cached in a HashMap to reduce cost of subsequent lookups.
  * <p>
  * See http://www.javaworld.com/javaworld/javatips/jw-javatip113.html?page=2
@@ -21,8 +26,6 @@ import net.sf.jaer.DevelopmentStatus;
  * @author tobi
  */
 public class SubclassFinder {
-    // TODO needs a way of caching in preferences the list of classes and the number or checksum of classes,
-    // to reduce startup time, since this lookup of subclasses takes 10s of seconds on some machines
 
     /** List of regexp package names to exclude from search */
     public static final ArrayList<String> exclusionList = new ArrayList();
@@ -60,7 +63,7 @@ public class SubclassFinder {
             Class c;
             if ((c = map.get(name)) == null) {
                 try {
-                    c = Class.forName(name);
+                    c = Class.forName(name, false, SubclassFinder.class.getClassLoader()); // don't run static initializers of classes that are not chosen
                     map.put(name, c);
                 } catch (ClassNotFoundException e) {
                     log.warning("caught " + e + " when trying to get class named " + name);
@@ -112,12 +115,17 @@ public class SubclassFinder {
                 log.warning("tried to find subclasses of null class name, returning empty list");
                 return classes;
             }
+            ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> indexed = readIndex(superClassName);
+            HashSet<String> indexedNames = classNamesOf(indexed);
+            if (indexed != null) {
+                classes.addAll(indexed);
+            }
             publish("Building class list");
             Class superClass = FastClassFinder.forName(superClassName);
-            List<String> allClasses = ListClasses.listClasses();  // expensive, must search all classpath and make big string array list
+            List<String> allClasses = listClassesToScan(superClassName, indexed);  // expensive without index, must search all classpath and make big string array list
             int n = ".class".length();
             Class c = null;
-            if (allClasses.isEmpty()) {
+            if (allClasses.isEmpty() && (indexed == null)) {
                 log.warning("List of subclasses of " + superClassName + " is empty, is there something wrong with your classpath. Do you have \"compile on save\" turned on? (This option can break the SubclassFinder).");
             }
             int i = 0;
@@ -143,6 +151,9 @@ public class SubclassFinder {
                             continue allclassloop;
                         }
                     }
+                    if (indexedNames.contains(s)) {
+                        continue; // already read from the index
+                    }
                     c = FastClassFinder.forName(s);
                     if (c == superClass || c == null) {
                         continue; // don't add the superclass
@@ -176,6 +187,55 @@ public class SubclassFinder {
         }
     }
 
+    /**
+     * Reads the subclasses from the index, without loading them.
+     *
+     * @return the subclasses that are not excluded, or null if the classpath
+     * must be scanned
+     */
+    private static ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> readIndex(String superClassName) {
+        ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> indexed = SubclassIndex.read(superClassName);
+        if (indexed == null) {
+            log.info("no subclass index for " + superClassName + ", scanning classpath");
+            return null;
+        }
+        if (!exclusionList.isEmpty()) {
+            Iterator<ClassNameWithDescriptionAndDevelopmentStatus> i = indexed.iterator();
+            indexloop:
+            while (i.hasNext()) {
+                String s = i.next().getClassName();
+                for (String excl : exclusionList) {
+                    if (s.matches(excl)) {
+                        i.remove();
+                        continue indexloop;
+                    }
+                }
+            }
+        }
+        log.info("read " + indexed.size() + " subclasses of " + superClassName + " from index");
+        return indexed;
+    }
+
+    /** @return the class names of the indexed subclasses, empty if there is no index */
+    private static HashSet<String> classNamesOf(ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> indexed) {
+        HashSet<String> names = new HashSet<String>();
+        if (indexed != null) {
+            for (ClassNameWithDescriptionAndDevelopmentStatus c : indexed) {
+                names.add(c.getClassName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the class files of the whole classpath if there is no index,
+     * otherwise those of the class folders that carry no index, whose
+     * subclasses are missing from it
+     */
+    private static List<String> listClassesToScan(String superClassName, ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> indexed) {
+        return indexed == null ? ListClasses.listClasses() : ListClasses.listUnindexedClasses(superClassName);
+    }
+
     /**
      * Updates a ProgressMonitor while finding subclasses
      *
@@ -203,14 +263,21 @@ public class SubclassFinder {
             log.warning("tried to find subclasses of null class name, returning empty list");
             return classes;
         }
+        ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> indexed = readIndex(superClassName);
+        HashSet<String> indexedNames = classNamesOf(indexed);
+        if (indexed != null) {
+            for (ClassNameWithDescriptionAndDevelopmentStatus c : indexed) {
+                classes.add(c.getClassName());
+            }
+        }
         if (progressMonitor != null) {
             progressMonitor.setNote("Building class list");
         }
         Class superClass = FastClassFinder.forName(superClassName);
-        List<String> allClasses = ListClasses.listClasses();  // expensive, must search all classpath and make big string array list
+        List<String> allClasses = listClassesToScan(superClassName, indexed);  // expensive without index, must search all classpath and make big string array list
         int n = ".class".length();
         Class c = null;
-        if (allClasses.isEmpty()) {
+        if (allClasses.isEmpty() && (indexed == null)) {
             log.warning("List of subclasses of " + superClassName + " is empty, is there something wrong with your classpath. Do you have \"compile on save\" turned on? (This option can break the SubclassFinder).");
         }
         int i = 0;
@@ -240,6 +307,9 @@ public class SubclassFinder {
                         continue allclassloop;
                     }
                 }
+                if (indexedNames.contains(s)) {
+                    continue; // already read from the index
+                }
                 c = FastClassFinder.forName(s); //THIS LINE THROWS ALL THE EXCEPTIONS
                 if (c == superClass || c == null) {
                     continue; // don't add the superclass
@@ -0,0 +1,278 @@
+/* SubclassIndex.java */
+package net.sf.jaer.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.logging.Logger;
+
+import net.sf.jaer.Description;
+import net.sf.jaer.DevelopmentStatus;
+
+/**
+ * Index of the concrete subclasses of the classes that jAER lets the user
+ * choose from, i.e. event filters, chips and hardware interface factories.
+ * The index is written at build time (by the -post-compile target in
+ * build.xml, which runs {@link #main(java.lang.String[])} on the compiled
+ * classes) to resources named {@link #INDEX_PATH} + superclass name, one line
+ * per subclass with its {@link DevelopmentStatus} and {@link Description}.
+ * <p>
+ * {@link SubclassFinder} reads the index instead of listing the whole
+ * classpath and loading every class on it. Index resources of all jars on
+ * the classpath are merged, so a jar of user classes can carry its own index,
+ * made by running this class on its classes folder. Class folders that carry
+ * no index, e.g. of user classes, are still scanned and their subclasses
+ * added to the indexed ones; jars without index are not scanned. If there is no index at all, or if the
+ * system property {@link #SCAN_PROPERTY} is true, SubclassFinder scans the
+ * whole classpath as before.
+ */
+public class SubclassIndex {
+
+    /** Location of the index resources, followed by the fully qualified name of the superclass */
+    public static final String INDEX_PATH = "META-INF/jaer/subclasses/";
+
+    /** Set this system property to true to always scan the classpath, e.g. while developing with compile on save */
+    public static final String SCAN_PROPERTY = "jaer.SubclassFinder.scanClasspath";
+
+    /** Superclasses whose subclasses are indexed by default */
+    public static final String[] INDEXED_SUPERCLASSES = {
+        "net.sf.jaer.eventprocessing.EventFilter2D",
+        "net.sf.jaer.chip.AEChip",
+        "net.sf.jaer.hardwareinterface.HardwareInterfaceFactoryInterface"
+    };
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Logger log = Logger.getLogger("SubclassIndex");
+    private static final EnumMap<DevelopmentStatus.Status, DevelopmentStatus> statusAnnotations = new EnumMap<DevelopmentStatus.Status, DevelopmentStatus>(DevelopmentStatus.Status.class);
+
+    private SubclassIndex() {
+    }
+
+    /**
+     * Reads the indexed subclasses of a class from all index resources on the
+     * classpath. The classes themselves are not loaded.
+     *
+     * @param superClassName the fully qualified name of the superclass
+     * @return the subclasses, or null if there is no index for this class or
+     * scanning is forced by {@link #SCAN_PROPERTY}
+     */
+    public static ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> read(String superClassName) {
+        if (Boolean.getBoolean(SCAN_PROPERTY)) {
+            return null;
+        }
+        ClassLoader loader = SubclassIndex.class.getClassLoader();
+        ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> classes = null;
+        HashSet<String> names = new HashSet<String>();
+        try {
+            Enumeration<URL> urls = loader.getResources(INDEX_PATH + superClassName);
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                if (classes == null) {
+                    classes = new ArrayList<ClassNameWithDescriptionAndDevelopmentStatus>(1000);
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), UTF8));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        ClassNameWithDescriptionAndDevelopmentStatus c = parse(line);
+                        if ((c != null) && names.add(c.getClassName())) {
+                            classes.add(c);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        } catch (IOException e) {
+            log.warning("reading subclass index of " + superClassName + " caught " + e + ", will scan classpath");
+            return null;
+        }
+        return classes;
+    }
+
+    private static ClassNameWithDescriptionAndDevelopmentStatus parse(String line) {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return null;
+        }
+        String[] fields = line.split("\t", 3);
+        DevelopmentStatus status = null;
+        String description = null;
+        if ((fields.length > 1) && !fields[1].isEmpty()) {
+            try {
+                status = statusAnnotation(DevelopmentStatus.Status.valueOf(fields[1]));
+            } catch (IllegalArgumentException e) {
+                log.warning("unknown development status in subclass index line " + line);
+            }
+        }
+        if ((fields.length > 2) && !fields[2].isEmpty()) {
+            description = unescape(fields[2]);
+        }
+        return new ClassNameWithDescriptionAndDevelopmentStatus(fields[0], description, status);
+    }
+
+    /** Returns a DevelopmentStatus annotation with the given value, for classes that are not loaded */
+    private static synchronized DevelopmentStatus statusAnnotation(final DevelopmentStatus.Status status) {
+        DevelopmentStatus a = statusAnnotations.get(status);
+        if (a == null) {
+            a = new DevelopmentStatus() {
+                @Override
+                public DevelopmentStatus.Status value() {
+                    return status;
+                }
+
+                @Override
+                public Class<? extends Annotation> annotationType() {
+                    return DevelopmentStatus.class;
+                }
+
+                @Override
+                public String toString() {
+                    return "@" + DevelopmentStatus.class.getName() + "(" + status + ")";
+                }
+            };
+            statusAnnotations.put(status, a);
+        }
+        return a;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\r", "").replace("\n", "\\n");
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if ((ch == '\\') && (i + 1 < s.length())) {
+                char next = s.charAt(++i);
+                sb.append(next == 't' ? '\t' : (next == 'n' ? '\n' : next));
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the index of the concrete subclasses found in a folder of
+     * compiled classes. The classes are loaded without initializing them.
+     *
+     * @param classesDir the root folder of the compiled classes, e.g.
+     * build/classes; the index is written to INDEX_PATH in this folder
+     * @param superClassNames the superclasses to index
+     * @return the number of indexed subclasses
+     * @throws IOException if an index file cannot be written
+     */
+    public static int write(File classesDir, String[] superClassNames) throws IOException {
+        ArrayList<String> names = new ArrayList<String>(10000);
+        listClassFiles(classesDir, "", names);
+        ClassLoader loader = SubclassIndex.class.getClassLoader();
+        File indexDir = new File(classesDir, INDEX_PATH.replace('/', File.separatorChar));
+        if (!indexDir.isDirectory() && !indexDir.mkdirs()) {
+            throw new IOException("could not make folder " + indexDir);
+        }
+
+        int count = 0;
+        for (String superClassName : superClassNames) {
+            Class<?> superClass;
+            try {
+                superClass = Class.forName(superClassName, false, loader);
+            } catch (ClassNotFoundException e) {
+                log.warning("superclass " + superClassName + " not found, not indexing it");
+                continue;
+            }
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(indexDir, superClassName)), UTF8));
+            try {
+                out.print("# concrete subclasses of " + superClassName + ": class name, development status, description\n");
+                for (String name : names) {
+                    Class<?> c;
+                    try {
+                        c = Class.forName(name, false, loader);
+                        if ((c == superClass) || Modifier.isAbstract(c.getModifiers()) || c.isInterface() || !superClass.isAssignableFrom(c)) {
+                            continue;
+                        }
+                    } catch (ClassNotFoundException e) {
+                        continue;
+                    } catch (LinkageError e) { // e.g. missing optional library
+                        continue;
+                    }
+                    ClassNameWithDescriptionAndDevelopmentStatus d = new ClassNameWithDescriptionAndDevelopmentStatus(c);
+                    out.print(name);
+                    out.print('\t');
+                    if (d.getDevelopmentStatus() != null) {
+                        out.print(d.getDevelopmentStatus().value());
+                    }
+                    out.print('\t');
+                    if (d.getDescription() != null) {
+                        out.print(escape(d.getDescription()));
+                    }
+                    out.print('\n');
+                    count++;
+                }
+            } finally {
+                out.close();
+            }
+        }
+        return count;
+    }
+
+    /** Adds the names of the top level classes in dir and its subfolders, skipping inner classes as SubclassFinder does */
+    private static void listClassFiles(File dir, String packagePrefix, ArrayList<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (f.isDirectory()) {
+                if (!name.equals("META-INF")) {
+                    listClassFiles(f, packagePrefix + name + ".", names);
+                }
+            } else if (name.endsWith(".class") && (name.indexOf('$') < 0)) {
+                names.add(packagePrefix + name.substring(0, name.length() - ".class".length()));
+            }
+        }
+    }
+
+    /**
+     * Writes the subclass index; run by the build after compilation.
+     *
+     * @param args the folder of compiled classes, optionally followed by the
+     * superclasses to index (default {@link #INDEXED_SUPERCLASSES}). The
+     * classes must be on the classpath.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("usage: java net.sf.jaer.util.SubclassIndex classesFolder [superclass ...]");
+            System.exit(1);
+        }
+        String[] superClassNames = INDEXED_SUPERCLASSES;
+        if (args.length > 1) {
+            superClassNames = new String[args.length - 1];
+            System.arraycopy(args, 1, superClassNames, 0, superClassNames.length);
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int count = write(new File(args[0]), superClassNames);
+            System.out.println("indexed " + count + " subclasses in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("could not write subclass index: " + e);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * BatchKalmanFilter.java
+ *
+ * Multi-target Kalman filter that keeps all tracks in contiguous primitive arrays.
+ */
+package net.sf.jaer.util.filter;
+
+import java.util.Arrays;
+
+import net.sf.jaer.util.ParallelLoop;
+
+/**
+ * Kalman filters for many 2D point targets, stored and stepped together.
+ * <p>
+ * Each track follows a constant velocity (4 state) or constant acceleration (6
+ * state) model in two axes, observed through a position measurement. With a
+ * diagonal measurement noise and process noise that does not couple the axes,
+ * the 4x4 (6x6) covariance stays block diagonal, so the filter is written out
+ * as two independent 2x2 (3x3) blocks per track. The kernels below are these
+ * blocks expanded into scalar code: no matrix objects, no temporaries and no
+ * general matrix multiplication.
+ * <p>
+ * All tracks live in flat arrays indexed by a slot number returned from
+ * {@link #addTrack}. Measurements are queued with {@link #setMeasurement} and
+ * applied to all tracks in one pass by {@link #step()}, which can optionally
+ * run in parallel over slots.
+ * <p>
+ * Time is in us timestamps; velocities are per second.
+ */
+public class BatchKalmanFilter {
+
+    /** The motion model of all tracks */
+    public enum Model {
+
+        /** state per axis is position, velocity */
+        ConstantVelocity(2),
+        /** state per axis is position, velocity, acceleration */
+        ConstantAcceleration(3);
+
+        /** number of state variables per axis */
+        public final int order;
+
+        Model(int order) {
+            this.order = order;
+        }
+    }
+
+    /** Number of axes, always 2 */
+    public static final int NUM_AXES = 2;
+
+    private final Model model;
+    private final int order, stateStride, covStride, covPerAxis;
+    private int capacity;
+    private int numTracks = 0;
+
+    // per track: state (axis 0 block then axis 1 block), predicted state and covariance upper triangles
+    private float[] x, xp, cov;
+    // per track: variances, timing, queued measurement
+    private float[] processVariance, measurementVariance, z;
+    private int[] lastTime, measurementTime;
+    private boolean[] active, pending;
+    // free slots, used as stack
+    private int[] freeSlots;
+    private int numFree;
+    private int highestSlot = 0;
+
+    private float processNoiseScale0 = 1, processNoiseScale1 = 1;
+    private boolean parallel = false;
+    private int parallelGrain = 64;
+
+    private final ParallelLoop.Body stepBody = new ParallelLoop.Body() {
+        @Override
+        public void run(int from, int to) {
+            stepRange(from, to);
+        }
+    };
+
+    /**
+     * Constructs a new filter.
+     *
+     * @param model the motion model of all tracks
+     * @param capacity the initial number of track slots; grows as needed
+     */
+    public BatchKalmanFilter(Model model, int capacity) {
+        this.model = model;
+        order = model.order;
+        stateStride = NUM_AXES * order;
+        covPerAxis = (order * (order + 1)) / 2;
+        covStride = NUM_AXES * covPerAxis;
+        allocate(Math.max(1, capacity));
+    }
+
+    private void allocate(int newCapacity) {
+        int old = capacity;
+        x = copy(x, newCapacity * stateStride);
+        xp = copy(xp, newCapacity * stateStride);
+        cov = copy(cov, newCapacity * covStride);
+        processVariance = copy(processVariance, newCapacity);
+        measurementVariance = copy(measurementVariance, newCapacity);
+        z = copy(z, newCapacity * NUM_AXES);
+        lastTime = (lastTime == null) ? new int[newCapacity] : Arrays.copyOf(lastTime, newCapacity);
+        measurementTime = (measurementTime == null) ? new int[newCapacity] : Arrays.copyOf(measurementTime, newCapacity);
+        active = (active == null) ? new boolean[newCapacity] : Arrays.copyOf(active, newCapacity);
+        pending = (pending == null) ? new boolean[newCapacity] : Arrays.copyOf(pending, newCapacity);
+        int[] newFree = new int[newCapacity];
+        if (freeSlots != null) {
+            System.arraycopy(freeSlots, 0, newFree, 0, numFree);
+        }
+        freeSlots = newFree;
+        // push new slots in reverse so the lowest is handed out first
+        for (int i = newCapacity - 1; i >= old; i--) {
+            freeSlots[numFree++] = i;
+        }
+        capacity = newCapacity;
+    }
+
+    private static float[] copy(float[] a, int n) {
+        return (a == null) ? new float[n] : Arrays.copyOf(a, n);
+    }
+
+    /**
+     * Starts a new track at rest.
+     *
+     * @param p0 position in axis 0
+     * @param p1 position in axis 1
+     * @param time the timestamp of the initial position in us
+     * @param initialVariance the initial variance of every state variable
+     * @param processVariance the process noise variance
+     * @param measurementVariance the measurement noise variance
+     * @return the slot of the track
+     */
+    public synchronized int addTrack(float p0, float p1, int time, float initialVariance, float processVariance, float measurementVariance) {
+        if (numFree == 0) {
+            allocate(capacity * 2);
+        }
+        int s = freeSlots[--numFree];
+        int xi = s * stateStride;
+        Arrays.fill(x, xi, xi + stateStride, 0);
+        x[xi] = p0;
+        x[xi + order] = p1;
+        System.arraycopy(x, xi, xp, xi, stateStride);
+        int ci = s * covStride;
+        Arrays.fill(cov, ci, ci + covStride, 0);
+        for (int a = 0; a < NUM_AXES; a++) {
+            // diagonal entries of the upper triangle stored row by row
+            int k = ci + (a * covPerAxis);
+            for (int r = 0; r < order; r++) {
+                cov[k] = initialVariance;
+                k += order - r;
+            }
+        }
+        this.processVariance[s] = processVariance;
+        this.measurementVariance[s] = measurementVariance;
+        lastTime[s] = time;
+        active[s] = true;
+        pending[s] = false;
+        numTracks++;
+        if (s >= highestSlot) {
+            highestSlot = s + 1;
+        }
+        return s;
+    }
+
+    /**
+     * Ends a track and frees its slot.
+     *
+     * @param slot the slot returned by addTrack
+     */
+    public synchronized void removeTrack(int slot) {
+        if (!active[slot]) {
+            return;
+        }
+        active[slot] = false;
+        pending[slot] = false;
+        freeSlots[numFree++] = slot;
+        numTracks--;
+    }
+
+    /** Removes all tracks */
+    public synchronized void clear() {
+        Arrays.fill(active, false);
+        Arrays.fill(pending, false);
+        numFree = 0;
+        for (int i = capacity - 1; i >= 0; i--) {
+            freeSlots[numFree++] = i;
+        }
+        numTracks = 0;
+        highestSlot = 0;
+    }
+
+    /**
+     * Queues a position measurement for the next {@link #step()}.
+     *
+     * @param slot the track
+     * @param z0 measured position in axis 0
+     * @param z1 measured position in axis 1
+     * @param time the timestamp of the measurement in us
+     */
+    public void setMeasurement(int slot, float z0, float z1, int time) {
+        z[slot * NUM_AXES] = z0;
+        z[(slot * NUM_AXES) + 1] = z1;
+        measurementTime[slot] = time;
+        pending[slot] = true;
+    }
+
+    /**
+     * Sets the noise variances of a track, e.g. for variance schedules.
+     */
+    public void setVariances(int slot, float processVariance, float measurementVariance) {
+        this.processVariance[slot] = processVariance;
+        this.measurementVariance[slot] = measurementVariance;
+    }
+
+    public float getProcessVariance(int slot) {
+        return processVariance[slot];
+    }
+
+    public float getMeasurementVariance(int slot) {
+        return measurementVariance[slot];
+    }
+
+    /**
+     * Predicts and updates all tracks that have a queued measurement. Tracks
+     * without measurement are left unchanged.
+     */
+    public synchronized void step() {
+        if (parallel) {
+            ParallelLoop.run(0, highestSlot, parallelGrain, stepBody);
+        } else {
+            stepRange(0, highestSlot);
+        }
+    }
+
+    private void stepRange(int from, int to) {
+        for (int s = from; s < to; s++) {
+            if (!active[s] || !pending[s]) {
+                continue;
+            }
+            pending[s] = false;
+            int t = measurementTime[s];
+            float dt = (t - lastTime[s]) * 1e-6f;
+            if (t > lastTime[s]) {
+                lastTime[s] = t;
+            }
+            float q = processVariance[s], r = measurementVariance[s];
+            int xi = s * stateStride, ci = s * covStride, zi = s * NUM_AXES;
+            if (order == 2) {
+                kernelCV(xi, ci, z[zi], dt, q * processNoiseScale0, r);
+                kernelCV(xi + 2, ci + 3, z[zi + 1], dt, q * processNoiseScale1, r);
+            } else {
+                kernelCA(xi, ci, z[zi], dt, q * processNoiseScale0, r);
+                kernelCA(xi + 3, ci + 6, z[zi + 1], dt, q * processNoiseScale1, r);
+            }
+        }
+    }
+
+    /**
+     * Predict and update of one axis of the constant velocity model. State is
+     * p,v; covariance upper triangle is a=Ppp, b=Ppv, c=Pvv. Process noise is
+     * white acceleration, q*[dt^2/2 dt]'[dt^2/2 dt].
+     */
+    private void kernelCV(int xi, int ci, float zm, float dt, float q, float r) {
+        final float[] x = this.x, xp = this.xp, P = cov;
+        float dt2 = dt * dt;
+        // predict
+        float p = x[xi] + (dt * x[xi + 1]);
+        float v = x[xi + 1];
+        float a = P[ci], b = P[ci + 1], c = P[ci + 2];
+        float ap = a + (2 * dt * b) + (dt2 * c) + (q * dt2 * dt2 * 0.25f);
+        float bp = b + (dt * c) + (q * dt2 * dt * 0.5f);
+        float cp = c + (q * dt2);
+        xp[xi] = p;
+        xp[xi + 1] = v;
+        // update with scalar position measurement
+        float sInv = 1 / (ap + r);
+        float k0 = ap * sInv, k1 = bp * sInv;
+        float y = zm - p;
+        x[xi] = p + (k0 * y);
+        x[xi + 1] = v + (k1 * y);
+        P[ci] = ap - (k0 * ap);
+        P[ci + 1] = bp - (k0 * bp);
+        P[ci + 2] = cp - (k1 * bp);
+    }
+
+    /**
+     * Predict and update of one axis of the constant acceleration model. State
+     * is p,v,a; covariance upper triangle is P00 P01 P02 P11 P12 P22. Process
+     * noise is q*g*g' with g=[dt^2/2 dt 1].
+     */
+    private void kernelCA(int xi, int ci, float zm, float dt, float q, float r) {
+        final float[] x = this.x, xp = this.xp, P = cov;
+        float h = 0.5f * dt * dt;
+        // predict state
+        float p = x[xi] + (dt * x[xi + 1]) + (h * x[xi + 2]);
+        float v = x[xi + 1] + (dt * x[xi + 2]);
+        float acc = x[xi + 2];
+        // M = F*P, rows 0 and 1; row 2 of M is row 2 of P
+        float p00 = P[ci], p01 = P[ci + 1], p02 = P[ci + 2], p11 = P[ci + 3], p12 = P[ci + 4], p22 = P[ci + 5];
+        float m00 = p00 + (dt * p01) + (h * p02), m01 = p01 + (dt * p11) + (h * p12), m02 = p02 + (dt * p12) + (h * p22);
+        float m11 = p11 + (dt * p12), m12 = p12 + (dt * p22);
+        // Pp = M*F' + Q, upper triangle
+        float a00 = m00 + (dt * m01) + (h * m02) + (q * h * h);
+        float a01 = m01 + (dt * m02) + (q * h * dt);
+        float a02 = m02 + (q * h);
+        float a11 = m11 + (dt * m12) + (q * dt * dt);
+        float a12 = m12 + (q * dt);
+        float a22 = p22 + q;
+        xp[xi] = p;
+        xp[xi + 1] = v;
+        xp[xi + 2] = acc;
+        // update with scalar position measurement
+        float sInv = 1 / (a00 + r);
+        float k0 = a00 * sInv, k1 = a01 * sInv, k2 = a02 * sInv;
+        float y = zm - p;
+        x[xi] = p + (k0 * y);
+        x[xi + 1] = v + (k1 * y);
+        x[xi + 2] = acc + (k2 * y);
+        P[ci] = a00 - (k0 * a00);
+        P[ci + 1] = a01 - (k0 * a01);
+        P[ci + 2] = a02 - (k0 * a02);
+        P[ci + 3] = a11 - (k1 * a01);
+        P[ci + 4] = a12 - (k1 * a02);
+        P[ci + 5] = a22 - (k2 * a02);
+    }
+
+    /** @return the corrected position of a track in an axis */
+    public float getPosition(int slot, int axis) {
+        return x[(slot * stateStride) + (axis * order)];
+    }
+
+    /** @return the corrected velocity of a track in an axis, per second */
+    public float getVelocity(int slot, int axis) {
+        return x[(slot * stateStride) + (axis * order) + 1];
+    }
+
+    /** @return the corrected acceleration, or 0 for the constant velocity model */
+    public float getAcceleration(int slot, int axis) {
+        return order < 3 ? 0 : x[(slot * stateStride) + (axis * order) + 2];
+    }
+
+    /** @return the position predicted by the last step before the measurement update */
+    public float getPredictedPosition(int slot, int axis) {
+        return xp[(slot * stateStride) + (axis * order)];
+    }
+
+    /** @return the position variance of a track in an axis */
+    public float getPositionVariance(int slot, int axis) {
+        return cov[(slot * covStride) + (axis * covPerAxis)];
+    }
+
+    public boolean isActive(int slot) {
+        return (slot < capacity) && active[slot];
+    }
+
+    public int getNumTracks() {
+        return numTracks;
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * Scales the process noise per axis, e.g. 0 for an axis along which
+     * targets are not expected to accelerate.
+     */
+    public void setProcessNoiseAxisScale(float scale0, float scale1) {
+        processNoiseScale0 = scale0;
+        processNoiseScale1 = scale1;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /** @param parallel true to step tracks on all cores, worthwhile for hundreds of tracks */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchKalmanFilter " + model + " numTracks=" + numTracks + " capacity=" + capacity;
+    }
+}
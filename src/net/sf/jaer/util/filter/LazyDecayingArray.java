@@ -0,0 +1,291 @@
+/*
+ * LazyDecayingArray.java
+ *
+ * Array of exponentially decaying accumulators for rate maps and histograms.
+ */
+package net.sf.jaer.util.filter;
+
+import java.util.Arrays;
+
+/**
+ * An array of leaky accumulators that all decay exponentially with the same
+ * time constant, e.g. the bins of a decaying histogram or the cells of a
+ * per-pixel event rate map.
+ * <p>
+ * Each entry carries the time it was last touched and decay is applied only
+ * when the entry is read or added to, so adding an event costs O(1) no matter
+ * how many entries there are and no periodic sweep over the array is needed.
+ * The decayed sum of all entries is kept up to date the same way, so a
+ * normalized histogram can be read without summing the bins. Decay factors are
+ * interpolated from a table rather than computed with Math.exp on each access.
+ * <p>
+ * Time is measured in arbitrary integer ticks supplied by the caller, e.g.
+ * event timestamps in us or a packet counter. Time running backwards (e.g. a
+ * rewound recording) is treated as no elapsed time; call {@link #reset()} or
+ * {@link #setTime(int)} in that case.
+ * <p>
+ * When every unit added represents one event, an entry with time constant
+ * tau converges to rate*tau, so {@link #getRate(int, int)} returns the event
+ * rate per tick.
+ */
+public class LazyDecayingArray {
+
+    /** Number of decay table entries per time constant */
+    private static final int TABLE_STEPS_PER_TAU = 256;
+    /** Decay table covers this many time constants, beyond that the decay factor is 0 */
+    private static final int TABLE_NUM_TAU = 16;
+    private static final float[] decayTable = new float[(TABLE_STEPS_PER_TAU * TABLE_NUM_TAU) + 1];
+
+    static {
+        for (int i = 0; i < decayTable.length; i++) {
+            decayTable[i] = (float) Math.exp(-(double) i / TABLE_STEPS_PER_TAU);
+        }
+        decayTable[decayTable.length - 1] = 0;
+    }
+
+    /** Global gain is folded back into the entries when it leaves this range */
+    private static final float MIN_GAIN = 1e-18f, MAX_GAIN = 1e18f;
+
+    private final float[] values;
+    private final int[] lastUpdateTimes;
+    /** All stored values are multiplied by gain, so scaling every entry is O(1) */
+    private float gain = 1;
+    private float total = 0;
+    private int totalTime = 0;
+
+    private float tau = Float.POSITIVE_INFINITY;
+    private float tableScale = 0;
+
+    /**
+     * Constructs a new array with all entries zero and no decay.
+     *
+     * @param size the number of entries
+     */
+    public LazyDecayingArray(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative, got " + size);
+        }
+        values = new float[size];
+        lastUpdateTimes = new int[size];
+    }
+
+    /** Zeros all entries. */
+    public void reset() {
+        Arrays.fill(values, 0);
+        Arrays.fill(lastUpdateTimes, 0);
+        gain = 1;
+        total = 0;
+        totalTime = 0;
+    }
+
+    /**
+     * Sets the decay time constant.
+     *
+     * @param tau the time constant in ticks. Float.POSITIVE_INFINITY (or NaN)
+     * disables decay, 0 keeps no memory of values from earlier ticks.
+     */
+    public void setTau(float tau) {
+        if (Float.isNaN(tau) || (tau < 0)) {
+            tau = Float.POSITIVE_INFINITY;
+        }
+        this.tau = tau;
+        if (Float.isInfinite(tau)) {
+            tableScale = 0;
+        } else if (tau == 0) {
+            tableScale = Float.POSITIVE_INFINITY;
+        } else {
+            tableScale = TABLE_STEPS_PER_TAU / tau;
+        }
+    }
+
+    /**
+     * Sets the decay so that entries are multiplied by <code>factor</code>
+     * each tick.
+     *
+     * @param factor the decay factor per tick, 0 for no memory and 1 for no decay
+     */
+    public void setDecayFactorPerTick(float factor) {
+        if (factor >= 1) {
+            setTau(Float.POSITIVE_INFINITY);
+        } else if (factor <= 0) {
+            setTau(0);
+        } else {
+            setTau((float) (-1 / Math.log(factor)));
+        }
+    }
+
+    /** @return the decay time constant in ticks */
+    public float getTau() {
+        return tau;
+    }
+
+    /**
+     * @param dt the elapsed time in ticks
+     * @return the factor by which a value decays over dt ticks
+     */
+    public float decay(int dt) {
+        if ((dt <= 0) || (tableScale == 0)) {
+            return 1;
+        }
+        float idx = dt * tableScale;
+        if (idx >= (decayTable.length - 1)) {
+            return 0;
+        }
+        int j = (int) idx;
+        float f = idx - j;
+        return decayTable[j] + (f * (decayTable[j + 1] - decayTable[j])); // interpolate so frequent small steps are not biased
+    }
+
+    /**
+     * Adds to an entry.
+     *
+     * @param i the entry index
+     * @param weight the amount to add, may be negative
+     * @param time the current time in ticks
+     * @return the new value of the entry
+     */
+    public float add(int i, float weight, int time) {
+        float v = (values[i] * decay(time - lastUpdateTimes[i])) + (weight / gain);
+        values[i] = v;
+        lastUpdateTimes[i] = time;
+        total = (total * decay(time - totalTime)) + weight;
+        if (time > totalTime) {
+            totalTime = time;
+        }
+        return v * gain;
+    }
+
+    /**
+     * Multiplies one entry by a factor.
+     *
+     * @param i the entry index
+     * @param factor the multiplier
+     * @param time the current time in ticks
+     * @return the new value of the entry
+     */
+    public float scale(int i, float factor, int time) {
+        float old = get(i, time);
+        float v = old * factor;
+        values[i] = v / gain;
+        lastUpdateTimes[i] = time;
+        total = (total * decay(time - totalTime)) + (v - old);
+        if (time > totalTime) {
+            totalTime = time;
+        }
+        return v;
+    }
+
+    /**
+     * Multiplies all entries by a factor in constant time.
+     *
+     * @param factor the multiplier, 0 clears the array
+     */
+    public void scaleAll(float factor) {
+        if (factor == 0) {
+            Arrays.fill(values, 0);
+            gain = 1;
+            total = 0;
+            return;
+        }
+        gain *= factor;
+        total *= factor;
+        if ((Math.abs(gain) < MIN_GAIN) || (Math.abs(gain) > MAX_GAIN)) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] *= gain;
+            }
+            gain = 1;
+        }
+    }
+
+    /**
+     * Returns the decayed value of an entry without modifying it.
+     *
+     * @param i the entry index
+     * @param time the current time in ticks
+     * @return the value
+     */
+    public float get(int i, int time) {
+        return values[i] * decay(time - lastUpdateTimes[i]) * gain;
+    }
+
+    /**
+     * Returns the event rate of an entry, assuming each unit added is one
+     * event.
+     *
+     * @param i the entry index
+     * @param time the current time in ticks
+     * @return the rate in events per tick, or 0 if decay is disabled
+     */
+    public float getRate(int i, int time) {
+        if ((tau == 0) || Float.isInfinite(tau)) {
+            return 0;
+        }
+        return get(i, time) / tau;
+    }
+
+    /**
+     * @param time the current time in ticks
+     * @return the decayed sum of all entries
+     */
+    public float getTotal(int time) {
+        return total * decay(time - totalTime);
+    }
+
+    /**
+     * Scans for the largest entry. This is O(size) and meant for display, not
+     * for per-event use.
+     *
+     * @param time the current time in ticks
+     * @return the index of the largest entry, or -1 if the array is empty
+     */
+    public int getMaxIndex(int time) {
+        int maxi = -1;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < values.length; i++) {
+            float v = get(i, time);
+            if (v > max) {
+                max = v;
+                maxi = i;
+            }
+        }
+        return maxi;
+    }
+
+    /**
+     * Restarts the time base, e.g. after a recording is rewound. All entries
+     * keep their value at the latest time seen and continue decaying from
+     * <code>time</code>. This is O(size).
+     *
+     * @param time the new current time in ticks
+     */
+    public void setTime(int time) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= decay(totalTime - lastUpdateTimes[i]);
+            lastUpdateTimes[i] = time;
+        }
+        totalTime = time;
+    }
+
+    /**
+     * @param i the entry index
+     * @return the time the entry was last added to or scaled
+     */
+    public int getLastUpdateTime(int i) {
+        return lastUpdateTimes[i];
+    }
+
+    /** @return the most recent time passed to add or scale */
+    public int getLastTime() {
+        return totalTime;
+    }
+
+    /** @return the number of entries */
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public String toString() {
+        return "LazyDecayingArray size=" + values.length + " tau=" + tau;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * FastParticleFilter.java
+ */
+package net.sf.jaer.util.filter.ParticleFilter;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.sf.jaer.util.ParallelLoop;
+
+/**
+ * A particle filter that keeps all particles in primitive arrays.
+ * <p>
+ * Unlike {@link ParticleFilter}, which holds a list of particle objects and
+ * evaluates them one by one through {@link ParticleEvaluator} callbacks, this
+ * filter stores the state as one array per dimension (state[d][i]) plus a
+ * weight array, and hands whole ranges of particles to a
+ * {@link ParticleMotionModel} and {@link ParticleMeasurementModel}. Resampling
+ * is systematic and done in place, so after construction a predict / update /
+ * resample cycle allocates nothing. Prediction and likelihood evaluation can
+ * optionally be split across cores.
+ * <p>
+ * Typical use per packet:
+ * <pre>
+ * pf.predict(motion);
+ * double sum = pf.update(measurement);
+ * if (sum &gt; threshold) pf.resample();
+ * x = pf.getMean(0);
+ * </pre>
+ */
+public class FastParticleFilter {
+
+    private final int stateDim;
+    private int numParticles;
+    private double[][] state;
+    private double[] weights;
+    private double[] likelihoods;
+    private int[] counts;
+    private Random random = new Random();
+    private boolean parallel = false;
+    private int parallelGrain = 512;
+
+    /**
+     * Constructs a new filter with all particles at the origin and uniform
+     * weights.
+     *
+     * @param numParticles the number of particles
+     * @param stateDim the number of state dimensions, e.g. 2 for x,y
+     */
+    public FastParticleFilter(int numParticles, int stateDim) {
+        if (stateDim < 1) {
+            throw new IllegalArgumentException("stateDim must be at least 1, got " + stateDim);
+        }
+        this.stateDim = stateDim;
+        state = new double[stateDim][0];
+        weights = new double[0];
+        setParticleCount(numParticles);
+    }
+
+    /**
+     * Sets the number of particles. Storage is only reallocated when the
+     * number grows beyond the current capacity. New particles start at the
+     * origin; all weights are reset to uniform.
+     *
+     * @param n the number of particles
+     */
+    public final void setParticleCount(int n) {
+        if (n < 1) {
+            n = 1;
+        }
+        if (n > weights.length) {
+            for (int d = 0; d < stateDim; d++) {
+                state[d] = Arrays.copyOf(state[d], n);
+            }
+            weights = new double[n];
+            likelihoods = new double[n];
+            counts = new int[n];
+        }
+        numParticles = n;
+        Arrays.fill(weights, 0, n, 1.0 / n);
+    }
+
+    public int getParticleCount() {
+        return numParticles;
+    }
+
+    public int getStateDim() {
+        return stateDim;
+    }
+
+    /**
+     * Returns the state array of one dimension. Only the first
+     * {@link #getParticleCount()} entries are valid; the array may be
+     * replaced when the particle count grows.
+     *
+     * @param d the dimension
+     * @return the array, indexed by particle
+     */
+    public double[] getState(int d) {
+        return state[d];
+    }
+
+    public double getState(int i, int d) {
+        return state[d][i];
+    }
+
+    public void setState(int i, int d, double value) {
+        state[d][i] = value;
+    }
+
+    /** @return the normalized weights, indexed by particle */
+    public double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Places all particles around a point with gaussian spread and resets the
+     * weights to uniform.
+     *
+     * @param mean the center, one value per dimension
+     * @param sigma the standard deviation in each dimension
+     */
+    public void initGaussian(double[] mean, double sigma) {
+        for (int d = 0; d < stateDim; d++) {
+            double[] s = state[d];
+            for (int i = 0; i < numParticles; i++) {
+                s[i] = mean[d] + (sigma * random.nextGaussian());
+            }
+        }
+        Arrays.fill(weights, 0, numParticles, 1.0 / numParticles);
+    }
+
+    /**
+     * Propagates all particles through the motion model.
+     *
+     * @param model the motion model
+     */
+    public void predict(final ParticleMotionModel model) {
+        if (parallel) {
+            ParallelLoop.run(0, numParticles, parallelGrain, new ParallelLoop.Body() {
+                @Override
+                public void run(int from, int to) {
+                    model.predict(state, from, to, ThreadLocalRandom.current());
+                }
+            });
+        } else {
+            model.predict(state, 0, numParticles, random);
+        }
+    }
+
+    /**
+     * Multiplies the weights by the measurement likelihood and normalizes
+     * them. If all particles have zero likelihood the weights are reset to
+     * uniform.
+     *
+     * @param model the measurement model
+     * @return the sum of the raw likelihoods over all particles, a measure of
+     * how well the particles explain the measurement
+     */
+    public double update(final ParticleMeasurementModel model) {
+        final int n = numParticles;
+        if (parallel) {
+            ParallelLoop.run(0, n, parallelGrain, new ParallelLoop.Body() {
+                @Override
+                public void run(int from, int to) {
+                    model.likelihood(state, likelihoods, from, to);
+                }
+            });
+        } else {
+            model.likelihood(state, likelihoods, 0, n);
+        }
+        final double[] w = weights, l = likelihoods;
+        double likelihoodSum = 0, weightSum = 0;
+        for (int i = 0; i < n; i++) {
+            likelihoodSum += l[i];
+            double wi = w[i] * l[i];
+            w[i] = wi;
+            weightSum += wi;
+        }
+        if (weightSum > 0) {
+            double scale = 1 / weightSum;
+            for (int i = 0; i < n; i++) {
+                w[i] *= scale;
+            }
+        } else {
+            Arrays.fill(w, 0, n, 1.0 / n);
+        }
+        return likelihoodSum;
+    }
+
+    /** @return the effective sample size 1/sum(w^2), between 1 and the particle count */
+    public double getEffectiveSampleSize() {
+        double sum = 0;
+        for (int i = 0; i < numParticles; i++) {
+            sum += weights[i] * weights[i];
+        }
+        return sum > 0 ? 1 / sum : 0;
+    }
+
+    /**
+     * Systematic resampling in place. Each particle is copied as many times as
+     * a single uniformly offset comb of N teeth hits its weight interval;
+     * particles that are not selected are overwritten by the extra copies.
+     * Weights are reset to uniform.
+     */
+    public void resample() {
+        final int n = numParticles;
+        final double[] w = weights;
+        final int[] c = counts;
+        Arrays.fill(c, 0, n, 0);
+        double step = 1.0 / n;
+        double u = random.nextDouble() * step;
+        double cumulative = w[0];
+        int i = 0;
+        for (int j = 0; j < n; j++) {
+            double target = u + (j * step);
+            while ((target > cumulative) && (i < (n - 1))) {
+                i++;
+                cumulative += w[i];
+            }
+            c[i]++;
+        }
+        int dead = 0;
+        for (i = 0; i < n; i++) {
+            for (int k = 1; k < c[i]; k++) {
+                while (c[dead] != 0) {
+                    dead++;
+                }
+                for (int d = 0; d < stateDim; d++) {
+                    state[d][dead] = state[d][i];
+                }
+                c[dead] = -1; // filled
+            }
+        }
+        Arrays.fill(w, 0, n, step);
+    }
+
+    /**
+     * @param d the dimension
+     * @return the weighted mean of the particles in dimension d
+     */
+    public double getMean(int d) {
+        final double[] s = state[d];
+        double sum = 0;
+        for (int i = 0; i < numParticles; i++) {
+            sum += weights[i] * s[i];
+        }
+        return sum;
+    }
+
+    /** @return the random generator used in serial mode */
+    public Random getRandom() {
+        return random;
+    }
+
+    /** @param random the random generator to use in serial mode, e.g. a seeded one for reproducible runs */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Enables splitting prediction and likelihood evaluation across cores.
+     * Only worthwhile for thousands of particles or expensive measurement
+     * models.
+     *
+     * @param parallel true to evaluate in parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public int getParallelGrain() {
+        return parallelGrain;
+    }
+
+    /** @param parallelGrain the smallest number of particles handed to one thread */
+    public void setParallelGrain(int parallelGrain) {
+        this.parallelGrain = parallelGrain < 1 ? 1 : parallelGrain;
+    }
+
+    @Override
+    public String toString() {
+        return "FastParticleFilter numParticles=" + numParticles + " stateDim=" + stateDim + " parallel=" + parallel;
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * ParticleMeasurementModel.java
+ */
+package net.sf.jaer.util.filter.ParticleFilter;
+
+/**
+ * Primitive measurement model for {@link FastParticleFilter}. Computes the
+ * likelihood of a range of particles into a caller supplied array.
+ * Implementations must be safe to call concurrently on disjoint ranges when
+ * the filter runs in parallel mode.
+ */
+public interface ParticleMeasurementModel {
+
+    /**
+     * Computes the measurement likelihood of particles [from,to).
+     *
+     * @param state the particle state, state[d][i] is dimension d of particle i
+     * @param likelihood the output, likelihood[i] for particle i
+     * @param from first particle, inclusive
+     * @param to last particle, exclusive
+     */
+    void likelihood(double[][] state, double[] likelihood, int from, int to);
+}
@@ -0,0 +1,27 @@
+/*
+ * ParticleMotionModel.java
+ */
+package net.sf.jaer.util.filter.ParticleFilter;
+
+import java.util.Random;
+
+/**
+ * Primitive motion model for {@link FastParticleFilter}. Propagates a range of
+ * particles in place, so no per-particle objects or boxed results are created.
+ *
+ * @see ParticleEvaluator for the object based variant used by ParticleFilter
+ */
+public interface ParticleMotionModel {
+
+    /**
+     * Draws the next state of particles [from,to) from the proposal
+     * distribution.
+     *
+     * @param state the particle state, state[d][i] is dimension d of particle i
+     * @param from first particle, inclusive
+     * @param to last particle, exclusive
+     * @param random the random generator to use; in parallel mode each thread
+     * gets its own
+     */
+    void predict(double[][] state, int from, int to, Random random);
+}
@@ -4,22 +4,28 @@
  */
 package net.sf.jaer.util.histogram;
 
-import java.util.Arrays;
+import net.sf.jaer.util.filter.LazyDecayingArray;
 
 /**
  *
  * @author matthias
  * 
  * The DecayingHistogram is a histogram providing methods to let its values
- * decay over time.
+ * decay over time. Values either decay explicitly through {@link #decay(double)}
+ * or continuously with time constant {@link #setTau(float)} when they are added
+ * with {@link #add(int, int)}. Both kinds of decay are applied lazily, so
+ * neither costs a pass over the bins.
  */
 public class DecayingHistogram extends AbstractHistogram {
     /** Stores the values of the bins. */
-    private float[] bins;
+    private LazyDecayingArray bins;
     
     /** Stores the number of values in the histogram. */
     private float N;
     
+    /** The time of the last value added, all values are read at this time. */
+    private int lastTime;
+    
     /** The end of the histogram. */
     private int end;
     
@@ -46,7 +52,22 @@ public class DecayingHistogram extends AbstractHistogram {
     
     @Override
     public void add(int value) {
+        add(value, this.lastTime);
+    }
+    
+    /**
+     * Adds a value at a given time. Older values are decayed with the time
+     * constant set by {@link #setTau(float)} before this one is added.
+     * 
+     * @param value the value
+     * @param timestamp the time, e.g. in us
+     */
+    public void add(int value, int timestamp) {
         if (this.start <= value && this.end >= value) {
+            this.N = this.N * this.bins.decay(timestamp - this.lastTime);
+            if (timestamp - this.lastTime > 0) {
+                this.lastTime = timestamp;
+            }
             int index = (value - this.start) / step;
             
             for (int i = -this.window; i <= this.window; i++) {
@@ -54,11 +75,11 @@ public class DecayingHistogram extends AbstractHistogram {
                 if (current < 0) {
                     current = 0;
                 }
-                else if (current >= this.bins.length) {
-                    current = this.bins.length - 1;
+                else if (current >= this.bins.size()) {
+                    current = this.bins.size() - 1;
                 }
                 
-                this.bins[current] += this.gaussian[i + this.window];
+                this.bins.add(current, this.gaussian[i + this.window], timestamp);
             }
             N++;
         }
@@ -67,7 +88,7 @@ public class DecayingHistogram extends AbstractHistogram {
     @Override
     public float get(int index){
         if (index < 0 && index >= this.nBins) return 0;
-        return this.bins[index];
+        return this.bins.get(index, this.lastTime);
     }
     
     @Override
@@ -75,7 +96,7 @@ public class DecayingHistogram extends AbstractHistogram {
         if (this.N == 0) return 0;
         if (index < 0 && index >= this.nBins) return 0;
         
-        return this.bins[index] / this.N;
+        return this.bins.get(index, this.lastTime) / this.N;
     }
     
     @Override
@@ -86,31 +107,46 @@ public class DecayingHistogram extends AbstractHistogram {
     /**
      * This methods is used to decay the histograms values uniformly. This is
      * done by substracting a value from the histogram which is then
-     * substracted from the bins according their weights.
+     * substracted from the bins according their weights. The bins are scaled
+     * in constant time.
      * 
      * @param value The value that has to be substracted from the histogram.
      */
     public void decay(double value) {
         if (value * 10 > N) return;
         
-        value = (N - value) / N;
-        N = 0;
-        for (int i = 0; i < this.bins.length; i++) {
-            this.bins[i] -= value * this.bins[i];
-            N += this.bins[i];
-        }
+        float factor = (float)((N - value) / N);
+        this.bins.scaleAll(factor);
+        N *= factor;
+    }
+    
+    /**
+     * Sets the time constant of the continuous decay applied by
+     * {@link #add(int, int)}.
+     * 
+     * @param tau the time constant in timestamp ticks, Float.POSITIVE_INFINITY
+     * for no continuous decay
+     */
+    public void setTau(float tau) {
+        this.bins.setTau(tau);
+    }
+    
+    public float getTau() {
+        return this.bins.getTau();
     }
     
     @Override
     public int getSize() {
-        return this.bins.length;
+        return this.bins.size();
     }
     
     @Override
     public void init() {
         super.init();
         
-        this.bins = new float[nBins];
+        float tau = this.bins == null ? Float.POSITIVE_INFINITY : this.bins.getTau();
+        this.bins = new LazyDecayingArray(nBins);
+        this.bins.setTau(tau);
         this.N = 0;
         
         this.end = start + step * nBins;
@@ -119,7 +155,8 @@ public class DecayingHistogram extends AbstractHistogram {
     @Override
     public void reset() {
         this.N = 0;
-        Arrays.fill(this.bins, 0);
+        this.lastTime = 0;
+        this.bins.reset();
     }
     
     @Override
@@ -74,7 +74,15 @@ public class Axon<GlobalParams extends Axon.Globals,PSPtype extends PSP> impleme
         {
 //            Spike ev=new Spike(net.time,preUnit,postLayer.ixLayer);
             
-            PSP psp=new PSPUnitToLayer(sp,glob.useGlobalDelay?glob.delay:delay,this);
+            int d=glob.useGlobalDelay?glob.delay:delay;
+            
+            if (!keepsPSPs())
+            {   // No PSP object needed: the queue stores the delivery itself
+                net.internalBuffer.add(sp.time+d,this,sp,-1);
+                return;
+            }
+            
+            PSP psp=new PSPUnitToLayer(sp,d,this);
             
 //            Spike ev=sp.copyOf();
 //            
@@ -94,6 +102,12 @@ public class Axon<GlobalParams extends Axon.Globals,PSPtype extends PSP> impleme
     {        
     }
     
+    /** Whether postSpike needs the PSP objects of outgoing spikes.  If not, 
+     * deliveries are queued without allocating a PSP per spike. */
+    public boolean keepsPSPs()
+    {   return false;
+    }
+    
     
     
 //    public void sendBackwards(Spike sp,int postUnit)
@@ -59,6 +59,11 @@ public class AxonSTDP<GlobalParams extends AxonSTDP.Globals> extends Axon<Global
             
         }
         
+        @Override
+        public boolean keepsPSPs()
+        {   return isLearningEnabled();
+        }
+        
         
         /** For performance: enable/disable queues */
         public void setSTDPstate()
@@ -24,6 +24,13 @@ public class AxonSpatioTemporal extends AxonSparse<AxonSparse.Globals,PSPUnitToU
         // Fire Ahead!
         if (enable)
         {
+            if (!keepsPSPs())
+            {   final int[] d=delays[sp.addr];
+                for (int i=0; i<d.length; i++)
+                    net.internalBuffer.add(sp.time+d[i],this,sp,i);
+                return;
+            }
+            
             for (int i=0; i<delays[sp.addr].length; i++)
             {
 //                PSPUnitToUnit psp=new PSPUnitToUnit(sp,this,targets[sp.addr][i],delays[sp.addr][i]);
@@ -29,7 +29,7 @@ public class BinThreshStack extends Network<Axon> {
         {
                         
             // Determine whether to read from input or buffer
-            boolean readInput=!inputBuffer.isEmpty() && (internalBuffer.isEmpty() || inputBuffer.peek().hitTime<internalBuffer.peek().hitTime);
+            boolean readInput=!inputBuffer.isEmpty() && (internalBuffer.isEmpty() || inputBuffer.peek().hitTime<internalBuffer.peekTime());
             PSP ev=readInput?inputBuffer.poll():internalBuffer.poll();
             
             // Update current time to time of this event
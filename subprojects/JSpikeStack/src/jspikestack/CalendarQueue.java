@@ -0,0 +1,246 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package jspikestack;
+
+import java.util.Arrays;
+
+/**
+ * Time-bucketed (calendar / timing-wheel) queue of pending post-synaptic
+ * potentials, replacing a PriorityQueue of PSP objects as the network's
+ * internal buffer.
+ *
+ * Entries are kept in parallel primitive arrays per bucket: delivery time,
+ * target number, the axon and the spike it carries (both already existing
+ * objects).  Each bucket covers one time step, so adding and removing an entry
+ * is O(1) without any heap reordering, and entries with equal delivery times
+ * come out in the order they were added.  Entries further in the future than
+ * the wheel spans wait in an unsorted overflow list and are moved onto the
+ * wheel as time approaches them.
+ *
+ * Axon deliveries are handed out in a single reused PSP, so no PSP is
+ * allocated per delivered spike.  Arbitrary PSP objects (e.g. from
+ * axons that keep their PSPs for learning) can be queued as well.
+ */
+final class CalendarQueue {
+
+    /** Number of buckets, a power of 2.  Delays up to this many time steps avoid the overflow list. */
+    static final int NBUCKETS=1024;
+    static final int MASK=NBUCKETS-1;
+
+    private final int[][] times=new int[NBUCKETS][];
+    private final int[][] targets=new int[NBUCKETS][];
+    private final Axon<?,?>[][] axons=new Axon<?,?>[NBUCKETS][];
+    private final Object[][] items=new Object[NBUCKETS][]; // Spike for axon deliveries, PSP otherwise
+    private final int[] heads=new int[NBUCKETS];
+    private final int[] counts=new int[NBUCKETS];
+
+    private int[] ovTimes=new int[16];
+    private int[] ovTargets=new int[16];
+    private Axon<?,?>[] ovAxons=new Axon<?,?>[16];
+    private Object[] ovItems=new Object[16];
+    private int ovCount=0;
+    private int ovMin=Integer.MAX_VALUE;
+
+    /** Time of the bucket at which the search for the next entry starts */
+    private int cursor=0;
+    private int size=0;
+
+    /** Reused to hand out axon deliveries */
+    private final PSPUnitToUnit delivery=new PSPUnitToUnit();
+
+    CalendarQueue()
+    {
+        for (int i=0; i<NBUCKETS; i++)
+        {   times[i]=new int[4];
+            targets[i]=new int[4];
+            axons[i]=new Axon<?,?>[4];
+            items[i]=new Object[4];
+        }
+    }
+
+    public boolean isEmpty()
+    {   return size==0;
+    }
+
+    public int size()
+    {   return size;
+    }
+
+    /** Queue a PSP object */
+    public void add(PSP psp)
+    {   add(psp.hitTime,-1,null,psp);
+    }
+
+    /** Queue the delivery of a spike through an axon.
+     * @param hitTime time at which the spike is delivered
+     * @param ax the axon whose spikeOut will be called on delivery
+     * @param sp the spike
+     * @param targetNumber passed on as PSPUnitToUnit.targetNumber, -1 for axons delivering to a whole layer
+     */
+    public void add(int hitTime,Axon<?,?> ax,Spike sp,int targetNumber)
+    {   add(hitTime,targetNumber,ax,sp);
+    }
+
+    private void add(int hitTime,int target,Axon<?,?> ax,Object item)
+    {
+        if (size==0) // Start the wheel at the first entry
+            cursor=hitTime;
+        else if (hitTime-cursor<0)
+            rewind(hitTime);
+
+        size++;
+        place(hitTime,target,ax,item);
+    }
+
+    /** Put an entry in its bucket, or in the overflow list if it is beyond the span of the wheel */
+    private void place(int hitTime,int target,Axon<?,?> ax,Object item)
+    {
+        if (hitTime-cursor>=NBUCKETS)
+        {   addOverflow(hitTime,target,ax,item);
+            return;
+        }
+
+        int b=hitTime&MASK;
+        if (heads[b]==counts[b]) // Bucket used up: start from its beginning
+            heads[b]=counts[b]=0;
+        int n=counts[b];
+        if (n==times[b].length)
+        {   int len=n*2;
+            times[b]=Arrays.copyOf(times[b],len);
+            targets[b]=Arrays.copyOf(targets[b],len);
+            axons[b]=Arrays.copyOf(axons[b],len);
+            items[b]=Arrays.copyOf(items[b],len);
+        }
+        times[b][n]=hitTime;
+        targets[b][n]=target;
+        axons[b][n]=ax;
+        items[b][n]=item;
+        counts[b]=n+1;
+    }
+
+    /** Move the start of the wheel back to an earlier time.  This happens when
+     * the cursor has already been advanced past an input that is delivered
+     * before the next queued entry.  The buckets that now cover the times
+     * between the new and old cursor hold entries from the far end of the old
+     * span, which go to the overflow list.  */
+    private void rewind(int time)
+    {
+        int n=Math.min(cursor-time,NBUCKETS);
+        for (int k=0; k<n; k++)
+        {   int b=(time+k)&MASK;
+            for (int i=heads[b]; i<counts[b]; i++)
+            {   addOverflow(times[b][i],targets[b][i],axons[b][i],items[b][i]);
+                axons[b][i]=null;
+                items[b][i]=null;
+            }
+            heads[b]=0;
+            counts[b]=0;
+        }
+        cursor=time;
+    }
+
+    private void addOverflow(int hitTime,int target,Axon<?,?> ax,Object item)
+    {
+        if (ovCount==ovTimes.length)
+        {   int len=ovCount*2;
+            ovTimes=Arrays.copyOf(ovTimes,len);
+            ovTargets=Arrays.copyOf(ovTargets,len);
+            ovAxons=Arrays.copyOf(ovAxons,len);
+            ovItems=Arrays.copyOf(ovItems,len);
+        }
+        ovTimes[ovCount]=hitTime;
+        ovTargets[ovCount]=target;
+        ovAxons[ovCount]=ax;
+        ovItems[ovCount]=item;
+        ovCount++;
+        if (hitTime-ovMin<0)
+            ovMin=hitTime;
+    }
+
+    /** Move the overflow entries that are now within the span of the wheel onto it */
+    private void migrateOverflow()
+    {
+        int n=ovCount;
+        ovCount=0;
+        ovMin=Integer.MAX_VALUE;
+        for (int i=0; i<n; i++)
+        {   int t=ovTimes[i], target=ovTargets[i];
+            Axon<?,?> ax=ovAxons[i];
+            Object item=ovItems[i];
+            ovAxons[i]=null;
+            ovItems[i]=null;
+            place(t,target,ax,item);
+        }
+    }
+
+    /** Advance the cursor to the next non-empty bucket and return its index */
+    private int headBucket()
+    {
+        if (size==0)
+            throw new java.util.NoSuchElementException("CalendarQueue is empty");
+
+        while (true)
+        {   int b=cursor&MASK;
+            if (heads[b]<counts[b])
+                return b;
+
+            heads[b]=0;
+            counts[b]=0;
+
+            if (size==ovCount) // Wheel is empty, jump to the overflow entries
+            {   cursor=ovMin;
+                migrateOverflow();
+            }
+            else
+            {   cursor++;
+                if (ovCount>0 && ovMin-cursor<NBUCKETS)
+                    migrateOverflow();
+            }
+        }
+    }
+
+    /** Delivery time of the next entry.  The queue must not be empty. */
+    public int peekTime()
+    {   int b=headBucket();
+        return times[b][heads[b]];
+    }
+
+    /** Remove the next entry and return it as a PSP.  The queue must not be 
+     * empty.  Axon deliveries are returned in a PSP that is reused by the next
+     * call, so it must not be kept after it has affected the network.  */
+    public PSP poll()
+    {
+        int b=headBucket();
+        int h=heads[b];
+        Axon<?,?> ax=axons[b][h];
+        Object item=items[b][h];
+        axons[b][h]=null;
+        items[b][h]=null;
+        heads[b]=h+1;
+        size--;
+
+        if (ax==null)
+            return (PSP)item;
+        else
+            return delivery.reuse((Spike)item,times[b][h],ax,targets[b][h]);
+    }
+
+    /** Remove all entries */
+    public void clear()
+    {
+        for (int b=0; b<NBUCKETS; b++)
+        {   Arrays.fill(axons[b],0,counts[b],null);
+            Arrays.fill(items[b],0,counts[b],null);
+            heads[b]=0;
+            counts[b]=0;
+        }
+        Arrays.fill(ovAxons,0,ovCount,null);
+        Arrays.fill(ovItems,0,ovCount,null);
+        ovCount=0;
+        ovMin=Integer.MAX_VALUE;
+        size=0;
+    }
+
+}
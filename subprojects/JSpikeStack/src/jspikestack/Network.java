@@ -42,7 +42,7 @@ public class Network<AxonType extends Axon> implements Serializable {
     
     // These are now set in "implementQueues"    
     transient LinkedBlockingQueue<PSP> inputBuffer;// = new LinkedBlockingQueue();
-    transient PriorityQueue<PSP> internalBuffer;//= new PriorityQueue();
+    transient CalendarQueue internalBuffer;  // Pending PSPs, delivered in order of hitTime
     transient MultiReaderQueue<Spike> outputQueue;//=new MultiReaderQueue();
         
 //    public int delay;
@@ -93,7 +93,7 @@ public class Network<AxonType extends Axon> implements Serializable {
     final void implementQueues()
     {
         inputBuffer = new LinkedBlockingQueue();
-        internalBuffer= new PriorityQueue();
+        internalBuffer= new CalendarQueue();
         outputQueue=new MultiReaderQueue();
         
     }
@@ -556,7 +556,7 @@ public class Network<AxonType extends Axon> implements Serializable {
                     {   
                                       
 
-                        boolean readInput=internalBuffer.isEmpty() || (nextInput.hitTime<internalBuffer.peek().hitTime);
+                        boolean readInput=internalBuffer.isEmpty() || (nextInput.hitTime<internalBuffer.peekTime());
 
                         PSP psp=readInput?nextInput:internalBuffer.poll();              
 
@@ -638,9 +638,9 @@ public class Network<AxonType extends Axon> implements Serializable {
         while (!(inputBuffer.isEmpty()&&(internalBuffer.isEmpty() || liveMode )) && enable)
         {            
             // Determine whether to read from input or buffer
-            boolean readInput=!inputBuffer.isEmpty() && (internalBuffer.isEmpty() || inputBuffer.peek().hitTime<internalBuffer.peek().hitTime);
+            boolean readInput=!inputBuffer.isEmpty() && (internalBuffer.isEmpty() || inputBuffer.peek().hitTime<internalBuffer.peekTime());
             
-            int newtime=readInput?inputBuffer.peek().hitTime:internalBuffer.peek().hitTime;
+            int newtime=readInput?inputBuffer.peek().hitTime:internalBuffer.peekTime();
             
             // Update current time to time of this event
             if (newtime-time<0)
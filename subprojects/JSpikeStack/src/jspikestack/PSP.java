@@ -13,8 +13,14 @@ import java.io.Serializable;
 public abstract class PSP implements Comparable<PSP>, Serializable
 {
     
-    public final Spike sp;
-    public final int hitTime;
+    /* Not final so that the queue can reuse one PSP for deliveries. See 
+     * CalendarQueue.  Treat as final elsewhere. */
+    public Spike sp;
+    public int hitTime;
+    
+    PSP()
+    {
+    }
     
     public PSP(int time)
     {
@@ -11,7 +11,11 @@ package jspikestack;
 public class PSPUnitToLayer extends PSP {
 
     
-    final Axon ax;
+    Axon ax;
+    
+    PSPUnitToLayer()
+    {
+    }
     
     public PSPUnitToLayer(Spike spike,int delay, Axon axi)
     {   super(spike,delay);
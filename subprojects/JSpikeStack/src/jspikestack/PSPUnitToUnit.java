@@ -10,16 +10,31 @@ package jspikestack;
  */
 public class PSPUnitToUnit extends PSPUnitToLayer{
 
-    final int targetNumber;
+    int targetNumber;
     
 //    final AxonBundle ax;
     
+    /** Blank PSP, filled in by {@link #reuse} */
+    PSPUnitToUnit()
+    {
+    }
+    
     public PSPUnitToUnit(Spike spike,Axon axo,int targetNo,int delay)
     {   super(spike,delay,axo);
 //        ax=axo;
         targetNumber=targetNo;
     }
     
+    /** Point this PSP to a new delivery.  Used by the CalendarQueue, which 
+     * hands all axon deliveries to their axon through one reused PSP. */
+    PSPUnitToUnit reuse(Spike spike,int time,Axon<?,?> axo,int targetNo)
+    {   sp=spike;
+        hitTime=time;
+        ax=axo;
+        targetNumber=targetNo;
+        return this;
+    }
+    
 //    @Override
 //    public void affect(SpikeStack net) {
 //        ax.spikeOut(this);